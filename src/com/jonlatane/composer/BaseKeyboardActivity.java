@@ -15,6 +15,7 @@ import android.view.Window;
 import android.view.WindowManager;
 
 import com.jonlatane.composer.audio.AudioTrackCache;
+import com.jonlatane.composer.audio.DiskPcmCache;
 import com.jonlatane.composer.audio.generator.HarmonicOvertoneSeriesGenerator;
 import com.jonlatane.composer.io.ToneControllerFragment;
 import com.jonlatane.composer.io.TwelthKeyboardFragment;
@@ -24,6 +25,7 @@ import com.jonlatane.composer.music.harmony.Key;
 import com.jonlatane.composer.music.harmony.PitchSet;
 import com.readystatesoftware.systembartint.SystemBarTintManager;
 
+import java.io.File;
 import java.util.Arrays;
 
 /**
@@ -90,6 +92,9 @@ public class BaseKeyboardActivity extends Activity
 		for (int i = -25; i < 25; i++)
 			Log.i(TAG, "Octavetest: " + i + " > " + Chord.TWELVETONE.octave(i));
 		
+		// Keep rendered notes between runs, before the keyboard starts rendering any
+		DiskPcmCache.setDirectory(new File(getCacheDir(), "notes"));
+		
 		// Load layout
 		setContentView(R.layout.activity_interactive);
 		
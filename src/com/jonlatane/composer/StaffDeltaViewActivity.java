@@ -7,6 +7,8 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.RelativeLayout;
 
+import com.jonlatane.composer.audio.render.ScoreTimeline;
+import com.jonlatane.composer.io.PerformanceRecorder;
 import com.jonlatane.composer.music.Rational;
 import com.jonlatane.composer.music.Score;
 import com.jonlatane.composer.music.Score.Staff.StaffDelta;
@@ -16,7 +18,12 @@ import com.jonlatane.composer.view.StaffDeltaView;
  * Created by jonlatane on 6/28/15.
  */
 public class StaffDeltaViewActivity extends BaseKeyboardActivity {
+    /** The tempo takes are recorded at */
+    private static final double QUARTERS_PER_MINUTE = 120;
+
     protected RelativeLayout rootView;
+    private Score subject;
+    private StaffDeltaView staffDeltaView;
 
 
     /** Called when the activity is first created. */
@@ -35,8 +42,8 @@ public class StaffDeltaViewActivity extends BaseKeyboardActivity {
             }
         });
 
-        StaffDeltaView staffDeltaView = new StaffDeltaView(this);
-        Score subject = Score.twinkleTwinkle();
+        staffDeltaView = new StaffDeltaView(this);
+        subject = Score.twinkleTwinkle();
         Score.testScore(subject);
         StaffDelta staffDelta = subject.getStaff(1).staffDeltaAt(Rational.ONE);
         staffDeltaView.setStaffDelta(staffDelta);
@@ -64,10 +71,38 @@ public class StaffDeltaViewActivity extends BaseKeyboardActivity {
             case R.id.toggleFX:
                 toneController.toggleToneController(keyboard.getView());
                 break;
+            case R.id.toggleRecordAB:
+                toggleRecording(item);
+                break;
             default:
                 break;
         }
 
         return true;
     }
+
+    /**
+     * Start recording what's played on the keyboard from the top of the Score, or stop and write the
+     * take into the first voice of the Staff being shown, chords and all.
+     */
+    private void toggleRecording(final MenuItem item) {
+        PerformanceRecorder recorder = keyboard.getRecorder();
+        if(!recorder.isRecording()) {
+            recorder.setCapturingChords(true);
+            recorder.start(new ScoreTimeline(subject, QUARTERS_PER_MINUTE), Rational.ONE);
+            item.setTitle("Stop");
+        } else {
+            recorder.stop(new PerformanceRecorder.OnTakeReadyListener() {
+                @Override
+                public void onTakeReady(PerformanceRecorder.Take take) {
+                    Score.Staff staff = subject.getStaff(1);
+                    take.writeTo(staff, staff.getVoice(0));
+                    Score.fillEnharmonics(subject);
+                    staffDeltaView.setStaffDelta(staff.staffDeltaAt(Rational.ONE));
+                    staffDeltaView.requestLayout();
+                }
+            });
+            item.setTitle("Rec");
+        }
+    }
 }
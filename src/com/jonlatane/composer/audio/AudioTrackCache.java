@@ -1,18 +1,22 @@
 package com.jonlatane.composer.audio;
 
+import android.media.AudioFormat;
+import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.util.Log;
 import android.util.Pair;
 import android.util.SparseArray;
 
 import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A cache for AudioTrack resources in Android.  Theoretically you should get 32 tracks to do what
  * you will with, minus tracks for what other applications do in the background.  Effectively,
  * 32-note polyphony across whatever you can use to make AudioTracks.
  *
+ * Tracks are requested by the audio control thread and released from the UI, so the methods that
+ * touch the cache are synchronized.
+ *
  * Created by jonlatane on 7/19/15.
  */
 public class AudioTrackCache {
@@ -29,19 +33,17 @@ public class AudioTrackCache {
      *
      * @param n the fundamental frequency
      * @param generator a generator for the track
-     * @return the requested AudioTrack
+     * @return the requested AudioTrack, or null if the system has no track to spare even with the
+     * cache emptied
      */
-    public static AudioTrack getAudioTrackForNote(int n, AudioTrackGenerator generator) {
+    public static synchronized AudioTrack getAudioTrackForNote(int n, AudioTrackGenerator generator) {
         // Find the hashcode of the overtone series
         int generatorHashCode = generator.hashCode();
 
         // cacheLocation.first tells us the instrument/overtone series (via the hash of the Double[])
         // cacheLocation.second tells us the specific note
         Pair<Integer,Integer> cacheLocation = new Pair<Integer,Integer>(generatorHashCode, n);
-
-        // Update list of recently used notes with this first
         recentlyUsedTracks.remove(cacheLocation);
-        recentlyUsedTracks.addFirst(cacheLocation);
 
         // See if this note is in our cache
         SparseArray<AudioTrack> instrumentNotes = trackData.get(cacheLocation.first);
@@ -54,19 +56,102 @@ public class AudioTrackCache {
         // If not, generate it
         if( result == null ) {
             result = generator.getAudioTrackFor(n);
+            if(result == null)
+                return null;
         }
 
         instrumentNotes.put(n, result);
+        // Update list of recently used notes with this first
+        recentlyUsedTracks.addFirst(cacheLocation);
 
         return result;
     }
 
+    /**
+     * @param n the fundamental frequency
+     * @param generator a generator for the track
+     * @return true if the cache already holds a track for the note, so getting it will be fast
+     */
+    public static synchronized boolean isCached(int n, AudioTrackGenerator generator) {
+        SparseArray<AudioTrack> instrumentNotes = trackData.get(generator.hashCode());
+        return instrumentNotes != null && instrumentNotes.get(n) != null;
+    }
+
+    /**
+     * Make a static, looping AudioTrack for the given 16-bit mono PCM.  If the system is out of tracks,
+     * the least recently used tracks in the cache are released until one can be made.
+     *
+     * @param pcm 16-bit little-endian mono PCM at {@link AudioTrackGenerator#NATIVE_OUTPUT_SAMPLE_RATE}
+     * @param loopStart the first frame of the loop
+     * @param loopEnd the frame after the end of the loop
+     * @param audioSessionId the session to attach the track to, or 0 for a new one
+     * @return the new track, or null if one couldn't be made even with the cache emptied
+     */
+    public static AudioTrack newLoopingTrack(byte[] pcm, int loopStart, int loopEnd, int audioSessionId) {
+        return newStaticTrack(pcm, loopStart, loopEnd, audioSessionId);
+    }
+
+    /**
+     * Make a static AudioTrack that plays the given 16-bit mono PCM once.  If the system is out of
+     * tracks, the least recently used tracks in the cache are released until one can be made.
+     *
+     * @param pcm 16-bit little-endian mono PCM at {@link AudioTrackGenerator#NATIVE_OUTPUT_SAMPLE_RATE}
+     * @return the new track, or null if one couldn't be made even with the cache emptied
+     */
+    public static AudioTrack newOneShotTrack(byte[] pcm) {
+        return newStaticTrack(pcm, 0, -1, 0);
+    }
+
+    /**
+     * @param loopEnd the frame after the end of the loop, or -1 to not loop
+     */
+    private static AudioTrack newStaticTrack(byte[] pcm, int loopStart, int loopEnd, int audioSessionId) {
+        // Try to make a new AudioTrack. If not possible, go through our
+        // list of last used notes and
+        // eliminate the LRU and try again, until there's nothing left to eliminate
+        AudioTrack track = null;
+        while (track == null) {
+            try {
+                track = new AudioTrack(AudioManager.STREAM_MUSIC,
+                        AudioTrackGenerator.NATIVE_OUTPUT_SAMPLE_RATE, AudioFormat.CHANNEL_OUT_DEFAULT,
+                        AudioFormat.ENCODING_PCM_16BIT, pcm.length,
+                        AudioTrack.MODE_STATIC, audioSessionId);
+                track.write(pcm, 0, pcm.length);
+                if(loopEnd >= 0)
+                    track.setLoopPoints(loopStart, loopEnd, -1);
+                if(track.getState() != AudioTrack.STATE_INITIALIZED) {
+                    Log.e(TAG, "Track state: " + track.getState());
+                    throw new Exception();
+                }
+            } catch (Throwable e) {
+                if(track != null) {
+                    track.flush();
+                    track.release();
+                    track = null;
+                }
+                if(!hasTracks()) {
+                    Log.e(TAG, "Couldn't make a track with the cache empty", e);
+                    return null;
+                }
+                releaseOne();
+            }
+        }
+        return track;
+    }
+
+    /**
+     * @return true if there are tracks in the cache that {@link #releaseOne} could release
+     */
+    private static synchronized boolean hasTracks() {
+        return !recentlyUsedTracks.isEmpty();
+    }
+
     /**
      * Release all AudioTracks created by this cache
      *
      * @return false unless there was an error
      */
-    public static boolean releaseAll() {
+    public static synchronized boolean releaseAll() {
         boolean result = releaseOne();
         boolean shouldLoopAgain = result;
         while(shouldLoopAgain == true) {
@@ -81,7 +166,7 @@ public class AudioTrackCache {
      * @param generator a generator with a unique hashCode
      * @return true on success
      */
-    public static boolean releaseAll(AudioTrackGenerator generator) {
+    public static synchronized boolean releaseAll(AudioTrackGenerator generator) {
         SparseArray<AudioTrack> instrumentNotes = trackData.get(generator.hashCode());
         if(instrumentNotes == null)
             return true;
@@ -105,7 +190,7 @@ public class AudioTrackCache {
      *
      * @return true if a track was successfully removed
      */
-    public static boolean releaseOne() {
+    public static synchronized boolean releaseOne() {
         boolean result = true;
         try {
             Pair<Integer, Integer> lruNote = recentlyUsedTracks.removeLast();
@@ -118,45 +203,4 @@ public class AudioTrackCache {
         }
         return result;
     }
-
-    public static void normalizeVolumes() {
-        float max = AudioTrack.getMaxVolume();
-        float min = AudioTrack.getMinVolume();
-        float span = max - min;
-
-        //Set<AudioTrack> currentlyPlaying = new HashSet<AudioTrack>();
-        SparseArray<List<AudioTrack>> currentlyPlaying = new SparseArray<List<AudioTrack>>();
-        //for(Map.Entry<Integer,HashMap<Integer, AudioTrack>> e : trackData.entrySet()) {
-        for(int i = 0; i < trackData.size(); i++) {
-            SparseArray<AudioTrack> noteTracks = trackData.valueAt(i);
-            //for(AudioTrack t : e.getValue().values()) {
-            for(int j = 0; j < noteTracks.size(); j++) {
-                AudioTrack t = noteTracks.valueAt(j);
-                if(t.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
-                    int n = trackData.keyAt(i);
-                    List<AudioTrack> l = currentlyPlaying.get(n);
-                    if(l == null) {
-                        l = new LinkedList<AudioTrack>();
-                        currentlyPlaying.put(n,l);
-                    }
-                    l.add(t);
-                }
-            }
-        }
-
-        for(int i = 0; i < currentlyPlaying.size(); i++) {
-            int n = currentlyPlaying.keyAt(i);
-            List<AudioTrack> l = currentlyPlaying.valueAt(i);
-            for(AudioTrack t : l) {
-                // Lower notes are amped up so turn them down a bit with this factor
-                float arctanCurveFactor = (float) (.05 * Math.atan((float)(n+5)/88.0) + .9);
-                // This number between 0 and 1 by which we will increase volume
-                float totalNumNotesRedFactor = (float)( 1 / (float)currentlyPlaying.size());
-                float adjusted = min
-                        + (float)( span * arctanCurveFactor * totalNumNotesRedFactor );
-                Log.i(TAG,max + " " + min + "Normalizing volume to " + adjusted);
-                t.setStereoVolume(adjusted, adjusted);
-            }
-        }
-    }
 }
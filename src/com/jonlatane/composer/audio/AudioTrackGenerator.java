@@ -11,5 +11,31 @@ public interface AudioTrackGenerator {
 
     AudioTrack getAudioTrackFor(int note);
 
+    /**
+     * Render the 16-bit PCM data (little-endian, mono) backing {@link #getAudioTrackFor}.  This must
+     * not touch any AudioTrack resources, so that it may be called from background threads.
+     *
+     * @param note the note, with C4 = 0
+     * @return PCM data for the note
+     */
+    byte[] renderPcmFor(int note);
+
+    /**
+     * Where the loop of {@link #getAudioTrackFor}'s track starts.  What comes before it is played once,
+     * e.g. a sample's attack.
+     *
+     * @param note the note, with C4 = 0
+     * @param numFrames the length of the note's PCM from {@link #renderPcmFor}
+     * @return the first frame of the loop
+     */
+    int getLoopStartFor(int note, int numFrames);
+
+    /**
+     * @param note the note, with C4 = 0
+     * @param numFrames the length of the note's PCM from {@link #renderPcmFor}
+     * @return the frame after the end of the loop, no more than numFrames
+     */
+    int getLoopEndFor(int note, int numFrames);
+
     @Override int hashCode();
 }
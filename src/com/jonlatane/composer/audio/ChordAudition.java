@@ -0,0 +1,245 @@
+package com.jonlatane.composer.audio;
+
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.voice.Envelope;
+import com.jonlatane.composer.audio.voice.GainController;
+import com.jonlatane.composer.music.harmony.Chord;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a whole chord through a single AudioTrack, for auditioning chord suggestions.  The chord is
+ * voiced according to a {@link VoicingStrategy}, each note's PCM is taken from the
+ * {@link NotePcmCache}, and the notes are mixed into one buffer shaped by {@link Envelope#DEFAULT}.
+ * Only one chord plays at a time, so auditioning never takes more than one of the scarce tracks.
+ *
+ * Mixed chords are kept in a small LRU keyed by the chord's pitch classes, root, voicing and the
+ * generator's {@link AudioTrackGenerator#hashCode}, so browsing back and forth through suggestions
+ * mostly replays buffers that are already mixed.  Mixing and playback happen on a background thread,
+ * and only the most recently requested chord is played.
+ */
+public class ChordAudition {
+    private static final String TAG = "ChordAudition";
+
+    /** How a chord's pitch classes are turned into notes */
+    public enum VoicingStrategy {
+        /** Every note within an octave above the root, in the octave below C4 */
+        CLOSE,
+        /** Close voicing with the second note from the top dropped an octave */
+        DROP_2,
+        /** The root an octave below the rest, which are in close voicing without it */
+        OPEN
+    }
+
+    /** How long an audition lasts, including the release */
+    public static final double AUDITION_SECONDS = 1.5;
+    private static final int CACHE_ENTRIES = 24;
+
+    private final AudioTrackGenerator generator;
+    private volatile VoicingStrategy voicing = VoicingStrategy.CLOSE;
+    /** Maps {@link #keyFor} -> mixed 16-bit PCM, least recently used first */
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(CACHE_ENTRIES, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, TAG);
+            result.setDaemon(true);
+            return result;
+        }
+    });
+    /** The track playing the current audition; touched only on the executor's thread */
+    private AudioTrack track = null;
+
+    public ChordAudition(AudioTrackGenerator generator) {
+        this.generator = generator;
+    }
+
+    public VoicingStrategy getVoicing() {
+        return voicing;
+    }
+
+    public void setVoicing(VoicingStrategy voicing) {
+        this.voicing = voicing;
+    }
+
+    /**
+     * Play the given chord, cutting off whatever is being auditioned.  Safe to call from any thread;
+     * if several chords are requested before the first is ready, only the last is played.
+     */
+    public void audition(final Chord c) {
+        final Chord chord = new Chord(c);
+        final VoicingStrategy voicing = this.voicing;
+        final int myGeneration = generation.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(generation.get() != myGeneration)
+                    return;
+                byte[] pcm = getPcmFor(chord, voicing);
+                if(generation.get() != myGeneration || pcm.length == 0)
+                    return;
+                releaseTrack();
+                track = AudioTrackCache.newOneShotTrack(pcm);
+                if(track == null) {
+                    Log.e(TAG, "No track free to audition " + chord);
+                    return;
+                }
+                try {
+                    track.play();
+                } catch(IllegalStateException e) {
+                    Log.e(TAG, "Failed to audition " + chord, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop any audition and give back its track.
+     */
+    public void stop() {
+        generation.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                releaseTrack();
+            }
+        });
+    }
+
+    private void releaseTrack() {
+        if(track == null)
+            return;
+        try {
+            track.stop();
+            track.release();
+        } catch(IllegalStateException e) {
+            // Already released
+        }
+        track = null;
+    }
+
+    private static long keyFor(Chord c, VoicingStrategy voicing, int generatorHashCode) {
+        long mask = 0;
+        for(int pc : c)
+            mask |= 1 << pc;
+        long root = (c.getRoot() == null) ? 15 : c.getRoot();
+        return (((long) generatorHashCode) << 32) | (voicing.ordinal() << 16) | (root << 12) | mask;
+    }
+
+    /**
+     * The mixed audition of the given chord, from the cache if possible.
+     *
+     * @return 16-bit PCM for the chord, empty if the chord has no notes
+     */
+    public byte[] getPcmFor(Chord c, VoicingStrategy voicing) {
+        int generatorHashCode = generator.hashCode();
+        Long key = keyFor(c, voicing, generatorHashCode);
+        byte[] result;
+        synchronized(cache) {
+            result = cache.get(key);
+        }
+        if(result == null) {
+            result = mix(voice(c, voicing));
+            if(generator.hashCode() == generatorHashCode) {
+                synchronized(cache) {
+                    cache.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param c a chord
+     * @param voicing how to voice it
+     * @return the notes of the chord, with C4 = 0, lowest first
+     */
+    public static List<Integer> voice(Chord c, VoicingStrategy voicing) {
+        List<Integer> result = new ArrayList<Integer>();
+        if(c.isEmpty())
+            return result;
+        int root = (c.getRoot() != null) ? c.getRoot() : c.first();
+        int bass = root - 12;
+
+        if(voicing == VoicingStrategy.OPEN && c.size() > 1)
+            result.add(bass - 12);
+        for(int i = 0; i < Chord.TWELVETONE.OCTAVE_STEPS; i++) {
+            int pc = Chord.TWELVETONE.mod(root + i);
+            if(c.contains(pc) && !(voicing == VoicingStrategy.OPEN && i == 0 && c.size() > 1))
+                result.add(bass + i);
+        }
+        if(voicing == VoicingStrategy.DROP_2 && result.size() >= 3) {
+            int dropped = result.remove(result.size() - 2);
+            result.add(0, dropped - 12);
+        }
+        return result;
+    }
+
+    /**
+     * Mix the given notes into a single buffer {@link #AUDITION_SECONDS} long.  Each note's PCM plays
+     * as its track would, through to the end of the generator's loop and then round the loop, and is
+     * weighted as the {@link GainController} would weight it.
+     */
+    private byte[] mix(List<Integer> notes) {
+        int sampleRate = AudioTrackGenerator.NATIVE_OUTPUT_SAMPLE_RATE;
+        int numFrames = (int) (AUDITION_SECONDS * sampleRate);
+        if(notes.isEmpty())
+            return new byte[0];
+
+        float weightSum = 0;
+        for(int n : notes)
+            weightSum += GainController.pitchWeight(n);
+        float masterGain = 1 / Math.max(1, weightSum);
+
+        float[] mixed = new float[numFrames];
+        for(int n : notes) {
+            byte[] pcm = NotePcmCache.getPcmForNote(n, generator);
+            int pcmFrames = pcm.length / 2;
+            if(pcmFrames == 0)
+                continue;
+            int loopStart = generator.getLoopStartFor(n, pcmFrames), loopEnd = generator.getLoopEndFor(n, pcmFrames);
+            float gain = masterGain * GainController.pitchWeight(n) / 32768f;
+            for(int k = 0, j = 0; k < numFrames; k++, j++) {
+                if(j == loopEnd)
+                    j = loopStart;
+                mixed[k] += gain * (short) ((pcm[2 * j] & 0xff) | (pcm[2 * j + 1] << 8));
+            }
+        }
+
+        Envelope e = Envelope.DEFAULT;
+        int releaseStart = numFrames - (int) (e.RELEASE * sampleRate);
+        byte[] result = new byte[2 * numFrames];
+        for(int k = 0; k < numFrames; k++) {
+            double t = (double) k / sampleRate;
+            double level;
+            if(t < e.ATTACK)
+                level = t / e.ATTACK;
+            else if(t < e.ATTACK + e.DECAY)
+                level = 1 - (1 - e.SUSTAIN) * (t - e.ATTACK) / e.DECAY;
+            else
+                level = e.SUSTAIN;
+            if(k >= releaseStart)
+                level *= (double) (numFrames - k) / (numFrames - releaseStart);
+
+            short val = (short) (Math.max(-1f, Math.min(1f, (float) (mixed[k] * level))) * 32767);
+            result[2 * k] = (byte) (val & 0x00ff);
+            result[2 * k + 1] = (byte) ((val & 0xff00) >>> 8);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package com.jonlatane.composer.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free, single-producer/single-consumer ring buffer of timestamped commands, for getting input
+ * from the UI thread to an audio thread without either waiting on the other.  Commands are stored in
+ * preallocated parallel arrays, so neither {@link #offer} nor {@link #drain} allocates.
+ *
+ * Exactly one thread may offer and exactly one thread may drain.
+ */
+public class CommandQueue {
+    /**
+     * Receives commands as they are drained.
+     */
+    public interface Handler {
+        /**
+         * @param type what to do, as defined by whoever offered the command
+         * @param arg an integer argument, e.g. a note
+         * @param payload an object argument, or null
+         * @param timestampNanos when the command was offered, by {@link System#nanoTime()}
+         */
+        void onCommand(int type, int arg, Object payload, long timestampNanos);
+    }
+
+    private final int capacity, mask;
+    private final int[] types, args;
+    private final Object[] payloads;
+    private final long[] timestamps;
+
+    /** The next slot to read; written only by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /** The next slot to write; written only by the producer */
+    private final AtomicLong tail = new AtomicLong();
+    /** The producer's last look at {@link #head}, so it rarely has to read the consumer's cache line */
+    private long cachedHead = 0;
+
+    /**
+     * @param minimumCapacity the number of commands that may be waiting at once; rounded up to a power
+     *                        of two
+     */
+    public CommandQueue(int minimumCapacity) {
+        capacity = Integer.highestOneBit(Math.max(2, minimumCapacity - 1)) << 1;
+        mask = capacity - 1;
+        types = new int[capacity];
+        args = new int[capacity];
+        payloads = new Object[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a command, stamped with the current time.  Producer thread only.
+     *
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean offer(int type, int arg, Object payload) {
+        return offer(type, arg, payload, System.nanoTime());
+    }
+
+    /**
+     * Add a command.  Producer thread only.
+     *
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean offer(int type, int arg, Object payload, long timestampNanos) {
+        long t = tail.get();
+        if(t - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if(t - cachedHead >= capacity)
+                return false;
+        }
+        int i = (int) (t & mask);
+        types[i] = type;
+        args[i] = arg;
+        payloads[i] = payload;
+        timestamps[i] = timestampNanos;
+        // Publish the command; the consumer's read of tail makes the writes above visible to it
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Hand every waiting command to the handler, oldest first.  Consumer thread only.
+     *
+     * @return the number of commands handled
+     */
+    public int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        int result = 0;
+        while(h < t) {
+            int i = (int) (h & mask);
+            Object payload = payloads[i];
+            payloads[i] = null;
+            handler.onCommand(types[i], args[i], payload, timestamps[i]);
+            h++;
+            result++;
+        }
+        head.lazySet(h);
+        return result;
+    }
+
+    /**
+     * @return true if there are no commands waiting.  Either thread may ask, but the answer may be
+     * stale by the time it is returned.
+     */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
@@ -0,0 +1,296 @@
+package com.jonlatane.composer.audio;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps rendered notes on disk between runs, behind {@link NotePcmCache}, so that reopening the app
+ * with a timbre it has played before makes sound without synthesizing anything.
+ *
+ * Each generator, by {@link AudioTrackGenerator#hashCode}, gets one file: a fixed header indexing
+ * every note by offset, length and CRC32, followed by the raw PCM of each note as it was rendered.
+ * Notes are read back through a memory mapping of the file and checked against their checksum; a
+ * file written at a different sample rate or in an older format is thrown away.  When the files in
+ * the directory add up to more than the budget, the least recently used ones are deleted.
+ *
+ * Nothing is cached until {@link #setDirectory} is called.  All methods are safe to call from any
+ * thread.
+ */
+public class DiskPcmCache {
+    private static final String TAG = "DiskPcmCache";
+    private static final String SUFFIX = ".notes";
+
+    private static final int MAGIC = 0x4e50434d; // "NPCM"
+    private static final int FORMAT_VERSION = 1;
+    /** The notes each file has room for, with C4 = 0 */
+    private static final int LOWEST_NOTE = -64, HIGHEST_NOTE = 63;
+    private static final int SLOTS = HIGHEST_NOTE - LOWEST_NOTE + 1;
+    /** Magic, version, sample rate and slot count, then offset, length and CRC32 per slot */
+    private static final int SLOT_SIZE = 16;
+    private static final int HEADER_SIZE = 16 + SLOTS * SLOT_SIZE;
+
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private static File directory = null;
+    private static long budgetBytes = DEFAULT_BUDGET_BYTES;
+    /** How many generators' files to keep open; enough for a keyboard or two and a timbre being edited */
+    private static final int MAX_OPEN_FILES = 4;
+    /** Maps {@link AudioTrackGenerator#hashCode} -> the open file for that generator, least recently used first */
+    private static final Map<Integer, NoteFile> openFiles = new LinkedHashMap<Integer, NoteFile>(16, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, NoteFile> eldest) {
+            if(size() <= MAX_OPEN_FILES)
+                return false;
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    /**
+     * One generator's file, with its index held in memory.
+     */
+    private static class NoteFile {
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final long[] offsets = new long[SLOTS];
+        final int[] lengths = new int[SLOTS];
+        final int[] checksums = new int[SLOTS];
+        MappedByteBuffer mapped = null;
+
+        NoteFile(File file) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            if(!readHeader()) {
+                Log.i(TAG, "Starting new note file " + file.getName());
+                channel.truncate(0);
+                writeHeader();
+            }
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        private boolean readHeader() throws IOException {
+            if(channel.size() < HEADER_SIZE)
+                return false;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if(header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getInt() != AudioTrackGenerator.NATIVE_OUTPUT_SAMPLE_RATE || header.getInt() != SLOTS)
+                return false;
+            for(int i = 0; i < SLOTS; i++) {
+                offsets[i] = header.getLong();
+                lengths[i] = header.getInt();
+                checksums[i] = header.getInt();
+            }
+            return true;
+        }
+
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(AudioTrackGenerator.NATIVE_OUTPUT_SAMPLE_RATE)
+                    .putInt(SLOTS);
+            for(int i = 0; i < SLOTS; i++)
+                header.putLong(offsets[i]).putInt(lengths[i]).putInt(checksums[i]);
+            header.flip();
+            channel.write(header, 0);
+        }
+
+        private void writeSlot(int slot) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+            entry.putLong(offsets[slot]).putInt(lengths[slot]).putInt(checksums[slot]);
+            entry.flip();
+            channel.write(entry, 16 + (long) slot * SLOT_SIZE);
+        }
+
+        synchronized byte[] read(int slot) throws IOException {
+            if(lengths[slot] == 0)
+                return null;
+            long end = offsets[slot] + lengths[slot];
+            if(mapped == null || mapped.capacity() < end) {
+                // Notes are appended, so map everything there is now rather than just this note
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if(mapped.capacity() < end)
+                return invalidate(slot);
+            byte[] result = new byte[lengths[slot]];
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) offsets[slot]);
+            view.get(result);
+
+            CRC32 crc = new CRC32();
+            crc.update(result);
+            if((int) crc.getValue() != checksums[slot])
+                return invalidate(slot);
+            return result;
+        }
+
+        private byte[] invalidate(int slot) throws IOException {
+            Log.w(TAG, "Discarding corrupt note " + (slot + LOWEST_NOTE) + " in " + file.getName());
+            offsets[slot] = 0;
+            lengths[slot] = 0;
+            checksums[slot] = 0;
+            writeSlot(slot);
+            return null;
+        }
+
+        synchronized void write(int slot, byte[] pcm) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(pcm);
+            long offset = channel.size();
+            // Write the PCM before pointing the index at it, so a crash leaves at worst unused bytes
+            channel.write(ByteBuffer.wrap(pcm), offset);
+            offsets[slot] = offset;
+            lengths[slot] = pcm.length;
+            checksums[slot] = (int) crc.getValue();
+            writeSlot(slot);
+        }
+
+        synchronized void close() {
+            mapped = null;
+            try {
+                raf.close();
+            } catch(IOException e) {
+                Log.w(TAG, "Failed to close " + file.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Start keeping notes in the given directory, e.g. {@code new File(context.getCacheDir(), "notes")}.
+     *
+     * @param dir the directory, created if need be, or null to stop caching on disk
+     * @param budgetBytes how much disk all the note files may take up together
+     */
+    public static synchronized void setDirectory(File dir, long budgetBytes) {
+        for(NoteFile f : openFiles.values())
+            f.close();
+        openFiles.clear();
+        DiskPcmCache.budgetBytes = budgetBytes;
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Unable to create cache directory " + dir);
+            dir = null;
+        }
+        directory = dir;
+        if(dir != null)
+            enforceBudget();
+    }
+
+    public static void setDirectory(File dir) {
+        setDirectory(dir, DEFAULT_BUDGET_BYTES);
+    }
+
+    private static synchronized NoteFile fileFor(int generatorHashCode) {
+        if(directory == null)
+            return null;
+        NoteFile result = openFiles.get(generatorHashCode);
+        if(result == null) {
+            try {
+                result = new NoteFile(new File(directory, Integer.toHexString(generatorHashCode) + SUFFIX));
+                openFiles.put(generatorHashCode, result);
+            } catch(IOException e) {
+                Log.w(TAG, "Unable to open note file for " + Integer.toHexString(generatorHashCode), e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param n the note, with C4 = 0
+     * @param generatorHashCode the {@link AudioTrackGenerator#hashCode} of the generator that rendered it
+     * @return the PCM stored for the note, or null if there is none or it failed its checksum
+     */
+    public static byte[] read(int n, int generatorHashCode) {
+        if(n < LOWEST_NOTE || n > HIGHEST_NOTE)
+            return null;
+        NoteFile f = fileFor(generatorHashCode);
+        if(f == null)
+            return null;
+        try {
+            return f.read(n - LOWEST_NOTE);
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to read note " + n, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a rendered note.
+     *
+     * @param n the note, with C4 = 0
+     * @param generatorHashCode the {@link AudioTrackGenerator#hashCode} of the generator that rendered it
+     * @param pcm the note's PCM
+     */
+    public static void write(int n, int generatorHashCode, byte[] pcm) {
+        if(n < LOWEST_NOTE || n > HIGHEST_NOTE)
+            return;
+        NoteFile f = fileFor(generatorHashCode);
+        if(f == null)
+            return;
+        try {
+            f.write(n - LOWEST_NOTE, pcm);
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to write note " + n, e);
+            return;
+        }
+        enforceBudget();
+    }
+
+    /**
+     * Delete the least recently opened note files until the rest fit in the budget.  Files in use are
+     * never deleted.
+     */
+    private static synchronized void enforceBudget() {
+        if(directory == null)
+            return;
+        File[] files = directory.listFiles();
+        if(files == null)
+            return;
+        long total = 0;
+        for(File f : files) {
+            if(f.getName().endsWith(SUFFIX))
+                total += f.length();
+        }
+        if(total <= budgetBytes)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+            }
+        });
+        for(File f : files) {
+            if(total <= budgetBytes)
+                break;
+            if(!f.getName().endsWith(SUFFIX) || isOpen(f))
+                continue;
+            long length = f.length();
+            if(f.delete()) {
+                Log.i(TAG, "Evicted " + f.getName());
+                total -= length;
+            }
+        }
+    }
+
+    private static boolean isOpen(File f) {
+        for(NoteFile open : openFiles.values()) {
+            if(open.file.equals(f))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,154 @@
+package com.jonlatane.composer.audio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache for the raw PCM data behind the AudioTracks in {@link AudioTrackCache}.  Rendering a
+ * note's waveform is the expensive part of getting a note to sound, while creating an AudioTrack from
+ * already-rendered data is cheap.  Keeping the PCM apart from the (scarce) AudioTracks lets us render
+ * notes ahead of time on background threads, see {@link NotePrewarmer}.
+ *
+ * Entries are keyed by the {@link AudioTrackGenerator#hashCode} of the generator and the note, so a
+ * generator whose timbre changes will simply stop hitting its old entries.  Misses are looked up in
+ * the {@link DiskPcmCache} before anything is rendered, and whatever is rendered is saved there.
+ *
+ * The cache holds at most {@link #getMaxBytes()} of PCM, evicting the least recently used notes first.
+ * Evicted notes are still on disk, so a sampled bank with many zones costs a disk read to come back
+ * rather than staying in memory for good.
+ */
+public class NotePcmCache {
+    /** The default most PCM to keep in memory, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 24 * 1024 * 1024;
+
+    /**
+     * Maps ({@link #hashCode} of instrument, note integer value with C4 = 0) -> 16-bit PCM, in access
+     * order.  Guarded by itself.
+     */
+    private static final LinkedHashMap<Long, byte[]> pcmData = new LinkedHashMap<Long, byte[]>(64, .75f, true);
+    private static long cachedBytes = 0;
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static Long keyFor(int generatorHashCode, int n) {
+        return (((long) generatorHashCode) << 32) | (n & 0xffffffffL);
+    }
+
+    /**
+     * Get the PCM data for the given note, rendering it with the generator if it is not cached.  This
+     * is safe to call from any thread.
+     *
+     * @param n the note, with C4 = 0
+     * @param generator the generator used to render the note on a cache miss
+     * @return 16-bit PCM for the note, as returned by {@link AudioTrackGenerator#renderPcmFor(int)}
+     */
+    public static byte[] getPcmForNote(int n, AudioTrackGenerator generator) {
+        int generatorHashCode = generator.hashCode();
+        Long key = keyFor(generatorHashCode, n);
+        byte[] result;
+        synchronized(pcmData) {
+            result = pcmData.get(key);
+        }
+        if(result == null) {
+            result = DiskPcmCache.read(n, generatorHashCode);
+            if(result != null) {
+                put(key, result);
+                return result;
+            }
+
+            result = generator.renderPcmFor(n);
+
+            // If the timbre changed while we were rendering, don't file the result under the old one
+            if(generator.hashCode() == generatorHashCode) {
+                put(key, result);
+                DiskPcmCache.write(n, generatorHashCode, result);
+            }
+        }
+        return result;
+    }
+
+    private static void put(Long key, byte[] pcm) {
+        synchronized(pcmData) {
+            byte[] replaced = pcmData.put(key, pcm);
+            if(replaced != null)
+                cachedBytes -= replaced.length;
+            cachedBytes += pcm.length;
+            trim();
+        }
+    }
+
+    /**
+     * Evict least recently used notes until the cache fits its budget, always keeping the newest.
+     */
+    private static void trim() {
+        Iterator<Map.Entry<Long, byte[]>> itr = pcmData.entrySet().iterator();
+        while(cachedBytes > maxBytes && pcmData.size() > 1) {
+            cachedBytes -= itr.next().getValue().length;
+            itr.remove();
+        }
+    }
+
+    /**
+     * @param bytes the most PCM to keep in memory; less recently used notes are evicted to fit
+     */
+    public static void setMaxBytes(long bytes) {
+        synchronized(pcmData) {
+            maxBytes = bytes;
+            trim();
+        }
+    }
+
+    public static long getMaxBytes() {
+        synchronized(pcmData) {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * @return how many bytes of PCM are in memory
+     */
+    public static long getCachedBytes() {
+        synchronized(pcmData) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * @return true if the given note can be played by the generator without rendering anything
+     */
+    public static boolean isCached(int n, AudioTrackGenerator generator) {
+        synchronized(pcmData) {
+            return pcmData.containsKey(keyFor(generator.hashCode(), n));
+        }
+    }
+
+    /**
+     * Drop all PCM rendered by the given generator in its current timbre.  Notes kept on disk stay
+     * there, ready for when the timbre comes back.
+     *
+     * @param generator a generator with a unique hashCode
+     */
+    public static void releaseAll(AudioTrackGenerator generator) {
+        int generatorHashCode = generator.hashCode();
+        synchronized(pcmData) {
+            Iterator<Map.Entry<Long, byte[]>> itr = pcmData.entrySet().iterator();
+            while(itr.hasNext()) {
+                Map.Entry<Long, byte[]> e = itr.next();
+                if((int)(e.getKey() >> 32) == generatorHashCode) {
+                    cachedBytes -= e.getValue().length;
+                    itr.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all cached PCM
+     */
+    public static void releaseAll() {
+        synchronized(pcmData) {
+            pcmData.clear();
+            cachedBytes = 0;
+        }
+    }
+}
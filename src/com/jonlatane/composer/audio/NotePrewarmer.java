@@ -0,0 +1,124 @@
+package com.jonlatane.composer.audio;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders PCM into the {@link NotePcmCache} ahead of time so that the first press of a key is a
+ * cache hit.  Given the range of keys currently visible on the keyboard, the notes in it (and a few
+ * neighbouring ones on either side, in case the user scrolls) are rendered on a small pool of
+ * low-priority threads, starting from the middle of the range and working outwards.
+ *
+ * Work is cancelled whenever it becomes stale: every call to {@link #prewarm} starts a new
+ * generation, and anything queued under an older generation is dropped without rendering.
+ */
+public class NotePrewarmer {
+    private static final String TAG = "NotePrewarmer";
+
+    /** How many keys beyond either end of the visible range to render */
+    public static final int NEIGHBOURING_KEYS = 12;
+    /** The range of the keyboard, with C4 = 0 */
+    private static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+
+    private static final AtomicInteger generation = new AtomicInteger();
+    private static final ThreadPoolExecutor executor;
+    static {
+        int numThreads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread result = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, TAG + "-" + count.incrementAndGet());
+                result.setPriority(Thread.MIN_PRIORITY);
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static AudioTrackGenerator lastGenerator = null;
+    private static int lastLowestNote, lastHighestNote;
+
+    private static class RenderTask implements Runnable {
+        private final int myGeneration;
+        private final int note;
+        private final AudioTrackGenerator generator;
+
+        RenderTask(int myGeneration, int note, AudioTrackGenerator generator) {
+            this.myGeneration = myGeneration;
+            this.note = note;
+            this.generator = generator;
+        }
+
+        @Override
+        public void run() {
+            if(generation.get() != myGeneration)
+                return;
+            try {
+                NotePcmCache.getPcmForNote(note, generator);
+            } catch(Throwable t) {
+                Log.e(TAG, "Failed to prewarm note " + note, t);
+            }
+        }
+    }
+
+    /**
+     * Render the given range of keys and their neighbours in the background, cancelling whatever was
+     * being prewarmed before.
+     *
+     * @param generator the generator that will be asked for these notes
+     * @param lowestNote the lowest visible note, with C4 = 0
+     * @param highestNote the highest visible note, with C4 = 0
+     */
+    public static synchronized void prewarm(AudioTrackGenerator generator, int lowestNote, int highestNote) {
+        lastGenerator = generator;
+        lastLowestNote = lowestNote;
+        lastHighestNote = highestNote;
+
+        int myGeneration = generation.incrementAndGet();
+        executor.getQueue().clear();
+
+        int low = Math.max(LOWEST_NOTE, lowestNote - NEIGHBOURING_KEYS);
+        int high = Math.min(HIGHEST_NOTE, highestNote + NEIGHBOURING_KEYS);
+        int center = (lowestNote + highestNote) / 2;
+
+        // Work outwards from the center so the keys under the user's hands are ready first
+        for(int distance = 0; center - distance >= low || center + distance <= high; distance++) {
+            int below = center - distance, above = center + distance;
+            if(below >= low && !NotePcmCache.isCached(below, generator))
+                executor.execute(new RenderTask(myGeneration, below, generator));
+            if(distance > 0 && above <= high && !NotePcmCache.isCached(above, generator))
+                executor.execute(new RenderTask(myGeneration, above, generator));
+        }
+    }
+
+    /**
+     * Prewarm the last requested range again, e.g. because the generator's timbre has changed.
+     */
+    public static synchronized void restart() {
+        if(lastGenerator != null)
+            prewarm(lastGenerator, lastLowestNote, lastHighestNote);
+    }
+
+    /**
+     * Drop all pending prewarm work.
+     */
+    public static void cancel() {
+        generation.incrementAndGet();
+        executor.getQueue().clear();
+    }
+}
@@ -0,0 +1,185 @@
+package com.jonlatane.composer.audio.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A graphic equalizer made of one peaking biquad filter per octave band, standing in for the device's
+ * {@link android.media.audiofx.Equalizer} so that the same EQ is available when rendering offline.
+ *
+ * Blocks are filtered in place.  Filter coefficients are computed once per sample rate and cached, and
+ * the filter state is allocated up front, so {@link #process} never allocates.  Each instance filters
+ * one stream; it is not thread-safe.
+ */
+public class BiquadEqualizer {
+    /** The center frequencies of the bands in Hz, an octave apart */
+    public static final float[] BAND_CENTERS = {31.25f, 62.5f, 125, 250, 500, 1000, 2000, 4000, 8000, 16000};
+    /** The range of each band's level in dB, like the typical device equalizer's +/-15dB */
+    public static final float DEFAULT_RANGE_DB = 15;
+    /** The bandwidth of each band; sqrt(2) gives an octave between the -3dB points */
+    private static final double Q = Math.sqrt(2);
+
+    private final float[] bandGainsDb;
+    /** Maps sample rate -> 5 coefficients (b0, b1, b2, a1, a2) per band, normalized by a0 */
+    private final Map<Integer, double[]> coefficientCache = new HashMap<Integer, double[]>();
+    private double[] coefficients;
+    private int sampleRate = 0;
+    /** The transposed direct form II state of each band, z1 and z2 */
+    private final double[] state;
+
+    /**
+     * An equalizer with the arctan curve the app has always used: lows boosted, highs cut.
+     */
+    public BiquadEqualizer() {
+        this(arctanCurve(BAND_CENTERS.length, DEFAULT_RANGE_DB));
+    }
+
+    /**
+     * @param bandGainsDb the level of each of the {@link #BAND_CENTERS} in dB
+     */
+    public BiquadEqualizer(float[] bandGainsDb) {
+        if(bandGainsDb.length != BAND_CENTERS.length)
+            throw new IllegalArgumentException("Expected " + BAND_CENTERS.length + " band gains, not " + bandGainsDb.length);
+        this.bandGainsDb = bandGainsDb.clone();
+        this.state = new double[2 * BAND_CENTERS.length];
+    }
+
+    /**
+     * The band levels the HarmonicOvertoneSeriesGenerator has always asked of the device equalizer: a
+     * falling arctan curve centered on the middle band.
+     *
+     * @param bands the number of bands
+     * @param rangeDb the largest boost or cut allowed
+     * @return the level of each band in dB
+     */
+    public static float[] arctanCurve(int bands, float rangeDb) {
+        float[] result = new float[bands];
+        int midBand = bands/2;
+        for(int i = 0; i < bands; i++) {
+            float arctanCurveFactor = (float) (-.38 * Math.atan((float)(i-midBand)) + .5);
+            result[i] = Math.max(-rangeDb, Math.min(rangeDb, -rangeDb + arctanCurveFactor * 2 * rangeDb));
+        }
+        return result;
+    }
+
+    public float[] getBandGainsDb() {
+        return bandGainsDb.clone();
+    }
+
+    /**
+     * Prepare to filter audio at the given sample rate.  If the rate has changed, the filter state is
+     * reset.
+     */
+    public void setSampleRate(int sampleRate) {
+        if(sampleRate == this.sampleRate)
+            return;
+        this.sampleRate = sampleRate;
+        coefficients = coefficientCache.get(sampleRate);
+        if(coefficients == null) {
+            coefficients = computeCoefficients(sampleRate);
+            coefficientCache.put(sampleRate, coefficients);
+        }
+        reset();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Forget the audio filtered so far, e.g. before starting on an unrelated stream.
+     */
+    public void reset() {
+        for(int i = 0; i < state.length; i++)
+            state[i] = 0;
+    }
+
+    /**
+     * Peaking EQ coefficients, from Robert Bristow-Johnson's Audio EQ Cookbook.  Bands at or above
+     * Nyquist pass audio through unchanged.
+     */
+    private double[] computeCoefficients(int sampleRate) {
+        double[] result = new double[5 * BAND_CENTERS.length];
+        for(int band = 0; band < BAND_CENTERS.length; band++) {
+            int c = 5 * band;
+            if(BAND_CENTERS[band] >= sampleRate / 2. || bandGainsDb[band] == 0) {
+                result[c] = 1;
+                continue;
+            }
+            double a = Math.pow(10, bandGainsDb[band] / 40.);
+            double w0 = 2 * Math.PI * BAND_CENTERS[band] / sampleRate;
+            double alpha = Math.sin(w0) / (2 * Q);
+            double cos = Math.cos(w0);
+            double a0 = 1 + alpha / a;
+            result[c] = (1 + alpha * a) / a0;
+            result[c + 1] = (-2 * cos) / a0;
+            result[c + 2] = (1 - alpha * a) / a0;
+            result[c + 3] = (-2 * cos) / a0;
+            result[c + 4] = (1 - alpha / a) / a0;
+        }
+        return result;
+    }
+
+    /**
+     * Filter a block of mono audio in place.  {@link #setSampleRate} must have been called.
+     *
+     * @param block the audio
+     * @param offset the first sample to filter
+     * @param length the number of samples to filter
+     */
+    public void process(float[] block, int offset, int length) {
+        final double[] coefficients = this.coefficients;
+        for(int band = 0; band < BAND_CENTERS.length; band++) {
+            int c = 5 * band;
+            double b0 = coefficients[c], b1 = coefficients[c + 1], b2 = coefficients[c + 2];
+            double a1 = coefficients[c + 3], a2 = coefficients[c + 4];
+            if(b0 == 1 && b1 == 0 && b2 == 0 && a1 == 0 && a2 == 0)
+                continue;
+            double z1 = state[2 * band], z2 = state[2 * band + 1];
+            for(int i = offset; i < offset + length; i++) {
+                double x = block[i];
+                double y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                block[i] = (float) y;
+            }
+            state[2 * band] = z1;
+            state[2 * band + 1] = z2;
+        }
+    }
+
+    public void process(float[] block) {
+        process(block, 0, block.length);
+    }
+
+    /**
+     * The gain of the whole bank at the given frequency, at the current sample rate.
+     *
+     * @param frequency a frequency in Hz
+     * @return the linear gain
+     */
+    public double gainAt(double frequency) {
+        double w = 2 * Math.PI * frequency / sampleRate;
+        double cos1 = Math.cos(w), sin1 = Math.sin(w), cos2 = Math.cos(2 * w), sin2 = Math.sin(2 * w);
+        double result = 1;
+        for(int band = 0; band < BAND_CENTERS.length; band++) {
+            int c = 5 * band;
+            double numRe = coefficients[c] + coefficients[c + 1] * cos1 + coefficients[c + 2] * cos2;
+            double numIm = -coefficients[c + 1] * sin1 - coefficients[c + 2] * sin2;
+            double denRe = 1 + coefficients[c + 3] * cos1 + coefficients[c + 4] * cos2;
+            double denIm = -coefficients[c + 3] * sin1 - coefficients[c + 4] * sin2;
+            result *= Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+        }
+        return result;
+    }
+
+    /**
+     * @return the largest gain of the bank over the audible range, at the current sample rate
+     */
+    public double getPeakGain() {
+        double result = 0;
+        for(double f = 20; f < Math.min(20000, sampleRate / 2.); f *= Math.pow(2, 1 / 12.))
+            result = Math.max(result, gainAt(f));
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package com.jonlatane.composer.audio.dsp;
+
+/**
+ * A complex FFT of any size, by Bluestein's chirp z-transform: a size-n transform is rewritten as a
+ * convolution, which is done with power-of-two {@link FFT}s of at least 2n - 1.  It costs a few times
+ * as much as a power-of-two FFT of similar size, but is still O(n log n).
+ *
+ * Complex data is interleaved and scaled as in {@link FFT}.  Instances hold no mutable state, so one
+ * may be shared by any number of threads.
+ */
+public final class BluesteinFFT {
+    private final int n;
+    private final FFT fft;
+    /** exp(-i pi k^2 / n) for k < n, interleaved */
+    private final float[] chirp;
+    /** The transform of the conjugate chirp, wrapped around for negative k */
+    private final float[] filter;
+
+    /**
+     * @param n the size of the transform, at least 1
+     */
+    public BluesteinFFT(int n) {
+        if(n < 1)
+            throw new IllegalArgumentException("Transform size must be positive, not " + n);
+        this.n = n;
+        this.fft = FFT.forSize(Math.max(4, Integer.highestOneBit(2 * n - 1) << 1));
+        int m = fft.size();
+
+        chirp = new float[2 * n];
+        for(int k = 0; k < n; k++) {
+            // k^2 mod 2n keeps the angle small enough to stay accurate for large k
+            double angle = Math.PI * (((long) k * k) % (2L * n)) / n;
+            chirp[2 * k] = (float) Math.cos(angle);
+            chirp[2 * k + 1] = (float) -Math.sin(angle);
+        }
+
+        filter = new float[2 * m];
+        for(int k = 0; k < n; k++) {
+            filter[2 * k] = chirp[2 * k];
+            filter[2 * k + 1] = -chirp[2 * k + 1];
+            if(k > 0) {
+                filter[2 * (m - k)] = chirp[2 * k];
+                filter[2 * (m - k) + 1] = -chirp[2 * k + 1];
+            }
+        }
+        fft.complexForward(filter);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @param buffer n complex values, interleaved; transformed in place
+     */
+    public void complexForward(float[] buffer) {
+        transform(buffer, false);
+    }
+
+    /**
+     * Inverse of {@link #complexForward}, scaled by 1/n.
+     *
+     * @param buffer n complex values, interleaved; transformed in place
+     */
+    public void complexInverse(float[] buffer) {
+        transform(buffer, true);
+    }
+
+    private void transform(float[] buffer, boolean inverse) {
+        int m = fft.size();
+        // The inverse is the conjugate of the forward transform of the conjugate
+        float sign = inverse ? -1 : 1;
+        float[] work = new float[2 * m];
+        for(int k = 0; k < n; k++) {
+            float re = buffer[2 * k], im = sign * buffer[2 * k + 1];
+            float cRe = chirp[2 * k], cIm = chirp[2 * k + 1];
+            work[2 * k] = re * cRe - im * cIm;
+            work[2 * k + 1] = re * cIm + im * cRe;
+        }
+        fft.complexForward(work);
+        for(int k = 0; k < m; k++) {
+            float re = work[2 * k], im = work[2 * k + 1];
+            float fRe = filter[2 * k], fIm = filter[2 * k + 1];
+            work[2 * k] = re * fRe - im * fIm;
+            work[2 * k + 1] = re * fIm + im * fRe;
+        }
+        fft.complexInverse(work);
+        float scale = inverse ? 1f / n : 1;
+        for(int k = 0; k < n; k++) {
+            float re = work[2 * k], im = work[2 * k + 1];
+            float cRe = chirp[2 * k], cIm = chirp[2 * k + 1];
+            buffer[2 * k] = scale * (re * cRe - im * cIm);
+            buffer[2 * k + 1] = sign * scale * (re * cIm + im * cRe);
+        }
+    }
+}
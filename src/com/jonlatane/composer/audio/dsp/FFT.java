@@ -0,0 +1,198 @@
+package com.jonlatane.composer.audio.dsp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An iterative, in-place radix-2 FFT with its twiddle factors, bit-reversal permutations and Hann
+ * window computed once per size.  Instances hold no mutable state, so one may be shared by any number
+ * of threads; get them from {@link #forSize}.
+ *
+ * Complex data is interleaved (re, im, re, im...).  Forward transforms are unnormalized and inverse
+ * transforms are scaled by 1/n, so an inverse undoes a forward exactly.
+ */
+public final class FFT {
+    private static final ConcurrentHashMap<Integer, FFT> instances = new ConcurrentHashMap<Integer, FFT>();
+
+    private final int n;
+    /** cos(2 pi k / n) and sin(2 pi k / n) for k < n/2 */
+    private final float[] cos, sin;
+    /** Bit-reversal permutations for complex transforms of size n and n/2 */
+    private final int[] bitReverse, bitReverseHalf;
+    private final float[] hannWindow;
+
+    /**
+     * @param n a power of two, at least 4
+     * @return the shared FFT of that size
+     */
+    public static FFT forSize(int n) {
+        FFT result = instances.get(n);
+        if(result == null) {
+            FFT created = new FFT(n);
+            result = instances.putIfAbsent(n, created);
+            if(result == null)
+                result = created;
+        }
+        return result;
+    }
+
+    private FFT(int n) {
+        if(n < 4 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("FFT size must be a power of two of at least 4, not " + n);
+        this.n = n;
+
+        cos = new float[n / 2];
+        sin = new float[n / 2];
+        for(int k = 0; k < n / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / n);
+            sin[k] = (float) Math.sin(2 * Math.PI * k / n);
+        }
+
+        bitReverse = bitReversal(n);
+        bitReverseHalf = bitReversal(n / 2);
+
+        hannWindow = new float[n];
+        for(int k = 0; k < n; k++)
+            hannWindow[k] = (float) (-.5 * Math.cos(2.0 * Math.PI * (double) k / (double) n) + .5);
+    }
+
+    private static int[] bitReversal(int m) {
+        int bits = Integer.numberOfTrailingZeros(m);
+        int[] result = new int[m];
+        for(int i = 0; i < m; i++)
+            result[i] = Integer.reverse(i) >>> (32 - bits);
+        return result;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * The periodic Hann window of this size.  The array is shared; do not modify it.
+     */
+    public float[] getHannWindow() {
+        return hannWindow;
+    }
+
+    /**
+     * Transform n complex values in place.
+     *
+     * @param buffer 2n floats, interleaved
+     */
+    public void complexForward(float[] buffer) {
+        complex(buffer, n, bitReverse, false);
+    }
+
+    /**
+     * Inverse of {@link #complexForward}.
+     *
+     * @param buffer 2n floats, interleaved
+     */
+    public void complexInverse(float[] buffer) {
+        complex(buffer, n, bitReverse, true);
+        float scale = 1f / n;
+        for(int i = 0; i < 2 * n; i++)
+            buffer[i] *= scale;
+    }
+
+    /**
+     * Transform n real values in place by packing them into an FFT of n/2 complex values.  The
+     * result is bins 0 through n/2, interleaved; the imaginary parts of bins 0 and n/2 are always 0.
+     *
+     * @param buffer n real values, with room for n + 2 floats
+     */
+    public void realForward(float[] buffer) {
+        int half = n / 2;
+        complex(buffer, half, bitReverseHalf, false);
+
+        float re0 = buffer[0], im0 = buffer[1];
+        buffer[0] = re0 + im0;
+        buffer[1] = 0;
+        buffer[n] = re0 - im0;
+        buffer[n + 1] = 0;
+
+        for(int k = 1; k <= half / 2; k++) {
+            int nk = half - k;
+            float a = buffer[2 * k], b = buffer[2 * k + 1];
+            float c = buffer[2 * nk], d = buffer[2 * nk + 1];
+
+            // Split the packed transform into the transforms of the even and odd samples
+            float evenRe = .5f * (a + c), evenIm = .5f * (b - d);
+            float oddRe = .5f * (b + d), oddIm = -.5f * (a - c);
+            float twiddledRe = cos[k] * oddRe + sin[k] * oddIm;
+            float twiddledIm = cos[k] * oddIm - sin[k] * oddRe;
+
+            buffer[2 * nk] = evenRe - twiddledRe;
+            buffer[2 * nk + 1] = -(evenIm - twiddledIm);
+            buffer[2 * k] = evenRe + twiddledRe;
+            buffer[2 * k + 1] = evenIm + twiddledIm;
+        }
+    }
+
+    /**
+     * Inverse of {@link #realForward}.
+     *
+     * @param buffer bins 0 through n/2, interleaved; n real values on return
+     */
+    public void realInverse(float[] buffer) {
+        int half = n / 2;
+
+        float re0 = buffer[0], reHalf = buffer[n];
+        buffer[0] = .5f * (re0 + reHalf);
+        buffer[1] = .5f * (re0 - reHalf);
+
+        for(int k = 1; k <= half / 2; k++) {
+            int nk = half - k;
+            float a = buffer[2 * k], b = buffer[2 * k + 1];
+            float c = buffer[2 * nk], d = buffer[2 * nk + 1];
+
+            // Recombine the transforms of the even and odd samples into a packed transform
+            float evenRe = .5f * (a + c), evenIm = .5f * (b - d);
+            float diffRe = .5f * (a - c), diffIm = .5f * (b + d);
+            float oddRe = diffRe * cos[k] - diffIm * sin[k];
+            float oddIm = diffRe * sin[k] + diffIm * cos[k];
+
+            buffer[2 * nk] = evenRe + oddIm;
+            buffer[2 * nk + 1] = -evenIm + oddRe;
+            buffer[2 * k] = evenRe - oddIm;
+            buffer[2 * k + 1] = evenIm + oddRe;
+        }
+
+        complex(buffer, half, bitReverseHalf, true);
+        float scale = 1f / half;
+        for(int i = 0; i < n; i++)
+            buffer[i] *= scale;
+    }
+
+    private void complex(float[] buffer, int m, int[] reversal, boolean inverse) {
+        for(int i = 0; i < m; i++) {
+            int j = reversal[i];
+            if(i < j) {
+                float temp = buffer[2 * i];
+                buffer[2 * i] = buffer[2 * j];
+                buffer[2 * j] = temp;
+                temp = buffer[2 * i + 1];
+                buffer[2 * i + 1] = buffer[2 * j + 1];
+                buffer[2 * j + 1] = temp;
+            }
+        }
+
+        for(int length = 2; length <= m; length <<= 1) {
+            int halfLength = length >> 1;
+            int step = n / length;
+            for(int i = 0; i < m; i += length) {
+                for(int j = 0; j < halfLength; j++) {
+                    float wr = cos[j * step];
+                    float wi = inverse ? sin[j * step] : -sin[j * step];
+                    int a = 2 * (i + j), b = a + 2 * halfLength;
+                    float tr = buffer[b] * wr - buffer[b + 1] * wi;
+                    float ti = buffer[b] * wi + buffer[b + 1] * wr;
+                    buffer[b] = buffer[a] - tr;
+                    buffer[b + 1] = buffer[a + 1] - ti;
+                    buffer[a] += tr;
+                    buffer[a + 1] += ti;
+                }
+            }
+        }
+    }
+}
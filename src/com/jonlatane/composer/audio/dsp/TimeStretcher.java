@@ -0,0 +1,269 @@
+package com.jonlatane.composer.audio.dsp;
+
+import java.util.Arrays;
+
+/**
+ * A streaming phase vocoder time-stretcher: audio comes out slower or faster than it went in, at the
+ * same pitch.  Frames are analyzed every {@link #getSynthesisHop()} / stretch input samples and
+ * resynthesized every {@link #getSynthesisHop()} output samples, with each bin's phase advanced by its
+ * measured frequency.
+ *
+ * Channels are stretched together.  In each bin the phase advance is measured on whichever channel is
+ * loudest there, and every channel is rotated by the same amount, so the channels keep their phase
+ * relative to each other and the stereo image holds together.  Measuring on the loudest channel rather
+ * than the channels' sum means channels out of phase with each other, which cancel in the sum, are
+ * stretched as well as any.
+ *
+ * Audio goes in with {@link #write} and comes out with {@link #read}, interleaved, in blocks of any
+ * size; output lags input by about one frame.  All buffers are allocated up front, so neither
+ * allocates.  Each instance carries the state of one stream and is not thread-safe.
+ */
+public class TimeStretcher {
+    public static final int DEFAULT_FRAME_SIZE = 2048;
+    public static final int DEFAULT_OVERSAMPLING = 4;
+    /** The range of stretch factors supported */
+    public static final double MIN_STRETCH = .5, MAX_STRETCH = 2;
+
+    private final int channels, frameSize, halfSize, synthesisHop;
+    private final FFT fft;
+    private final float[] window;
+    /** Undoes the gain of overlapping the analysis and synthesis windows */
+    private final float overlapScale;
+
+    private double stretch = 1;
+
+    /** Per channel: input not yet consumed, starting at the frame now being analyzed */
+    private final float[][] input;
+    private int inputFill = 0;
+    /** How far past the start of {@link #input} the next frame is, in fractional samples */
+    private double analysisPosition = 0;
+    /** How many input samples separate the next frame from the last one */
+    private int analysisHop = 0;
+
+    /** Per channel: the spectrum of the current frame, then its resynthesis */
+    private final float[][] spectra;
+    /** Per channel, per bin: the phase in the last frame analyzed */
+    private final double[][] lastPhase;
+    private final double[] synthesisPhase;
+    private boolean firstFrame = true;
+
+    /** Per channel: overlap-added output, of which the first {@link #synthesisHop} samples are finished */
+    private final float[][] accumulator;
+    /** Per channel: finished output waiting to be read */
+    private final float[][] output;
+    private int outputFill = 0;
+
+    public TimeStretcher(int channels) {
+        this(channels, DEFAULT_FRAME_SIZE, DEFAULT_OVERSAMPLING);
+    }
+
+    /**
+     * @param channels the number of interleaved channels
+     * @param frameSize the analysis frame length, a power of two
+     * @param osamp how many frames overlap each output sample; 4 is good for music
+     */
+    public TimeStretcher(int channels, int frameSize, int osamp) {
+        this.channels = channels;
+        this.frameSize = frameSize;
+        this.halfSize = frameSize / 2;
+        this.synthesisHop = frameSize / osamp;
+        this.fft = FFT.forSize(frameSize);
+        this.window = fft.getHannWindow();
+
+        double windowPower = 0;
+        for(int k = 0; k < frameSize; k++)
+            windowPower += window[k] * window[k];
+        overlapScale = (float) (synthesisHop / windowPower);
+
+        // Room for a whole frame plus the largest analysis hop, plus a frame to accept writes into
+        input = new float[channels][2 * frameSize + (int) Math.ceil(synthesisHop / MIN_STRETCH)];
+        spectra = new float[channels][frameSize + 2];
+        lastPhase = new double[channels][halfSize + 1];
+        synthesisPhase = new double[halfSize + 1];
+        accumulator = new float[channels][frameSize];
+        output = new float[channels][2 * synthesisHop];
+    }
+
+    public double getStretch() {
+        return stretch;
+    }
+
+    /**
+     * @param stretch how much longer the output is than the input, between {@link #MIN_STRETCH} and
+     *                {@link #MAX_STRETCH}: 2 plays at half speed.  Takes effect from the next frame.
+     */
+    public void setStretch(double stretch) {
+        this.stretch = Math.max(MIN_STRETCH, Math.min(MAX_STRETCH, stretch));
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the number of output samples made per frame
+     */
+    public int getSynthesisHop() {
+        return synthesisHop;
+    }
+
+    /**
+     * @return roughly how many output frames lag behind the input
+     */
+    public int getLatency() {
+        return frameSize;
+    }
+
+    /**
+     * Forget everything heard so far, so this stretcher may start on a new stream.
+     */
+    public void reset() {
+        for(int c = 0; c < channels; c++) {
+            Arrays.fill(input[c], 0);
+            Arrays.fill(accumulator[c], 0);
+        }
+        inputFill = 0;
+        outputFill = 0;
+        analysisPosition = 0;
+        analysisHop = 0;
+        firstFrame = true;
+    }
+
+    /**
+     * @return how many frames {@link #write} will accept right now
+     */
+    public int getWritableFrames() {
+        return input[0].length - inputFill;
+    }
+
+    /**
+     * Give the stretcher more input.
+     *
+     * @param interleaved the audio
+     * @param offset the first frame to take
+     * @param frames how many frames are offered
+     * @return how many frames were taken; the rest should be offered again after a {@link #read}
+     */
+    public int write(float[] interleaved, int offset, int frames) {
+        int taken = Math.min(frames, getWritableFrames());
+        for(int c = 0; c < channels; c++) {
+            float[] in = input[c];
+            for(int i = 0, j = offset * channels + c; i < taken; i++, j += channels)
+                in[inputFill + i] = interleaved[j];
+        }
+        inputFill += taken;
+        return taken;
+    }
+
+    /**
+     * Take stretched output, processing as many frames of input as are needed and available.
+     *
+     * @param interleaved where to put the audio
+     * @param offset the first frame to fill
+     * @param frames how many frames are wanted
+     * @return how many frames were filled; fewer than wanted if more input is needed
+     */
+    public int read(float[] interleaved, int offset, int frames) {
+        int done = 0;
+        while(done < frames) {
+            if(outputFill == 0 && !processFrame())
+                break;
+            int count = Math.min(frames - done, outputFill);
+            for(int c = 0; c < channels; c++) {
+                float[] out = output[c];
+                for(int i = 0, j = (offset + done) * channels + c; i < count; i++, j += channels)
+                    interleaved[j] = out[i];
+                System.arraycopy(out, count, out, 0, outputFill - count);
+            }
+            outputFill -= count;
+            done += count;
+        }
+        return done;
+    }
+
+    /**
+     * Analyze and resynthesize one frame, if there is enough input for it.
+     *
+     * @return false if more input is needed
+     */
+    private boolean processFrame() {
+        if(frameSize > inputFill)
+            return false;
+
+        for(int c = 0; c < channels; c++) {
+            float[] spectrum = spectra[c];
+            float[] in = input[c];
+            for(int k = 0; k < frameSize; k++)
+                spectrum[k] = in[k] * window[k];
+            fft.realForward(spectrum);
+        }
+
+        for(int k = 0; k <= halfSize; k++) {
+            // Every channel's phase is kept for the next frame, since another may be loudest then
+            int loudest = 0;
+            double loudestPower = -1;
+            for(int c = 0; c < channels; c++) {
+                double re = spectra[c][2 * k], im = spectra[c][2 * k + 1];
+                double power = re * re + im * im;
+                if(power > loudestPower) {
+                    loudest = c;
+                    loudestPower = power;
+                }
+            }
+            double refRe = spectra[loudest][2 * k], refIm = spectra[loudest][2 * k + 1];
+            double refMagnitude = Math.sqrt(loudestPower);
+            double refPhase = Math.atan2(refIm, refRe);
+
+            if(firstFrame) {
+                synthesisPhase[k] = refPhase;
+            } else {
+                // The bin's true frequency, from how far its phase moved beyond what its center predicts
+                double binFrequency = 2 * Math.PI * k / frameSize;
+                double deviation = refPhase - lastPhase[loudest][k] - binFrequency * analysisHop;
+                deviation -= 2 * Math.PI * Math.rint(deviation / (2 * Math.PI));
+                synthesisPhase[k] += (binFrequency + deviation / analysisHop) * synthesisHop;
+                synthesisPhase[k] -= 2 * Math.PI * Math.rint(synthesisPhase[k] / (2 * Math.PI));
+            }
+            for(int c = 0; c < channels; c++)
+                lastPhase[c][k] = (c == loudest) ? refPhase : Math.atan2(spectra[c][2 * k + 1], spectra[c][2 * k]);
+
+            // Rotate every channel from the loudest one's analysis phase to its synthesis phase
+            double rotRe = 1, rotIm = 0;
+            if(refMagnitude > 0) {
+                double targetRe = Math.cos(synthesisPhase[k]), targetIm = Math.sin(synthesisPhase[k]);
+                double unitRe = refRe / refMagnitude, unitIm = -refIm / refMagnitude;
+                rotRe = targetRe * unitRe - targetIm * unitIm;
+                rotIm = targetRe * unitIm + targetIm * unitRe;
+            }
+            for(int c = 0; c < channels; c++) {
+                float re = spectra[c][2 * k], im = spectra[c][2 * k + 1];
+                spectra[c][2 * k] = (float) (re * rotRe - im * rotIm);
+                spectra[c][2 * k + 1] = (float) (re * rotIm + im * rotRe);
+            }
+        }
+        firstFrame = false;
+
+        for(int c = 0; c < channels; c++) {
+            float[] spectrum = spectra[c];
+            float[] acc = accumulator[c];
+            fft.realInverse(spectrum);
+            for(int k = 0; k < frameSize; k++)
+                acc[k] += spectrum[k] * window[k] * overlapScale;
+
+            // The first hop of the accumulator has had every frame it will get
+            System.arraycopy(acc, 0, output[c], outputFill, synthesisHop);
+            System.arraycopy(acc, synthesisHop, acc, 0, frameSize - synthesisHop);
+            Arrays.fill(acc, frameSize - synthesisHop, frameSize, 0);
+        }
+        outputFill += synthesisHop;
+
+        // Move on to the next frame, dropping input that no frame will look at again
+        analysisPosition += synthesisHop / stretch;
+        analysisHop = (int) analysisPosition;
+        for(int c = 0; c < channels; c++)
+            System.arraycopy(input[c], analysisHop, input[c], 0, inputFill - analysisHop);
+        inputFill -= analysisHop;
+        analysisPosition -= analysisHop;
+        return true;
+    }
+}
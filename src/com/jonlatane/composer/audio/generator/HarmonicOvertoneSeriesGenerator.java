@@ -1,14 +1,13 @@
 package com.jonlatane.composer.audio.generator;
 
-import android.media.AudioFormat;
-import android.media.AudioManager;
 import android.media.AudioTrack;
-import android.media.audiofx.Equalizer;
 import android.util.Log;
 
 import com.jonlatane.composer.audio.AudioTrackCache;
 import com.jonlatane.composer.audio.AudioTrackGenerator;
-import com.jonlatane.composer.music.harmony.Chord;
+import com.jonlatane.composer.audio.NotePcmCache;
+import com.jonlatane.composer.audio.dsp.BiquadEqualizer;
+import com.jonlatane.composer.audio.dsp.BluesteinFFT;
 
 import java.util.Arrays;
 
@@ -16,15 +15,41 @@ import java.util.Arrays;
  * Created by jonlatane on 7/19/15.
  */
 public class HarmonicOvertoneSeriesGenerator implements AudioTrackGenerator {
-    /** The frequencies of the notes C4-B4 */
-    private static final double[] FREQUENCIES = {261.625625, 277.1825, 293.665, 311.1275, 329.6275, 349.22875, 369.995, 391.995, 415.305, 440, 466.16375, 493.88375};
     private final static Double[] DEFAULT_OVERTONES = {70., 30., 30., 10., 10., 20., 20., 1.};
 
-    /** All HarmonicOvertoneSeriesGenerators share the same {@link #audioSessionId} id and {@link #equalizer} */
-    public Integer audioSessionId = null;
-    /** All HarmonicOvertoneSeriesGenerators share the same {@link #audioSessionId} id and {@link #equalizer} */
-    public Equalizer equalizer = null;
-    Double[] overtones;
+    /** How a note's loop is synthesized from the overtone series */
+    public enum SynthesisMode {
+        /**
+         * Sum a sine per overtone at every sample of one period.  Costs O(overtones) per sample, and the
+         * period is rounded to a whole number of samples, which puts high notes noticeably out of tune.
+         */
+        TIME_DOMAIN,
+        /**
+         * Place each overtone in the bins of one inverse FFT over a loop of as many periods as it takes
+         * to be in tune to within {@link HarmonicOvertoneSeriesGenerator#LOOP_TUNING_CENTS}.  Costs
+         * O(n log n) in the loop length no matter how many overtones there are, loops seamlessly, and
+         * drops overtones above Nyquist rather than aliasing them.
+         */
+        SPECTRAL
+    }
+    /** How far a spectral loop may be from the note's true pitch */
+    public static final double LOOP_TUNING_CENTS = .5;
+    /** The longest spectral loop to make, if no shorter one is in tune */
+    private static final int MAX_LOOP_FRAMES = 16384;
+
+    /** Each rendering thread gets its own equalizer, keeping its cached coefficients between notes */
+    private static final ThreadLocal<BiquadEqualizer> equalizer = new ThreadLocal<BiquadEqualizer>() {
+        @Override
+        protected BiquadEqualizer initialValue() {
+            BiquadEqualizer result = new BiquadEqualizer();
+            result.setSampleRate(NATIVE_OUTPUT_SAMPLE_RATE);
+            return result;
+        }
+    };
+    /** How long to run the equalizer over a tone before it settles into its steady state */
+    private static final double EQUALIZER_SETTLING_SECONDS = .1;
+    volatile Double[] overtones;
+    private volatile SynthesisMode synthesisMode = SynthesisMode.TIME_DOMAIN;
 
     private static final String TAG = "HOSGenerator";
 
@@ -34,7 +59,6 @@ public class HarmonicOvertoneSeriesGenerator implements AudioTrackGenerator {
 
     public HarmonicOvertoneSeriesGenerator(Double[] overtones) {
         this.overtones = overtones;
-        setupEqualizer();
     }
 
     public Double[] getOvertones() {
@@ -45,64 +69,39 @@ public class HarmonicOvertoneSeriesGenerator implements AudioTrackGenerator {
         this.overtones = overtones;
     }
 
-    private void setupEqualizer() {
-        // Get an audio session ID from a track without one
-        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC,
-                NATIVE_OUTPUT_SAMPLE_RATE, AudioFormat.CHANNEL_OUT_DEFAULT,
-                AudioFormat.ENCODING_PCM_16BIT, 16,
-                AudioTrack.MODE_STATIC);
-        audioSessionId = track.getAudioSessionId();
-        track.flush();
-        track.release();
-
-        equalizer = new Equalizer(1, audioSessionId);
-        equalizer.setEnabled(true);
-        short bands = equalizer.getNumberOfBands();
-        Log.d("EqualizerSample", "NumberOfBands: " + bands);
-
-        short min = equalizer.getBandLevelRange()[0];
-        short max = equalizer.getBandLevelRange()[1];
-        short span = (short)(max - min);
-        short midBand = (short)(bands/2);
-
-        for (short i = 0; i < bands; i++) {
-            Log.d("EqualizerSample", i + String.valueOf(equalizer.getCenterFreq(i) / 1000) + "Hz");
-            //equalizer.setBandLevel(i, (short)((minEQLevel + maxEQLevel) / 2));
-            float arctanCurveFactor = (float) (-.38 * Math.atan((float)(i-midBand)) + .5);
-
-            equalizer.setBandLevel(i, (short) (min + (arctanCurveFactor * span)));
-        }
+    public SynthesisMode getSynthesisMode() {
+        return synthesisMode;
+    }
+
+    /**
+     * Changes the {@link #hashCode}, so like {@link #setOvertones}, call this before rendering new notes.
+     */
+    public void setSynthesisMode(SynthesisMode synthesisMode) {
+        this.synthesisMode = synthesisMode;
     }
 
     @Override
-    public AudioTrack getAudioTrackFor(int n) {
-        int pitchClass = Chord.TWELVETONE.mod(n);
-        double octavesFromMiddle = ((double) (n - pitchClass)) / ((double) 12);
-        double freq = FREQUENCIES[pitchClass] * Math.pow(2, octavesFromMiddle);
+    public byte[] renderPcmFor(int n) {
+        // Read the overtones once; they may be replaced from the UI thread while we render
+        Double[] overtones = this.overtones;
 
-        double period = ((double)1)/freq;
-        int numFrames = (int)Math.round(period * NATIVE_OUTPUT_SAMPLE_RATE);
+        double freq = OvertoneSeries.frequencyOf(n);
 
-        Log.d(TAG, "Creating track for note " + n + " length " + numFrames);
+        // Normalize the overtone series given so we don't overload the speaker
+        double[] overtonesNormalized = OvertoneSeries.normalize(overtones);
 
-        // Generate the audio sample from a sine wave
-        double[] sample = new double[numFrames];
-        byte[] generatedSnd = new byte[2 * numFrames];
+        double[] sample;
+        if(synthesisMode == SynthesisMode.SPECTRAL)
+            sample = synthesizeSpectral(overtonesNormalized, freq, NATIVE_OUTPUT_SAMPLE_RATE);
+        else
+            sample = synthesizeTimeDomain(overtonesNormalized, freq, NATIVE_OUTPUT_SAMPLE_RATE);
+        int numFrames = sample.length;
 
-        // Normalize the overtone series given so we don't overload the speaker
-        double overtoneRatioSum = 0;
-        double[] overtonesNormalized = new double[overtones.length];
-        for(double d : overtones)
-            overtoneRatioSum += d;
-        for(int i = 0; i < overtones.length; i++)
-            overtonesNormalized[i] = overtones[i]/overtoneRatioSum;
+        Log.d(TAG, "Rendering note " + n + " length " + numFrames);
 
-        // Generate our tone sample based on the normalized overtone series
-        for (int k = 0; k < numFrames; ++k) {
-            sample[k] = 0;
-            for(int i = 0; i < overtonesNormalized.length; i++)
-                sample[k] += overtonesNormalized[i] *  Math.sin((i+1) * 2 * Math.PI * (k) / (NATIVE_OUTPUT_SAMPLE_RATE / freq));
-        }
+        byte[] generatedSnd = new byte[2 * numFrames];
+
+        equalize(sample);
 
         // convert to 16 bit pcm sound array
         // assumes the sample buffer is normalised.
@@ -115,36 +114,119 @@ public class HarmonicOvertoneSeriesGenerator implements AudioTrackGenerator {
             generatedSnd[idx++] = (byte) ((val & 0xff00) >>> 8);
         }
 
-        // Try to make a new AudioTrack. If not possible, go through our
-        // list of last used notes and
-        // eliminate the LRU and try again
-        AudioTrack track = null;
-        while (track == null) {
-            try {
-                track = new AudioTrack(AudioManager.STREAM_MUSIC,
-                        NATIVE_OUTPUT_SAMPLE_RATE, AudioFormat.CHANNEL_OUT_DEFAULT,
-                        AudioFormat.ENCODING_PCM_16BIT, 2 * numFrames,
-                        AudioTrack.MODE_STATIC, audioSessionId);
-                track.write(generatedSnd, 0, generatedSnd.length);
-                track.setLoopPoints(0, numFrames, -1);
-                if(track.getState() != AudioTrack.STATE_INITIALIZED) {
-                    Log.e(TAG, "Track state: " + track.getState());
-                    throw new Exception();
-                }
-            } catch (Throwable e) {
-                if(track != null) {
-                    track.flush();
-                    track.release();
-                    track = null;
-                }
-                AudioTrackCache.releaseOne();
+        return generatedSnd;
+    }
+
+    /**
+     * @return one period of the normalized overtone series at the given frequency and sample rate
+     */
+    static double[] synthesizeTimeDomain(double[] overtonesNormalized, double freq, int sampleRate) {
+        double period = ((double)1)/freq;
+        int numFrames = (int)Math.round(period * sampleRate);
+
+        // Generate our tone sample based on the normalized overtone series
+        double[] sample = new double[numFrames];
+        for (int k = 0; k < numFrames; ++k) {
+            sample[k] = OvertoneSeries.valueAt(overtonesNormalized, 2 * Math.PI * (k) / ((double) sampleRate / freq));
+        }
+        return sample;
+    }
+
+    /**
+     * @return the length in frames of the shortest loop of whole periods of the given frequency that is
+     * in tune to within {@link #LOOP_TUNING_CENTS}, or of the best-tuned loop if none is short enough
+     */
+    static int spectralLoopFrames(double freq, int sampleRate) {
+        double framesPerCycle = sampleRate / freq;
+        int result = (int) Math.max(1, Math.round(framesPerCycle));
+        double bestError = Double.MAX_VALUE;
+        for(int cycles = 1; cycles * framesPerCycle <= MAX_LOOP_FRAMES; cycles++) {
+            int frames = (int) Math.round(cycles * framesPerCycle);
+            double error = Math.abs(1200 * Math.log(frames / (cycles * framesPerCycle)) / Math.log(2));
+            if(error < bestError) {
+                bestError = error;
+                result = frames;
             }
+            if(error <= LOOP_TUNING_CENTS)
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * @return a loop of {@link #spectralLoopFrames} frames of the normalized overtone series
+     */
+    static double[] synthesizeSpectral(double[] overtonesNormalized, double freq, int sampleRate) {
+        int numFrames = spectralLoopFrames(freq, sampleRate);
+        int cycles = (int) Math.max(1, Math.round(numFrames * freq / sampleRate));
+
+        // A sine of amplitude a in bin k is the real part of -i * a * numFrames in that bin
+        float[] bins = new float[2 * numFrames];
+        for(int i = 0; i < overtonesNormalized.length; i++) {
+            int bin = (i + 1) * cycles;
+            if(2 * bin >= numFrames)
+                break;
+            bins[2 * bin + 1] = (float) (-overtonesNormalized[i] * numFrames);
         }
+        new BluesteinFFT(numFrames).complexInverse(bins);
+
+        double[] sample = new double[numFrames];
+        for(int k = 0; k < numFrames; k++)
+            sample[k] = bins[2 * k];
+        return sample;
+    }
+
+    /**
+     * Run the equalizer over the repeating period until it settles, so the period we keep is what
+     * the equalizer would make of the looping track, and then scale it down if it would clip.
+     */
+    private static void equalize(double[] sample) {
+        BiquadEqualizer eq = equalizer.get();
+        eq.reset();
+        float[] period = new float[sample.length];
+        int settlingPeriods = (int) Math.ceil(EQUALIZER_SETTLING_SECONDS * NATIVE_OUTPUT_SAMPLE_RATE / sample.length);
+        for(int i = 0; i <= settlingPeriods; i++) {
+            for(int k = 0; k < sample.length; k++)
+                period[k] = (float) sample[k];
+            eq.process(period);
+        }
+
+        double peak = 1;
+        for(float f : period)
+            peak = Math.max(peak, Math.abs(f));
+        for(int k = 0; k < sample.length; k++)
+            sample[k] = period[k] / peak;
+    }
+
+    @Override
+    public AudioTrack getAudioTrackFor(int n) {
+        // Usually a cache hit, see NotePrewarmer
+        byte[] generatedSnd = NotePcmCache.getPcmForNote(n, this);
+        int numFrames = generatedSnd.length / 2;
+
+        Log.d(TAG, "Creating track for note " + n + " length " + numFrames);
 
-        return track;
+        return AudioTrackCache.newLoopingTrack(generatedSnd, getLoopStartFor(n, numFrames),
+                getLoopEndFor(n, numFrames), 0);
+    }
+
+    /**
+     * Every note is one seamless loop, so the whole of it loops.
+     */
+    @Override
+    public int getLoopStartFor(int n, int numFrames) {
+        return 0;
+    }
+
+    @Override
+    public int getLoopEndFor(int n, int numFrames) {
+        return numFrames;
     }
 
     public int hashCode() {
-        return Arrays.hashCode(overtones);
+        int result = Arrays.hashCode(overtones);
+        if(synthesisMode == SynthesisMode.SPECTRAL)
+            result = 31 * result + 1;
+        return result;
     }
 }
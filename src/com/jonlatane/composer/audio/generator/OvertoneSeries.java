@@ -0,0 +1,55 @@
+package com.jonlatane.composer.audio.generator;
+
+import com.jonlatane.composer.music.harmony.Chord;
+
+/**
+ * The timbre model behind {@link HarmonicOvertoneSeriesGenerator}: a tone is the sum of sine waves at
+ * integer multiples of the fundamental frequency, weighted by an overtone series.  Unlike the
+ * generator, this does not depend on the Android media framework, so it can be used to synthesize
+ * audio off-device.
+ */
+public class OvertoneSeries {
+    /** The frequencies of the notes C4-B4 */
+    private static final double[] FREQUENCIES = {261.625625, 277.1825, 293.665, 311.1275, 329.6275, 349.22875, 369.995, 391.995, 415.305, 440, 466.16375, 493.88375};
+
+    /**
+     * @param n the note, with C4 = 0
+     * @return the fundamental frequency of the note in Hz
+     */
+    public static double frequencyOf(int n) {
+        int pitchClass = Chord.TWELVETONE.mod(n);
+        double octavesFromMiddle = ((double) (n - pitchClass)) / ((double) 12);
+        return FREQUENCIES[pitchClass] * Math.pow(2, octavesFromMiddle);
+    }
+
+    /**
+     * Normalize the overtone series given so we don't overload the speaker.  A tone synthesized from
+     * the result never exceeds an amplitude of 1.
+     *
+     * @param overtones the relative strengths of the fundamental and each overtone
+     * @return the overtones, scaled so that they sum to 1
+     */
+    public static double[] normalize(Double[] overtones) {
+        double overtoneRatioSum = 0;
+        double[] overtonesNormalized = new double[overtones.length];
+        for(double d : overtones)
+            overtoneRatioSum += d;
+        for(int i = 0; i < overtones.length; i++)
+            overtonesNormalized[i] = overtones[i]/overtoneRatioSum;
+        return overtonesNormalized;
+    }
+
+    /**
+     * The value of the tone at the given phase of its fundamental.
+     *
+     * @param overtonesNormalized the result of {@link #normalize}
+     * @param phase the phase of the fundamental, in radians
+     * @return the amplitude of the tone, between -1 and 1
+     */
+    public static double valueAt(double[] overtonesNormalized, double phase) {
+        double result = 0;
+        for(int i = 0; i < overtonesNormalized.length; i++)
+            result += overtonesNormalized[i] * Math.sin((i+1) * phase);
+        return result;
+    }
+}
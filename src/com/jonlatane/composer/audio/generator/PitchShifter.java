@@ -1,53 +1,115 @@
 package com.jonlatane.composer.audio.generator;
 
+import com.jonlatane.composer.audio.dsp.FFT;
+
+import java.util.Arrays;
+
 /**
+ * A phase vocoder pitch shifter, after Stephan Bernsee's smbPitchShift.  Each instance carries the
+ * state of one stream, so separate streams may be shifted concurrently on separate threads.  All
+ * buffers are allocated up front and the FFT tables are shared between instances of the same frame
+ * size.
+ *
  * Created by jonlatane on 7/18/15.
  */
 public class PitchShifter
 {
+    public static final int DEFAULT_FRAME_SIZE = 2048;
+    public static final int DEFAULT_OVERSAMPLING = 10;
+
+    private final int fftFrameSize, fftFrameSize2, osamp, stepSize, inFifoLatency;
+    private final FFT fft;
+    private final float[] window;
+
+    private final float[] gInFIFO;
+    private final float[] gOutFIFO;
+    private final float[] gFFTworksp;
+    private final float[] gLastPhase;
+    private final float[] gSumPhase;
+    private final float[] gOutputAccum;
+    private final float[] gAnaFreq;
+    private final float[] gAnaMagn;
+    private final float[] gSynFreq;
+    private final float[] gSynMagn;
+    private int gRover;
+
+    public PitchShifter() {
+        this(DEFAULT_FRAME_SIZE, DEFAULT_OVERSAMPLING);
+    }
 
-    private static int MAX_FRAME_LENGTH = 16000;
-    private static float[] gInFIFO = new float[MAX_FRAME_LENGTH];
-    private static float[] gOutFIFO = new float[MAX_FRAME_LENGTH];
-    private static float[] gFFTworksp = new float[2 * MAX_FRAME_LENGTH];
-    private static float[] gLastPhase = new float[MAX_FRAME_LENGTH / 2 + 1];
-    private static float[] gSumPhase = new float[MAX_FRAME_LENGTH / 2 + 1];
-    private static float[] gOutputAccum = new float[2 * MAX_FRAME_LENGTH];
-    private static float[] gAnaFreq = new float[MAX_FRAME_LENGTH];
-    private static float[] gAnaMagn = new float[MAX_FRAME_LENGTH];
-    private static float[] gSynFreq = new float[MAX_FRAME_LENGTH];
-    private static float[] gSynMagn = new float[MAX_FRAME_LENGTH];
-    private static long gRover, gInit;
-
-    public static void pitchShift(float pitchShift, long numSampsToProcess,
-                                  float sampleRate, float[] indata) {
-        pitchShift(pitchShift, numSampsToProcess, (long) 2048, (long) 10, sampleRate, indata);
+    /**
+     * @param fftFrameSize the analysis frame length, a power of two
+     * @param osamp the oversampling factor: how many frames overlap each sample.  4 is moderate
+     *              quality, 32 is best.
+     */
+    public PitchShifter(int fftFrameSize, int osamp) {
+        this.fftFrameSize = fftFrameSize;
+        this.fftFrameSize2 = fftFrameSize / 2;
+        this.osamp = osamp;
+        this.stepSize = fftFrameSize / osamp;
+        this.inFifoLatency = fftFrameSize - stepSize;
+        this.fft = FFT.forSize(fftFrameSize);
+        this.window = fft.getHannWindow();
+
+        gInFIFO = new float[fftFrameSize];
+        gOutFIFO = new float[fftFrameSize];
+        gFFTworksp = new float[fftFrameSize + 2];
+        gLastPhase = new float[fftFrameSize2 + 1];
+        gSumPhase = new float[fftFrameSize2 + 1];
+        gOutputAccum = new float[2 * fftFrameSize];
+        gAnaFreq = new float[fftFrameSize2 + 1];
+        gAnaMagn = new float[fftFrameSize2 + 1];
+        gSynFreq = new float[fftFrameSize2 + 1];
+        gSynMagn = new float[fftFrameSize2 + 1];
+        gRover = inFifoLatency;
     }
 
-    public static void pitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
-                                  long osamp, float sampleRate, float[] indata) {
-        double magn, phase, tmp, window, real, imag;
-        double freqPerBin, expct;
-        long i, k, qpd, index, inFifoLatency, stepSize, fftFrameSize2;
+    /**
+     * Forget everything heard so far, so this shifter may start on a new stream.
+     */
+    public void reset() {
+        Arrays.fill(gInFIFO, 0);
+        Arrays.fill(gOutFIFO, 0);
+        Arrays.fill(gLastPhase, 0);
+        Arrays.fill(gSumPhase, 0);
+        Arrays.fill(gOutputAccum, 0);
+        gRover = inFifoLatency;
+    }
+
+    /**
+     * @return the number of samples of delay between input and output
+     */
+    public int getLatency() {
+        return inFifoLatency;
+    }
 
+    /**
+     * Shift the pitch of the given samples, in place.  The output lags the input by
+     * {@link #getLatency()} samples.
+     *
+     * @param pitchShift the ratio of output frequency to input frequency, between .5 and 2
+     * @param numSampsToProcess the number of samples of indata to process
+     * @param sampleRate the sample rate of the data
+     * @param indata the data to shift
+     */
+    public void pitchShift(float pitchShift, int numSampsToProcess, float sampleRate, float[] indata) {
+        double magn, phase, tmp, real, imag;
+        double freqPerBin, expct;
+        long qpd;
+        int i, k, index;
 
         float[] outdata = indata;
             /* set up some handy variables */
-        fftFrameSize2 = fftFrameSize / 2;
-        stepSize = fftFrameSize / osamp;
         freqPerBin = sampleRate / (double)fftFrameSize;
         expct = 2.0 * Math.PI * (double)stepSize / (double)fftFrameSize;
-        inFifoLatency = fftFrameSize - stepSize;
-        if (gRover == 0) gRover = inFifoLatency;
-
 
             /* main processing loop */
         for (i = 0; i < numSampsToProcess; i++)
         {
 
                 /* As long as we have not yet collected enough data just read in */
-            gInFIFO[(int)(gRover)] = indata[(int)(i)];
-            outdata[(int)(i)] = gOutFIFO[(int)(gRover - inFifoLatency)];
+            gInFIFO[gRover] = indata[i];
+            outdata[i] = gOutFIFO[gRover - inFifoLatency];
             gRover++;
 
                 /* now we have enough data for processing */
@@ -55,34 +117,32 @@ public class PitchShifter
             {
                 gRover = inFifoLatency;
 
-                    /* do windowing and re,im interleave */
+                    /* do windowing */
                 for (k = 0; k < fftFrameSize; k++)
                 {
-                    window = -.5 * Math.cos(2.0 * Math.PI * (double) k / (double) fftFrameSize) + .5;
-                    gFFTworksp[(int)(2 * k)] = (float)(gInFIFO[(int)(k)] * window);
-                    gFFTworksp[(int)(2 * k + 1)] = 0.0F;
+                    gFFTworksp[k] = gInFIFO[k] * window[k];
                 }
 
 
                     /* ***************** ANALYSIS ******************* */
                     /* do transform */
-                shortTimeFourierTransform(gFFTworksp, fftFrameSize, -1);
+                fft.realForward(gFFTworksp);
 
                     /* this is the analysis step */
                 for (k = 0; k <= fftFrameSize2; k++)
                 {
 
                         /* de-interlace FFT buffer */
-                    real = gFFTworksp[(int)(2 * k)];
-                    imag = gFFTworksp[(int)(2 * k + 1)];
+                    real = gFFTworksp[2 * k];
+                    imag = gFFTworksp[2 * k + 1];
 
                         /* compute magnitude and phase */
                     magn = 2.0 * Math.sqrt(real * real + imag * imag);
                     phase = Math.atan2(imag, real);
 
                         /* compute phase difference */
-                    tmp = phase - gLastPhase[(int)(k)];
-                    gLastPhase[(int)(k)] = (float)phase;
+                    tmp = phase - gLastPhase[k];
+                    gLastPhase[k] = (float)phase;
 
                         /* subtract expected phase difference */
                     tmp -= (double)k * expct;
@@ -100,26 +160,23 @@ public class PitchShifter
                     tmp = (double)k * freqPerBin + tmp * freqPerBin;
 
                         /* store magnitude and true frequency in analysis arrays */
-                    gAnaMagn[(int)(k)] = (float)magn;
-                    gAnaFreq[(int)(k)] = (float)tmp;
+                    gAnaMagn[k] = (float)magn;
+                    gAnaFreq[k] = (float)tmp;
 
                 }
 
                     /* ***************** PROCESSING ******************* */
                     /* this does the actual pitch shifting */
-                for (int zero = 0; zero < fftFrameSize; zero++)
-                {
-                    gSynMagn[zero] = 0;
-                    gSynFreq[zero] = 0;
-                }
+                Arrays.fill(gSynMagn, 0);
+                Arrays.fill(gSynFreq, 0);
 
                 for (k = 0; k <= fftFrameSize2; k++)
                 {
-                    index = (long)(k * pitchShift);
+                    index = (int)(k * pitchShift);
                     if (index <= fftFrameSize2)
                     {
-                        gSynMagn[(int)(index)] += gAnaMagn[(int)(k)];
-                        gSynFreq[(int)(index)] = gAnaFreq[(int)(k)] * pitchShift;
+                        gSynMagn[index] += gAnaMagn[k];
+                        gSynFreq[index] = gAnaFreq[k] * pitchShift;
                     }
                 }
 
@@ -129,8 +186,8 @@ public class PitchShifter
                 {
 
                         /* get magnitude and true frequency from synthesis arrays */
-                    magn = gSynMagn[(int)(k)];
-                    tmp = gSynFreq[(int)(k)];
+                    magn = gSynMagn[k];
+                    tmp = gSynFreq[k];
 
                         /* subtract bin mid frequency */
                     tmp -= (double)k * freqPerBin;
@@ -145,89 +202,34 @@ public class PitchShifter
                     tmp += (double)k * expct;
 
                         /* accumulate delta phase to get bin phase */
-                    gSumPhase[(int)(k)] += (float)tmp;
-                    phase = gSumPhase[(int)(k)];
+                    gSumPhase[k] += (float)tmp;
+                    phase = gSumPhase[k];
 
                         /* get real and imag part and re-interleave */
-                    gFFTworksp[(int)(2 * k)] = (float)(magn * Math.cos(phase));
-                    gFFTworksp[(int)(2 * k + 1)] = (float)(magn * Math.sin(phase));
+                    gFFTworksp[2 * k] = (float)(magn * Math.cos(phase));
+                    gFFTworksp[2 * k + 1] = (float)(magn * Math.sin(phase));
                 }
 
-                    /* zero negative frequencies */
-                for (k = fftFrameSize + 2; k < 2 * fftFrameSize; k++) gFFTworksp[(int)(k)] = 0.0F;
+                    /* the one-sided complex transform this replaced weighed DC and Nyquist twice
+                       as heavily as a real inverse does; keep its output */
+                gFFTworksp[0] *= 2;
+                gFFTworksp[fftFrameSize] *= 2;
 
                     /* do inverse transform */
-                shortTimeFourierTransform(gFFTworksp, fftFrameSize, 1);
+                fft.realInverse(gFFTworksp);
 
                     /* do windowing and add to output accumulator */
                 for (k = 0; k < fftFrameSize; k++)
                 {
-                    window = -.5 * Math.cos(2.0 * Math.PI * (double) k / (double) fftFrameSize) + .5;
-                    gOutputAccum[(int)(k)] += (float)(2.0 * window * gFFTworksp[(int)(2 * k)] / (fftFrameSize2 * osamp));
+                    gOutputAccum[k] += 2.0f * window[k] * gFFTworksp[k] / osamp;
                 }
-                for (k = 0; k < stepSize; k++) gOutFIFO[(int)(k)] = gOutputAccum[(int)(k)];
+                System.arraycopy(gOutputAccum, 0, gOutFIFO, 0, stepSize);
 
                     /* shift accumulator */
-                //memmove(gOutputAccum, gOutputAccum + stepSize, fftFrameSize * sizeof(float));
-                for (k = 0; k < fftFrameSize; k++)
-                {
-                    gOutputAccum[(int)(k)] = gOutputAccum[(int)(k + stepSize)];
-                }
+                System.arraycopy(gOutputAccum, stepSize, gOutputAccum, 0, fftFrameSize);
 
                     /* move input FIFO */
-                for (k = 0; k < inFifoLatency; k++) gInFIFO[(int)(k)] = gInFIFO[(int)(k + stepSize)];
-            }
-        }
-    }
-
-    private static void shortTimeFourierTransform(float[] fftBuffer, long fftFrameSize, long sign) {
-        float wr, wi, arg, temp;
-        float tr, ti, ur, ui;
-        long i, bitm, j, le, le2, k;
-
-        for (i = 2; i < 2 * fftFrameSize - 2; i += 2)
-        {
-            for (bitm = 2, j = 0; bitm < 2 * fftFrameSize; bitm <<= 1)
-            {
-                if ((i & bitm) != 0) j++;
-                j <<= 1;
-            }
-            if (i < j)
-            {
-                temp = fftBuffer[(int)(i)];
-                fftBuffer[(int)(i)] = fftBuffer[(int)(j)];
-                fftBuffer[(int)(j)] = temp;
-                temp = fftBuffer[(int)(i + 1)];
-                fftBuffer[(int)(i + 1)] = fftBuffer[(int)(j + 1)];
-                fftBuffer[(int)(j + 1)] = temp;
-            }
-        }
-        long max = (long)(Math.log(fftFrameSize) / Math.log(2.0) + .5);
-        for (k = 0, le = 2; k < max; k++)
-        {
-            le <<= 1;
-            le2 = le >> 1;
-            ur = 1.0F;
-            ui = 0.0F;
-            arg = (float)Math.PI / (le2 >> 1);
-            wr = (float)Math.cos(arg);
-            wi = (float)(sign * Math.sin(arg));
-            for (j = 0; j < le2; j += 2)
-            {
-
-                for (i = j; i < 2 * fftFrameSize; i += le)
-                {
-                    tr = fftBuffer[(int)(i + le2)] * ur - fftBuffer[(int)(i + le2 + 1)] * ui;
-                    ti = fftBuffer[(int)(i + le2)] * ui + fftBuffer[(int)(i + le2 + 1)] * ur;
-                    fftBuffer[(int)(i + le2)] = fftBuffer[(int)i] - tr;
-                    fftBuffer[(int)(i + le2 + 1)] = fftBuffer[(int)(i + 1)] - ti;
-                    fftBuffer[(int)(i)] += tr;
-                    fftBuffer[(int)(i + 1)] += ti;
-
-                }
-                tr = ur * wr - ui * wi;
-                ui = ur * wi + ui * wr;
-                ur = tr;
+                System.arraycopy(gInFIFO, stepSize, gInFIFO, 0, inFifoLatency);
             }
         }
     }
@@ -1,7 +1,181 @@
 package com.jonlatane.composer.audio.generator;
 
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.AudioTrackCache;
+import com.jonlatane.composer.audio.AudioTrackGenerator;
+import com.jonlatane.composer.audio.NotePcmCache;
+import com.jonlatane.composer.audio.wav.WavReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
 /**
+ * Plays recorded samples.  A few root notes are loaded from WAV files, and every other note is made by
+ * pitch-shifting the nearest root with a {@link PitchShifter}.  Shifting is slow, so the
+ * {@link #hashCode} identifies the samples exactly, letting the
+ * {@link com.jonlatane.composer.audio.DiskPcmCache} keep shifted notes between runs.
+ *
+ * If a root's WAV file has a sampler loop, notes loop over it; otherwise the whole sample loops.
+ *
  * Created by jonlatane on 7/19/15.
  */
-public class PitchShifterGenerator {
+public class PitchShifterGenerator implements AudioTrackGenerator {
+    private static final String TAG = "PitchShifterGenerator";
+
+    private static class Root {
+        final int note;
+        final float[] samples;
+        final int loopStart, loopEnd;
+
+        Root(int note, float[] samples, int loopStart, int loopEnd) {
+            this.note = note;
+            this.samples = samples;
+            this.loopStart = loopStart;
+            this.loopEnd = loopEnd;
+        }
+    }
+
+    /** Maps note integer value with C4 = 0 -> the Root recorded at that note */
+    private final TreeMap<Integer, Root> roots = new TreeMap<Integer, Root>();
+    private final int hashCode;
+
+    /**
+     * Load the given samples.
+     *
+     * @param rootFiles maps note integer value with C4 = 0 -> a WAV file recorded at that note
+     * @throws IOException if a sample can't be read
+     */
+    public PitchShifterGenerator(Map<Integer, File> rootFiles) throws IOException {
+        if(rootFiles.isEmpty())
+            throw new IllegalArgumentException("PitchShifterGenerator needs at least one root sample");
+
+        CRC32 crc = new CRC32();
+        for(Map.Entry<Integer, File> e : rootFiles.entrySet()) {
+            WavReader wav = WavReader.open(e.getValue());
+            double rateRatio = (double) NATIVE_OUTPUT_SAMPLE_RATE / wav.getSampleRate();
+            float[] samples = resample(wav.readMono(), rateRatio);
+            int loopStart = 0, loopEnd = samples.length;
+            if(wav.getLoopEnd() > 0) {
+                loopStart = (int) Math.round(wav.getLoopStart() * rateRatio);
+                loopEnd = Math.min(samples.length, (int) Math.round(wav.getLoopEnd() * rateRatio));
+            }
+            roots.put(e.getKey(), new Root(e.getKey(), samples, loopStart, loopEnd));
+
+            updateChecksum(crc, e.getKey());
+            updateChecksum(crc, e.getValue());
+        }
+        updateChecksum(crc, PitchShifter.DEFAULT_FRAME_SIZE);
+        updateChecksum(crc, PitchShifter.DEFAULT_OVERSAMPLING);
+        updateChecksum(crc, NATIVE_OUTPUT_SAMPLE_RATE);
+        hashCode = (int) crc.getValue();
+    }
+
+    /**
+     * CRC32.update(int) only takes the low byte, so write all four.
+     */
+    private static void updateChecksum(CRC32 crc, int value) {
+        crc.update(ByteBuffer.allocate(4).putInt(value).array(), 0, 4);
+    }
+
+    private static void updateChecksum(CRC32 crc, File f) throws IOException {
+        byte[] buffer = new byte[8192];
+        FileInputStream in = new FileInputStream(f);
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0)
+                crc.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Linear interpolation is fine here: roots are resampled once, and only if they weren't recorded
+     * at the device's rate.
+     */
+    private static float[] resample(float[] samples, double ratio) {
+        if(ratio == 1)
+            return samples;
+        float[] result = new float[(int) (samples.length * ratio)];
+        for(int i = 0; i < result.length; i++) {
+            double position = i / ratio;
+            int index = (int) position;
+            double fraction = position - index;
+            float next = (index + 1 < samples.length) ? samples[index + 1] : 0;
+            result[i] = (float) (samples[index] * (1 - fraction) + next * fraction);
+        }
+        return result;
+    }
+
+    private Root nearestRoot(int n) {
+        Map.Entry<Integer, Root> below = roots.floorEntry(n);
+        Map.Entry<Integer, Root> above = roots.ceilingEntry(n);
+        if(below == null)
+            return above.getValue();
+        if(above == null || n - below.getKey() <= above.getKey() - n)
+            return below.getValue();
+        return above.getValue();
+    }
+
+    @Override
+    public byte[] renderPcmFor(int n) {
+        Root root = nearestRoot(n);
+        float pitchShift = (float) Math.pow(2, (n - root.note) / 12.);
+        Log.d(TAG, "Shifting root " + root.note + " to note " + n);
+
+        // Run the shifter past the end of the sample so we get everything back despite its latency
+        PitchShifter shifter = new PitchShifter();
+        int latency = shifter.getLatency();
+        float[] data = new float[root.samples.length + latency];
+        System.arraycopy(root.samples, 0, data, 0, root.samples.length);
+        if(n != root.note)
+            shifter.pitchShift(pitchShift, data.length, NATIVE_OUTPUT_SAMPLE_RATE, data);
+        else
+            latency = 0;
+
+        // convert to 16 bit pcm sound array
+        byte[] result = new byte[2 * root.samples.length];
+        int idx = 0;
+        for(int i = latency; i < latency + root.samples.length; i++) {
+            final short val = (short) (Math.max(-1f, Math.min(1f, data[i])) * 32767);
+            // in 16 bit wav PCM, first byte is the low order byte
+            result[idx++] = (byte) (val & 0x00ff);
+            result[idx++] = (byte) ((val & 0xff00) >>> 8);
+        }
+
+        return result;
+    }
+
+    @Override
+    public AudioTrack getAudioTrackFor(int n) {
+        byte[] pcm = NotePcmCache.getPcmForNote(n, this);
+        int numFrames = pcm.length / 2;
+        return AudioTrackCache.newLoopingTrack(pcm, getLoopStartFor(n, numFrames),
+                getLoopEndFor(n, numFrames), 0);
+    }
+
+    @Override
+    public int getLoopStartFor(int n, int numFrames) {
+        return Math.min(nearestRoot(n).loopStart, numFrames);
+    }
+
+    @Override
+    public int getLoopEndFor(int n, int numFrames) {
+        return Math.min(nearestRoot(n).loopEnd, numFrames);
+    }
+
+    /**
+     * Identifies the set of samples, so that caches of notes from different sets don't collide.
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
 }
@@ -0,0 +1,335 @@
+package com.jonlatane.composer.audio.pitch;
+
+import com.jonlatane.composer.audio.dsp.FFT;
+import com.jonlatane.composer.audio.wav.WavReader;
+import com.jonlatane.composer.music.harmony.Chord;
+import com.jonlatane.composer.music.harmony.Key;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Names the chords being played in a stream of audio, e.g. from a guitar or a piano, with the same
+ * engine that names chords played on the keyboard.  Every hop, the last {@link #WINDOW_SIZE} samples
+ * are transformed, the peaks of the spectrum are folded into a 12-bin chromagram, and the pitch classes
+ * holding a good share of its energy become a {@link Chord}, rooted on the bass note if the bass is one
+ * of them.  A {@link Listener} hears about the chord whenever it changes.
+ *
+ * Overtones would otherwise add the fifth and major third of every note to the chord, so a peak at a
+ * whole multiple of a much louder, lower peak counts for only {@link #HARMONIC_WEIGHT} of itself.  The
+ * chromagram is smoothed from hop to hop, and a chord must be heard for {@link #STABLE_HOPS} hops in a
+ * row before it is reported.
+ *
+ * All analysis buffers are allocated up front.  Naming a chord allocates, so each chord is named once,
+ * the first time it is heard, and cached; after that nothing is allocated per hop.  Each instance
+ * follows one stream and is not thread-safe.
+ */
+public class ChordRecognizer {
+    /** The number of samples analyzed at a time */
+    public static final int WINDOW_SIZE = 4096;
+    public static final float DEFAULT_HOPS_PER_SECOND = 10;
+    /** The range of frequencies considered, in Hz */
+    public static final float MIN_FREQUENCY = 60, MAX_FREQUENCY = 5000;
+    /** Spectral peaks quieter than this fraction of the loudest are ignored */
+    public static final float PEAK_FLOOR = .05f;
+    /** How much an overtone of a louder peak counts toward its pitch class */
+    public static final float HARMONIC_WEIGHT = .25f;
+    /** A pitch class with at least this fraction of the strongest one's energy is in the chord */
+    public static final float THRESHOLD = .3f;
+    /** How much of the previous hop's chromagram carries over into the next */
+    public static final float SMOOTHING = .5f;
+    /** Windows quieter than this RMS are treated as silence */
+    public static final float SILENCE_RMS = .01f;
+    /** How many hops in a row must agree on a chord before it is reported */
+    public static final int STABLE_HOPS = 2;
+    /** The lowest note must be at least this fraction of the loudest peak to be taken as the root */
+    private static final float BASS_FLOOR = .25f;
+    /** A peak louder than this fraction of a lower one is taken to be a note, even at one of its overtones */
+    private static final float OVERTONE_LEVEL = .6f;
+    private static final int MAX_PEAKS = 48;
+    private static final int NO_ROOT = -1;
+
+    /**
+     * Hears about chord changes.  Times are in samples from the start of the stream and are the middle of
+     * the first window that heard the chord.
+     */
+    public interface Listener {
+        /**
+         * @param chord the pitch classes heard, rooted if the root could be told from the bass; empty for
+         *              silence.  Shared between calls, so it must not be modified.
+         * @param name the most likely name of the chord, or an empty String for silence
+         * @param sample when the chord started
+         */
+        void onChordChanged(Chord chord, String name, long sample);
+    }
+
+    /** A chord and its name, as cached for each combination of pitch classes and root */
+    private static final class Guess {
+        final Chord CHORD;
+        final String NAME;
+
+        Guess(Chord chord, String name) {
+            CHORD = chord;
+            NAME = name;
+        }
+    }
+
+    private final float sampleRate;
+    private final int hopSize;
+    private final Listener listener;
+    private final FFT fft;
+    private final float[] hann;
+    private final int lowBin, highBin;
+    private Key key;
+    /** Indexed by mask * 13 + root + 1, where a mask has bit n set if pitch class n is in the chord */
+    private final Guess[] guesses = new Guess[4096 * 13];
+
+    /** The last {@link #WINDOW_SIZE} samples, as a ring starting at {@link #ringPosition} */
+    private final float[] ring = new float[WINDOW_SIZE];
+    private int ringPosition = 0;
+    private long samplesSeen = 0;
+    private int sinceHop = 0;
+
+    private final float[] spectrum = new float[WINDOW_SIZE + 2];
+    private final float[] magnitude = new float[WINDOW_SIZE / 2 + 1];
+    private final float[] peakFrequency = new float[MAX_PEAKS], peakMagnitude = new float[MAX_PEAKS];
+    private final float[] rawChroma = new float[12], chroma = new float[12];
+
+    private int candidateMask = 0, candidateRoot = NO_ROOT, candidateHops = 0;
+    private long candidateSince = 0;
+    private int currentMask = 0, currentRoot = NO_ROOT;
+
+    public ChordRecognizer(float sampleRate, Listener listener) {
+        this(sampleRate, DEFAULT_HOPS_PER_SECOND, Key.CMajor, listener);
+    }
+
+    /**
+     * @param sampleRate the sample rate of the audio
+     * @param hopsPerSecond how many times a second to analyze the audio
+     * @param key the key to spell chord names in
+     * @param listener who to tell about chord changes
+     */
+    public ChordRecognizer(float sampleRate, float hopsPerSecond, Key key, Listener listener) {
+        this.sampleRate = sampleRate;
+        this.hopSize = Math.max(1, Math.round(sampleRate / hopsPerSecond));
+        this.key = key;
+        this.listener = listener;
+        this.fft = FFT.forSize(WINDOW_SIZE);
+        this.hann = fft.getHannWindow();
+        this.lowBin = Math.max(1, (int) Math.ceil(MIN_FREQUENCY * WINDOW_SIZE / sampleRate));
+        this.highBin = Math.min(WINDOW_SIZE / 2 - 1, (int) (MAX_FREQUENCY * WINDOW_SIZE / sampleRate));
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * Spell chord names in a different key from now on.
+     */
+    public void setKey(Key key) {
+        this.key = key;
+        for(int i = 0; i < guesses.length; i++)
+            guesses[i] = null;
+    }
+
+    /**
+     * @return the number of samples between analyses
+     */
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /**
+     * Get the current, smoothed chromagram.
+     *
+     * @param out 12 weights, C first, scaled so that the strongest is 1
+     */
+    public void getChroma(float[] out) {
+        float max = 0;
+        for(int pc = 0; pc < 12; pc++)
+            max = Math.max(max, chroma[pc]);
+        for(int pc = 0; pc < 12; pc++)
+            out[pc] = (max > 0) ? chroma[pc] / max : 0;
+    }
+
+    /**
+     * Feed the recognizer more audio.
+     *
+     * @param samples mono samples between -1 and 1
+     * @param offset the first sample to take
+     * @param length how many samples to take
+     */
+    public void process(float[] samples, int offset, int length) {
+        for(int i = offset; i < offset + length; i++) {
+            ring[ringPosition] = samples[i];
+            ringPosition = (ringPosition + 1) & (WINDOW_SIZE - 1);
+            samplesSeen++;
+            if(samplesSeen >= WINDOW_SIZE && (sinceHop == 0 || sinceHop >= hopSize)) {
+                analyze(samplesSeen - WINDOW_SIZE / 2);
+                sinceHop = 0;
+            }
+            sinceHop++;
+        }
+    }
+
+    /**
+     * Report silence, e.g. at the end of the stream, if a chord is sounding.
+     */
+    public void finish() {
+        if(currentMask != 0)
+            listener.onChordChanged(getGuess(0, NO_ROOT).CHORD, "", samplesSeen);
+        currentMask = 0;
+        currentRoot = NO_ROOT;
+        candidateMask = 0;
+        candidateRoot = NO_ROOT;
+        candidateHops = 0;
+    }
+
+    /**
+     * Recognize the chords in a WAV file, mixed down to mono.
+     *
+     * @param wav the file
+     * @throws IOException if the file can't be read or isn't at this recognizer's sample rate
+     */
+    public void recognize(File wav) throws IOException {
+        WavReader reader = WavReader.open(wav);
+        if(reader.getSampleRate() != sampleRate)
+            throw new IOException(wav + " is at " + reader.getSampleRate() + "Hz, not " + sampleRate + "Hz");
+        float[] block = new float[hopSize];
+        for(int frame = 0; frame < reader.getNumFrames(); frame += block.length) {
+            int length = Math.min(block.length, reader.getNumFrames() - frame);
+            reader.readMono(frame, length, block);
+            process(block, 0, length);
+        }
+        finish();
+    }
+
+    private void analyze(long center) {
+        double energy = 0;
+        for(int k = 0; k < WINDOW_SIZE; k++) {
+            float x = ring[(ringPosition + k) & (WINDOW_SIZE - 1)];
+            energy += x * x;
+            spectrum[k] = x * hann[k];
+        }
+
+        for(int pc = 0; pc < 12; pc++)
+            rawChroma[pc] = 0;
+        int bass = NO_ROOT;
+        if(Math.sqrt(energy / WINDOW_SIZE) >= SILENCE_RMS)
+            bass = foldSpectrum();
+
+        int mask = 0;
+        float max = 0;
+        for(int pc = 0; pc < 12; pc++) {
+            chroma[pc] = SMOOTHING * chroma[pc] + (1 - SMOOTHING) * rawChroma[pc];
+            max = Math.max(max, chroma[pc]);
+        }
+        if(bass != NO_ROOT) {
+            for(int pc = 0; pc < 12; pc++) {
+                if(chroma[pc] >= THRESHOLD * max)
+                    mask |= 1 << pc;
+            }
+        }
+        int root = (bass != NO_ROOT && (mask & (1 << bass)) != 0) ? bass : NO_ROOT;
+
+        if(mask != candidateMask || root != candidateRoot) {
+            candidateMask = mask;
+            candidateRoot = root;
+            candidateHops = 0;
+            candidateSince = center;
+        }
+        candidateHops++;
+        if(candidateHops == STABLE_HOPS && (candidateMask != currentMask || candidateRoot != currentRoot)) {
+            currentMask = candidateMask;
+            currentRoot = candidateRoot;
+            Guess g = getGuess(currentMask, currentRoot);
+            listener.onChordChanged(g.CHORD, g.NAME, candidateSince);
+        }
+    }
+
+    /**
+     * Transform the windowed audio in {@link #spectrum} and add its peaks to {@link #rawChroma}.
+     *
+     * @return the pitch class of the lowest strong note, or {@link #NO_ROOT} if there were no peaks
+     */
+    private int foldSpectrum() {
+        fft.realForward(spectrum);
+        float maxMagnitude = 0;
+        for(int k = lowBin - 1; k <= highBin + 1; k++) {
+            float re = spectrum[2 * k], im = spectrum[2 * k + 1];
+            magnitude[k] = (float) Math.sqrt(re * re + im * im);
+            if(k >= lowBin && k <= highBin)
+                maxMagnitude = Math.max(maxMagnitude, magnitude[k]);
+        }
+        if(maxMagnitude == 0)
+            return NO_ROOT;
+
+        // Local maxima, lowest first, placed between bins by parabolic interpolation
+        int peaks = 0;
+        for(int k = lowBin; k <= highBin && peaks < MAX_PEAKS; k++) {
+            float m = magnitude[k];
+            if(m < PEAK_FLOOR * maxMagnitude || m <= magnitude[k - 1] || m < magnitude[k + 1])
+                continue;
+            float s0 = magnitude[k - 1], s2 = magnitude[k + 1];
+            float denominator = s0 + s2 - 2 * m;
+            float bin = k;
+            if(denominator != 0)
+                bin += (s0 - s2) / (2 * denominator);
+            peakFrequency[peaks] = bin * sampleRate / WINDOW_SIZE;
+            peakMagnitude[peaks] = m;
+            peaks++;
+        }
+
+        int bass = NO_ROOT;
+        for(int i = 0; i < peaks; i++) {
+            float weight = peakMagnitude[i];
+            boolean overtone = false;
+            for(int j = 0; j < i && !overtone; j++) {
+                if(peakMagnitude[i] > OVERTONE_LEVEL * peakMagnitude[j])
+                    continue;
+                float ratio = peakFrequency[i] / peakFrequency[j];
+                int harmonic = Math.round(ratio);
+                // Within a quarter tone of the 2nd to 6th harmonic
+                overtone = harmonic >= 2 && harmonic <= 6 && Math.abs(ratio / harmonic - 1) < .03f;
+            }
+            if(overtone)
+                weight *= HARMONIC_WEIGHT;
+
+            // 440 Hz is A4, 9 semitones above C4
+            int note = (int) Math.round(12 * Math.log(peakFrequency[i] / 440.) / Math.log(2)) + 9;
+            int pc = Chord.TWELVETONE.mod(note);
+            rawChroma[pc] += weight;
+            if(bass == NO_ROOT && !overtone && peakMagnitude[i] >= BASS_FLOOR * maxMagnitude)
+                bass = pc;
+        }
+        return bass;
+    }
+
+    private Guess getGuess(int mask, int root) {
+        int index = mask * 13 + root + 1;
+        Guess result = guesses[index];
+        if(result == null) {
+            Chord chord = new Chord();
+            for(int pc = 0; pc < 12; pc++) {
+                if((mask & (1 << pc)) != 0)
+                    chord.add(pc);
+            }
+            String name = "";
+            if(root != NO_ROOT)
+                chord.setRoot(root);
+            if(mask != 0) {
+                TreeMap<Integer,List<String>> data = Key.getRootLikelihoodsAndNames(Key.CChromatic, chord, key);
+                Map.Entry<Integer,List<String>> best = data.lastEntry();
+                if(best != null && !best.getValue().isEmpty())
+                    name = best.getValue().get(0);
+            }
+            result = new Guess(chord, name);
+            guesses[index] = result;
+        }
+        return result;
+    }
+}
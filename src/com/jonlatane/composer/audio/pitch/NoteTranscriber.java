@@ -0,0 +1,105 @@
+package com.jonlatane.composer.audio.pitch;
+
+import com.jonlatane.composer.audio.render.ScoreTimeline;
+import com.jonlatane.composer.audio.wav.WavReader;
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.RhythmMap;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.harmony.PitchSet;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the notes found by a {@link YinPitchTracker} into a {@link Score.Staff.Voice}.  Each note's
+ * start and end are placed on the Score with a {@link ScoreTimeline} at the tempo being played to, and
+ * snapped to a grid of subdivisions of the beat of the Score's Meter.  Where a note ends before the
+ * next one starts, a rest is written.
+ *
+ * Like the tracker, this runs headlessly, so recorded WAV files can be transcribed off-device with
+ * {@link #transcribe(File)}.
+ */
+public class NoteTranscriber implements YinPitchTracker.Listener {
+    /** How many samples to feed the tracker at a time when reading a file */
+    private static final int BLOCK_SIZE = 4096;
+
+    private final RhythmMap<PitchSet> notes;
+    private final ScoreTimeline timeline;
+    private final float sampleRate;
+    private final double startSeconds;
+    private final int subdivisionsPerBeat;
+
+    private Rational currentStart = null;
+    /** Where the last note-off wrote a rest, so that a note starting before it can take it back */
+    private Rational lastRest = null;
+
+    /**
+     * @param voice the Voice to write notes into
+     * @param timeline the Score's timeline, at the tempo being played to
+     * @param start where in the Score the audio starts
+     * @param subdivisionsPerBeat the grid to snap to, e.g. 4 for sixteenths in 4/4
+     * @param sampleRate the sample rate of the audio
+     */
+    public NoteTranscriber(Score.Staff.Voice voice, ScoreTimeline timeline, Rational start,
+                           int subdivisionsPerBeat, float sampleRate) {
+        this.notes = voice.getNotes();
+        this.timeline = timeline;
+        this.startSeconds = timeline.secondsAt(start);
+        this.subdivisionsPerBeat = subdivisionsPerBeat;
+        this.sampleRate = sampleRate;
+    }
+
+    private Rational positionOf(long sample) {
+        return timeline.quantize(startSeconds + sample / sampleRate, subdivisionsPerBeat);
+    }
+
+    @Override
+    public void onNoteOn(int note, long sample) {
+        Rational position = positionOf(sample);
+        // A note too short for the grid was kept a subdivision long, so its rest may come after this
+        // note starts; this note replaces it, rest and all
+        if(lastRest != null && position.compareTo(lastRest) < 0)
+            notes.remove(lastRest);
+        lastRest = null;
+        // Too short to land on a grid line of its own: the new note replaces it
+        if(currentStart != null && currentStart.equals(position))
+            notes.remove(position);
+        notes.put(position, new PitchSet(note));
+        currentStart = position;
+    }
+
+    @Override
+    public void onNoteOff(int note, long sample) {
+        Rational position = positionOf(sample);
+        if(currentStart == null || position.compareTo(currentStart) <= 0) {
+            // Keep at least one subdivision of the note rather than losing it
+            position = (currentStart == null) ? position
+                    : currentStart.plus(new Rational(1, subdivisionsPerBeat));
+        }
+        if(!notes.getRhythm().contains(position)) {
+            notes.put(position, PitchSet.REST);
+            lastRest = position;
+        }
+        currentStart = null;
+    }
+
+    /**
+     * Transcribe a recording into the Voice.
+     *
+     * @param wav a WAV file of a monophonic line; multi-channel files are mixed down first
+     * @throws IOException if the file can't be read or isn't at this transcriber's sample rate
+     */
+    public void transcribe(File wav) throws IOException {
+        WavReader reader = WavReader.open(wav);
+        if(reader.getSampleRate() != sampleRate)
+            throw new IOException(wav + " is at " + reader.getSampleRate() + "Hz, not " + sampleRate + "Hz");
+        YinPitchTracker tracker = new YinPitchTracker(reader.getSampleRate(), this);
+        float[] block = new float[BLOCK_SIZE];
+        for(int frame = 0; frame < reader.getNumFrames(); frame += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, reader.getNumFrames() - frame);
+            reader.readMono(frame, length, block);
+            tracker.process(block, 0, length);
+        }
+        tracker.finish();
+    }
+}
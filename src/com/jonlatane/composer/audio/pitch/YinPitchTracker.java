@@ -0,0 +1,215 @@
+package com.jonlatane.composer.audio.pitch;
+
+import com.jonlatane.composer.audio.dsp.FFT;
+
+/**
+ * Follows the pitch of a monophonic line, e.g. someone singing, and turns it into notes.  Audio is fed
+ * in blocks of any size; every {@link #HOP_SIZE} samples the last {@link #WINDOW_SIZE} are analyzed
+ * with the YIN algorithm (de Cheveign&eacute; and Kawahara, 2002), and a {@link Listener} hears about
+ * notes as they start and stop.
+ *
+ * YIN's difference function is computed from an autocorrelation done with one FFT, so each analysis
+ * costs O(n log n) rather than O(n^2).  A note starts once {@link #STABLE_FRAMES} analyses in a row
+ * agree on it and stops when the pitch is lost or a different note becomes stable.
+ *
+ * Nothing here depends on the Android framework, so the tracker can be run headlessly over recorded
+ * WAV files.  All buffers are allocated up front.  Each instance follows one stream and is not
+ * thread-safe.
+ */
+public class YinPitchTracker {
+    /** The number of samples analyzed at a time; the lowest pitch detectable is twice the sample rate over this */
+    public static final int WINDOW_SIZE = 2048;
+    /** The number of samples between analyses */
+    public static final int HOP_SIZE = 256;
+    /** How low the normalized difference must dip for a period to count; YIN's absolute threshold */
+    public static final float THRESHOLD = .15f;
+    /** Blocks quieter than this RMS are treated as silence */
+    public static final float SILENCE_RMS = .01f;
+    /** How many analyses in a row must agree on a note before it starts */
+    public static final int STABLE_FRAMES = 3;
+    /** The range of notes reported, with C4 = 0: A0 to C8, the piano's range */
+    private static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+
+    /**
+     * Hears about the notes found.  Times are in samples from the start of the stream and are when the
+     * first analysis window agreeing on the change began.
+     */
+    public interface Listener {
+        /**
+         * @param note the note, with C4 = 0
+         * @param sample when the note started
+         */
+        void onNoteOn(int note, long sample);
+
+        /**
+         * @param note the note, with C4 = 0
+         * @param sample when the note stopped
+         */
+        void onNoteOff(int note, long sample);
+    }
+
+    private final float sampleRate;
+    private final Listener listener;
+    private final FFT fft;
+    private final int halfWindow;
+
+    /** The last {@link #WINDOW_SIZE} samples, oldest first */
+    private final float[] window = new float[WINDOW_SIZE];
+    private int windowFill = 0;
+    private long samplesSeen = 0;
+
+    private final float[] head, full, difference;
+    private final double[] energy;
+
+    private float lastFrequency = -1, lastClarity = 0;
+    private int candidateNote = Integer.MIN_VALUE, candidateFrames = 0;
+    private long candidateSince = 0;
+    private int currentNote = Integer.MIN_VALUE;
+
+    /**
+     * @param sampleRate the sample rate of the audio
+     * @param listener who to tell about notes
+     */
+    public YinPitchTracker(float sampleRate, Listener listener) {
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+        this.fft = FFT.forSize(WINDOW_SIZE);
+        this.halfWindow = WINDOW_SIZE / 2;
+        head = new float[WINDOW_SIZE + 2];
+        full = new float[WINDOW_SIZE + 2];
+        energy = new double[WINDOW_SIZE + 1];
+        difference = new float[halfWindow];
+    }
+
+    /**
+     * @return the frequency found by the last analysis in Hz, or -1 if it found none
+     */
+    public float getLastFrequency() {
+        return lastFrequency;
+    }
+
+    /**
+     * @return how periodic the last analysis found the audio, between 0 (noise) and 1 (a pure tone)
+     */
+    public float getLastClarity() {
+        return lastClarity;
+    }
+
+    /**
+     * Feed the tracker more audio.
+     *
+     * @param samples mono samples between -1 and 1
+     * @param offset the first sample to take
+     * @param length how many samples to take
+     */
+    public void process(float[] samples, int offset, int length) {
+        for(int i = offset; i < offset + length; i++) {
+            if(windowFill == WINDOW_SIZE) {
+                // Slide the window along by a hop
+                System.arraycopy(window, HOP_SIZE, window, 0, WINDOW_SIZE - HOP_SIZE);
+                windowFill -= HOP_SIZE;
+            }
+            window[windowFill++] = samples[i];
+            samplesSeen++;
+            if(windowFill == WINDOW_SIZE)
+                analyze(samplesSeen - WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * Stop whatever note is sounding, e.g. at the end of the stream.
+     */
+    public void finish() {
+        if(currentNote != Integer.MIN_VALUE)
+            listener.onNoteOff(currentNote, samplesSeen);
+        currentNote = Integer.MIN_VALUE;
+        candidateNote = Integer.MIN_VALUE;
+        candidateFrames = 0;
+    }
+
+    private void analyze(long windowStart) {
+        lastFrequency = detectFrequency();
+        int note = Integer.MIN_VALUE;
+        if(lastFrequency > 0) {
+            // 440 Hz is A4, 9 semitones above C4
+            note = (int) Math.round(12 * Math.log(lastFrequency / 440.) / Math.log(2)) + 9;
+            if(note < LOWEST_NOTE || note > HIGHEST_NOTE)
+                note = Integer.MIN_VALUE;
+        }
+
+        if(note != candidateNote) {
+            candidateNote = note;
+            candidateFrames = 0;
+            candidateSince = windowStart;
+        }
+        candidateFrames++;
+        if(candidateFrames == STABLE_FRAMES && candidateNote != currentNote) {
+            if(currentNote != Integer.MIN_VALUE)
+                listener.onNoteOff(currentNote, candidateSince);
+            currentNote = candidateNote;
+            if(currentNote != Integer.MIN_VALUE)
+                listener.onNoteOn(currentNote, candidateSince);
+        }
+    }
+
+    /**
+     * YIN over the current window.
+     *
+     * @return the fundamental frequency in Hz, or -1 if the window is silent or not periodic enough
+     */
+    private float detectFrequency() {
+        // Running energy, so the energy of any stretch of the window is a subtraction
+        energy[0] = 0;
+        for(int j = 0; j < WINDOW_SIZE; j++)
+            energy[j + 1] = energy[j] + window[j] * window[j];
+        if(Math.sqrt(energy[WINDOW_SIZE] / WINDOW_SIZE) < SILENCE_RMS) {
+            lastClarity = 0;
+            return -1;
+        }
+
+        // The correlation of the first half of the window with the whole, at every lag up to half
+        for(int j = 0; j < WINDOW_SIZE; j++) {
+            head[j] = (j < halfWindow) ? window[j] : 0;
+            full[j] = window[j];
+        }
+        fft.realForward(head);
+        fft.realForward(full);
+        for(int k = 0; k <= halfWindow; k++) {
+            float aRe = head[2 * k], aIm = head[2 * k + 1];
+            float bRe = full[2 * k], bIm = full[2 * k + 1];
+            full[2 * k] = aRe * bRe + aIm * bIm;
+            full[2 * k + 1] = aRe * bIm - aIm * bRe;
+        }
+        fft.realInverse(full);
+
+        // The cumulative mean normalized difference function
+        double headEnergy = energy[halfWindow];
+        double runningSum = 0;
+        difference[0] = 1;
+        for(int tau = 1; tau < halfWindow; tau++) {
+            double d = headEnergy + (energy[tau + halfWindow] - energy[tau]) - 2 * full[tau];
+            runningSum += d;
+            difference[tau] = (runningSum > 0) ? (float) (d * tau / runningSum) : 1;
+        }
+
+        // The first dip below the threshold, followed down to its bottom
+        int tau = 2;
+        while(tau < halfWindow - 1 && difference[tau] >= THRESHOLD)
+            tau++;
+        if(tau >= halfWindow - 1) {
+            lastClarity = 0;
+            return -1;
+        }
+        while(tau + 1 < halfWindow - 1 && difference[tau + 1] < difference[tau])
+            tau++;
+        lastClarity = Math.max(0, 1 - difference[tau]);
+
+        // Parabolic interpolation between lags for a finer period
+        float s0 = difference[tau - 1], s1 = difference[tau], s2 = difference[tau + 1];
+        float denominator = s0 + s2 - 2 * s1;
+        float period = tau;
+        if(denominator != 0)
+            period += (s0 - s2) / (2 * denominator);
+        return sampleRate / period;
+    }
+}
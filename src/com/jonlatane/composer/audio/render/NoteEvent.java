@@ -0,0 +1,37 @@
+package com.jonlatane.composer.audio.render;
+
+/**
+ * A single note in a rendered timeline: which note sounds, and the frames at which it starts and stops.
+ * Frames are counted from the beginning of the rendered audio.
+ */
+public class NoteEvent implements Comparable<NoteEvent> {
+    /** The note, with C4 = 0 */
+    public final int NOTE;
+    /** The first frame of the note */
+    public final long START;
+    /** The frame at which the note is released.  It may ring on a little longer than this. */
+    public final long END;
+    /** The index of the Staff the note came from */
+    public final int STAFF;
+
+    public NoteEvent(int note, long start, long end, int staff) {
+        this.NOTE = note;
+        this.START = start;
+        this.END = end;
+        this.STAFF = staff;
+    }
+
+    @Override
+    public int compareTo(NoteEvent another) {
+        if(START != another.START)
+            return START < another.START ? -1 : 1;
+        if(END != another.END)
+            return END < another.END ? -1 : 1;
+        return NOTE - another.NOTE;
+    }
+
+    @Override
+    public String toString() {
+        return NOTE + "@[" + START + "," + END + ")";
+    }
+}
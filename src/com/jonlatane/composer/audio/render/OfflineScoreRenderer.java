@@ -0,0 +1,255 @@
+package com.jonlatane.composer.audio.render;
+
+import com.jonlatane.composer.audio.dsp.BiquadEqualizer;
+import com.jonlatane.composer.audio.generator.OvertoneSeries;
+import com.jonlatane.composer.audio.wav.WavWriter;
+import com.jonlatane.composer.music.Score;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders a {@link Score} to audio without a device, using the same timbre model as the
+ * {@link com.jonlatane.composer.audio.generator.HarmonicOvertoneSeriesGenerator}.
+ *
+ * The output is split into fixed-size blocks which are synthesized in parallel and written in order.
+ * Blocks don't need anything from each other: the phase of a note's oscillator at the start of a block
+ * is computed directly from how many frames it has been sounding, and its envelope is a function of
+ * the same, so a note spanning several blocks is handed off seamlessly between them.
+ */
+public class OfflineScoreRenderer {
+    /** Length of a block in frames */
+    public static final int BLOCK_FRAMES = 8192;
+    /** Linear fade-in applied to every note to avoid clicks, in seconds */
+    public static final double ATTACK_SECONDS = .005;
+    /** Linear fade-out after every note is released, in seconds */
+    public static final double RELEASE_SECONDS = .05;
+
+    private final double[] overtonesNormalized;
+    private final int sampleRate;
+    private final int numThreads;
+    private final long attackFrames, releaseFrames;
+    private BiquadEqualizer equalizer = null;
+
+    public OfflineScoreRenderer(Double[] overtones, int sampleRate) {
+        this(overtones, sampleRate, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param overtones the overtone series to synthesize notes with
+     * @param sampleRate the sample rate of the output
+     * @param numThreads the number of blocks to render at once
+     */
+    public OfflineScoreRenderer(Double[] overtones, int sampleRate, int numThreads) {
+        this.overtonesNormalized = OvertoneSeries.normalize(overtones);
+        this.sampleRate = sampleRate;
+        this.numThreads = Math.max(1, numThreads);
+        this.attackFrames = Math.max(1, Math.round(ATTACK_SECONDS * sampleRate));
+        this.releaseFrames = Math.max(1, Math.round(RELEASE_SECONDS * sampleRate));
+    }
+
+    public BiquadEqualizer getEqualizer() {
+        return equalizer;
+    }
+
+    /**
+     * Filter the mix through the given equalizer, e.g. a default {@link BiquadEqualizer} to sound like
+     * the app.  The mix is turned down by the equalizer's peak gain so that boosted bands can't clip.
+     *
+     * @param equalizer an equalizer, or null for none
+     */
+    public void setEqualizer(BiquadEqualizer equalizer) {
+        this.equalizer = equalizer;
+    }
+
+    /**
+     * Render the Score to a mono WAV file.
+     *
+     * @param score the Score to render
+     * @param quartersPerMinute the tempo
+     * @param out the file to write
+     * @param bitsPerSample 16 or 24
+     * @throws IOException
+     */
+    public void render(Score score, double quartersPerMinute, File out, int bitsPerSample) throws IOException {
+        ScoreTimeline timeline = new ScoreTimeline(score, quartersPerMinute);
+        List<NoteEvent> events = timeline.getNoteEvents(sampleRate);
+        long totalFrames = Math.round(timeline.getLengthInSeconds() * sampleRate);
+        for(NoteEvent e : events)
+            totalFrames = Math.max(totalFrames, e.END + releaseFrames);
+
+        WavWriter writer = new WavWriter(out, sampleRate, 1, bitsPerSample);
+        try {
+            render(events, totalFrames, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Render the given notes and write them to the writer.
+     *
+     * @param events the notes to render, as from {@link ScoreTimeline#getNoteEvents}
+     * @param totalFrames the length of the output
+     * @param writer a mono writer
+     * @throws IOException
+     */
+    public void render(List<NoteEvent> events, long totalFrames, WavWriter writer) throws IOException {
+        final BiquadEqualizer eq = equalizer;
+        double headroom = Math.max(1, getPeakPolyphony(events));
+        if(eq != null) {
+            eq.setSampleRate(sampleRate);
+            eq.reset();
+            headroom *= Math.max(1, eq.getPeakGain());
+        }
+        final float gain = (float) (1. / headroom);
+        final List<List<NoteEvent>> blocks = assignToBlocks(events, totalFrames);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "OfflineScoreRenderer");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        try {
+            // Keep a bounded number of blocks in flight so memory use doesn't grow with the Score
+            LinkedList<Future<float[]>> pending = new LinkedList<Future<float[]>>();
+            int nextBlock = 0;
+            while(nextBlock < blocks.size() || !pending.isEmpty()) {
+                while(nextBlock < blocks.size() && pending.size() < 4 * numThreads) {
+                    final int blockIdx = nextBlock++;
+                    final long blockStart = (long) blockIdx * BLOCK_FRAMES;
+                    final int length = (int) Math.min(BLOCK_FRAMES, totalFrames - blockStart);
+                    pending.add(executor.submit(new Callable<float[]>() {
+                        @Override
+                        public float[] call() {
+                            return renderBlock(blocks.get(blockIdx), blockStart, length, gain);
+                        }
+                    }));
+                }
+                float[] block = pending.removeFirst().get();
+                // The equalizer carries state from block to block, so it runs here, in order
+                if(eq != null)
+                    eq.process(block);
+                writer.write(block);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch(ExecutionException e) {
+            throw new IOException("Failed to render block", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Synthesize one block of output.
+     *
+     * @param events every note sounding in the block
+     * @param blockStart the frame at which the block starts
+     * @param length the number of frames to render
+     * @param gain a factor to scale the mix by
+     * @return the mixed block
+     */
+    public float[] renderBlock(List<NoteEvent> events, long blockStart, int length, float gain) {
+        float[] result = new float[length];
+        long blockEnd = blockStart + length;
+        int numOvertones = overtonesNormalized.length;
+
+        for(NoteEvent e : events) {
+            double freq = OvertoneSeries.frequencyOf(e.NOTE);
+            // Overtones above Nyquist would only alias
+            int audibleOvertones = Math.min(numOvertones, (int) Math.ceil((sampleRate / 2.) / freq) - 1);
+            if(audibleOvertones < 1)
+                continue;
+
+            long from = Math.max(blockStart, e.START);
+            long to = Math.min(blockEnd, e.END + releaseFrames);
+            if(from >= to)
+                continue;
+
+            // Pick up the oscillator where the previous block left it
+            double step = 2 * Math.PI * freq / sampleRate;
+            double phase = ((from - e.START) * step) % (2 * Math.PI);
+            double cos = Math.cos(phase), sin = Math.sin(phase);
+            double cosStep = Math.cos(step), sinStep = Math.sin(step);
+
+            for(long k = from; k < to; k++) {
+                // sin((i+1)x) for each overtone by the Chebyshev recurrence
+                double twoCos = 2 * cos;
+                double previous = 0, current = sin;
+                double value = overtonesNormalized[0] * current;
+                for(int i = 1; i < audibleOvertones; i++) {
+                    double next = twoCos * current - previous;
+                    previous = current;
+                    current = next;
+                    value += overtonesNormalized[i] * current;
+                }
+
+                result[(int) (k - blockStart)] += (float) (value * envelopeAt(e, k) * gain);
+
+                double nextCos = cos * cosStep - sin * sinStep;
+                sin = sin * cosStep + cos * sinStep;
+                cos = nextCos;
+            }
+        }
+        return result;
+    }
+
+    private double envelopeAt(NoteEvent e, long k) {
+        double result = Math.min(1., (double) (k - e.START) / attackFrames);
+        if(k >= e.END)
+            result *= Math.max(0., 1. - (double) (k - e.END) / releaseFrames);
+        return result;
+    }
+
+    private List<List<NoteEvent>> assignToBlocks(List<NoteEvent> events, long totalFrames) {
+        int numBlocks = (int) ((totalFrames + BLOCK_FRAMES - 1) / BLOCK_FRAMES);
+        List<List<NoteEvent>> result = new ArrayList<List<NoteEvent>>(numBlocks);
+        for(int i = 0; i < numBlocks; i++)
+            result.add(new ArrayList<NoteEvent>());
+        for(NoteEvent e : events) {
+            long last = Math.min(totalFrames, e.END + releaseFrames) - 1;
+            for(long b = e.START / BLOCK_FRAMES; b <= last / BLOCK_FRAMES && b < numBlocks; b++)
+                result.get((int) b).add(e);
+        }
+        return result;
+    }
+
+    /**
+     * The mix is scaled by one over the most notes sounding at once, so it can never clip and the
+     * gain stays fixed across every block.
+     */
+    private int getPeakPolyphony(List<NoteEvent> events) {
+        long[] starts = new long[events.size()], ends = new long[events.size()];
+        for(int i = 0; i < events.size(); i++) {
+            starts[i] = events.get(i).START;
+            ends[i] = events.get(i).END + releaseFrames;
+        }
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        int result = 0, current = 0;
+        for(int i = 0, j = 0; i < starts.length; i++) {
+            while(j < ends.length && ends[j] <= starts[i]) {
+                j++;
+                current--;
+            }
+            current++;
+            result = Math.max(result, current);
+        }
+        return result;
+    }
+}
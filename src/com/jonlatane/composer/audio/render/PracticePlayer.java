@@ -0,0 +1,131 @@
+package com.jonlatane.composer.audio.render;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.dsp.TimeStretcher;
+import com.jonlatane.composer.audio.wav.WavReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Plays back a rendered score, e.g. from {@link OfflineScoreRenderer}, at an adjustable speed without
+ * changing its pitch, so a passage can be practiced slowly without rendering it again.  Audio is
+ * streamed from the memory-mapped WAV file through a {@link TimeStretcher} into a streaming AudioTrack
+ * on a background thread; the speed may be changed while playing.
+ */
+public class PracticePlayer {
+    private static final String TAG = "PracticePlayer";
+    /** Frames read from the file at a time */
+    private static final int BLOCK_FRAMES = 1024;
+
+    private final WavReader wav;
+    private volatile double speed = 1;
+    private volatile Thread playbackThread = null;
+
+    /**
+     * @param f a WAV file; multi-channel files are mixed down to mono
+     * @throws IOException if the file can't be read
+     */
+    public PracticePlayer(File f) throws IOException {
+        this.wav = WavReader.open(f);
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed how fast to play, between .5 (half speed) and 2 (double speed)
+     */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(1 / TimeStretcher.MAX_STRETCH, Math.min(1 / TimeStretcher.MIN_STRETCH, speed));
+    }
+
+    public boolean isPlaying() {
+        return playbackThread != null;
+    }
+
+    /**
+     * Play from the given frame until the end of the file or {@link #stop}.
+     */
+    public synchronized void play(final int fromFrame) {
+        stop();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    playFrom(fromFrame);
+                } finally {
+                    synchronized(PracticePlayer.this) {
+                        if(playbackThread == Thread.currentThread())
+                            playbackThread = null;
+                    }
+                }
+            }
+        }, TAG);
+        playbackThread = t;
+        t.start();
+    }
+
+    public synchronized void stop() {
+        Thread t = playbackThread;
+        playbackThread = null;
+        if(t != null)
+            t.interrupt();
+    }
+
+    private void playFrom(int frame) {
+        int sampleRate = wav.getSampleRate();
+        int bufferBytes = Math.max(AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT), 4 * BLOCK_FRAMES);
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, bufferBytes, AudioTrack.MODE_STREAM);
+        TimeStretcher stretcher = new TimeStretcher(1);
+        float[] in = new float[BLOCK_FRAMES];
+        float[] out = new float[BLOCK_FRAMES];
+        short[] pcm = new short[BLOCK_FRAMES];
+        int pending = 0, pendingOffset = 0;
+        // Silence to push through after the end of the file, so its last frames make it out
+        int tail = 2 * stretcher.getLatency();
+        try {
+            track.play();
+            while(!Thread.currentThread().isInterrupted()) {
+                stretcher.setStretch(1 / speed);
+                if(pending == 0) {
+                    int remaining = wav.getNumFrames() - frame;
+                    if(remaining > 0) {
+                        pending = Math.min(BLOCK_FRAMES, remaining);
+                        wav.readMono(frame, pending, in);
+                        frame += pending;
+                    } else if(tail > 0) {
+                        pending = Math.min(BLOCK_FRAMES, tail);
+                        Arrays.fill(in, 0, pending, 0);
+                        tail -= pending;
+                    } else {
+                        break;
+                    }
+                    pendingOffset = 0;
+                }
+                int taken = stretcher.write(in, pendingOffset, pending);
+                pending -= taken;
+                pendingOffset += taken;
+
+                int made = stretcher.read(out, 0, BLOCK_FRAMES);
+                for(int i = 0; i < made; i++)
+                    pcm[i] = (short) (Math.max(-1f, Math.min(1f, out[i])) * 32767);
+                if(made > 0)
+                    track.write(pcm, 0, made);
+            }
+            track.stop();
+        } catch(IllegalStateException e) {
+            Log.e(TAG, "Playback failed", e);
+        } finally {
+            track.release();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.jonlatane.composer.audio.render;
+
+import com.jonlatane.composer.music.Meter;
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.RhythmMap;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.coverings.TimeSignature;
+import com.jonlatane.composer.music.harmony.PitchSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+
+/**
+ * Maps the Rational positions of a {@link Score} onto real time.  A Score's positions are counted in
+ * beats of its {@link Meter}, so at a fixed tempo in quarter notes per minute, a beat of 6/8 is half as
+ * long as a beat of 3/4.
+ */
+public class ScoreTimeline {
+    private final Score score;
+    private final Rational origin;
+
+    /** The positions at which the Meter changes, starting with the origin */
+    private final double[] segmentStarts;
+    /** The time in seconds at each of {@link #segmentStarts} */
+    private final double[] segmentSeconds;
+    /** The length of a beat in seconds following each of {@link #segmentStarts} */
+    private final double[] secondsPerBeat;
+
+    /**
+     * @param score the Score to be played
+     * @param quartersPerMinute the tempo, in quarter notes per minute
+     */
+    public ScoreTimeline(Score score, double quartersPerMinute) {
+        this.score = score;
+        this.origin = findOrigin(score);
+
+        Meter meter = score.getMeter();
+        NavigableSet<Rational> changes = meter.getRhythm().tailSet(origin, false);
+        segmentStarts = new double[changes.size() + 1];
+        segmentSeconds = new double[changes.size() + 1];
+        secondsPerBeat = new double[changes.size() + 1];
+
+        segmentStarts[0] = origin.toDouble();
+        segmentSeconds[0] = 0;
+        secondsPerBeat[0] = secondsPerBeat(timeSignatureAt(meter, origin), quartersPerMinute);
+        int i = 1;
+        for(Rational r : changes) {
+            segmentStarts[i] = r.toDouble();
+            segmentSeconds[i] = segmentSeconds[i-1] + (segmentStarts[i] - segmentStarts[i-1]) * secondsPerBeat[i-1];
+            secondsPerBeat[i] = secondsPerBeat(timeSignatureAt(meter, r), quartersPerMinute);
+            i++;
+        }
+    }
+
+    /**
+     * The Score starts at its first downbeat, or its first note if that comes earlier.
+     */
+    private static Rational findOrigin(Score score) {
+        Rational result = Rational.ONE;
+        for(Score.Staff s : score.getStaves()) {
+            for(Score.Staff.Voice v : s.getVoices()) {
+                NavigableSet<Rational> rhythm = v.getNotes().getRhythm();
+                if(!rhythm.isEmpty() && rhythm.first().compareTo(result) < 0)
+                    result = rhythm.first();
+            }
+        }
+        return result;
+    }
+
+    private static TimeSignature timeSignatureAt(Meter meter, Rational r) {
+        TimeSignature result = meter.getObjectAt(r);
+        // Anything before the first time signature is a pickup in that time signature
+        if(result == null && !meter.isEmpty())
+            result = meter.getObjectAt(meter.getRhythm().first());
+        return result;
+    }
+
+    private static double secondsPerBeat(TimeSignature ts, double quartersPerMinute) {
+        int noteTypeForBeat = ts == null ? 4 : ts.BOTTOM;
+        return (60. / quartersPerMinute) * (4. / noteTypeForBeat);
+    }
+
+    /**
+     * @param r a position in the Score
+     * @return the number of seconds from the start of the Score to that position
+     */
+    public double secondsAt(Rational r) {
+        double beat = r.toDouble();
+        int segment = segmentStarts.length - 1;
+        while(segment > 0 && segmentStarts[segment] > beat)
+            segment--;
+        return segmentSeconds[segment] + (beat - segmentStarts[segment]) * secondsPerBeat[segment];
+    }
+
+    /**
+     * The inverse of {@link #secondsAt}.
+     *
+     * @param seconds a time from the start of the Score
+     * @return the position in the Score at that time, in beats
+     */
+    public double beatAt(double seconds) {
+        int segment = segmentSeconds.length - 1;
+        while(segment > 0 && segmentSeconds[segment] > seconds)
+            segment--;
+        return segmentStarts[segment] + (seconds - segmentSeconds[segment]) / secondsPerBeat[segment];
+    }
+
+    /**
+     * Snap a time to the nearest subdivision of the beat of the Meter in effect.  Several grids may be
+     * given to allow tuplets, e.g. 4 and 3 to snap to sixteenths or eighth note triplets in 4/4; the
+     * time goes to whichever grid line is nearest, and to the first grid given on a tie.
+     *
+     * @param seconds a time from the start of the Score
+     * @param subdivisionsPerBeat e.g. 4 to snap to sixteenths in 4/4
+     * @return the nearest position in the Score on the grid
+     */
+    public Rational quantize(double seconds, int... subdivisionsPerBeat) {
+        double beat = beatAt(seconds);
+        int segment = segmentStarts.length - 1;
+        while(segment > 0 && segmentStarts[segment] > beat)
+            segment--;
+        // Count subdivisions from where the Meter last changed, so the grid lines up with its beats
+        double fromSegment = beat - segmentStarts[segment];
+        double snapped = fromSegment;
+        double error = Double.MAX_VALUE;
+        for(int n : subdivisionsPerBeat) {
+            double candidate = Math.round(fromSegment * n) / (double) n;
+            if(Math.abs(candidate - fromSegment) < error) {
+                error = Math.abs(candidate - fromSegment);
+                snapped = candidate;
+            }
+        }
+        return Rational.nearest(segmentStarts[segment] + snapped, 1e-9);
+    }
+
+    /**
+     * @return the length of the Score up to its Fine, in seconds
+     */
+    public double getLengthInSeconds() {
+        return secondsAt(score.getFine());
+    }
+
+    /**
+     * Flatten the Score into a list of notes, sorted by start time.
+     *
+     * @param sampleRate the sample rate the returned frames are counted in
+     * @return every note in every Voice of every Staff
+     */
+    public List<NoteEvent> getNoteEvents(int sampleRate) {
+        List<NoteEvent> result = new ArrayList<NoteEvent>();
+        Rational fine = score.getFine();
+        Score.Staff[] staves = score.getStaves();
+        for(int staffIdx = 0; staffIdx < staves.length; staffIdx++) {
+            Score.Staff s = staves[staffIdx];
+            for(Score.Staff.Voice v : s.getVoices()) {
+                RhythmMap<PitchSet> notes = v.getNotes();
+                Rational[] rhythm = notes.getRhythm().headSet(fine, false).toArray(new Rational[0]);
+                for(int i = 0; i < rhythm.length; i++) {
+                    Rational next = (i + 1 < rhythm.length) ? rhythm[i+1] : fine;
+                    PitchSet ps = notes.getObjectAt(rhythm[i]);
+                    if(ps == null)
+                        continue;
+                    long start = Math.round(secondsAt(rhythm[i]) * sampleRate);
+                    long end = Math.round(secondsAt(next) * sampleRate);
+                    for(Integer n : ps)
+                        result.add(new NoteEvent(n + s.TRANSPOSITION, start, end, staffIdx));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
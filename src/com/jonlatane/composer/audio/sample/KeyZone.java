@@ -0,0 +1,61 @@
+package com.jonlatane.composer.audio.sample;
+
+import com.jonlatane.composer.audio.wav.WavReader;
+
+/**
+ * One sample in a {@link SampleBank} and the range of notes and velocities it plays.  Only the header of
+ * the sample has been read; its data is decoded by the bank on first use.
+ */
+public class KeyZone {
+    /** Notes with C4 = 0, inclusive */
+    public final int LOW_NOTE, HIGH_NOTE;
+    /** The note the sample was recorded at */
+    public final int ROOT_NOTE;
+    /** MIDI velocities 0-127, inclusive */
+    public final int LOW_VELOCITY, HIGH_VELOCITY;
+    /** The position of this zone in its bank's manifest */
+    public final int INDEX;
+
+    final WavReader wav;
+
+    KeyZone(int index, WavReader wav, int lowNote, int highNote, int rootNote, int lowVelocity, int highVelocity) {
+        this.INDEX = index;
+        this.wav = wav;
+        this.LOW_NOTE = lowNote;
+        this.HIGH_NOTE = highNote;
+        this.ROOT_NOTE = rootNote;
+        this.LOW_VELOCITY = lowVelocity;
+        this.HIGH_VELOCITY = highVelocity;
+    }
+
+    public boolean contains(int note, int velocity) {
+        return note >= LOW_NOTE && note <= HIGH_NOTE && velocity >= LOW_VELOCITY && velocity <= HIGH_VELOCITY;
+    }
+
+    public int getSampleRate() {
+        return wav.getSampleRate();
+    }
+
+    public int getNumFrames() {
+        return wav.getNumFrames();
+    }
+
+    /**
+     * @return the first frame of the sample's loop; 0 if it has none
+     */
+    public int getLoopStart() {
+        return wav.getLoopEnd() > 0 ? wav.getLoopStart() : 0;
+    }
+
+    /**
+     * @return the frame after the end of the sample's loop; the end of the sample if it has none
+     */
+    public int getLoopEnd() {
+        return wav.getLoopEnd() > 0 ? wav.getLoopEnd() : wav.getNumFrames();
+    }
+
+    @Override
+    public String toString() {
+        return "KeyZone[" + LOW_NOTE + "-" + HIGH_NOTE + " root " + ROOT_NOTE + " vel " + LOW_VELOCITY + "-" + HIGH_VELOCITY + "]";
+    }
+}
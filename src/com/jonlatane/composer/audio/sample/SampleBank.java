@@ -0,0 +1,210 @@
+package com.jonlatane.composer.audio.sample;
+
+import android.util.Log;
+
+import com.jonlatane.composer.audio.wav.WavReader;
+import com.jonlatane.composer.music.harmony.Enharmonics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sampled instrument: a set of WAV multisamples, each mapped to a {@link KeyZone} of notes and
+ * velocities by a manifest.  The manifest is a text file with one zone per line:
+ *
+ * <pre>
+ * # file          low  high  root  [lowVelocity highVelocity]
+ * piano-C3.wav    A2   D#3   C3
+ * piano-F#3.wav   E3   A3    F#3   0  79
+ * piano-F#3ff.wav E3   A3    F#3   80 127
+ * </pre>
+ *
+ * Notes may be given as names or as integers with C4 = 0, and files are relative to the manifest.  A
+ * '#' starts a comment only at the start of a field, so it can still be used in names like F#3.
+ *
+ * Loading a bank only reads the manifest and the headers of the samples, which are memory-mapped.
+ * Sample data is decoded the first time a zone is played and kept in a cache of bounded size, with the
+ * least recently used zones evicted first.
+ */
+public class SampleBank {
+    private static final String TAG = "SampleBank";
+
+    /** The default size of the decoded sample cache in bytes */
+    public static final long DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private final List<KeyZone> zones;
+    private final int hashCode;
+    private final long maxCacheBytes;
+    private long cacheBytes = 0;
+    /** Maps {@link KeyZone#INDEX} -> decoded mono samples, in access order */
+    private final LinkedHashMap<Integer, float[]> decoded = new LinkedHashMap<Integer, float[]>(16, .75f, true);
+
+    private SampleBank(List<KeyZone> zones, int hashCode, long maxCacheBytes) {
+        this.zones = zones;
+        this.hashCode = hashCode;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    public static SampleBank load(File manifest) throws IOException {
+        return load(manifest, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Read a manifest and the headers of the samples it names.
+     *
+     * @param manifest the manifest file
+     * @param maxCacheBytes how much decoded sample data to keep in memory
+     * @return the bank
+     * @throws IOException if the manifest or a sample header can't be read
+     */
+    public static SampleBank load(File manifest, long maxCacheBytes) throws IOException {
+        List<KeyZone> zones = new ArrayList<KeyZone>();
+        int hashCode = manifest.getAbsolutePath().hashCode();
+
+        BufferedReader in = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            int lineNumber = 0;
+            while((line = in.readLine()) != null) {
+                lineNumber++;
+                line = stripComment(line).trim();
+                if(line.length() == 0)
+                    continue;
+
+                String[] fields = line.split("\\s+");
+                if(fields.length != 4 && fields.length != 6)
+                    throw new IOException(manifest + ":" + lineNumber + ": expected 4 or 6 fields");
+                File sample = new File(fields[0]);
+                if(!sample.isAbsolute())
+                    sample = new File(manifest.getParentFile(), fields[0]);
+
+                int lowVelocity = 0, highVelocity = 127;
+                if(fields.length == 6) {
+                    lowVelocity = Integer.parseInt(fields[4]);
+                    highVelocity = Integer.parseInt(fields[5]);
+                }
+                KeyZone zone = new KeyZone(zones.size(), WavReader.open(sample), parseNote(fields[1]),
+                        parseNote(fields[2]), parseNote(fields[3]), lowVelocity, highVelocity);
+                zones.add(zone);
+
+                hashCode = 31 * hashCode + sample.getName().hashCode();
+                hashCode = 31 * hashCode + (int) sample.length();
+                hashCode = 31 * hashCode + (int) sample.lastModified();
+            }
+        } finally {
+            in.close();
+        }
+        Log.i(TAG, "Loaded " + zones.size() + " zones from " + manifest);
+        return new SampleBank(zones, hashCode, maxCacheBytes);
+    }
+
+    private static String stripComment(String line) {
+        for(int i = 0; i < line.length(); i++) {
+            if(line.charAt(i) == '#' && (i == 0 || Character.isWhitespace(line.charAt(i - 1))))
+                return line.substring(0, i);
+        }
+        return line;
+    }
+
+    private static int parseNote(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch(NumberFormatException e) {
+            return Enharmonics.noteNameToInt(s);
+        }
+    }
+
+    public List<KeyZone> getZones() {
+        return zones;
+    }
+
+    /**
+     * @param note the note, with C4 = 0
+     * @param velocity a MIDI velocity, 0-127
+     * @return the zone to play the note with, or null if there is none.  If no zone covers the
+     * velocity, the zone for the note with the nearest velocity range is used.
+     */
+    public KeyZone zoneFor(int note, int velocity) {
+        KeyZone result = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for(KeyZone z : zones) {
+            if(note < z.LOW_NOTE || note > z.HIGH_NOTE)
+                continue;
+            int distance = Math.max(0, Math.max(z.LOW_VELOCITY - velocity, velocity - z.HIGH_VELOCITY));
+            if(distance < bestDistance) {
+                bestDistance = distance;
+                result = z;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode the zone's sample, or get it from the cache.
+     *
+     * @return the sample as mono floats at {@link KeyZone#getSampleRate()}
+     */
+    public float[] getSamples(KeyZone zone) {
+        synchronized(decoded) {
+            float[] result = decoded.get(zone.INDEX);
+            if(result != null)
+                return result;
+        }
+
+        Log.d(TAG, "Decoding " + zone);
+        float[] result = zone.wav.readMono();
+
+        synchronized(decoded) {
+            if(decoded.put(zone.INDEX, result) == null)
+                cacheBytes += 4L * result.length;
+            while(cacheBytes > maxCacheBytes && decoded.size() > 1) {
+                Map.Entry<Integer, float[]> eldest = decoded.entrySet().iterator().next();
+                cacheBytes -= 4L * eldest.getValue().length;
+                decoded.remove(eldest.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes of decoded samples in memory
+     */
+    public long getCacheBytes() {
+        synchronized(decoded) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Drop all decoded samples.
+     */
+    public void releaseAll() {
+        synchronized(decoded) {
+            decoded.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    /**
+     * @param velocity a MIDI velocity, 0-127
+     * @return a generator that plays this bank at the given velocity
+     */
+    public SampleBankGenerator generatorFor(int velocity) {
+        return new SampleBankGenerator(this, velocity);
+    }
+
+    /**
+     * Identifies the manifest and the samples it names, so that caches of notes from different banks
+     * don't collide.
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
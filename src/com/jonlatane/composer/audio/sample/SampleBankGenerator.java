@@ -0,0 +1,100 @@
+package com.jonlatane.composer.audio.sample;
+
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.AudioTrackCache;
+import com.jonlatane.composer.audio.AudioTrackGenerator;
+import com.jonlatane.composer.audio.NotePcmCache;
+
+/**
+ * Plays a {@link SampleBank} at a fixed velocity.  Each note is made by resampling the sample of its
+ * {@link KeyZone} from the zone's root, as a hardware sampler would, so notes far from their root are
+ * shorter or longer than the recording.
+ */
+public class SampleBankGenerator implements AudioTrackGenerator {
+    private static final String TAG = "SampleBankGenerator";
+
+    private final SampleBank bank;
+    private final int velocity;
+
+    SampleBankGenerator(SampleBank bank, int velocity) {
+        this.bank = bank;
+        this.velocity = velocity;
+    }
+
+    public int getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return how many frames of the source sample pass per frame of output for the note
+     */
+    private static double stepFor(KeyZone zone, int n) {
+        return Math.pow(2, (n - zone.ROOT_NOTE) / 12.) * zone.getSampleRate() / NATIVE_OUTPUT_SAMPLE_RATE;
+    }
+
+    @Override
+    public byte[] renderPcmFor(int n) {
+        KeyZone zone = bank.zoneFor(n, velocity);
+        if(zone == null) {
+            Log.w(TAG, "No zone for note " + n + " at velocity " + velocity);
+            return new byte[2];
+        }
+        float[] samples = bank.getSamples(zone);
+        double step = stepFor(zone, n);
+        int numFrames = Math.max(1, (int) ((samples.length - 1) / step));
+
+        byte[] result = new byte[2 * numFrames];
+        int idx = 0;
+        for(int i = 0; i < numFrames; i++) {
+            double position = i * step;
+            int index = (int) position;
+            double fraction = position - index;
+            float next = (index + 1 < samples.length) ? samples[index + 1] : 0;
+            double value = samples[index] * (1 - fraction) + next * fraction;
+            final short val = (short) (Math.max(-1, Math.min(1, value)) * 32767);
+            // in 16 bit wav PCM, first byte is the low order byte
+            result[idx++] = (byte) (val & 0x00ff);
+            result[idx++] = (byte) ((val & 0xff00) >>> 8);
+        }
+        return result;
+    }
+
+    @Override
+    public AudioTrack getAudioTrackFor(int n) {
+        byte[] pcm = NotePcmCache.getPcmForNote(n, this);
+        int numFrames = pcm.length / 2;
+        return AudioTrackCache.newLoopingTrack(pcm, getLoopStartFor(n, numFrames),
+                getLoopEndFor(n, numFrames), 0);
+    }
+
+    /**
+     * The zone's loop, moved to where it falls in the note's resampled PCM.
+     */
+    @Override
+    public int getLoopStartFor(int n, int numFrames) {
+        KeyZone zone = bank.zoneFor(n, velocity);
+        if(zone == null)
+            return 0;
+        return Math.min(numFrames - 1, (int) Math.round(zone.getLoopStart() / stepFor(zone, n)));
+    }
+
+    @Override
+    public int getLoopEndFor(int n, int numFrames) {
+        KeyZone zone = bank.zoneFor(n, velocity);
+        if(zone == null)
+            return numFrames;
+        return Math.max(getLoopStartFor(n, numFrames) + 1,
+                Math.min(numFrames, (int) Math.round(zone.getLoopEnd() / stepFor(zone, n))));
+    }
+
+    /**
+     * Identifies the bank and velocity, so that cached notes from different banks and velocities don't
+     * collide.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * bank.hashCode() + velocity;
+    }
+}
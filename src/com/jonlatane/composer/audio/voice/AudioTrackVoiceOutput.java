@@ -0,0 +1,105 @@
+package com.jonlatane.composer.audio.voice;
+
+import android.media.AudioTrack;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.AudioTrackCache;
+import com.jonlatane.composer.audio.AudioTrackGenerator;
+import com.jonlatane.composer.latency.LatencyMonitor;
+
+/**
+ * Plays voices on the looping AudioTracks from the {@link AudioTrackCache}, following their envelopes
+ * with {@link AudioTrack#setStereoVolume}.  Tracks are paused once their voice is silent, rather than
+ * left looping at no volume.  Headroom is shared between voices by a {@link GainController}.
+ *
+ * How long it takes to get and start each track is reported to the {@link LatencyMonitor}.
+ */
+public class AudioTrackVoiceOutput implements VoiceOutput {
+    private static final String TAG = "AudioTrackVoiceOutput";
+
+    private final AudioTrackGenerator generator;
+    /** The track each voice is playing, indexed by {@link Voice#INDEX} */
+    private final AudioTrack[] tracks;
+    private final float min = AudioTrack.getMinVolume();
+    private final float span = AudioTrack.getMaxVolume() - min;
+    private final GainController gainController = new GainController();
+
+    /**
+     * @param generator the generator to get tracks from
+     * @param numVoices the size of the pool this output serves
+     */
+    public AudioTrackVoiceOutput(AudioTrackGenerator generator, int numVoices) {
+        this.generator = generator;
+        this.tracks = new AudioTrack[numVoices];
+    }
+
+    @Override
+    public void onStart(Voice v) {
+        gainController.noteStarted(v.getNote());
+        boolean warm = AudioTrackCache.isCached(v.getNote(), generator);
+        long start = System.nanoTime();
+        AudioTrack t = AudioTrackCache.getAudioTrackForNote(v.getNote(), generator);
+        LatencyMonitor.recordSince(warm ? LatencyMonitor.Stage.TRACK_WARM : LatencyMonitor.Stage.TRACK_COLD, start);
+        tracks[v.INDEX] = t;
+        if(t == null) {
+            Log.e(TAG, "No track for note " + v.getNote());
+            return;
+        }
+        try {
+            t.setStereoVolume(min, min);
+            start = System.nanoTime();
+            t.play();
+            LatencyMonitor.recordSince(LatencyMonitor.Stage.PLAYBACK_START, start);
+            LatencyMonitor.recordSince(warm ? LatencyMonitor.Stage.KEY_TO_SOUND_WARM
+                    : LatencyMonitor.Stage.KEY_TO_SOUND_COLD, v.pressedAt);
+        } catch(IllegalStateException e) {
+            Log.e(TAG, "Failed to start note " + v.getNote(), e);
+        }
+    }
+
+    @Override
+    public void onTick(double seconds) {
+        gainController.tick(seconds);
+    }
+
+    @Override
+    public void onLevelChanged(Voice v, float level) {
+        AudioTrack t = tracks[v.INDEX];
+        if(t == null)
+            return;
+        float volume = min + span * level * gainController.gainFor(v.getNote());
+        try {
+            t.setStereoVolume(volume, volume);
+        } catch(IllegalStateException e) {
+            // The cache released the track out from under us
+            tracks[v.INDEX] = null;
+        }
+    }
+
+    @Override
+    public void onStop(Voice v) {
+        gainController.noteStopped(v.getNote());
+        AudioTrack t = tracks[v.INDEX];
+        tracks[v.INDEX] = null;
+        if(t == null)
+            return;
+        try {
+            t.pause();
+        } catch(IllegalStateException e) {
+            // Already released
+        }
+    }
+
+    /**
+     * Release the generator's tracks from the {@link AudioTrackCache}.  They're made again as notes
+     * are played.
+     */
+    @Override
+    public void onRelease() {
+        AudioTrackCache.releaseAll(generator);
+    }
+
+    public GainController getGainController() {
+        return gainController;
+    }
+}
@@ -0,0 +1,29 @@
+package com.jonlatane.composer.audio.voice;
+
+/**
+ * An ADSR envelope: the level of a voice rises to full over {@link #ATTACK} seconds, falls to
+ * {@link #SUSTAIN} over {@link #DECAY} seconds and holds there until the note is released, after which
+ * it falls to silence over {@link #RELEASE} seconds.
+ */
+public class Envelope {
+    public static final Envelope DEFAULT = new Envelope(.005, .1, .8, .15);
+    /** An envelope that behaves like a plain switch, but without clicking */
+    public static final Envelope ORGAN = new Envelope(.005, 0, 1, .02);
+
+    /** Times in seconds */
+    public final double ATTACK, DECAY, RELEASE;
+    /** A level between 0 and 1 */
+    public final double SUSTAIN;
+
+    public Envelope(double attack, double decay, double sustain, double release) {
+        this.ATTACK = attack;
+        this.DECAY = decay;
+        this.SUSTAIN = Math.max(0, Math.min(1, sustain));
+        this.RELEASE = release;
+    }
+
+    @Override
+    public String toString() {
+        return "A" + ATTACK + " D" + DECAY + " S" + SUSTAIN + " R" + RELEASE;
+    }
+}
@@ -0,0 +1,103 @@
+package com.jonlatane.composer.audio.voice;
+
+/**
+ * Shares the output's headroom between the notes that are sounding.  Each note is weighted by the
+ * arctan curve that turns low notes down a bit, and the master gain keeps the weighted sum of all
+ * sounding notes at or below full scale.
+ *
+ * The sum is kept up to date as notes start and stop, so every event is O(1).  Gain reduction is
+ * applied as soon as a note starts, before its envelope has risen (so dense chords never clip), while
+ * recovery after a note stops is smoothed over {@link #RECOVERY_SECONDS} to avoid pumping.
+ *
+ * This class is not thread-safe; a {@link VoiceAllocator} serializes calls to its output.
+ */
+public class GainController {
+    /** The range of the keyboard, with C4 = 0 */
+    private static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+    /** The time constant with which the gain rises after notes stop */
+    public static final double RECOVERY_SECONDS = .08;
+
+    private static final float[] PITCH_WEIGHTS = new float[HIGHEST_NOTE - LOWEST_NOTE + 1];
+    static {
+        for(int n = LOWEST_NOTE; n <= HIGHEST_NOTE; n++)
+            PITCH_WEIGHTS[n - LOWEST_NOTE] = computePitchWeight(n);
+    }
+
+    private double weightSum = 0;
+    private int noteCount = 0;
+    private float targetGain = 1, currentGain = 1;
+
+    private static float computePitchWeight(int n) {
+        // Lower notes are amped up so turn them down a bit with this factor
+        return (float) (.05 * Math.atan((float)(n+5)/88.0) + .9);
+    }
+
+    /**
+     * @param n the note, with C4 = 0
+     * @return how loud the note should be relative to other notes, between 0 and 1
+     */
+    public static float pitchWeight(int n) {
+        if(n < LOWEST_NOTE || n > HIGHEST_NOTE)
+            return computePitchWeight(n);
+        return PITCH_WEIGHTS[n - LOWEST_NOTE];
+    }
+
+    public void noteStarted(int n) {
+        noteCount++;
+        weightSum += pitchWeight(n);
+        updateTarget();
+        // Look ahead: the new note is only just starting its attack, so make room for it now
+        if(targetGain < currentGain)
+            currentGain = targetGain;
+    }
+
+    public void noteStopped(int n) {
+        noteCount--;
+        weightSum -= pitchWeight(n);
+        if(noteCount <= 0) {
+            // Don't let rounding error accumulate
+            noteCount = 0;
+            weightSum = 0;
+        }
+        updateTarget();
+    }
+
+    private void updateTarget() {
+        targetGain = (float) (1 / Math.max(1, weightSum));
+    }
+
+    /**
+     * Move the gain towards its target.
+     *
+     * @param seconds the time since the last tick
+     */
+    public void tick(double seconds) {
+        if(currentGain < targetGain) {
+            currentGain += (targetGain - currentGain) * (float) (1 - Math.exp(-seconds / RECOVERY_SECONDS));
+        } else {
+            currentGain = targetGain;
+        }
+    }
+
+    /**
+     * @param n the note, with C4 = 0
+     * @return the gain to play the note at, between 0 and 1
+     */
+    public float gainFor(int n) {
+        return pitchWeight(n) * currentGain;
+    }
+
+    /**
+     * @return the gain applied to all notes, between 0 and 1
+     */
+    public float getMasterGain() {
+        return currentGain;
+    }
+
+    /**
+     * @return the number of notes being accounted for
+     */
+    public int getNoteCount() {
+        return noteCount;
+    }
+}
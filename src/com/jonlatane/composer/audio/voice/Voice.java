@@ -0,0 +1,98 @@
+package com.jonlatane.composer.audio.voice;
+
+/**
+ * One slot in a {@link VoiceAllocator}'s pool.  Voices are created once, up front, and reused for every
+ * note they play.  All of their state is managed by the allocator; outputs should treat them as
+ * read-only.
+ */
+public class Voice {
+    public enum Stage { IDLE, ATTACK, DECAY, SUSTAIN, RELEASE }
+
+    /** The position of this voice in its allocator's pool, for outputs that keep per-voice state */
+    public final int INDEX;
+
+    int note;
+    Stage stage = Stage.IDLE;
+    double level = 0;
+    /** The level at which the release started */
+    double releaseFrom = 0;
+    /** When this voice was last started, in the allocator's note-on count */
+    long startedAt = 0;
+    /** When the key for the current note was pressed, by {@link System#nanoTime()} */
+    long pressedAt = 0;
+    /** How far into the current control block this voice's envelope has been advanced, in seconds */
+    double advancedInBlock = 0;
+
+    Voice(int index) {
+        this.INDEX = index;
+    }
+
+    /**
+     * @return the note this voice is playing (or last played), with C4 = 0
+     */
+    public int getNote() {
+        return note;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return the current level of the envelope, between 0 and 1
+     */
+    public double getLevel() {
+        return level;
+    }
+
+    public boolean isActive() {
+        return stage != Stage.IDLE;
+    }
+
+    public boolean isReleasing() {
+        return stage == Stage.RELEASE;
+    }
+
+    /**
+     * Advance the envelope.
+     *
+     * @return false if the voice has finished its release and gone idle
+     */
+    boolean tick(Envelope envelope, double seconds) {
+        switch(stage) {
+            case ATTACK:
+                level = (envelope.ATTACK <= 0) ? 1 : level + seconds / envelope.ATTACK;
+                if(level >= 1) {
+                    level = 1;
+                    stage = Stage.DECAY;
+                }
+                break;
+            case DECAY:
+                level = (envelope.DECAY <= 0) ? envelope.SUSTAIN
+                        : level - seconds * (1 - envelope.SUSTAIN) / envelope.DECAY;
+                if(level <= envelope.SUSTAIN) {
+                    level = envelope.SUSTAIN;
+                    stage = Stage.SUSTAIN;
+                }
+                break;
+            case SUSTAIN:
+                level = envelope.SUSTAIN;
+                break;
+            case RELEASE:
+                level = (envelope.RELEASE <= 0) ? 0 : level - seconds * releaseFrom / envelope.RELEASE;
+                if(level <= 0) {
+                    level = 0;
+                    stage = Stage.IDLE;
+                }
+                break;
+            default:
+                break;
+        }
+        return stage != Stage.IDLE;
+    }
+
+    @Override
+    public String toString() {
+        return "Voice" + INDEX + "[" + note + " " + stage + " " + level + "]";
+    }
+}
@@ -0,0 +1,362 @@
+package com.jonlatane.composer.audio.voice;
+
+import android.util.Log;
+
+import com.jonlatane.composer.audio.CommandQueue;
+import com.jonlatane.composer.latency.LatencyMonitor;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Manages a fixed pool of {@link Voice}s, each running an {@link Envelope}, on behalf of a
+ * {@link VoiceOutput}.  Pressing a key calls {@link #noteOn}, lifting it calls {@link #noteOff}, and the
+ * voice fades out over the release of the envelope instead of stopping dead.
+ *
+ * Voices belong to a control thread, which advances their envelopes in blocks of about
+ * 1/{@link #CONTROL_RATE} of a second and sleeps whenever nothing is sounding.  Requests from the UI
+ * don't touch the voices or take any locks: they are stamped with the time and put on a lock-free
+ * {@link CommandQueue}, and the control thread applies them at the start of its next block, each at
+ * its own offset into the block so that envelopes run from the moment the key was actually pressed.
+ * The UI may only be one thread.
+ *
+ * The pool and queue are allocated up front and nothing is allocated per note, so playing notes never
+ * makes work for the garbage collector.
+ */
+public class VoiceAllocator {
+    private static final String TAG = "VoiceAllocator";
+
+    /** How many times a second envelopes are updated */
+    public static final int CONTROL_RATE = 200;
+    /** How many commands may be waiting for the control thread */
+    private static final int QUEUE_CAPACITY = 256;
+
+    private static final int COMMAND_NOTE_ON = 1, COMMAND_NOTE_OFF = 2, COMMAND_ALL_NOTES_OFF = 3,
+            COMMAND_SET_ENVELOPE = 4, COMMAND_SET_STEAL_POLICY = 5;
+
+    /** What to do when a note is requested and every voice is in use */
+    public enum StealPolicy {
+        /** Steal the voice that started longest ago, preferring voices that are releasing */
+        OLDEST,
+        /** Steal the voice with the lowest level */
+        QUIETEST,
+        /** Never cut off another note; a note only reclaims a voice already playing it */
+        SAME_NOTE
+    }
+
+    private final Voice[] voices;
+    private final VoiceOutput output;
+    private final CommandQueue commands = new CommandQueue(QUEUE_CAPACITY);
+    private volatile Envelope envelope;
+    private volatile StealPolicy stealPolicy;
+
+    // Owned by the control thread
+    private long noteOnCount = 0;
+    private long blockStart = 0;
+    private double blockSeconds = 0;
+    private volatile int activeVoiceCount = 0;
+    private volatile long lastNoteOnLatency = 0;
+
+    private volatile Thread controlThread = null;
+
+    /** Throws commands away, for when the allocator is released with some still queued */
+    private static final CommandQueue.Handler DISCARD = new CommandQueue.Handler() {
+        @Override
+        public void onCommand(int type, int arg, Object payload, long timestampNanos) {
+        }
+    };
+
+    private final CommandQueue.Handler commandHandler = new CommandQueue.Handler() {
+        @Override
+        public void onCommand(int type, int arg, Object payload, long timestampNanos) {
+            // Where the command falls in the block being processed
+            double offset = Math.max(0, Math.min(blockSeconds, (timestampNanos - blockStart) / 1e9));
+            switch(type) {
+                case COMMAND_NOTE_ON:
+                    LatencyMonitor.recordSince(LatencyMonitor.Stage.KEY_TO_CONTROL, timestampNanos);
+                    applyNoteOn(arg, offset, timestampNanos);
+                    lastNoteOnLatency = System.nanoTime() - timestampNanos;
+                    break;
+                case COMMAND_NOTE_OFF:
+                    for(Voice v : voices) {
+                        if(v.note == arg)
+                            release(v, offset);
+                    }
+                    break;
+                case COMMAND_ALL_NOTES_OFF:
+                    for(Voice v : voices)
+                        release(v, offset);
+                    break;
+                case COMMAND_SET_ENVELOPE:
+                    envelope = (Envelope) payload;
+                    break;
+                case COMMAND_SET_STEAL_POLICY:
+                    stealPolicy = (StealPolicy) payload;
+                    break;
+                default:
+                    Log.w(TAG, "Unknown command " + type);
+            }
+        }
+    };
+
+    /**
+     * @param numVoices the size of the pool; the maximum polyphony
+     * @param stealPolicy what to do when the pool runs out
+     * @param output what makes the sound
+     */
+    public VoiceAllocator(int numVoices, StealPolicy stealPolicy, VoiceOutput output) {
+        this.voices = new Voice[numVoices];
+        for(int i = 0; i < numVoices; i++)
+            voices[i] = new Voice(i);
+        this.stealPolicy = stealPolicy;
+        this.output = output;
+        this.envelope = Envelope.DEFAULT;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Use a different envelope for all voices, from the next control block on.
+     */
+    public void setEnvelope(Envelope envelope) {
+        send(COMMAND_SET_ENVELOPE, 0, envelope);
+    }
+
+    public StealPolicy getStealPolicy() {
+        return stealPolicy;
+    }
+
+    /**
+     * Use a different steal policy, from the next control block on.
+     */
+    public void setStealPolicy(StealPolicy stealPolicy) {
+        send(COMMAND_SET_STEAL_POLICY, 0, stealPolicy);
+    }
+
+    /**
+     * @return the number of voices that are sounding, including those in their release
+     */
+    public int getActiveVoiceCount() {
+        return activeVoiceCount;
+    }
+
+    /**
+     * @return the number of voices in the pool
+     */
+    public int getMaxVoiceCount() {
+        return voices.length;
+    }
+
+    /**
+     * @return the time in nanoseconds from the most recent {@link #noteOn} call to its output having
+     * started the note
+     */
+    public long getLastNoteOnLatencyNanos() {
+        return lastNoteOnLatency;
+    }
+
+    /**
+     * Start playing a note.  If the note is already sounding, its voice is restarted.
+     *
+     * @param note the note, with C4 = 0
+     */
+    public void noteOn(int note) {
+        noteOn(note, System.nanoTime());
+    }
+
+    /**
+     * Start playing a note whose key was pressed a moment ago.  The note's envelope starts from when
+     * the key was pressed, as far as that falls within the current control block.
+     *
+     * @param note the note, with C4 = 0
+     * @param pressedAt when the key was pressed, by {@link System#nanoTime()}
+     */
+    public void noteOn(int note, long pressedAt) {
+        send(COMMAND_NOTE_ON, note, null, pressedAt);
+    }
+
+    /**
+     * Release a note, letting it ring out over the release of the envelope.
+     *
+     * @param note the note, with C4 = 0
+     */
+    public void noteOff(int note) {
+        send(COMMAND_NOTE_OFF, note, null);
+    }
+
+    /**
+     * Release every note.
+     */
+    public void allNotesOff() {
+        send(COMMAND_ALL_NOTES_OFF, 0, null);
+    }
+
+    /**
+     * Silence every voice, stop the control thread and have the output let go of its tracks.  Call
+     * from the thread that plays notes once they're done with, e.g. when the keyboard's View is
+     * destroyed.  Playing a note afterwards starts everything up again.
+     */
+    public void release() {
+        Thread t = controlThread;
+        controlThread = null;
+        if(t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The control thread is gone, so the queue and the voices are ours
+        commands.drain(DISCARD);
+        for(Voice v : voices) {
+            if(v.isActive()) {
+                output.onStop(v);
+                v.stage = Voice.Stage.IDLE;
+                v.level = 0;
+            }
+        }
+        activeVoiceCount = 0;
+        output.onRelease();
+    }
+
+    private void send(int type, int arg, Object payload) {
+        send(type, arg, payload, System.nanoTime());
+    }
+
+    private void send(int type, int arg, Object payload, long timestampNanos) {
+        if(!commands.offer(type, arg, payload, timestampNanos))
+            Log.e(TAG, "Command queue full, dropped command " + type);
+        Thread t = controlThread;
+        if(t == null) {
+            t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    controlLoop();
+                }
+            }, TAG);
+            t.setDaemon(true);
+            controlThread = t;
+            t.start();
+        } else {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void applyNoteOn(int note, double offset, long pressedAt) {
+        Voice v = findVoiceFor(note);
+        if(v == null) {
+            Log.w(TAG, "No voice available for note " + note);
+            return;
+        }
+
+        boolean wasActive = v.isActive();
+        boolean stolen = wasActive && v.note != note;
+        if(wasActive && !stolen)
+            advance(v, offset);
+        if(stolen)
+            output.onStop(v);
+        if(!wasActive)
+            activeVoiceCount++;
+        if(stolen || !wasActive) {
+            v.level = 0;
+            v.note = note;
+        }
+        v.stage = Voice.Stage.ATTACK;
+        v.startedAt = ++noteOnCount;
+        v.pressedAt = pressedAt;
+        v.advancedInBlock = offset;
+        if(stolen || !wasActive)
+            output.onStart(v);
+    }
+
+    private void release(Voice v, double offset) {
+        if(!v.isActive() || v.isReleasing())
+            return;
+        advance(v, offset);
+        if(v.isActive()) {
+            v.stage = Voice.Stage.RELEASE;
+            v.releaseFrom = v.level;
+        }
+    }
+
+    /**
+     * Advance a voice's envelope to the given offset into the current block.
+     */
+    private void advance(Voice v, double offset) {
+        if(offset > v.advancedInBlock) {
+            if(!v.tick(envelope, offset - v.advancedInBlock)) {
+                activeVoiceCount--;
+                output.onStop(v);
+            }
+            v.advancedInBlock = offset;
+        }
+    }
+
+    /**
+     * Apply everything that was requested during the block ending now, then advance every envelope to
+     * the end of the block.
+     */
+    private void processBlock(long now) {
+        blockSeconds = (now - blockStart) / 1e9;
+        commands.drain(commandHandler);
+
+        output.onTick(blockSeconds);
+        for(Voice v : voices) {
+            if(v.isActive()) {
+                advance(v, blockSeconds);
+                if(v.isActive())
+                    output.onLevelChanged(v, (float) v.level);
+            }
+            v.advancedInBlock = 0;
+        }
+        blockStart = now;
+    }
+
+    private Voice findVoiceFor(int note) {
+        Voice result = null;
+        // A note that is still ringing gets its own voice back
+        for(Voice v : voices) {
+            if(v.isActive() && v.note == note)
+                return v;
+            if(result == null && !v.isActive())
+                result = v;
+        }
+        if(result != null || stealPolicy == StealPolicy.SAME_NOTE)
+            return result;
+
+        for(Voice v : voices) {
+            if(result == null) {
+                result = v;
+            } else if(stealPolicy == StealPolicy.QUIETEST) {
+                if(v.level < result.level)
+                    result = v;
+            } else if(v.isReleasing() != result.isReleasing()) {
+                if(v.isReleasing())
+                    result = v;
+            } else if(v.startedAt < result.startedAt) {
+                result = v;
+            }
+        }
+        return result;
+    }
+
+    private void controlLoop() {
+        long periodNanos = 1000000000L / CONTROL_RATE;
+        blockStart = System.nanoTime();
+        while(!Thread.interrupted()) {
+            if(activeVoiceCount == 0 && commands.isEmpty()) {
+                // Sleep until there's something to do; unpark() wakes us
+                LockSupport.park(this);
+                blockStart = System.nanoTime();
+                continue;
+            }
+            // New commands cut the block short, so notes start as soon as possible
+            if(commands.isEmpty())
+                LockSupport.parkNanos(this, periodNanos);
+            processBlock(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.jonlatane.composer.audio.voice;
+
+/**
+ * Whatever actually makes sound for a {@link VoiceAllocator}.  The allocator decides which voice plays
+ * what and how loud; an output only has to follow along.
+ *
+ * All calls come from the allocator's control thread, which applies the commands queued by whichever
+ * thread plays notes, or from {@link VoiceAllocator#release} once that thread has stopped.  So they
+ * never overlap and an output needs no locking of its own.
+ */
+public interface VoiceOutput {
+    /**
+     * The voice has started playing {@link Voice#getNote()}, at a level of 0.
+     */
+    void onStart(Voice v);
+
+    /**
+     * Time has passed; called once per control tick, before any calls to {@link #onLevelChanged}.
+     *
+     * @param seconds the time since the last tick
+     */
+    void onTick(double seconds);
+
+    /**
+     * The voice's envelope has changed.
+     *
+     * @param level the level of the envelope, between 0 and 1
+     */
+    void onLevelChanged(Voice v, float level);
+
+    /**
+     * The voice has gone silent, either because its release has finished or because it is being stolen.
+     */
+    void onStop(Voice v);
+
+    /**
+     * The allocator has been released and every voice stopped; let go of anything held for playing.
+     */
+    void onRelease();
+}
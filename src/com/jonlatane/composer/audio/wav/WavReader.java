@@ -0,0 +1,174 @@
+package com.jonlatane.composer.audio.wav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads PCM WAV data from a ByteBuffer, typically a memory-mapped file.  Only the header is parsed up
+ * front; samples are decoded on request, so opening a large file is cheap.
+ *
+ * 8, 16, 24 and 32-bit integer PCM and 32-bit float data are supported, with any number of channels.
+ * If the file has a sampler chunk, its first loop is reported by {@link #getLoopStart()} and
+ * {@link #getLoopEnd()}.
+ */
+public class WavReader {
+    private static final int FORMAT_PCM = 1, FORMAT_FLOAT = 3, FORMAT_EXTENSIBLE = 0xfffe;
+    /** A smpl chunk's loops follow its 36-byte header; each is 24 bytes, ending with its start and end */
+    private static final int SMPL_FIRST_LOOP_END = 36 + 24;
+
+    private final ByteBuffer data;
+    private int format, channels, sampleRate, bitsPerSample, bytesPerFrame;
+    private int numFrames;
+    private int loopStart = -1, loopEnd = -1;
+
+    /**
+     * Parse the header of the WAV data in the given buffer.
+     *
+     * @param buffer the whole WAV file, from its RIFF header on
+     * @throws IOException if the data is not a WAV file we can read
+     */
+    public WavReader(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if(b.remaining() < 12 || b.getInt(0) != 0x46464952 /* RIFF */ || b.getInt(8) != 0x45564157 /* WAVE */)
+            throw new IOException("Not a WAV file");
+
+        ByteBuffer samples = null;
+        int position = 12;
+        while(position + 8 <= b.limit()) {
+            int id = b.getInt(position);
+            int size = b.getInt(position + 4);
+            int body = position + 8;
+            if(size < 0 || body + size > b.limit())
+                size = b.limit() - body;
+
+            if(id == 0x20746d66 /* fmt  */) {
+                format = b.getShort(body) & 0xffff;
+                channels = b.getShort(body + 2) & 0xffff;
+                sampleRate = b.getInt(body + 4);
+                bitsPerSample = b.getShort(body + 14) & 0xffff;
+                if(format == FORMAT_EXTENSIBLE && size >= 26)
+                    format = b.getShort(body + 24) & 0xffff;
+            } else if(id == 0x61746164 /* data */) {
+                b.position(body);
+                b.limit(body + size);
+                samples = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+                b.limit(b.capacity());
+            } else if(id == 0x6c706d73 /* smpl */ && size >= SMPL_FIRST_LOOP_END && b.getInt(body + 28) > 0) {
+                loopStart = b.getInt(body + 36 + 8);
+                loopEnd = b.getInt(body + 36 + 12) + 1;
+            }
+            // Chunks are padded to an even length
+            position = body + size + (size & 1);
+        }
+
+        if(channels == 0 || samples == null)
+            throw new IOException("WAV file has no format or data chunk");
+        if(!(format == FORMAT_PCM && (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32))
+                && !(format == FORMAT_FLOAT && bitsPerSample == 32))
+            throw new IOException("Unsupported WAV encoding " + format + " at " + bitsPerSample + " bits");
+
+        this.data = samples;
+        this.bytesPerFrame = channels * bitsPerSample / 8;
+        this.numFrames = samples.remaining() / bytesPerFrame;
+        if(loopEnd > numFrames || loopStart >= loopEnd) {
+            loopStart = -1;
+            loopEnd = -1;
+        }
+    }
+
+    /**
+     * Memory-map the given file and parse its header.
+     *
+     * @param f a WAV file
+     * @return a reader for the file
+     * @throws IOException
+     */
+    public static WavReader open(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // The mapping stays valid after the channel is closed
+            return new WavReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the first frame of the sampler loop, or -1 if the file doesn't define one
+     */
+    public int getLoopStart() {
+        return loopStart;
+    }
+
+    /**
+     * @return the frame after the end of the sampler loop, or -1 if the file doesn't define one
+     */
+    public int getLoopEnd() {
+        return loopEnd;
+    }
+
+    /**
+     * Decode frames into mono floats between -1 and 1, averaging the channels.
+     *
+     * @param fromFrame the first frame to decode
+     * @param numFrames the number of frames to decode
+     * @param out the array to decode into, from index 0
+     */
+    public void readMono(int fromFrame, int numFrames, float[] out) {
+        int bytesPerSample = bitsPerSample / 8;
+        float channelScale = 1f / channels;
+        for(int i = 0; i < numFrames; i++) {
+            int offset = (fromFrame + i) * bytesPerFrame;
+            float sum = 0;
+            for(int c = 0; c < channels; c++)
+                sum += sampleAt(offset + c * bytesPerSample);
+            out[i] = sum * channelScale;
+        }
+    }
+
+    /**
+     * @return every frame, decoded as by {@link #readMono}
+     */
+    public float[] readMono() {
+        float[] result = new float[numFrames];
+        readMono(0, numFrames, result);
+        return result;
+    }
+
+    private float sampleAt(int offset) {
+        switch(bitsPerSample) {
+            case 8:
+                return ((data.get(offset) & 0xff) - 128) / 128f;
+            case 16:
+                return data.getShort(offset) / 32768f;
+            case 24:
+                int val = (data.get(offset) & 0xff) | ((data.get(offset + 1) & 0xff) << 8) | (data.get(offset + 2) << 16);
+                return val / 8388608f;
+            default:
+                if(format == FORMAT_FLOAT)
+                    return data.getFloat(offset);
+                return data.getInt(offset) / 2147483648f;
+        }
+    }
+}
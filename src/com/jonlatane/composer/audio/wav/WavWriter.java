@@ -0,0 +1,123 @@
+package com.jonlatane.composer.audio.wav;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams float samples into a 16- or 24-bit PCM WAV file.  Samples are written as they arrive, and
+ * the sizes in the header are filled in when the writer is closed, so a file of any length can be
+ * written without holding it in memory.
+ */
+public class WavWriter implements Closeable {
+    private static final int HEADER_SIZE = 44;
+    /** How many bytes to convert before handing them to the channel */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int sampleRate, channels, bitsPerSample;
+    private long dataSize = 0;
+
+    /**
+     * @param f the file to write; it will be overwritten
+     * @param sampleRate the sample rate in Hz
+     * @param channels the number of interleaved channels
+     * @param bitsPerSample 16 or 24
+     * @throws IOException
+     */
+    public WavWriter(File f, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        if(bitsPerSample != 16 && bitsPerSample != 24)
+            throw new IllegalArgumentException("Only 16- and 24-bit output is supported, not " + bitsPerSample);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+
+        file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Leave room for the header until we know how long the data is
+        writeHeader();
+    }
+
+    /**
+     * Write interleaved samples, clipping anything outside [-1, 1].
+     *
+     * @param samples the samples to write
+     * @param offset the first sample to write
+     * @param length the number of samples to write; a multiple of the number of channels
+     * @throws IOException
+     */
+    public void write(float[] samples, int offset, int length) throws IOException {
+        int bytesPerSample = bitsPerSample / 8;
+        for(int i = offset; i < offset + length; i++) {
+            if(buffer.remaining() < bytesPerSample)
+                flush();
+            float sample = Math.max(-1f, Math.min(1f, samples[i]));
+            if(bitsPerSample == 16) {
+                buffer.putShort((short) Math.round(sample * 32767));
+            } else {
+                int val = Math.round(sample * 8388607);
+                buffer.put((byte) (val & 0xff));
+                buffer.put((byte) ((val >> 8) & 0xff));
+                buffer.put((byte) ((val >> 16) & 0xff));
+            }
+        }
+        dataSize += (long) length * bytesPerSample;
+    }
+
+    public void write(float[] samples) throws IOException {
+        write(samples, 0, samples.length);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        int blockAlign = channels * bitsPerSample / 8;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt((int) Math.min(0xffffffffL, 36 + dataSize));
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '});
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) bitsPerSample);
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt((int) Math.min(0xffffffffL, dataSize));
+        header.flip();
+        channel.write(header, 0);
+        if(channel.position() < HEADER_SIZE)
+            channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Flush any remaining samples, fill in the header and close the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeHeader();
+        } finally {
+            file.close();
+        }
+    }
+}
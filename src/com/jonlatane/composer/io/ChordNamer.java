@@ -0,0 +1,177 @@
+package com.jonlatane.composer.io;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Pair;
+
+import com.jonlatane.composer.latency.LatencyMonitor;
+import com.jonlatane.composer.music.harmony.Chord;
+import com.jonlatane.composer.music.harmony.Key;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Names the chord on the keyboard in the background, ranking every root the way
+ * {@link Key#getRootLikelihoodsAndNames} does, and hands the names to the UI thread.
+ *
+ * Requests are coalesced into a single slot: a request made while another is being named replaces any
+ * request still waiting, so however fast keys are played there is never more than one naming in
+ * flight and one waiting.  A naming checks between roots whether it has been superseded and gives up
+ * if so.  Results go through three preallocated buffers, one each for the worker, the UI and the
+ * handoff between them, so the UI only ever sees the newest names and nothing is allocated for them.
+ */
+public class ChordNamer {
+	private static final String TAG = "ChordNamer";
+	/** Every root is ranked, so there are this many names */
+	public static final int NUM_NAMES = 12;
+
+	/**
+	 * Receives the names of the chord most recently requested, on the UI thread.
+	 */
+	public interface OnNamesReadyListener {
+		/**
+		 * @param names the names, most likely first.  Only valid until this call returns.
+		 * @param count how many names there are
+		 */
+		void onNamesReady(String[] names, int count);
+	}
+
+	/** A request and what it was named */
+	private static final class Result {
+		final String[] NAMES = new String[NUM_NAMES];
+		final int[] SCORES = new int[NUM_NAMES];
+		int count;
+		int generation;
+		long requestedAt;
+	}
+
+	private static final class Request {
+		final Chord CHORD;
+		final Key KEY;
+		final int GENERATION;
+		final long REQUESTED_AT = System.nanoTime();
+
+		Request(Chord chord, Key key, int generation) {
+			CHORD = chord;
+			KEY = key;
+			GENERATION = generation;
+		}
+	}
+
+	private final OnNamesReadyListener listener;
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread result = new Thread(r, TAG);
+			result.setDaemon(true);
+			return result;
+		}
+	});
+
+	private final AtomicInteger generation = new AtomicInteger();
+	private final AtomicReference<Request> pending = new AtomicReference<Request>();
+	/** Whether the worker has been told to look at {@link #pending} and hasn't yet */
+	private final AtomicBoolean workScheduled = new AtomicBoolean(false);
+
+	/** The worker's buffer, touched only on its thread */
+	private Result back = new Result();
+	/** The handoff buffer, with a flag for whether it holds names the UI hasn't taken */
+	private final AtomicReference<Result> middle = new AtomicReference<Result>(new Result());
+	private final AtomicBoolean middleFresh = new AtomicBoolean(false);
+	/** The UI's buffer, touched only on the UI thread */
+	private Result front = new Result();
+	private final AtomicBoolean deliveryPosted = new AtomicBoolean(false);
+
+	private final Runnable work = new Runnable() {
+		@Override
+		public void run() {
+			// Clear the flag first, so a request arriving from here on schedules another pass
+			workScheduled.set(false);
+			Request r = pending.getAndSet(null);
+			if(r != null && name(r, back)) {
+				back = middle.getAndSet(back);
+				middleFresh.set(true);
+				if(deliveryPosted.compareAndSet(false, true))
+					uiHandler.post(deliver);
+			}
+		}
+	};
+
+	private final Runnable deliver = new Runnable() {
+		@Override
+		public void run() {
+			deliveryPosted.set(false);
+			if(!middleFresh.getAndSet(false))
+				return;
+			front = middle.getAndSet(front);
+			// Names for a chord that has since changed would only flash up and be replaced
+			if(front.generation != generation.get())
+				return;
+			listener.onNamesReady(front.NAMES, front.count);
+			LatencyMonitor.recordSince(LatencyMonitor.Stage.CHORD_UPDATE, front.requestedAt);
+		}
+	};
+
+	public ChordNamer(OnNamesReadyListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Name the given chord, superseding any earlier request.  Call from the UI thread.
+	 *
+	 * @param c the chord; it must not be changed afterward
+	 * @param k the key to spell names in
+	 */
+	public void request(Chord c, Key k) {
+		pending.set(new Request(c, k, generation.incrementAndGet()));
+		if(workScheduled.compareAndSet(false, true))
+			executor.execute(work);
+	}
+
+	/**
+	 * Forget any request that hasn't been delivered.
+	 */
+	public void cancel() {
+		generation.incrementAndGet();
+		pending.set(null);
+	}
+
+	/**
+	 * Rank every root for the request's chord, best first, as {@link Key#getRootLikelihoodsAndNames}
+	 * does: the chord's own root, if it has one, outranks every other.
+	 *
+	 * @return false if the request was superseded partway through
+	 */
+	private boolean name(Request r, Result out) {
+		int count = 0;
+		Integer chordRoot = r.CHORD.getRoot();
+		for(int root = 0; root < NUM_NAMES; root++) {
+			if(generation.get() != r.GENERATION)
+				return false;
+			Pair<String,Integer> candidate = Key.guessName(r.CHORD, root, r.KEY);
+			int score = candidate.second;
+			if(chordRoot != null && root == chordRoot)
+				score += 1000;
+
+			// Insertion sort, keeping roots with equal scores in ascending order
+			int i = count++;
+			while(i > 0 && out.SCORES[i - 1] < score) {
+				out.SCORES[i] = out.SCORES[i - 1];
+				out.NAMES[i] = out.NAMES[i - 1];
+				i--;
+			}
+			out.SCORES[i] = score;
+			out.NAMES[i] = candidate.first;
+		}
+		out.count = count;
+		out.generation = r.GENERATION;
+		out.requestedAt = r.REQUESTED_AT;
+		return true;
+	}
+}
@@ -1,52 +1,24 @@
 package com.jonlatane.composer.io;
 
 import android.content.Context;
-import android.media.AudioTrack;
 import android.os.AsyncTask;
 import android.os.Vibrator;
 import android.util.Log;
-import android.util.SparseIntArray;
-import android.view.MotionEvent;
 import android.view.View;
-import android.view.View.OnLongClickListener;
-import android.view.View.OnTouchListener;
-import android.view.ViewTreeObserver;
-import android.view.ViewTreeObserver.OnPreDrawListener;
-import android.widget.Button;
 
 import com.jonlatane.composer.R;
-import com.jonlatane.composer.audio.AudioTrackCache;
 import com.jonlatane.composer.audio.AudioTrackGenerator;
+import com.jonlatane.composer.audio.NotePrewarmer;
 import com.jonlatane.composer.audio.generator.HarmonicOvertoneSeriesGenerator;
+import com.jonlatane.composer.audio.voice.AudioTrackVoiceOutput;
+import com.jonlatane.composer.audio.voice.VoiceAllocator;
+import com.jonlatane.composer.latency.LatencyMonitor;
 import com.jonlatane.composer.music.harmony.Chord;
 import com.jonlatane.composer.music.harmony.Key;
 import com.jonlatane.composer.music.harmony.PitchSet;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
-public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
+public class KeyboardIOHandler implements KeyboardView.OnNoteListener {
 	private static String TAG = "KBDIO";
-
-	private static int[] KEY_IDS = new int[]
-			{ R.id.keyA0, R.id.keyAS0, R.id.keyB0,
-		R.id.keyC1, R.id.keyCS1, R.id.keyD1, R.id.keyDS1,R.id.keyE1, R.id.keyF1, R.id.keyFS1, R.id.keyG1,R.id.keyGS1, R.id.keyA1, R.id.keyAS1, R.id.keyB1,
-		R.id.keyC2, R.id.keyCS2, R.id.keyD2, R.id.keyDS2,R.id.keyE2, R.id.keyF2, R.id.keyFS2, R.id.keyG2,R.id.keyGS2, R.id.keyA2, R.id.keyAS2, R.id.keyB2,
-		R.id.keyC3, R.id.keyCS3, R.id.keyD3, R.id.keyDS3,R.id.keyE3, R.id.keyF3, R.id.keyFS3, R.id.keyG3,R.id.keyGS3, R.id.keyA3, R.id.keyAS3, R.id.keyB3,
-		R.id.keyC4, R.id.keyCS4, R.id.keyD4, R.id.keyDS4,R.id.keyE4, R.id.keyF4, R.id.keyFS4, R.id.keyG4,R.id.keyGS4, R.id.keyA4, R.id.keyAS4, R.id.keyB4,
-		R.id.keyC5, R.id.keyCS5, R.id.keyD5, R.id.keyDS5,R.id.keyE5, R.id.keyF5, R.id.keyFS5, R.id.keyG5,R.id.keyGS5, R.id.keyA5, R.id.keyAS5, R.id.keyB5,
-		R.id.keyC6, R.id.keyCS6, R.id.keyD6, R.id.keyDS6,R.id.keyE6, R.id.keyF6, R.id.keyFS6, R.id.keyG6,R.id.keyGS6, R.id.keyA6, R.id.keyAS6, R.id.keyB6,
-		R.id.keyC7, R.id.keyCS7, R.id.keyD7, R.id.keyDS7,R.id.keyE7, R.id.keyF7, R.id.keyFS7, R.id.keyG7,R.id.keyGS7, R.id.keyA7, R.id.keyAS7, R.id.keyB7,
-		R.id.keyC8
-			};
-	private static SparseIntArray KEY_IDS_INVERSE = new SparseIntArray();
-	static {
-		for( int i = 0; i < KEY_IDS.length; i = i +  1 ) {
-			KEY_IDS_INVERSE.put(KEY_IDS[i], i - 39);
-		}
-	}
 	
 	// Harmonic input-related fields
 	private boolean harmonicMode = false;
@@ -54,29 +26,33 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 	
 	private Chord harmonicChord = null;
 	
-	private Set<Integer> currentlyPressed = Collections.synchronizedSet(new HashSet<Integer>());
+	// Keys held, indexed by note - KeyboardView.LOWEST_NOTE.  Only the UI thread touches these, so
+	// pressing and lifting need no lock and allocate nothing.
+	private final boolean[] pressed = new boolean[KeyboardView.HIGHEST_NOTE - KeyboardView.LOWEST_NOTE + 1];
+	private int pressedCount = 0;
 	AudioTrackGenerator trackGenerator = new HarmonicOvertoneSeriesGenerator();
+	/** Half of the 32 tracks we can expect from Android, leaving room for releases and other apps */
+	private static final int NUM_VOICES = 16;
+	private final VoiceAllocator voices = new VoiceAllocator(NUM_VOICES, VoiceAllocator.StealPolicy.OLDEST,
+			new AudioTrackVoiceOutput(trackGenerator, NUM_VOICES));
 	private TwelthKeyboardFragment keyboardFragment;
+	private final KeyboardView keyboardView;
 	private final KeyboardScroller keyboardScroller;
+	private final PerformanceRecorder recorder = new PerformanceRecorder();
 	
 	public KeyboardIOHandler(TwelthKeyboardFragment f, View v) {
 		keyboardFragment = f;
-		for(int k : KEY_IDS) {
-			Button b = (Button)(v.findViewById(k));
-			b.setOnTouchListener(this);
-			b.setOnLongClickListener(this);
-			ViewTreeObserver o = b.getViewTreeObserver();
-			
-			// Make sure we don't get stuck keys
-			o.addOnPreDrawListener(new OnPreDrawListener() {
-				@Override
-				public boolean onPreDraw() {
-					catchRogues();
-					return true;
-				}
-			});
-		}
+		keyboardView = (KeyboardView) v.findViewById(R.id.keyboard);
+		keyboardView.setOnNoteListener(this);
 		keyboardScroller = ((KeyboardScroller)v.findViewById(R.id.kbScroller));
+		
+		// Render whatever keys the user can see before they press them
+		keyboardScroller.setOnVisibleRangeChangedListener(new KeyboardScroller.OnVisibleRangeChangedListener() {
+			@Override
+			public void onVisibleRangeChanged(int lowestNote, int highestNote) {
+				NotePrewarmer.prewarm(trackGenerator, lowestNote, highestNote);
+			}
+		});
 	}
 	
 	public void harmonicModeOn() {
@@ -95,63 +71,90 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 	}
 	
 	void liftNote(int n) {
-		synchronized(currentlyPressed) {
-			if(harmonicMode) {
-				//Log.i(TAG, "Harmonic Root:")
-				if(cancelHarmonicLongPressRootSelection && currentlyPressed.size() == 1)
-					cancelHarmonicLongPressRootSelection = false;
-			}
-			currentlyPressed.remove(n);
+		// Already lifted, e.g. by a later press in melodic mode
+		if(!pressed[n - KeyboardView.LOWEST_NOTE])
+			return;
+		if(harmonicMode) {
+			//Log.i(TAG, "Harmonic Root:")
+			if(cancelHarmonicLongPressRootSelection && pressedCount == 1)
+				cancelHarmonicLongPressRootSelection = false;
 		}
+		pressed[n - KeyboardView.LOWEST_NOTE] = false;
+		pressedCount--;
 
-		if(getHarmonicRoot() != null && currentlyPressed.size() == 0) {
+		if(getHarmonicRoot() != null && pressedCount == 0) {
 			clearHarmonicRoot();
 		}
 		
-		AudioTrack t = AudioTrackCache.getAudioTrackForNote(n, trackGenerator);
-		t.pause();
-		AudioTrackCache.normalizeVolumes();
-		//t.setPlaybackHeadPosition(0);
-		//t.reloadStaticData();
+		voices.noteOff(n);
+		recorder.noteLifted(n);
+		// Letting go of part of a chord changes it too
+		if(harmonicMode && recorder.isRecording() && recorder.isCapturingChords())
+			recorder.chordChanged(getChord(), System.nanoTime());
 	}
 	void pressNote(int n) {
-		synchronized(currentlyPressed) {
-			if(harmonicMode) {
-				if(getHarmonicRoot() == null) {
-					if(currentlyPressed.size() == 0)
-						cancelHarmonicLongPressRootSelection = false;
-					else
-						cancelHarmonicLongPressRootSelection = true;
-				}
-				Log.i(TAG, "Got key Press " + harmonicInfo());
-			} else {
-				// Melodic mode, one note at a time!
-				for( int m : currentlyPressed) {
-					liftNote(m);
+		pressNote(n, System.nanoTime());
+	}
+	/**
+	 * @param n the note, with C4 = 0
+	 * @param pressedAt when the key was touched, by {@link System#nanoTime()}
+	 */
+	void pressNote(int n, long pressedAt) {
+		if(pressed[n - KeyboardView.LOWEST_NOTE])
+			return;
+		if(harmonicMode) {
+			if(getHarmonicRoot() == null) {
+				if(pressedCount == 0)
+					cancelHarmonicLongPressRootSelection = false;
+				else
+					cancelHarmonicLongPressRootSelection = true;
+			}
+		} else {
+			// Melodic mode, one note at a time!
+			for(int i = 0; i < pressed.length && pressedCount != 0; i++) {
+				if(pressed[i]) {
+					liftNote(i + KeyboardView.LOWEST_NOTE);
+					keyboardView.silence(i + KeyboardView.LOWEST_NOTE);
 				}
 			}
-			currentlyPressed.add(n);
 		}
+		pressed[n - KeyboardView.LOWEST_NOTE] = true;
+		pressedCount++;
 		//_toneGenerator.getCustomAudioTrackForNote(n).play();
-		AudioTrackCache.getAudioTrackForNote(n, trackGenerator).play();
-		AudioTrackCache.normalizeVolumes();
+		voices.noteOn(n, pressedAt);
+		recorder.notePressed(n, pressedAt);
 
 		// The magic
 		if(harmonicMode) {
 			keyboardFragment.updateChordDisplay();
+			if(recorder.isRecording() && recorder.isCapturingChords())
+				recorder.chordChanged(getChord(), pressedAt);
 		}
 	}
 	
 	@Override
-	public boolean onLongClick(View view) {
+	public void onNotePressed(int note, long eventTime) {
+		long handlingStart = System.nanoTime();
+		long pressedAt = LatencyMonitor.toNanoTime(eventTime);
+		LatencyMonitor.record(LatencyMonitor.Stage.INPUT_DISPATCH, handlingStart - pressedAt);
+		pressNote(note, pressedAt);
+		LatencyMonitor.recordSince(LatencyMonitor.Stage.PRESS_HANDLING, handlingStart);
+	}
+	
+	@Override
+	public void onNoteReleased(int note) {
+		liftNote(note);
+	}
+	
+	@Override
+	public void onNoteLongPressed(int note) {
 		if(harmonicMode && (getHarmonicRoot() == null)) {
-			if(!cancelHarmonicLongPressRootSelection && currentlyPressed.size() == 1) {
-				Vibrator v = (Vibrator) view.getContext().getSystemService(Context.VIBRATOR_SERVICE);
+			if(!cancelHarmonicLongPressRootSelection && pressedCount == 1) {
+				Vibrator v = (Vibrator) keyboardView.getContext().getSystemService(Context.VIBRATOR_SERVICE);
 				v.vibrate(50);
-				setHarmonicRoot(KEY_IDS_INVERSE.get(view.getId()));
+				setHarmonicRoot(note);
 			}
 		}
-		return false;
 	}
 	
 	/**
@@ -181,51 +184,13 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 		harmonicChord = c;
 		if(harmonicChord != null) {
 			Log.i(TAG,"Highlighting chord " + Key.CMajor.getNoteName(harmonicChord.getRoot()) + harmonicChord.toString());
-
-			for(int id : KEY_IDS) {
-				Button b = (Button) keyboardFragment.getView().findViewById(id);
-				int n = KEY_IDS_INVERSE.get(id);
-				int nClass = Chord.TWELVETONE.mod(n);
-				boolean isRoot = (c.getRoot() != null && nClass == c.getRoot());
-				boolean isBlack = isBlack(n);
-				boolean isInChord = c.contains(nClass);
-				if(isBlack) {
-					if(isRoot) {
-						b.setBackgroundResource(R.drawable.key_black_highlighted_root);
-					} else if(isInChord) {
-						b.setBackgroundResource(R.drawable.key_black_highlighted);
-					} else {
-						b.setBackgroundResource(R.drawable.key_black);
-					}
-				} else {
-					if(isRoot) {
-						b.setBackgroundResource(R.drawable.key_white_highlighted_root);
-					} else if(isInChord) {
-						b.setBackgroundResource(R.drawable.key_white_highlighted);
-					} else {
-						b.setBackgroundResource(R.drawable.key_white);
-					}
-				}
-			}
 		} else {
 			Log.i(TAG, "Clearing highlights");
-			for(int id : KEY_IDS) {
-				int n = KEY_IDS_INVERSE.get(id);
-				if(isBlack(n)) {
-					((Button) keyboardFragment.getView().findViewById(id)).setBackgroundResource(R.drawable.key_black);
-				} else {
-					((Button) keyboardFragment.getView().findViewById(id)).setBackgroundResource(R.drawable.key_white);
-				}
-			}
 		}
+		keyboardView.setHighlightedChord(c);
 	}
 	
-	boolean isBlack(int note) {
-		int nClass = Chord.TWELVETONE.mod(note);
-		return (nClass == 1 || nClass == 3 || nClass == 6  || nClass == 8  || nClass == 10);
-	}
-	
-	public synchronized void clearHarmonicRoot() {
+	public void clearHarmonicRoot() {
 		//Log.i(TAG,"Clearing Root");
 		setHarmonicChord(null);
 	}
@@ -234,53 +199,42 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 		return (harmonicChord == null) ? null : harmonicChord.getRoot();
 	}
 	
-	// Utility method in case the keyboard is scrolled when keys are pressed.
-	void catchRogues() {
-		if(keyboardFragment.getView() != null) {
-			Iterator<Integer> iter = currentlyPressed.iterator();
-			while(iter.hasNext()) {
-				int n = iter.next();
-				Button b = (Button) keyboardFragment.getView().findViewById(KEY_IDS[n+39]);
-				if(!b.isPressed()) {
-					iter.remove();
-					liftNote(n);
-				}
-			}
-		}
-	}
-	
-	@Override
-	public boolean onTouch(View arg0, MotionEvent event) {
-		catchRogues();
-		Log.i(TAG, "onTouch IOHandler.  This should be from a Button on the keyboard.");
-		
-		boolean result = false;
-		if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
-			pressNote(KEY_IDS_INVERSE.get(arg0.getId()));
-			Log.i(TAG, "Got key Press " + harmonicInfo());
-		} else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
-			liftNote(KEY_IDS_INVERSE.get(arg0.getId()));
-		} else if (event.getActionMasked() == MotionEvent.ACTION_MOVE 
-				&& event.getPointerCount() != 1 
-				&& getPressedKeys().size() > 1) {
-			Log.i(TAG,"onTouch Disallow");
-			result = true;
-		}
-		
-		return result;
-	}
-	
 	public PitchSet getPressedKeys() {
-		return new PitchSet(currentlyPressed);
+		PitchSet result = new PitchSet();
+		for(int i = 0; i < pressed.length; i++)
+			if(pressed[i])
+				result.add(i + KeyboardView.LOWEST_NOTE);
+		return result;
 	}
 	
 	public Chord getChord() {
-		Chord c = new Chord(currentlyPressed);
+		Chord c = new Chord(getPressedKeys());
 		c.setRoot(getHarmonicRoot());
-		Log.i(TAG,"Found Chord " + c.toString());
 		return c;
 	}
 	
+	/**
+	 * Let go of the threads and tracks behind this keyboard.  Call when its View is destroyed.
+	 */
+	public void release() {
+		voices.release();
+		recorder.release();
+	}
+	
+	/**
+	 * @return the voices playing this keyboard's notes, e.g. for monitoring polyphony
+	 */
+	public VoiceAllocator getVoices() {
+		return voices;
+	}
+	
+	/**
+	 * @return the recorder for capturing what's played into a Score
+	 */
+	public PerformanceRecorder getRecorder() {
+		return recorder;
+	}
+	
 	public String harmonicInfo() {
 		String result = "";
 		if(harmonicMode) {
@@ -288,8 +242,9 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 			if(harmonicChord != null && harmonicChord.getRoot() != null)
 				result += "R:" + harmonicChord.getRoot();
 			result += "[";
-			for(int i : currentlyPressed) {
-				result += i + ",";
+			for(int i = 0; i < pressed.length; i++) {
+				if(pressed[i])
+					result += (i + KeyboardView.LOWEST_NOTE) + ",";
 			}
 			result += "]";
 			
@@ -297,8 +252,9 @@ public class KeyboardIOHandler implements OnLongClickListener, OnTouchListener {
 		} else {
 			result += "M: ";
 			result += "[";
-			for(int i : currentlyPressed) {
-				result += i + ",";
+			for(int i = 0; i < pressed.length; i++) {
+				if(pressed[i])
+					result += (i + KeyboardView.LOWEST_NOTE) + ",";
 			}
 			result += "]";
 		}
@@ -15,6 +15,21 @@ public class KeyboardScroller extends NonDelayedHorizontalScrollView {
 	
 	public int margin;
 	
+	/** The number of white keys on the keyboard, A0 through C8 */
+	private static final int NUM_WHITE_KEYS = 52;
+	/** Offsets of the white keys in an octave starting on A */
+	private static final int[] WHITE_KEY_OFFSETS_FROM_A = { 0, 2, 3, 5, 7, 8, 10 };
+	private static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+	
+	/**
+	 * Notified whenever the range of keys visible on the keyboard changes.
+	 */
+	public interface OnVisibleRangeChangedListener {
+		void onVisibleRangeChanged(int lowestNote, int highestNote);
+	}
+	private OnVisibleRangeChangedListener _onVisibleRangeChangedListener = null;
+	private int _lowestVisibleNote = LOWEST_NOTE, _highestVisibleNote = HIGHEST_NOTE;
+	
 	public KeyboardScroller(Context context) {
 		super(context);
 		onCreate(context);
@@ -33,6 +48,58 @@ public class KeyboardScroller extends NonDelayedHorizontalScrollView {
 		margin = c.getResources().getDisplayMetrics().densityDpi / 5;
 	}
 
+	public void setOnVisibleRangeChangedListener(OnVisibleRangeChangedListener l) {
+		_onVisibleRangeChangedListener = l;
+		updateVisibleRange(true);
+	}
+	
+	/**
+	 * @return the lowest note (with C4 = 0) at least partly visible on the keyboard
+	 */
+	public int getLowestVisibleNote() {
+		return _lowestVisibleNote;
+	}
+	
+	/**
+	 * @return the highest note (with C4 = 0) at least partly visible on the keyboard
+	 */
+	public int getHighestVisibleNote() {
+		return _highestVisibleNote;
+	}
+	
+	private static int whiteKeyToNote(int whiteKey) {
+		return LOWEST_NOTE + 12 * (whiteKey / 7) + WHITE_KEY_OFFSETS_FROM_A[whiteKey % 7];
+	}
+	
+	// All white keys have the same width, so we can find the visible ones from the scroll position alone
+	private void updateVisibleRange(boolean notifyAnyway) {
+		if(getChildCount() == 0 || getChildAt(0).getWidth() == 0)
+			return;
+		float whiteKeyWidth = (float)getChildAt(0).getWidth() / NUM_WHITE_KEYS;
+		int lowestWhiteKey = Math.max(0, (int)(getScrollX() / whiteKeyWidth));
+		int highestWhiteKey = Math.min(NUM_WHITE_KEYS - 1, (int)((getScrollX() + getWidth()) / whiteKeyWidth));
+		
+		// Include the black keys hanging over either edge
+		int lowest = Math.max(LOWEST_NOTE, whiteKeyToNote(lowestWhiteKey) - 1);
+		int highest = Math.min(HIGHEST_NOTE, whiteKeyToNote(highestWhiteKey) + 1);
+		if(notifyAnyway || lowest != _lowestVisibleNote || highest != _highestVisibleNote) {
+			_lowestVisibleNote = lowest;
+			_highestVisibleNote = highest;
+			if(_onVisibleRangeChangedListener != null)
+				_onVisibleRangeChangedListener.onVisibleRangeChanged(lowest, highest);
+		}
+	}
+	
+	@Override protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+		super.onScrollChanged(l, t, oldl, oldt);
+		updateVisibleRange(false);
+	}
+	
+	@Override protected void onLayout(boolean changed, int l, int t, int r, int b) {
+		super.onLayout(changed, l, t, r, b);
+		updateVisibleRange(false);
+	}
+
 	@Override public boolean onTouchEvent(MotionEvent event) {
 		if(event.getX() < margin || event.getX() > getWidth() - margin)
 			enableScrolling();
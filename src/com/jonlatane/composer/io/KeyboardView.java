@@ -0,0 +1,404 @@
+package com.jonlatane.composer.io;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.SparseIntArray;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import com.jonlatane.composer.R;
+import com.jonlatane.composer.music.harmony.Chord;
+
+/**
+ * The whole keyboard, A0 through C8, as one View.  Keys are found from touch coordinates by
+ * arithmetic, since every white key is the same width, and every pointer is tracked by its ID, so
+ * chords can be held with several fingers and a finger sliding across the keys plays each one it
+ * crosses.  Touches taken away by the {@link KeyboardScroller} arrive as a cancel and lift their keys,
+ * so keys can't get stuck.
+ *
+ * An octave of unpressed, unhighlighted keys is drawn once into a bitmap and stamped across the
+ * keyboard; only pressed and highlighted keys are drawn over it.  Changing a key's state invalidates
+ * just that key, and nothing at all happens while the keyboard is idle.
+ */
+public class KeyboardView extends View {
+	@SuppressWarnings("unused") private static String TAG = "KeyboardView";
+
+	public static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+	private static final int NUM_KEYS = HIGHEST_NOTE - LOWEST_NOTE + 1;
+	private static final int NUM_WHITE_KEYS = 52;
+	/** The width of a black key, in white keys */
+	private static final float BLACK_KEY_WIDTH = .58f;
+	/** By pitch class, how far a black key sits to the right of the crack between its white keys, in white keys */
+	private static final float[] BLACK_KEY_OFFSETS = { 0, -.1f, 0, .1f, 0, 0, -.12f, 0, 0, 0, .12f, 0 };
+	private static final int NO_NOTE = Integer.MIN_VALUE;
+	/** Drawn on each C, C1 through C8 */
+	private static final String[] OCTAVE_LABELS = { "1", "2", "3", "4", "5", "6", "7", "8" };
+
+	// How a key is highlighted
+	private static final int PLAIN = 0, IN_CHORD = 1, ROOT = 2;
+
+	/**
+	 * Notified as keys are pressed and released.  A key held by several fingers is pressed when the first
+	 * touches it and released when the last leaves it.
+	 */
+	public interface OnNoteListener {
+		/**
+		 * @param note the note, with C4 = 0
+		 * @param eventTime when the key was touched, by {@link android.os.SystemClock#uptimeMillis()}
+		 */
+		void onNotePressed(int note, long eventTime);
+		void onNoteReleased(int note);
+		/**
+		 * A key has been held on its own for a long press.
+		 */
+		void onNoteLongPressed(int note);
+	}
+	private OnNoteListener _onNoteListener = null;
+
+	// Geometry, indexed by note - LOWEST_NOTE, and the white keys' notes from left to right
+	private final float[] _keyLeft = new float[NUM_KEYS], _keyRight = new float[NUM_KEYS];
+	private final boolean[] _isBlack = new boolean[NUM_KEYS];
+	private final int[] _whiteKeyNotes = new int[NUM_WHITE_KEYS];
+	private final float _whiteKeyWidth, _highlightHeight, _cornerRadius;
+	/** Black key height as a fraction of white key height */
+	private final float _blackKeyHeightRatio;
+	private float _blackKeyHeight = 0;
+
+	// State, indexed by note - LOWEST_NOTE
+	private final int[] _highlight = new int[NUM_KEYS];
+	/** How many pointers are holding each key */
+	private final int[] _pressCount = new int[NUM_KEYS];
+	/** The note under each pointer, by pointer ID */
+	private final SparseIntArray _pointerNotes = new SparseIntArray();
+
+	private int _longPressNote = NO_NOTE;
+	private final Runnable _longPress = new Runnable() {
+		@Override
+		public void run() {
+			if(_onNoteListener != null && _longPressNote != NO_NOTE && _pointerNotes.size() == 1)
+				_onNoteListener.onNoteLongPressed(_longPressNote);
+		}
+	};
+
+	/** One octave, C through B, of plain keys */
+	private Bitmap _octaveTile = null;
+	private final Paint _fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint _strokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint _labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final RectF _keyRect = new RectF();
+	private final Rect _clip = new Rect();
+	private final int _whiteColor, _blackColor, _pressedColor, _pressedInChordColor, _pressedRootColor,
+			_highlightColor, _highlightRootColor;
+
+	public KeyboardView(Context context) {
+		this(context, null);
+	}
+	public KeyboardView(Context context, AttributeSet attrs) {
+		this(context, attrs, 0);
+	}
+
+	public KeyboardView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		Resources r = context.getResources();
+		_whiteKeyWidth = r.getDimension(R.dimen.key_width_white);
+		_blackKeyHeightRatio = r.getDimension(R.dimen.key_height_black) / r.getDimension(R.dimen.key_height_white);
+		_highlightHeight = r.getDimension(R.dimen.key_highlight_height);
+		_cornerRadius = 2 * r.getDisplayMetrics().density;
+
+		_whiteColor = r.getColor(R.color.key_white);
+		_blackColor = r.getColor(R.color.key_black);
+		_pressedColor = r.getColor(R.color.key_pressed);
+		_pressedInChordColor = r.getColor(R.color.key_pressed_in_chord);
+		_pressedRootColor = r.getColor(R.color.key_pressed_root);
+		_highlightColor = r.getColor(R.color.key_highlight);
+		_highlightRootColor = r.getColor(R.color.key_highlight_root);
+
+		_strokePaint.setStyle(Paint.Style.STROKE);
+		_strokePaint.setStrokeWidth(r.getDisplayMetrics().density);
+		_strokePaint.setColor(r.getColor(R.color.key_stroke));
+		_labelPaint.setTextAlign(Paint.Align.CENTER);
+		_labelPaint.setTextSize(14 * r.getDisplayMetrics().density);
+		_labelPaint.setColor(_blackColor);
+
+		layoutKeys();
+	}
+
+	public void setOnNoteListener(OnNoteListener l) {
+		_onNoteListener = l;
+	}
+
+	// All white keys are the same width; each black key straddles the crack between two of them
+	private void layoutKeys() {
+		int whiteKeys = 0;
+		for(int i = 0; i < NUM_KEYS; i++) {
+			int pitchClass = Chord.TWELVETONE.mod(i + LOWEST_NOTE);
+			_isBlack[i] = isBlack(i + LOWEST_NOTE);
+			if(_isBlack[i]) {
+				float center = _whiteKeyWidth * (whiteKeys + BLACK_KEY_OFFSETS[pitchClass]);
+				_keyLeft[i] = center - _whiteKeyWidth * BLACK_KEY_WIDTH / 2;
+				_keyRight[i] = center + _whiteKeyWidth * BLACK_KEY_WIDTH / 2;
+			} else {
+				_whiteKeyNotes[whiteKeys] = i + LOWEST_NOTE;
+				_keyLeft[i] = _whiteKeyWidth * whiteKeys;
+				_keyRight[i] = _keyLeft[i] + _whiteKeyWidth;
+				whiteKeys++;
+			}
+		}
+	}
+
+	static boolean isBlack(int note) {
+		int nClass = Chord.TWELVETONE.mod(note);
+		return (nClass == 1 || nClass == 3 || nClass == 6  || nClass == 8  || nClass == 10);
+	}
+
+	/**
+	 * @return the note under the given point, with C4 = 0.  Points off the keyboard find the nearest key.
+	 */
+	public int noteAt(float x, float y) {
+		int whiteKey = Math.max(0, Math.min(NUM_WHITE_KEYS - 1, (int) (x / _whiteKeyWidth)));
+		int note = _whiteKeyNotes[whiteKey];
+		if(y < _blackKeyHeight) {
+			// The only black keys that can be here are the ones on either side of this white key
+			for(int n = note - 1; n <= note + 1; n += 2) {
+				int i = n - LOWEST_NOTE;
+				if(i >= 0 && i < NUM_KEYS && _isBlack[i] && x >= _keyLeft[i] && x < _keyRight[i])
+					return n;
+			}
+		}
+		return note;
+	}
+
+	/**
+	 * Highlight the notes of a chord, with its root highlighted differently.  Only keys whose highlight
+	 * changes are redrawn.
+	 *
+	 * @param c the chord, or null to clear the highlights
+	 */
+	public void setHighlightedChord(Chord c) {
+		Integer root = (c == null) ? null : c.getRoot();
+		for(int i = 0; i < NUM_KEYS; i++) {
+			int nClass = Chord.TWELVETONE.mod(i + LOWEST_NOTE);
+			int highlight = PLAIN;
+			if(root != null && nClass == root)
+				highlight = ROOT;
+			else if(c != null && c.contains(nClass))
+				highlight = IN_CHORD;
+			if(highlight != _highlight[i]) {
+				_highlight[i] = highlight;
+				invalidateKey(i);
+			}
+		}
+	}
+
+	/**
+	 * @return whether any finger is on the given note's key
+	 */
+	public boolean isPressed(int note) {
+		int i = note - LOWEST_NOTE;
+		return i >= 0 && i < NUM_KEYS && _pressCount[i] > 0;
+	}
+
+	/**
+	 * Let go of a key that's still under a finger, e.g. when a new note takes over from it in melodic
+	 * mode.  The key is drawn as released, and the fingers on it are forgotten, so the listener isn't
+	 * told it was released a second time when they lift.
+	 */
+	public void silence(int note) {
+		int i = note - LOWEST_NOTE;
+		if(i < 0 || i >= NUM_KEYS || _pressCount[i] == 0)
+			return;
+		for(int k = _pointerNotes.size() - 1; k >= 0; k--)
+			if(_pointerNotes.valueAt(k) == note)
+				_pointerNotes.removeAt(k);
+		_pressCount[i] = 0;
+		invalidateKey(i);
+	}
+
+	private void invalidateKey(int i) {
+		invalidate((int) Math.floor(_keyLeft[i]), 0, (int) Math.ceil(_keyRight[i]), getHeight());
+	}
+
+	private void press(int note, long eventTime) {
+		int i = note - LOWEST_NOTE;
+		if(_pressCount[i]++ == 0) {
+			invalidateKey(i);
+			if(_onNoteListener != null)
+				_onNoteListener.onNotePressed(note, eventTime);
+		}
+	}
+
+	private void release(int note) {
+		int i = note - LOWEST_NOTE;
+		if(_pressCount[i] > 0 && --_pressCount[i] == 0) {
+			invalidateKey(i);
+			if(_onNoteListener != null)
+				_onNoteListener.onNoteReleased(note);
+		}
+	}
+
+	private void releaseAll() {
+		removeCallbacks(_longPress);
+		for(int k = 0; k < _pointerNotes.size(); k++)
+			release(_pointerNotes.valueAt(k));
+		_pointerNotes.clear();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		switch(event.getActionMasked()) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			int index = event.getActionIndex();
+			int note = noteAt(event.getX(index), event.getY(index));
+			_pointerNotes.put(event.getPointerId(index), note);
+			press(note, event.getEventTime());
+			removeCallbacks(_longPress);
+			if(_pointerNotes.size() == 1) {
+				_longPressNote = note;
+				postDelayed(_longPress, ViewConfiguration.getLongPressTimeout());
+			}
+			break;
+		}
+		case MotionEvent.ACTION_MOVE:
+			// Glissando: a finger that has slid onto another key plays it instead
+			for(int index = 0; index < event.getPointerCount(); index++) {
+				int id = event.getPointerId(index);
+				int previous = _pointerNotes.get(id, NO_NOTE);
+				int note = noteAt(event.getX(index), event.getY(index));
+				if(previous != NO_NOTE && note != previous) {
+					_pointerNotes.put(id, note);
+					press(note, event.getEventTime());
+					release(previous);
+					removeCallbacks(_longPress);
+				}
+			}
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP: {
+			int id = event.getPointerId(event.getActionIndex());
+			int note = _pointerNotes.get(id, NO_NOTE);
+			_pointerNotes.delete(id);
+			removeCallbacks(_longPress);
+			if(note != NO_NOTE)
+				release(note);
+			break;
+		}
+		case MotionEvent.ACTION_CANCEL:
+			releaseAll();
+			break;
+		}
+		return true;
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		int width = (int) Math.ceil(NUM_WHITE_KEYS * _whiteKeyWidth);
+		int height = resolveSize((int) getResources().getDimension(R.dimen.key_height_white), heightMeasureSpec);
+		setMeasuredDimension(width, height);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		_blackKeyHeight = h * _blackKeyHeightRatio;
+		if(_octaveTile != null) {
+			_octaveTile.recycle();
+			_octaveTile = null;
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		releaseAll();
+		if(_octaveTile != null) {
+			_octaveTile.recycle();
+			_octaveTile = null;
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		if(getHeight() == 0)
+			return;
+		if(_octaveTile == null) {
+			// C4 through B4 stand in for every octave
+			int c4 = -LOWEST_NOTE;
+			_octaveTile = Bitmap.createBitmap((int) Math.ceil(7 * _whiteKeyWidth), getHeight(), Bitmap.Config.ARGB_8888);
+			Canvas tileCanvas = new Canvas(_octaveTile);
+			tileCanvas.translate(-_keyLeft[c4], 0);
+			for(int i = c4; i < c4 + 12; i++) {
+				if(!_isBlack[i])
+					drawKey(tileCanvas, i, false);
+			}
+			for(int i = c4; i < c4 + 12; i++) {
+				if(_isBlack[i])
+					drawKey(tileCanvas, i, false);
+			}
+		}
+		canvas.getClipBounds(_clip);
+
+		// Whole octaves C1 through B7 from the tile, and the odd keys at either end by hand
+		for(int i = 3; i + 12 <= NUM_KEYS - 1; i += 12) {
+			if(_keyRight[i + 11] >= _clip.left && _keyLeft[i] <= _clip.right)
+				canvas.drawBitmap(_octaveTile, _keyLeft[i], 0, null);
+		}
+		drawKey(canvas, 0, false);
+		drawKey(canvas, 2, false);
+		drawKey(canvas, 1, false);
+		drawKey(canvas, NUM_KEYS - 1, false);
+
+		// Pressed and highlighted keys over the top, white then black, and the black keys over any
+		// white key that was redrawn
+		for(int i = 0; i < NUM_KEYS; i++) {
+			if(!_isBlack[i] && isVisible(i) && (_pressCount[i] > 0 || _highlight[i] != PLAIN))
+				drawKey(canvas, i, true);
+		}
+		for(int i = 0; i < NUM_KEYS; i++) {
+			if(_isBlack[i] && isVisible(i) && (_pressCount[i] > 0 || _highlight[i] != PLAIN
+					|| _pressCount[i - 1] > 0 || _highlight[i - 1] != PLAIN
+					|| _pressCount[i + 1] > 0 || _highlight[i + 1] != PLAIN))
+				drawKey(canvas, i, true);
+		}
+
+		// Octave numbers on the Cs
+		for(int i = 3; i < NUM_KEYS; i += 12) {
+			if(isVisible(i))
+				canvas.drawText(OCTAVE_LABELS[i / 12], (_keyLeft[i] + _keyRight[i]) / 2,
+						_highlightHeight - _labelPaint.getFontMetrics().ascent, _labelPaint);
+		}
+	}
+
+	private boolean isVisible(int i) {
+		return _keyRight[i] >= _clip.left && _keyLeft[i] <= _clip.right;
+	}
+
+	private void drawKey(Canvas canvas, int i, boolean withState) {
+		float bottom = _isBlack[i] ? _blackKeyHeight : getHeight();
+		float inset = _strokePaint.getStrokeWidth() / 2;
+		_keyRect.set(_keyLeft[i] + inset, inset, _keyRight[i] - inset, bottom - inset);
+
+		int highlight = withState ? _highlight[i] : PLAIN;
+		boolean pressed = withState && _pressCount[i] > 0;
+		if(pressed)
+			_fillPaint.setColor(highlight == ROOT ? _pressedRootColor
+					: highlight == IN_CHORD ? _pressedInChordColor : _pressedColor);
+		else
+			_fillPaint.setColor(_isBlack[i] ? _blackColor : _whiteColor);
+		canvas.drawRoundRect(_keyRect, _cornerRadius, _cornerRadius, _fillPaint);
+		canvas.drawRoundRect(_keyRect, _cornerRadius, _cornerRadius, _strokePaint);
+
+		// A strip along the top of the key marks it as part of the chord
+		if(!pressed && highlight != PLAIN) {
+			_fillPaint.setColor(highlight == ROOT ? _highlightRootColor : _highlightColor);
+			canvas.drawRect(_keyRect.left + inset, 0, _keyRect.right - inset, _highlightHeight, _fillPaint);
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package com.jonlatane.composer.io;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jonlatane.composer.audio.CommandQueue;
+import com.jonlatane.composer.audio.render.ScoreTimeline;
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.RhythmMap;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.harmony.Chord;
+import com.jonlatane.composer.music.harmony.PitchSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what is played on the keyboard so it can be written into a {@link Score}.  The
+ * {@link KeyboardIOHandler} reports each press and lift, stamped with when it happened, on a lock-free
+ * {@link CommandQueue}; a background thread empties the queue into the take as it goes, so recording
+ * costs the UI thread nothing but the stamp.  Each take has a queue of its own, so a take started
+ * before the last one has been emptied can't be mixed up with it.
+ *
+ * When recording stops, the take is quantized on the same background thread: each event is placed on
+ * the Score with a {@link ScoreTimeline} and snapped to the nearest line of one or more grids, so
+ * tuplets can be played alongside straight notes.  The notes held at each grid line become a
+ * {@link PitchSet}, and in harmonic mode the chords held can be kept as chord symbols.  Events are
+ * quantized in the order they were played, so a take of any length quantizes in linear time.  The
+ * result is handed to the UI thread as a {@link Take}, to be written into the Score there.
+ */
+public class PerformanceRecorder {
+	private static final String TAG = "PerformanceRecorder";
+	/** How many events may wait for the recording thread */
+	private static final int QUEUE_CAPACITY = 1024;
+	/** How often the recording thread empties the queue */
+	private static final long DRAIN_PERIOD_MILLIS = 20;
+	/** Chords with fewer pitch classes than this aren't kept as chord symbols */
+	public static final int MIN_CHORD_PITCH_CLASSES = 3;
+	/** The notes recorded, with C4 = 0 */
+	private static final int LOWEST_NOTE = -64, NUM_NOTES = 128;
+
+	private static final int COMMAND_PRESS = 1, COMMAND_LIFT = 2, COMMAND_CHORD = 3;
+
+	/**
+	 * Receives a take once it has been quantized, on the UI thread.
+	 */
+	public interface OnTakeReadyListener {
+		void onTakeReady(Take take);
+	}
+
+	/**
+	 * A quantized take.
+	 */
+	public static class Take {
+		/** What was played, starting at {@link #START} and silent by {@link #END} */
+		public final RhythmMap<PitchSet> NOTES = new RhythmMap<PitchSet>();
+		/** The chords held in harmonic mode, if chords were being captured */
+		public final RhythmMap<Chord> CHORDS = new RhythmMap<Chord>();
+		public final Rational START;
+		public Rational END;
+
+		private Take(Rational start) {
+			START = start;
+			END = start;
+		}
+
+		/**
+		 * Write this take into a Score, replacing whatever was in the Voice, and the Staff's chord
+		 * symbols if any were captured, from {@link #START} up to {@link #END}.
+		 */
+		public void writeTo(Score.Staff staff, Score.Staff.Voice voice) {
+			replace(voice.getNotes(), NOTES, PitchSet.REST);
+			if(!CHORDS.isEmpty())
+				replace(staff.getChords(), CHORDS, Chord.NO_CHORD);
+		}
+
+		private <K> void replace(RhythmMap<K> target, RhythmMap<K> source, K silence) {
+			// Whatever was sounding after the take carries on after it
+			K after = target.getObjectAt(END);
+			Rational[] old = target.getRhythm().subSet(START, true, END, true).toArray(new Rational[0]);
+			for(Rational r : old)
+				target.remove(r);
+			target.put(START, silence);
+			for(Rational r : source.getRhythm())
+				target.put(r, source.getObjectAt(r));
+			if(after != null && !target.getRhythm().contains(END))
+				target.put(END, after);
+		}
+	}
+
+	/** The queue of the take being recorded; replaced only on the UI thread */
+	private volatile CommandQueue queue = new CommandQueue(QUEUE_CAPACITY);
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread result = new Thread(r, TAG);
+			result.setDaemon(true);
+			return result;
+		}
+	});
+
+	private volatile boolean recording = false;
+	private volatile boolean capturingChords = false;
+	private volatile int[] quantization = { 4 };
+	/** Where the take being recorded goes; touched only on the UI thread */
+	private ScoreTimeline timeline;
+	private Rational start;
+	private long startNanos;
+	private ScheduledFuture<?> drainer = null;
+
+	// The take as played, in parallel arrays; touched only on the recording thread
+	private int count = 0;
+	private long[] times = new long[256];
+	private int[] types = new int[256], notes = new int[256];
+	private final List<Chord> chords = new ArrayList<Chord>();
+
+	private final CommandQueue.Handler commandHandler = new CommandQueue.Handler() {
+		@Override
+		public void onCommand(int type, int arg, Object payload, long timestampNanos) {
+			if(count == times.length) {
+				times = Arrays.copyOf(times, 2 * count);
+				types = Arrays.copyOf(types, 2 * count);
+				notes = Arrays.copyOf(notes, 2 * count);
+			}
+			// A press is stamped with when the key was touched, which may be just before an event
+			// handled ahead of it; keep the take in order
+			times[count] = (count == 0) ? timestampNanos : Math.max(timestampNanos, times[count - 1]);
+			types[count] = type;
+			if(type == COMMAND_CHORD) {
+				notes[count] = chords.size();
+				chords.add((Chord) payload);
+			} else {
+				notes[count] = arg;
+			}
+			count++;
+		}
+	};
+
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			queue.drain(commandHandler);
+		}
+	};
+
+	public boolean isRecording() {
+		return recording;
+	}
+
+	public boolean isCapturingChords() {
+		return capturingChords;
+	}
+
+	/**
+	 * @param capturingChords whether to keep the chords held in harmonic mode as chord symbols
+	 */
+	public void setCapturingChords(boolean capturingChords) {
+		this.capturingChords = capturingChords;
+	}
+
+	public int[] getQuantization() {
+		return quantization.clone();
+	}
+
+	/**
+	 * Set the grids to snap to, as subdivisions of the beat, e.g. 4 for sixteenths in 4/4 or 4 and 3 for
+	 * sixteenths or eighth note triplets.  Takes effect when recording stops.
+	 */
+	public void setQuantization(int... subdivisionsPerBeat) {
+		if(subdivisionsPerBeat.length == 0)
+			throw new IllegalArgumentException("At least one grid is needed");
+		this.quantization = subdivisionsPerBeat.clone();
+	}
+
+	/**
+	 * Start recording.  Call from the UI thread.
+	 *
+	 * @param timeline the Score's timeline, at the tempo being played to
+	 * @param start where in the Score the take starts
+	 */
+	public void start(ScoreTimeline timeline, Rational start) {
+		if(recording)
+			return;
+		this.timeline = timeline;
+		this.start = start;
+		// The last take's queue is left for its stop task to empty
+		queue = new CommandQueue(QUEUE_CAPACITY);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				count = 0;
+				chords.clear();
+			}
+		});
+		startNanos = System.nanoTime();
+		recording = true;
+		drainer = executor.scheduleWithFixedDelay(drain, DRAIN_PERIOD_MILLIS, DRAIN_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop recording and quantize the take in the background.  Call from the UI thread.
+	 *
+	 * @param listener who to give the take to
+	 */
+	public void stop(final OnTakeReadyListener listener) {
+		if(!recording)
+			return;
+		recording = false;
+		drainer.cancel(false);
+		final long stopNanos = System.nanoTime();
+		final int[] grid = quantization;
+		// Recording may start again before this take is quantized, so it gets its own copy of these
+		final ScoreTimeline timeline = this.timeline;
+		final Rational start = this.start;
+		final long startNanos = this.startNanos;
+		final CommandQueue queue = this.queue;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				queue.drain(commandHandler);
+				final Take take = quantize(timeline, start, startNanos, stopNanos, grid);
+				Log.i(TAG, "Quantized " + count + " events up to " + take.END);
+				uiHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						listener.onTakeReady(take);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Stop the recording thread, throwing away any take being recorded.  A take already stopped is
+	 * still handed over.  The recorder can't be used afterward.  Call from the UI thread.
+	 */
+	public void release() {
+		if(recording) {
+			recording = false;
+			drainer.cancel(false);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * @param note the note, with C4 = 0
+	 * @param pressedAt when the key was touched, by {@link System#nanoTime()}
+	 */
+	void notePressed(int note, long pressedAt) {
+		if(recording && !queue.offer(COMMAND_PRESS, note, null, pressedAt))
+			Log.w(TAG, "Dropped press of " + note);
+	}
+
+	void noteLifted(int note) {
+		if(recording && !queue.offer(COMMAND_LIFT, note, null))
+			Log.w(TAG, "Dropped lift of " + note);
+	}
+
+	/**
+	 * @param c the chord now held; it must not be changed afterward
+	 * @param at when it changed, by {@link System#nanoTime()}
+	 */
+	void chordChanged(Chord c, long at) {
+		if(recording && capturingChords && !queue.offer(COMMAND_CHORD, 0, c, at))
+			Log.w(TAG, "Dropped chord " + c);
+	}
+
+	private static Rational positionOf(ScoreTimeline timeline, Rational start, long startNanos, long nanos,
+			int[] grid) {
+		double seconds = timeline.secondsAt(start) + Math.max(0, nanos - startNanos) / 1e9;
+		Rational result = timeline.quantize(seconds, grid);
+		return (result.compareTo(start) < 0) ? start : result;
+	}
+
+	/**
+	 * Turn the events of the take into a Take, in one pass.  Events are in order, and so are their
+	 * positions.  A note too short to reach the next grid line is kept one line long; its lift is
+	 * deferred, and since the deferred lifts are also in order they are simply merged back in.
+	 */
+	private Take quantize(ScoreTimeline timeline, Rational start, long startNanos, long stopNanos, int[] grid) {
+		int finest = 1;
+		for(int n : grid)
+			finest = Math.max(finest, n);
+		Rational shortest = new Rational(1, finest);
+		Take take = new Take(start);
+
+		PitchSet held = new PitchSet();
+		Rational[] pressPositions = new Rational[NUM_NOTES];
+		int[] pressSerials = new int[NUM_NOTES];
+		Rational[] deferredPositions = new Rational[count];
+		int[] deferredNotes = new int[count], deferredSerials = new int[count];
+		int deferredHead = 0, deferredTail = 0;
+		Chord lastChord = null;
+
+		Rational current = null;
+		for(int i = 0; i <= count; i++) {
+			long nanos = (i < count) ? times[i] : stopNanos;
+			Rational position = positionOf(timeline, start, startNanos, nanos, grid);
+
+			// Deferred lifts that come first
+			while(deferredHead < deferredTail && deferredPositions[deferredHead].compareTo(position) <= 0) {
+				int note = deferredNotes[deferredHead];
+				if(pressSerials[note - LOWEST_NOTE] == deferredSerials[deferredHead] && held.contains(note)) {
+					current = advance(take, held, current, deferredPositions[deferredHead]);
+					held.remove(note);
+				}
+				deferredHead++;
+			}
+			if(i == count)
+				break;
+
+			int note = notes[i];
+			if(types[i] == COMMAND_CHORD) {
+				Chord c = chords.get(note);
+				if(c.size() >= MIN_CHORD_PITCH_CLASSES && !c.equals(lastChord)) {
+					take.CHORDS.put(position, c);
+					lastChord = c;
+				}
+				continue;
+			}
+			if(note < LOWEST_NOTE || note >= LOWEST_NOTE + NUM_NOTES)
+				continue;
+			int idx = note - LOWEST_NOTE;
+			if(types[i] == COMMAND_PRESS) {
+				current = advance(take, held, current, position);
+				// A note struck again at the same line is still one attack
+				take.NOTES.remove(position);
+				held.add(note);
+				pressPositions[idx] = position;
+				pressSerials[idx]++;
+			} else if(held.contains(note)) {
+				if(position.compareTo(pressPositions[idx]) <= 0) {
+					deferredPositions[deferredTail] = pressPositions[idx].plus(shortest);
+					deferredNotes[deferredTail] = note;
+					deferredSerials[deferredTail] = pressSerials[idx];
+					deferredTail++;
+				} else {
+					current = advance(take, held, current, position);
+					held.remove(note);
+				}
+			}
+		}
+
+		// Everything still held is lifted when recording stopped
+		Rational end = positionOf(timeline, start, startNanos, stopNanos, grid);
+		if(current != null && end.compareTo(current) <= 0)
+			end = current.plus(shortest);
+		advance(take, held, current, end);
+		if(current == null || !held.isEmpty())
+			take.NOTES.put(end, PitchSet.REST);
+		take.END = end;
+		return take;
+	}
+
+	/**
+	 * Move the take along to a position, writing down what was held at the last one.
+	 *
+	 * @return the position now being changed
+	 */
+	private static Rational advance(Take take, PitchSet held, Rational current, Rational position) {
+		if(current != null && !current.equals(position))
+			take.NOTES.put(current, held.isEmpty() ? PitchSet.REST : new PitchSet(held));
+		return position;
+	}
+}
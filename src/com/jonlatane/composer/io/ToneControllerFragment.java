@@ -14,6 +14,8 @@ import android.widget.TextView;
 import com.jonlatane.composer.R;
 import com.jonlatane.composer.VerticalSeekBar;
 import com.jonlatane.composer.audio.AudioTrackCache;
+import com.jonlatane.composer.audio.NotePcmCache;
+import com.jonlatane.composer.audio.NotePrewarmer;
 import com.jonlatane.composer.audio.generator.HarmonicOvertoneSeriesGenerator;
 
 import java.util.Arrays;
@@ -112,7 +114,9 @@ public class ToneControllerFragment extends Fragment {
 		Log.i(TAG, "Writing overtones ");
 		if(trackGenerator != null) {
 			AudioTrackCache.releaseAll(trackGenerator);
+			NotePcmCache.releaseAll(trackGenerator);
 			trackGenerator.setOvertones(getOvertones());
+			NotePrewarmer.restart();
 		}
 	}
 	
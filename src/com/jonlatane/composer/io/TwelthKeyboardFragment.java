@@ -7,7 +7,6 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -20,14 +19,12 @@ import android.widget.Toast;
 
 import com.jonlatane.composer.R;
 import com.jonlatane.composer.audio.AudioTrackGenerator;
+import com.jonlatane.composer.audio.ChordAudition;
 import com.jonlatane.composer.music.harmony.Chord;
 import com.jonlatane.composer.music.harmony.Key;
 
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * This is the widget for the keyboard input system.  This is a Fragment that can be added to the bottom of any layout to provide
@@ -51,6 +48,18 @@ public class TwelthKeyboardFragment extends Fragment {
 	private KeyboardIOHandler kbdIO;
 	private HorizontalScrollView _chordScroller;
 	private Key _keyToNameFrom = Key.CMajor;
+	private ChordAudition _chordAudition;
+	private final TextView[] _slotViews = new TextView[_slots.length];
+	private final ChordNamer _chordNamer = new ChordNamer(new ChordNamer.OnNamesReadyListener() {
+		@Override
+		public void onNamesReady(String[] names, int count) {
+			if(getView() == null)
+				return;
+			for(int idx = 0; idx < count && idx < _slotViews.length; idx++)
+				_slotViews[idx].setText(names[idx]);
+			_chordScroller.scrollTo(0,0);
+		}
+	});
 	
 	@Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -65,11 +74,21 @@ public class TwelthKeyboardFragment extends Fragment {
 		kbdIO = new KeyboardIOHandler(this, result);
 		kbdIO.harmonicModeOn();
 		_chordScroller = (HorizontalScrollView)result.findViewById(R.id.chordScroller);
+		_chordAudition = new ChordAudition(kbdIO.trackGenerator);
 
         //Use a properly-rendering font for the chord display area
         Typeface face=Typeface.createFromAsset(result.getContext().getAssets(), "fonts/DroidSansFallback.ttf");
-        for(int i : _slots) {
-            final TextView tv = (TextView) result.findViewById(i);
+        for(int idx = 0; idx < _slots.length; idx++) {
+            final TextView tv = (TextView) result.findViewById(_slots[idx]);
+            _slotViews[idx] = tv;
+			// Tap a suggestion to hear it
+			tv.setOnClickListener(new View.OnClickListener() {
+				@Override
+				public void onClick(View view) {
+					if(tv.getText().length() > 0)
+						_chordAudition.audition(Chord.getChordByName(tv.getText().toString()));
+				}
+			});
 			tv.setOnLongClickListener(new View.OnLongClickListener() {
 				@Override
 				public boolean onLongClick(View view) {
@@ -90,48 +109,25 @@ public class TwelthKeyboardFragment extends Fragment {
         return result;
     }
 	
-	// Keep track of when chord updates are started so only the most recent operation will update the views
-	private static long mostRecentUCDInitializationTime;
-	private class UpdateChordDisplay extends AsyncTask<Chord, Integer, List<String>> {
-		TreeMap<Integer,List<String>> data;
-		private long myInitializationTime;
-		
-		
-		public UpdateChordDisplay() {
-			myInitializationTime = System.currentTimeMillis();
-			mostRecentUCDInitializationTime = myInitializationTime;
-		}
-		
-		@Override
-		protected List<String> doInBackground(Chord... c) {
-			data = Key.getRootLikelihoodsAndNames(Key.CChromatic, c[0], _keyToNameFrom);
-			List<String> result = new LinkedList<String>();
-			for(Map.Entry<Integer,List<String>> e : data.descendingMap().entrySet() ) {
-				for( String s : e.getValue() ) {
-					result.add(s);
-				}
-			}
-			return result;
-		}
-
-		@Override
-		protected void onPostExecute(List<String> values) {
-			int idx = 0;
-			if(mostRecentUCDInitializationTime == myInitializationTime) {
-				for( String s : values ) {
-					if( idx >= _slots.length) break;
-					
-					TextView v = (TextView)getView().findViewById(_slots[idx++]);
-					v.setText(s.toString());
-				}
-				_chordScroller.scrollTo(0,0);
-			}
-		}
-
-
-	 }
+	@Override
+	public void onPause() {
+		super.onPause();
+		_chordAudition.stop();
+		_chordNamer.cancel();
+	}
+	
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		kbdIO.release();
+	}
+	
+	public ChordAudition getChordAudition() {
+		return _chordAudition;
+	}
+	
 	public void updateChordDisplay() {
-		new UpdateChordDisplay().execute(kbdIO.getChord());
+		_chordNamer.request(kbdIO.getChord(), _keyToNameFrom);
 	}
 	
 	private class WidthEvaluator extends IntEvaluator {
@@ -155,6 +151,13 @@ public class TwelthKeyboardFragment extends Fragment {
 		return kbdIO.trackGenerator;
 	}
 
+	/**
+	 * @return the recorder for capturing what's played on this keyboard into a Score
+	 */
+	public PerformanceRecorder getRecorder() {
+		return kbdIO.getRecorder();
+	}
+
 	public boolean rhythmicModeIsEnabled() {
 		LinearLayout l = (LinearLayout)getView().findViewById(R.id.rhythmButtonArea);
 		boolean result = l.getWidth() != 0;
@@ -0,0 +1,162 @@
+package com.jonlatane.composer.io.midi;
+
+import com.jonlatane.composer.music.harmony.Chord;
+import com.jonlatane.composer.music.harmony.PitchSet;
+
+/**
+ * What a MIDI controller is holding down, kept the way {@link com.jonlatane.composer.io.KeyboardIOHandler}
+ * keeps it for the on-screen keyboard: the keys pressed and, in harmonic mode, a harmonic root.  On
+ * screen a root is chosen by long-pressing a key held alone; a controller can't long-press, so here
+ * the sustain pedal going down while a key is held alone chooses it instead.  As on screen, pressing
+ * another key first cancels the choice, and the root is forgotten once every key is lifted.  In
+ * melodic mode pressing a key lifts the others.
+ *
+ * Messages from every channel are treated alike.  The state lives in fixed arrays and bit masks, so
+ * following a stream allocates nothing; {@link #getChord()} and {@link #getPressedKeys()} allocate
+ * only when asked.  Not thread-safe: read the state on the thread doing the parsing.
+ */
+public class MidiKeyboardState implements MidiParser.Listener {
+	/** The notes MIDI can express, with C4 = 0 */
+	private static final int LOWEST_NOTE = -MidiParser.MIDI_C4, NUM_NOTES = 128;
+	public static final int SUSTAIN_PEDAL = 64;
+	/** No harmonic root has been chosen */
+	public static final int NO_ROOT = -1;
+
+	private final boolean[] pressed = new boolean[NUM_NOTES];
+	/** How many keys of each pitch class are held, and a bit for each pitch class held */
+	private final int[] pitchClassCounts = new int[12];
+	private int pitchClassMask = 0;
+	private int pressedCount = 0;
+	private int lastPressed = Integer.MIN_VALUE;
+
+	private boolean harmonicMode = false;
+	private boolean cancelRootSelection = false;
+	private boolean sustainDown = false;
+	private int harmonicRoot = NO_ROOT;
+	private long changeCount = 0;
+
+	public void harmonicModeOn() {
+		harmonicMode = true;
+		harmonicRoot = NO_ROOT;
+	}
+
+	public void harmonicModeOff() {
+		harmonicRoot = NO_ROOT;
+		harmonicMode = false;
+	}
+
+	public boolean isHarmonic() {
+		return harmonicMode;
+	}
+
+	@Override
+	public void onNoteOn(int channel, int note, int velocity) {
+		int idx = note - LOWEST_NOTE;
+		if(pressed[idx])
+			return;
+		if(harmonicMode) {
+			if(harmonicRoot == NO_ROOT)
+				cancelRootSelection = pressedCount != 0;
+		} else if(pressedCount != 0) {
+			// Melodic mode, one note at a time!
+			for(int i = 0; i < NUM_NOTES; i++)
+				if(pressed[i])
+					lift(i);
+		}
+		pressed[idx] = true;
+		pressedCount++;
+		int pc = pitchClass(note);
+		if(pitchClassCounts[pc]++ == 0)
+			pitchClassMask |= 1 << pc;
+		lastPressed = note;
+		changeCount++;
+	}
+
+	@Override
+	public void onNoteOff(int channel, int note, int velocity) {
+		int idx = note - LOWEST_NOTE;
+		if(!pressed[idx])
+			return;
+		if(harmonicMode && cancelRootSelection && pressedCount == 1)
+			cancelRootSelection = false;
+		lift(idx);
+		if(harmonicRoot != NO_ROOT && pressedCount == 0)
+			harmonicRoot = NO_ROOT;
+	}
+
+	@Override
+	public void onControlChange(int channel, int controller, int value) {
+		if(controller != SUSTAIN_PEDAL)
+			return;
+		boolean down = value >= 64;
+		if(down && !sustainDown && harmonicMode && harmonicRoot == NO_ROOT
+				&& !cancelRootSelection && pressedCount == 1) {
+			harmonicRoot = pitchClass(lastPressed);
+			changeCount++;
+		}
+		sustainDown = down;
+	}
+
+	private void lift(int idx) {
+		pressed[idx] = false;
+		pressedCount--;
+		int pc = pitchClass(idx + LOWEST_NOTE);
+		if(--pitchClassCounts[pc] == 0)
+			pitchClassMask &= ~(1 << pc);
+		changeCount++;
+	}
+
+	private static int pitchClass(int note) {
+		return ((note % 12) + 12) % 12;
+	}
+
+	/**
+	 * @param note the note, with C4 = 0
+	 */
+	public boolean isPressed(int note) {
+		int idx = note - LOWEST_NOTE;
+		return idx >= 0 && idx < NUM_NOTES && pressed[idx];
+	}
+
+	public int getPressedCount() {
+		return pressedCount;
+	}
+
+	/**
+	 * @return bit n is set if pitch class n (with C = 0) is held
+	 */
+	public int getPitchClassMask() {
+		return pitchClassMask;
+	}
+
+	/**
+	 * @return the harmonic root's pitch class, or {@link #NO_ROOT}
+	 */
+	public int getHarmonicRoot() {
+		return harmonicRoot;
+	}
+
+	/**
+	 * @return how many times the keys held or the root have changed, to tell cheaply whether they have
+	 */
+	public long getChangeCount() {
+		return changeCount;
+	}
+
+	public PitchSet getPressedKeys() {
+		PitchSet result = new PitchSet();
+		for(int i = 0; i < NUM_NOTES; i++)
+			if(pressed[i])
+				result.add(i + LOWEST_NOTE);
+		return result;
+	}
+
+	/**
+	 * @return the chord held, as {@link com.jonlatane.composer.io.KeyboardIOHandler#getChord()} gives it
+	 */
+	public Chord getChord() {
+		Chord c = new Chord(getPressedKeys());
+		c.setRoot(harmonicRoot == NO_ROOT ? null : harmonicRoot);
+		return c;
+	}
+}
@@ -0,0 +1,161 @@
+package com.jonlatane.composer.io.midi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming parser for MIDI 1.0 byte streams, as they come from a controller or a capture of one.
+ * Bytes may be fed in chunks of any size, split anywhere, and the parser picks up where it left off.
+ * Running status is honored, system exclusive messages are skipped, and real-time messages such as
+ * clock ticks are ignored wherever they fall, even in the middle of another message.
+ *
+ * Channel voice messages are handed to a {@link Listener} as plain ints, and a note on with velocity 0
+ * is reported as a note off, as MIDI intends.  Nothing is allocated per message; reading an
+ * {@link InputStream} goes through one buffer allocated with the parser.  Each instance follows one
+ * stream and is not thread-safe.
+ */
+public class MidiParser {
+	/** MIDI's note number for C4, which is note 0 everywhere else */
+	public static final int MIDI_C4 = 60;
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private static final int NOTE_OFF = 0x80, NOTE_ON = 0x90, POLY_PRESSURE = 0xA0, CONTROL_CHANGE = 0xB0,
+			PROGRAM_CHANGE = 0xC0, CHANNEL_PRESSURE = 0xD0, PITCH_BEND = 0xE0;
+	private static final int SYSEX_START = 0xF0, SYSEX_END = 0xF7, REAL_TIME = 0xF8;
+
+	/**
+	 * Hears about channel voice messages.  Notes are with C4 = 0; channels are 0 to 15.
+	 */
+	public interface Listener {
+		void onNoteOn(int channel, int note, int velocity);
+
+		void onNoteOff(int channel, int note, int velocity);
+
+		/**
+		 * @param controller e.g. 64 for the sustain pedal
+		 * @param value 0 to 127
+		 */
+		void onControlChange(int channel, int controller, int value);
+	}
+
+	private final Listener listener;
+	private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+	/** The status applying to data bytes as they arrive, or 0 if there is none */
+	private int runningStatus = 0;
+	private int data1 = 0;
+	/** How many data bytes of the current message have arrived */
+	private int dataCount = 0;
+	private boolean inSysex = false;
+	private long messageCount = 0;
+
+	public MidiParser(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return how many channel voice messages have been parsed, including those not reported
+	 */
+	public long getMessageCount() {
+		return messageCount;
+	}
+
+	/**
+	 * Forget any message partway through, e.g. when a controller is reconnected.
+	 */
+	public void reset() {
+		runningStatus = 0;
+		dataCount = 0;
+		inSysex = false;
+	}
+
+	public void parse(byte[] bytes, int offset, int length) {
+		for(int i = offset; i < offset + length; i++)
+			parse(bytes[i] & 0xFF);
+	}
+
+	/**
+	 * Parse everything remaining in the buffer, leaving its position at its limit.
+	 */
+	public void parse(ByteBuffer bytes) {
+		if(bytes.hasArray()) {
+			parse(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			bytes.position(bytes.limit());
+		} else {
+			while(bytes.hasRemaining())
+				parse(bytes.get() & 0xFF);
+		}
+	}
+
+	/**
+	 * Parse a stream until it ends.
+	 */
+	public void parse(InputStream in) throws IOException {
+		int n;
+		while((n = in.read(readBuffer)) >= 0)
+			parse(readBuffer, 0, n);
+	}
+
+	/**
+	 * @param b a byte of the stream, from 0 to 255
+	 */
+	public void parse(int b) {
+		if(b >= REAL_TIME) {
+			// Real-time messages may come between any two bytes and don't disturb anything
+			return;
+		}
+		if(b >= 0x80) {
+			if(b == SYSEX_START) {
+				inSysex = true;
+				runningStatus = 0;
+			} else if(b == SYSEX_END) {
+				inSysex = false;
+			} else if(b >= SYSEX_START) {
+				// System common messages cancel running status; their data bytes are then ignored
+				inSysex = false;
+				runningStatus = 0;
+			} else {
+				// Any status byte also ends a system exclusive message that wasn't terminated
+				inSysex = false;
+				runningStatus = b;
+			}
+			dataCount = 0;
+			return;
+		}
+		if(inSysex || runningStatus == 0)
+			return;
+
+		int type = runningStatus & 0xF0;
+		if(dataCount == 0 && (type == PROGRAM_CHANGE || type == CHANNEL_PRESSURE)) {
+			messageCount++;
+			return;
+		}
+		if(dataCount == 0) {
+			data1 = b;
+			dataCount = 1;
+			return;
+		}
+		dataCount = 0;
+		messageCount++;
+		int channel = runningStatus & 0x0F;
+		switch(type) {
+		case NOTE_ON:
+			if(b == 0)
+				listener.onNoteOff(channel, data1 - MIDI_C4, 0);
+			else
+				listener.onNoteOn(channel, data1 - MIDI_C4, b);
+			break;
+		case NOTE_OFF:
+			listener.onNoteOff(channel, data1 - MIDI_C4, b);
+			break;
+		case CONTROL_CHANGE:
+			listener.onControlChange(channel, data1, b);
+			break;
+		case POLY_PRESSURE:
+		case PITCH_BEND:
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.jonlatane.composer.latency;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, in the style of HdrHistogram: buckets are linear within each
+ * power of two and logarithmic across them, so every value from a microsecond to many hours is counted
+ * to within about 6% using a few hundred counters.
+ *
+ * Any number of threads may {@link #record} at once without locks or allocation.  Reads are not atomic
+ * with respect to concurrent writes, so a percentile taken while values are being recorded may be
+ * off by the handful of values recorded during the read.
+ */
+public class LatencyHistogram {
+    /** Each power of two is split into 2^SUB_BUCKET_BITS buckets */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Durations are counted in microseconds; anything longer than 2^MAX_EXPONENT is clamped */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    static int bucketFor(long micros) {
+        if(micros < SUB_BUCKETS)
+            return (int) Math.max(0, micros);
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if(exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest value in microseconds counted in the given bucket
+     */
+    static long lowestValueIn(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * @return the smallest value in microseconds counted in the next bucket up
+     */
+    static long highestValueIn(int bucket) {
+        return (bucket + 1 < BUCKETS) ? lowestValueIn(bucket + 1) : 2 * lowestValueIn(bucket);
+    }
+
+    /**
+     * Count a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketFor(micros));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while(micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // Another thread raised the max; try again against the new one
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxMicros.get() * 1000;
+    }
+
+    /**
+     * @return the mean duration recorded, in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMeanNanos() {
+        long count = totalCount.get();
+        return (count == 0) ? 0 : totalMicros.get() * 1000 / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds that the given percentage of recorded durations are at or
+     * below, to within the precision of the buckets, or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = totalCount.get();
+        if(count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                // Report the middle of the bucket, but never more than the true max
+                long mid = (lowestValueIn(i) + highestValueIn(i) - 1) / 2;
+                return Math.min(mid, maxMicros.get()) * 1000;
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Visit every non-empty bucket, lowest first.
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for(int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if(c > 0)
+                visitor.visit(lowestValueIn(i) * 1000, highestValueIn(i) * 1000, c);
+        }
+    }
+
+    public interface BucketVisitor {
+        /**
+         * @param lowNanos the shortest duration in the bucket
+         * @param highNanos the shortest duration in the next bucket
+         * @param count how many durations were counted in the bucket
+         */
+        void visit(long lowNanos, long highNanos, long count);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        totalCount.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+}
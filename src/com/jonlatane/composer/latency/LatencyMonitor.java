@@ -0,0 +1,173 @@
+package com.jonlatane.composer.latency;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Measures how long it takes from touching a key to hearing it, one stage at a time, so that reports of
+ * a sluggish keyboard come with numbers.  Each {@link Stage} has its own {@link LatencyHistogram};
+ * recording is lock-free and allocation-free, so it is cheap enough to leave on.
+ *
+ * Results can be written out with {@link #dump}, summarized with {@link #getSummary}, or watched live
+ * by a debug overlay through {@link #setListener}.
+ */
+public class LatencyMonitor {
+    private static final String TAG = "LatencyMonitor";
+
+    public enum Stage {
+        /** From the touch to the keyboard's onTouch handler: the system's input dispatch */
+        INPUT_DISPATCH("input dispatch"),
+        /** The keyboard's handling of a key press on the UI thread */
+        PRESS_HANDLING("press handling"),
+        /** From the touch to the audio control thread picking up the note */
+        KEY_TO_CONTROL("key to control thread"),
+        /** Getting an AudioTrack for a note that was already cached */
+        TRACK_WARM("track (warm)"),
+        /** Getting an AudioTrack for a note that had to be rendered */
+        TRACK_COLD("track (cold)"),
+        /** Starting playback of a track */
+        PLAYBACK_START("playback start"),
+        /** From the touch to playback having started, for a note that was already cached */
+        KEY_TO_SOUND_WARM("key to sound (warm)"),
+        /** From the touch to playback having started, for a note that had to be rendered */
+        KEY_TO_SOUND_COLD("key to sound (cold)"),
+        /** From a key press to the chord names being displayed */
+        CHORD_UPDATE("chord update");
+
+        public final String LABEL;
+
+        Stage(String label) {
+            LABEL = label;
+        }
+    }
+
+    /**
+     * Hears about every duration as it is recorded, e.g. to draw a debug overlay.  Called on whatever
+     * thread recorded the duration, which may be the audio thread, so implementations must be quick
+     * and should post anything that touches views to the UI thread.
+     */
+    public interface Listener {
+        void onLatencyRecorded(Stage stage, long nanos);
+    }
+
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    static {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+    private static volatile boolean enabled = true;
+    private static volatile Listener listener = null;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        LatencyMonitor.enabled = enabled;
+    }
+
+    public static void setListener(Listener listener) {
+        LatencyMonitor.listener = listener;
+    }
+
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param stage what took this long
+     * @param nanos the duration in nanoseconds
+     */
+    public static void record(Stage stage, long nanos) {
+        if(!enabled)
+            return;
+        histograms[stage.ordinal()].record(nanos);
+        Listener l = listener;
+        if(l != null)
+            l.onLatencyRecorded(stage, nanos);
+    }
+
+    /**
+     * Record the time from a {@link System#nanoTime()} timestamp until now.
+     */
+    public static void recordSince(Stage stage, long startNanos) {
+        if(enabled)
+            record(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Convert the time of an input event, as given by {@link android.view.MotionEvent#getEventTime()},
+     * into the {@link System#nanoTime()} timebase used for everything else.
+     *
+     * @param uptimeMillis a time in the {@link SystemClock#uptimeMillis()} timebase
+     * @return the same time in the {@link System#nanoTime()} timebase
+     */
+    public static long toNanoTime(long uptimeMillis) {
+        return System.nanoTime() - (SystemClock.uptimeMillis() - uptimeMillis) * 1000000L;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public static void reset() {
+        for(LatencyHistogram h : histograms)
+            h.reset();
+    }
+
+    /**
+     * @return a few lines giving the count, p50 and p99 of every stage that has been recorded, in
+     * milliseconds, e.g. for a debug overlay
+     */
+    public static String getSummary() {
+        StringBuilder result = new StringBuilder();
+        for(Stage s : Stage.values()) {
+            LatencyHistogram h = histograms[s.ordinal()];
+            if(h.getCount() == 0)
+                continue;
+            result.append(String.format(Locale.US, "%s: p50 %.1fms p99 %.1fms (n=%d)\n", s.LABEL,
+                    h.getPercentileNanos(50) / 1e6, h.getPercentileNanos(99) / 1e6, h.getCount()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Write the percentiles and the full bucket counts of every stage to a text file.
+     *
+     * @param f the file to write, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public static void dump(File f) throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(f));
+        try {
+            out.println("# stage\tcount\tmean_ms\tp50_ms\tp90_ms\tp99_ms\tp99.9_ms\tmax_ms");
+            for(Stage s : Stage.values()) {
+                LatencyHistogram h = histograms[s.ordinal()];
+                out.println(String.format(Locale.US, "%s\t%d\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f", s.name(),
+                        h.getCount(), h.getMeanNanos() / 1e6, h.getPercentileNanos(50) / 1e6,
+                        h.getPercentileNanos(90) / 1e6, h.getPercentileNanos(99) / 1e6,
+                        h.getPercentileNanos(99.9) / 1e6, h.getMaxNanos() / 1e6));
+            }
+            for(final Stage s : Stage.values()) {
+                out.println();
+                out.println("# " + s.name() + " buckets: low_ms\thigh_ms\tcount");
+                histograms[s.ordinal()].forEachBucket(new LatencyHistogram.BucketVisitor() {
+                    @Override
+                    public void visit(long lowNanos, long highNanos, long count) {
+                        out.println(String.format(Locale.US, "%.3f\t%.3f\t%d", lowNanos / 1e6, highNanos / 1e6, count));
+                    }
+                });
+            }
+        } finally {
+            out.close();
+        }
+        Log.i(TAG, "Wrote latencies to " + f);
+    }
+}
@@ -168,6 +168,15 @@ public class Score {
 				_notes.setDefaultValue(PitchSet.REST);
 			}
 			
+			/**
+			 * The notes of this Voice.  Changes made to the returned RhythmMap are changes to the Voice.
+			 * 
+			 * @return
+			 */
+			public RhythmMap<PitchSet> getNotes() {
+				return _notes;
+			}
+			
 			public class VoiceDelta {
 				public Rational LOCATION = null;
 				
@@ -337,6 +346,15 @@ public class Score {
 			return _voices;
 		}
 		
+		/**
+		 * The chord symbols of this Staff.  Changes made to the returned RhythmMap are changes to the Staff.
+		 * 
+		 * @return
+		 */
+		public RhythmMap<Chord> getChords() {
+			return _chords;
+		}
+		
 
 		public Voice getVoice(int n) {
 			return _voices[n];
@@ -649,6 +667,15 @@ public class Score {
 		return _meter.getBeatOf(r);
 	}
 	
+	/**
+	 * The time signatures of this Score.  Changes made to the returned Meter are changes to the Score.
+	 * 
+	 * @return
+	 */
+	public Meter getMeter() {
+		return _meter;
+	}
+	
 	public NavigableSet<Rational> getOverallRhythm() {
 		TreeSet<Rational> result = new TreeSet<Rational>();
 		//result.add(getFine());
@@ -1,5 +1,8 @@
 package com.jonlatane.composer.music.coverings;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import android.util.Log;
 import android.util.Pair;
 
@@ -24,6 +27,12 @@ public class Clef {
 
 	public int TYPE;
 	
+	/**
+	 * Steps from the center of the treble clef by note name, since names are parsed for every note on
+	 * every layout.  There are only so many names, so this never grows large.
+	 */
+	private static final Map<String,Integer> TREBLE_STEPS = new HashMap<String,Integer>();
+	
 	public Clef(int type) {
 		TYPE = type;
 	}
@@ -47,6 +56,18 @@ public class Clef {
 	 * @return
 	 */
 	public int getHeptatonicStepsFromCenter(String noteName) {
+		Integer distFromTrebleCenter;
+		synchronized(TREBLE_STEPS) {
+			distFromTrebleCenter = TREBLE_STEPS.get(noteName);
+			if(distFromTrebleCenter == null) {
+				distFromTrebleCenter = parseStepsFromTrebleCenter(noteName);
+				TREBLE_STEPS.put(noteName, distFromTrebleCenter);
+			}
+		}
+		return distFromTrebleCenter + TYPE;
+	}
+	
+	private static int parseStepsFromTrebleCenter(String noteName) {
 		int distFromTrebleCenter;
 		switch(noteName.charAt(0)) {
 			case 'B': distFromTrebleCenter = 0; break;
@@ -61,9 +82,8 @@ public class Clef {
 		int octave = Character.getNumericValue(noteName.charAt(noteName.length()-1));
 		distFromTrebleCenter += 7 * ( octave - 4);
 		
-		distFromTrebleCenter += TYPE;
 		if(noteName.length() > 2)
-			Log.i(TAG, noteName + "evaluated to " + distFromTrebleCenter);
+			Log.i(TAG, noteName + " evaluated to " + distFromTrebleCenter + " on the treble clef");
 		
 		return distFromTrebleCenter;
 	}
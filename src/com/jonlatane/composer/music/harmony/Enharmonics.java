@@ -244,7 +244,8 @@ public class Enharmonics extends LinkedList<LinkedList<Integer[]>>{
 				result = result - 1;
 			else if( chars[i] == '#' )
 				result = result + 1;
-			else if( chars[i] == '1' || chars[1] == '2' ||chars[1] == '3' ||chars[1] == '4' ||chars[1] == '5' ||chars[1] == '6' ||chars[1] == '7' ||chars[1] == '8' ||chars[1] == '9' ||chars[1] == '0' ){
+			else if( Character.isDigit(chars[i]) ) {
+				// The octave follows any accidentals
 				result = result + 12 * (Integer.parseInt(new String(new char[] {chars[i]})) - 4);
 			}
 		}
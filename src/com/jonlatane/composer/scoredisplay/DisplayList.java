@@ -0,0 +1,196 @@
+package com.jonlatane.composer.scoredisplay;
+
+import java.util.Arrays;
+
+/**
+ * A flat list of drawing operations - glyphs from the NoteHedz font, lines, beams, text and
+ * rectangles - with their positions in pixels.  A {@link ScoreEngraver} records one without any
+ * Views, and a {@link DisplayListRenderer} replays it onto a Canvas.  Being plain data, lists can be
+ * cached, compared to see what changed between layouts, and built off the UI thread.
+ *
+ * Operations are kept in parallel arrays that grow as needed and are reused after {@link #clear()},
+ * so recording the same picture again allocates nothing.
+ *
+ * @author Jon Latane
+ *
+ */
+public class DisplayList {
+	/** A glyph from the NoteHedz font, drawn with its baseline at (x1, y1) */
+	public static final int GLYPH = 0;
+	/** A line from (x1, y1) to (x2, y2), {@link #getSize} wide */
+	public static final int LINE = 1;
+	/** A beam from (x1, y1) to (x2, y2), {@link #getSize} thick, hanging below that line */
+	public static final int BEAM = 2;
+	/** Text in the default typeface, drawn with its baseline at (x1, y1) */
+	public static final int TEXT = 3;
+	/** A filled rectangle from (x1, y1) to (x2, y2) */
+	public static final int RECT = 4;
+	/** Only what lies in the rectangle from (x1, y1) to (x2, y2) is drawn, until the next CLIP or UNCLIP */
+	public static final int CLIP = 5;
+	/** Ends a CLIP */
+	public static final int UNCLIP = 6;
+
+	public static final int BLACK = 0xFF000000;
+
+	private int _size = 0;
+	private int[] _ops = new int[64];
+	private int[] _colors = new int[64];
+	private float[] _coords = new float[4 * 64];
+	private float[] _sizes = new float[64];
+	private String[] _texts = new String[64];
+	private int _color = BLACK;
+
+	public void clear() {
+		Arrays.fill(_texts, 0, _size, null);
+		_size = 0;
+		_color = BLACK;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Set the color, as ARGB, of the operations recorded from here on.
+	 */
+	public void setColor(int argb) {
+		_color = argb;
+	}
+
+	public void glyph(String glyph, float x, float y, float textSize) {
+		add(GLYPH, x, y, x, y, textSize, glyph);
+	}
+
+	public void line(float x1, float y1, float x2, float y2, float width) {
+		add(LINE, x1, y1, x2, y2, width, null);
+	}
+
+	public void beam(float x1, float y1, float x2, float y2, float thickness) {
+		add(BEAM, x1, y1, x2, y2, thickness, null);
+	}
+
+	public void text(String text, float x, float y, float textSize) {
+		add(TEXT, x, y, x, y, textSize, text);
+	}
+
+	public void rect(float left, float top, float right, float bottom) {
+		add(RECT, left, top, right, bottom, 0, null);
+	}
+
+	public void clip(float left, float top, float right, float bottom) {
+		add(CLIP, left, top, right, bottom, 0, null);
+	}
+
+	public void unclip() {
+		add(UNCLIP, 0, 0, 0, 0, 0, null);
+	}
+
+	/**
+	 * Append another list's operations, moved by (dx, dy).
+	 */
+	public void append(DisplayList other, float dx, float dy) {
+		for(int i = 0; i < other._size; i++) {
+			_color = other._colors[i];
+			add(other._ops[i], other.getX1(i) + dx, other.getY1(i) + dy, other.getX2(i) + dx, other.getY2(i) + dy,
+					other._sizes[i], other._texts[i]);
+		}
+		_color = BLACK;
+	}
+
+	private void add(int op, float x1, float y1, float x2, float y2, float size, String text) {
+		if(_size == _ops.length) {
+			int capacity = 2 * _size;
+			_ops = Arrays.copyOf(_ops, capacity);
+			_colors = Arrays.copyOf(_colors, capacity);
+			_coords = Arrays.copyOf(_coords, 4 * capacity);
+			_sizes = Arrays.copyOf(_sizes, capacity);
+			_texts = Arrays.copyOf(_texts, capacity);
+		}
+		_ops[_size] = op;
+		_colors[_size] = _color;
+		_coords[4 * _size] = x1;
+		_coords[4 * _size + 1] = y1;
+		_coords[4 * _size + 2] = x2;
+		_coords[4 * _size + 3] = y2;
+		_sizes[_size] = size;
+		_texts[_size] = text;
+		_size++;
+	}
+
+	public int getOp(int i) {
+		return _ops[i];
+	}
+	public int getColor(int i) {
+		return _colors[i];
+	}
+	public float getX1(int i) {
+		return _coords[4 * i];
+	}
+	public float getY1(int i) {
+		return _coords[4 * i + 1];
+	}
+	public float getX2(int i) {
+		return _coords[4 * i + 2];
+	}
+	public float getY2(int i) {
+		return _coords[4 * i + 3];
+	}
+	/**
+	 * @return the text size of a glyph or text, the width of a line or the thickness of a beam
+	 */
+	public float getSize(int i) {
+		return _sizes[i];
+	}
+	public String getText(int i) {
+		return _texts[i];
+	}
+
+	/**
+	 * Returns the index of the first operation that differs between this list and another, or -1 if
+	 * they are the same, e.g. to tell whether a system needs redrawing after an edit.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public int firstDifference(DisplayList other) {
+		int n = Math.min(_size, other._size);
+		for(int i = 0; i < n; i++) {
+			if(!sameOp(i, other, i))
+				return i;
+		}
+		return (_size == other._size) ? -1 : n;
+	}
+
+	/**
+	 * Whether operation i of this list and operation j of another draw exactly the same thing.
+	 */
+	boolean sameOp(int i, DisplayList other, int j) {
+		return _ops[i] == other._ops[j] && _colors[i] == other._colors[j] && _sizes[i] == other._sizes[j]
+				&& _coords[4 * i] == other._coords[4 * j] && _coords[4 * i + 1] == other._coords[4 * j + 1]
+				&& _coords[4 * i + 2] == other._coords[4 * j + 2] && _coords[4 * i + 3] == other._coords[4 * j + 3]
+				&& (_texts[i] == null ? other._texts[j] == null : _texts[i].equals(other._texts[j]));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof DisplayList) && firstDifference((DisplayList)o) == -1;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = _size;
+		for(int i = 0; i < _size; i++) {
+			result = 31 * result + _ops[i];
+			result = 31 * result + Float.floatToIntBits(_coords[4 * i]);
+			result = 31 * result + Float.floatToIntBits(_coords[4 * i + 1]);
+			if(_texts[i] != null)
+				result = 31 * result + _texts[i].hashCode();
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "DisplayList:" + _size + " ops";
+	}
+}
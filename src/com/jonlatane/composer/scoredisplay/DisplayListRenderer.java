@@ -0,0 +1,94 @@
+package com.jonlatane.composer.scoredisplay;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+import android.graphics.Typeface;
+
+/**
+ * Replays a {@link DisplayList} onto a Canvas.  All the work of deciding what goes where has been done
+ * by whoever recorded the list, so this only sets up Paints and draws.  Glyphs and text are copied out
+ * of {@link GlyphAtlas}es shared by every renderer, one for NoteHedz and one for the default typeface,
+ * after everything else, so text is never laid out again while scrolling.  Use from one thread at a
+ * time.
+ *
+ * @author Jon Latane
+ *
+ */
+public class DisplayListRenderer {
+	private static Typeface noteHedz = null;
+	private static GlyphAtlas atlas = null, textAtlas = null;
+
+	private final Paint _linePaint = new Paint();
+	private final Paint _fillPaint = new Paint();
+	private final Path _beam = new Path();
+
+	public DisplayListRenderer(Context context) {
+		synchronized(DisplayListRenderer.class) {
+			if(noteHedz == null)
+				noteHedz = Typeface.createFromAsset(context.getAssets(), "fonts/NoteHedz170.ttf");
+			if(atlas == null)
+				atlas = new GlyphAtlas(noteHedz, DisplayList.GLYPH);
+			if(textAtlas == null)
+				textAtlas = new GlyphAtlas(Typeface.DEFAULT, DisplayList.TEXT);
+		}
+		_linePaint.setStyle(Style.STROKE);
+		_linePaint.setAntiAlias(true);
+		_fillPaint.setStyle(Style.FILL);
+		_fillPaint.setAntiAlias(true);
+	}
+
+	/**
+	 * Draw a list moved by (dx, dy), e.g. to scroll it.  Glyphs and text are drawn over everything else.
+	 */
+	public void draw(Canvas c, DisplayList list, float dx, float dy) {
+		boolean clipped = false;
+		for(int i = 0; i < list.size(); i++) {
+			float x1 = list.getX1(i) + dx, y1 = list.getY1(i) + dy;
+			float x2 = list.getX2(i) + dx, y2 = list.getY2(i) + dy;
+			switch(list.getOp(i)) {
+			case DisplayList.LINE:
+				_linePaint.setColor(list.getColor(i));
+				_linePaint.setStrokeWidth(list.getSize(i));
+				c.drawLine(x1, y1, x2, y2, _linePaint);
+				break;
+			case DisplayList.BEAM:
+				_fillPaint.setColor(list.getColor(i));
+				_beam.reset();
+				_beam.moveTo(x1, y1);
+				_beam.lineTo(x2, y2);
+				_beam.lineTo(x2, y2 + list.getSize(i));
+				_beam.lineTo(x1, y1 + list.getSize(i));
+				_beam.close();
+				c.drawPath(_beam, _fillPaint);
+				break;
+			case DisplayList.RECT:
+				_fillPaint.setColor(list.getColor(i));
+				c.drawRect(x1, y1, x2, y2, _fillPaint);
+				break;
+			case DisplayList.CLIP:
+				if(clipped)
+					c.restore();
+				c.save();
+				c.clipRect(x1, y1, x2, y2);
+				clipped = true;
+				break;
+			case DisplayList.UNCLIP:
+				if(clipped)
+					c.restore();
+				clipped = false;
+				break;
+			}
+		}
+		if(clipped)
+			c.restore();
+		atlas.drawGlyphs(c, list, dx, dy);
+		textAtlas.drawGlyphs(c, list, dx, dy);
+	}
+
+	public static GlyphAtlas getAtlas() {
+		return atlas;
+	}
+}
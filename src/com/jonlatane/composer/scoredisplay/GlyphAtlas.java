@@ -0,0 +1,267 @@
+package com.jonlatane.composer.scoredisplay;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+/**
+ * Rasterizes glyphs from a font once into one shared alpha-only Bitmap.  From then on drawing a glyph
+ * is a copy out of that Bitmap in whatever color the Paint has, rather than laying out and filling
+ * text again.  An atlas holds one typeface and draws one kind of {@link DisplayList} operation, so
+ * the NoteHedz glyphs and the text drawn in the default typeface each get their own.
+ *
+ * Text sizes are rounded up to a ladder of sizes {@link #SIZE_RATIO} apart, and glyphs are rasterized
+ * at those and scaled down when copied.  So pinch-zooming, which changes the size a little every frame,
+ * only rasterizes anything when it crosses onto another rung.  Sizes that haven't been drawn for
+ * {@link #STALE_FRAMES} frames are evicted once the scale settles.
+ *
+ * Glyphs are packed into shelves: rows as tall as the tallest glyph put on them, filled left to right.
+ * When the Bitmap is full it doubles in height, up to {@link #MAX_HEIGHT_PX}; past that everything is
+ * thrown out and rasterized again as it's drawn.
+ *
+ * @author Jon Latane
+ *
+ */
+public class GlyphAtlas {
+	private static final int WIDTH_PX = 512;
+	private static final int INITIAL_HEIGHT_PX = 256;
+	private static final int MAX_HEIGHT_PX = 2048;
+	/** Space left around each glyph so that neighbors don't bleed into it when drawn scaled */
+	private static final int PADDING_PX = 1;
+	/** Neighboring rasterized sizes are this far apart, i.e. four to an octave */
+	private static final double SIZE_RATIO = Math.pow(2, .25);
+	/** A rung of the ladder, the size noteheads are at a scaling factor of 1 */
+	private static final float BASE_SIZE = 14;
+	/** Sizes not drawn for this many frames are evicted */
+	private static final int STALE_FRAMES = 60;
+
+	/**
+	 * Where one glyph at one rasterized text size is in the atlas.
+	 */
+	public static class Entry {
+		public final String GLYPH;
+		/** The rung of the size ladder, and the text size that is */
+		public final int RUNG;
+		public final float TEXT_SIZE;
+		/** The glyph's pixels in the atlas */
+		public final Rect SOURCE = new Rect();
+		/** From the glyph's origin (the left of its baseline) to the top left of {@link #SOURCE} */
+		public float LEFT, TOP;
+		private int _lastDrawn;
+
+		private Entry(String glyph, int rung) {
+			GLYPH = glyph;
+			RUNG = rung;
+			TEXT_SIZE = sizeOf(rung);
+		}
+	}
+
+	/** The {@link DisplayList} operation drawn from this atlas */
+	private final int _op;
+	private final Paint _rasterPaint = new Paint();
+	private final Paint _blitPaint = new Paint();
+	private final Rect _bounds = new Rect();
+	private final RectF _destination = new RectF();
+	/** Entries by glyph, then by rung, of which there are only a few once stale ones are evicted */
+	private final Map<String,Entry[]> _entries = new HashMap<String,Entry[]>();
+	private Bitmap _bitmap;
+	private Canvas _canvas;
+	private int _shelfTop = 0, _shelfHeight = 0, _shelfX = 0;
+	/** Counts calls to {@link #drawGlyphs} */
+	private int _frame = 0;
+	/** The frame a rung was last rasterized on, so we know when the scale has settled */
+	private int _lastRasterized = 0;
+
+	/**
+	 * @param op the operation to draw from this atlas, {@link DisplayList#GLYPH} or {@link DisplayList#TEXT}
+	 */
+	public GlyphAtlas(Typeface typeface, int op) {
+		_op = op;
+		_rasterPaint.setTypeface(typeface);
+		// NoteHedz glyphs are outlined as well as filled, text only filled
+		_rasterPaint.setStyle(op == DisplayList.GLYPH ? Style.FILL_AND_STROKE : Style.FILL);
+		_rasterPaint.setAntiAlias(true);
+		_rasterPaint.setColor(Color.BLACK);
+		_blitPaint.setFilterBitmap(true);
+		allocate(INITIAL_HEIGHT_PX);
+	}
+
+	/**
+	 * Throw out every glyph, e.g. when the scale is known to have changed for good.
+	 */
+	public synchronized void clear() {
+		_entries.clear();
+		_bitmap.eraseColor(Color.TRANSPARENT);
+		_shelfTop = _shelfHeight = _shelfX = 0;
+	}
+
+	/**
+	 * @return the rung of the size ladder a text size is rasterized at: the smallest at least as big
+	 */
+	static int rungFor(float textSize) {
+		// Allow for rounding error, so sizes on a rung stay on it
+		return (int)Math.ceil(Math.log(textSize / BASE_SIZE) / Math.log(SIZE_RATIO) - 1e-4);
+	}
+
+	static float sizeOf(int rung) {
+		return (float)(BASE_SIZE * Math.pow(SIZE_RATIO, rung));
+	}
+
+	/**
+	 * Find a glyph in the atlas, rasterizing it first if needed.
+	 *
+	 * @return where it is, rasterized at the rung for textSize, or null if it has no pixels (e.g. a space)
+	 */
+	public synchronized Entry get(String glyph, float textSize) {
+		int rung = rungFor(textSize);
+		Entry[] rungs = _entries.get(glyph);
+		if(rungs != null)
+			for(Entry e : rungs)
+				if(e.RUNG == rung) {
+					e._lastDrawn = _frame;
+					return e;
+				}
+		_lastRasterized = _frame;
+		Entry result = rasterize(glyph, rung, rungs);
+		if(result != null)
+			result._lastDrawn = _frame;
+		return result;
+	}
+
+	/**
+	 * Draw every operation of this atlas's kind in a list, moved by (dx, dy), in one pass over it, clipped
+	 * as the list says.  The same Bitmap and Paint are used for all of them, and the Paint's color is
+	 * only set when it changes.
+	 */
+	public synchronized void drawGlyphs(Canvas c, DisplayList list, float dx, float dy) {
+		_frame++;
+		int color = 0;
+		_blitPaint.setColor(color);
+		boolean clipped = false;
+		for(int i = 0; i < list.size(); i++) {
+			int op = list.getOp(i);
+			if(op == DisplayList.CLIP) {
+				if(clipped)
+					c.restore();
+				c.save();
+				c.clipRect(list.getX1(i) + dx, list.getY1(i) + dy, list.getX2(i) + dx, list.getY2(i) + dy);
+				clipped = true;
+			} else if(op == DisplayList.UNCLIP) {
+				if(clipped)
+					c.restore();
+				clipped = false;
+			}
+			if(op != _op)
+				continue;
+			Entry e = get(list.getText(i), list.getSize(i));
+			if(e == null)
+				continue;
+			if(list.getColor(i) != color) {
+				color = list.getColor(i);
+				_blitPaint.setColor(color);
+			}
+			float scale = list.getSize(i) / e.TEXT_SIZE;
+			float x = list.getX1(i) + dx + scale * e.LEFT, y = list.getY1(i) + dy + scale * e.TOP;
+			_destination.set(x, y, x + scale * e.SOURCE.width(), y + scale * e.SOURCE.height());
+			c.drawBitmap(_bitmap, e.SOURCE, _destination, _blitPaint);
+		}
+		if(clipped)
+			c.restore();
+		if(_frame - _lastRasterized == STALE_FRAMES)
+			evictStale();
+	}
+
+	/**
+	 * Once nothing new has been rasterized for a while, throw out the rungs that haven't been drawn in
+	 * that time and pack the rest again.  There are only ever a few dozen glyphs, so rasterizing the
+	 * survivors again is cheap.
+	 */
+	private void evictStale() {
+		boolean stale = false;
+		for(Entry[] rungs : _entries.values())
+			for(Entry e : rungs)
+				stale |= _frame - e._lastDrawn >= STALE_FRAMES;
+		if(!stale)
+			return;
+		Entry[][] all = _entries.values().toArray(new Entry[_entries.size()][]);
+		clear();
+		for(Entry[] rungs : all)
+			for(Entry e : rungs)
+				if(_frame - e._lastDrawn < STALE_FRAMES) {
+					Entry copy = rasterize(e.GLYPH, e.RUNG, _entries.get(e.GLYPH));
+					if(copy != null)
+						copy._lastDrawn = e._lastDrawn;
+				}
+	}
+
+	public synchronized int getGlyphCount() {
+		int result = 0;
+		for(Entry[] rungs : _entries.values())
+			result += rungs.length;
+		return result;
+	}
+
+	private Entry rasterize(String glyph, int rung, Entry[] rungs) {
+		_rasterPaint.setTextSize(sizeOf(rung));
+		_rasterPaint.getTextBounds(glyph, 0, glyph.length(), _bounds);
+		if(_bounds.isEmpty())
+			return null;
+		int width = _bounds.width() + 2 * PADDING_PX, height = _bounds.height() + 2 * PADDING_PX;
+		if(width > WIDTH_PX || height > MAX_HEIGHT_PX)
+			return null;
+
+		if(_shelfX + width > WIDTH_PX) {
+			_shelfTop += _shelfHeight;
+			_shelfX = _shelfHeight = 0;
+		}
+		while(_shelfTop + height > _bitmap.getHeight()) {
+			if(_bitmap.getHeight() < MAX_HEIGHT_PX) {
+				allocate(2 * _bitmap.getHeight());
+			} else {
+				clear();
+				rungs = null;
+			}
+		}
+
+		Entry e = new Entry(glyph, rung);
+		e.SOURCE.set(_shelfX, _shelfTop, _shelfX + width, _shelfTop + height);
+		e.LEFT = _bounds.left - PADDING_PX;
+		e.TOP = _bounds.top - PADDING_PX;
+		_canvas.drawText(glyph, _shelfX - e.LEFT, _shelfTop - e.TOP, _rasterPaint);
+		_shelfX += width;
+		_shelfHeight = Math.max(_shelfHeight, height);
+
+		if(rungs == null) {
+			rungs = new Entry[] {e};
+		} else {
+			Entry[] grown = new Entry[rungs.length + 1];
+			System.arraycopy(rungs, 0, grown, 0, rungs.length);
+			grown[rungs.length] = e;
+			rungs = grown;
+		}
+		_entries.put(glyph, rungs);
+		return e;
+	}
+
+	/**
+	 * Make the atlas the given height, keeping any glyphs already in it.
+	 */
+	private void allocate(int height) {
+		Bitmap bitmap = Bitmap.createBitmap(WIDTH_PX, height, Bitmap.Config.ALPHA_8);
+		Canvas canvas = new Canvas(bitmap);
+		if(_bitmap != null) {
+			canvas.drawBitmap(_bitmap, 0, 0, null);
+			_bitmap.recycle();
+		}
+		_bitmap = bitmap;
+		_canvas = canvas;
+	}
+}
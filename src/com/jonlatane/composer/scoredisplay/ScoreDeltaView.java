@@ -84,6 +84,9 @@ class ScoreDeltaView extends LinearLayout {
 		LinearLayout _staffArea;
 		
 		private VerticalStaffSpec _perfectVerticalStaffSpec, _actualVerticalStaffSpec;
+		/** The perfect spec at the scaling factor it was last asked for at */
+		private VerticalStaffSpec _scaledPerfectVerticalStaffSpec = null;
+		private double _scaledFor = Double.NaN;
 				
 		public StaffDeltaView(Context context) {
 			super(context);
@@ -158,6 +161,9 @@ class ScoreDeltaView extends LinearLayout {
 			
 			_upperLyricView.setText("upper");
 			_lowerLyricView.setText("lower");
+			// The engraver leaves no room for lyrics yet, so the staff area must be all there is
+			_upperLyricView.setVisibility(GONE);
+			_lowerLyricView.setVisibility(GONE);
 						
 			addView(_upperLyricView);
 			addView(_staffArea);
@@ -171,6 +177,8 @@ class ScoreDeltaView extends LinearLayout {
 			int totalHeight = 0;
 			for(int i = 0; i < getChildCount(); i++) {
 				View child = getChildAt(i);
+				if(child.getVisibility() == GONE)
+					continue;
 				child.measure(widthMeasureSpec, heightMeasureSpec);
 				totalHeight += child.getMeasuredHeight();
 			}
@@ -181,14 +189,20 @@ class ScoreDeltaView extends LinearLayout {
     		_staffDelta = d;
     		if(d.LOCATION.equals(Rational.ONE))
     			Log.i(TAG, "DEBUG");
-    		_perfectVerticalStaffSpec = new VerticalStaffSpec(d);
+    		_perfectVerticalStaffSpec = VerticalStaffSpec.forStaffDelta(d);
+    		_scaledPerfectVerticalStaffSpec = null;
     		_actualVerticalStaffSpec = VerticalStaffSpec.scale(_perfectVerticalStaffSpec, _parent.getScalingFactor());
     		_upperLyricView.setText(d.LOCATION.toMixedString());
 		}
 		
 		public StaffSpec.VerticalStaffSpec getPerfectVerticalStaffSpec() {
 			//return _perfectVerticalStaffSpec;
-			return VerticalStaffSpec.scale(_perfectVerticalStaffSpec, _parent.getScalingFactor());
+			double scale = _parent.getScalingFactor();
+			if(_scaledPerfectVerticalStaffSpec == null || scale != _scaledFor) {
+				_scaledPerfectVerticalStaffSpec = VerticalStaffSpec.scale(_perfectVerticalStaffSpec, scale);
+				_scaledFor = scale;
+			}
+			return _scaledPerfectVerticalStaffSpec;
 		}
 		public StaffSpec.VerticalStaffSpec getActualVerticalStaffSpec() {
 			return _actualVerticalStaffSpec;
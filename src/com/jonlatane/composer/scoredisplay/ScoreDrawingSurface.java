@@ -4,22 +4,16 @@
 package com.jonlatane.composer.scoredisplay;
 
 import com.jonlatane.composer.music.*;
-import com.jonlatane.composer.music.coverings.TimeSignature;
 import com.jonlatane.composer.music.harmony.Key;
 import com.jonlatane.composer.music.Score.ScoreDelta;
 import com.jonlatane.composer.music.Score.Staff.StaffDelta;
-import com.jonlatane.composer.music.Score.Staff.Voice.VoiceDelta;
 import com.jonlatane.composer.scoredisplay.ScoreDeltaView.StaffDeltaView;
 import com.jonlatane.composer.scoredisplay.ScoreDrawingSurface.SystemHeaderView.StaffHeaderView;
 import com.jonlatane.composer.scoredisplay.StaffSpec.VerticalStaffSpec;
 
 import android.content.Context;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Paint.Style;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -41,15 +35,15 @@ public class ScoreDrawingSurface extends ViewGroup implements SurfaceHolder.Call
 	private static final String TAG = "ScoreDrawer";
 	private static final int BRACES_AREA_PX = 10;
 
-	private static Typeface noteHedz = null;
 	private final ScoreLayout _parent;
 	final SurfaceView _surface;
 	private final SurfaceHolder _holder;
 	
-	private final Paint __orange = new Paint();
-	private final Paint __black = new Paint();
-	private final Paint __blue = new Paint();
-	private final Paint __noteheadPaint = new Paint();
+	private static final int ORANGE = Color.argb(255, 255, 182, 10);
+	/** Draws the frames {@link #publishFrame()} records, while the surface exists */
+	private final ScoreRenderThread _renderThread;
+	/** Where each row's header is, reused by {@link #publishFrame()} */
+	private final Rect _headerRect = new Rect();
 	
 	
 	/**
@@ -219,10 +213,8 @@ public class ScoreDrawingSurface extends ViewGroup implements SurfaceHolder.Call
 				addView(sh, getChildCount());
 			}
 			
-			//TODO
-			int result = (int)(BRACES_AREA_PX * _parent.getScalingFactor());
-			
-			return (int)(result + 70*_parent.getScalingFactor());
+			// The engraver draws the header, so it says how wide it is
+			return ScoreEngraver.systemHeaderWidth(_parent.getScalingFactor());
 		}
 	}
 	
@@ -233,21 +225,7 @@ public class ScoreDrawingSurface extends ViewGroup implements SurfaceHolder.Call
 		_holder = _surface.getHolder();
 		_holder.addCallback(this);
 		addView(_surface,0);
-		if(noteHedz == null)
-			noteHedz = Typeface.createFromAsset(context.getAssets(),"fonts/NoteHedz170.ttf");
-		// Set up notehead Paint
-		__noteheadPaint.setTypeface(Typeface.createFromAsset(context.getAssets(), "fonts/NoteHedz170.ttf"));
-		__orange.setColor(Color.argb(255, 255, 182, 10));
-		__orange.setTypeface(noteHedz);
-		__orange.setStyle(Style.FILL_AND_STROKE);
-		__orange.setAntiAlias(true);
-		__black.setStyle(Style.FILL_AND_STROKE);
-		__black.setTypeface(noteHedz);
-		__black.setAntiAlias(true);
-		__blue.setColor(Color.BLUE);
-		__blue.setStyle(Style.FILL_AND_STROKE);
-		__blue.setTypeface(noteHedz);
-		__blue.setAntiAlias(true);
+		_renderThread = new ScoreRenderThread(_holder, new DisplayListRenderer(context));
 	}
 	
 	public int systemHeaderWidth(ScoreDelta scoreD) {
@@ -262,19 +240,18 @@ public class ScoreDrawingSurface extends ViewGroup implements SurfaceHolder.Call
 	
 	@Override
 	public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
-		// TODO Auto-generated method stub
-		
+		_renderThread.redrawAll();
 	}
 
 	@Override
 	public void surfaceCreated(SurfaceHolder arg0) {
-		setWillNotDraw(false);
+		_renderThread.start();
+		publishFrame();
 	}
 
 	@Override
 	public void surfaceDestroyed(SurfaceHolder arg0) {
-		// TODO Auto-generated method stub
-		
+		_renderThread.stop();
 	}
 
 	@Override
@@ -293,170 +270,46 @@ public class ScoreDrawingSurface extends ViewGroup implements SurfaceHolder.Call
 	protected void onLayout(boolean changed, int l, int t, int r, int b) {
 		_surface.layout(l, t, r, b);
 	}
-	@Override 
-    protected void onDraw(Canvas canvas){
-		super.onDraw(canvas);
-        Log.w(TAG, "onDraw Called in ViewGroup");
-		Canvas c = _holder.lockCanvas();
-		if(c != null) {
-			c.drawColor(Color.WHITE);
-			
-			// Iterate through ScoreHeaderViews
-			for(int i = 1; i < getChildCount(); i++) {
-				SystemHeaderView header = (SystemHeaderView) getChildAt(i);
-				Rect headerRect = new Rect();
-				header.getHitRect(headerRect);
-				
-				// TODO Draw header and staff lines
-				//__orange.setColor(header.adjustAlphaToVisibility(__orange.getColor()));
-				__orange.setAlpha(header.visibilityToAlpha());
-				__black.setAlpha(header.visibilityToAlpha());
-				c.drawRect(headerRect, __orange);
-				for(int j = 0; j < header.getChildCount(); j++) {
-					StaffHeaderView staffHeader = (StaffHeaderView) header.getChildAt(j);
-					Rect staffHeaderRect = new Rect();
-					staffHeader.getHitRect(staffHeaderRect);
-					int staffAreaTop = headerRect.top + staffHeaderRect.top;
-					int middleStaffLine = staffAreaTop + staffHeader.staffSpec.ABOVE_CENTER_PX;
-					
-					// Draw the middle staff line
-					c.drawLine((float) (BRACES_AREA_PX * _parent.getScalingFactor()), middleStaffLine, 
-							c.getWidth(), middleStaffLine, __black);
-					// Draw the other staff lines
-					for(int whichLineFromCenter : new int[] {-2, -1, 1, 2}) {
-						c.drawLine((float) (BRACES_AREA_PX * _parent.getScalingFactor()), middleStaffLine + (int)(whichLineFromCenter * StaffSpec.HEPTATONICTHIRD_PX * _parent.getScalingFactor()), 
-								c.getWidth(), middleStaffLine + (int)(whichLineFromCenter * StaffSpec.HEPTATONICTHIRD_PX * _parent.getScalingFactor()), __black);
-					}
-				}
-			}
-			
-			// Iterate through the ScoreDeltaViews
-			for(int i = 1; i < _parent.getChildCount(); i++) {
-				ScoreDeltaView scoreDV = (ScoreDeltaView) _parent.getChildAt(i);
-				Rect scoreDVRect = new Rect();
-				scoreDV.getHitRect(scoreDVRect);
-				Log.i(TAG,"ScoreRect:" + scoreDVRect);
-				
-				// Draw a blue rectangle around the whole ScoreDeltaView
-				//c.drawRect(scoreDVRect, __blue);
-				for(int j = 0; j < scoreDV.getChildCount(); j++) {
-					StaffDeltaView staffDV = (StaffDeltaView) scoreDV.getChildAt(j);
-					Rect staffDVRect = new Rect();
-					staffDV.getHitRect(staffDVRect);
-					staffDVRect.offsetTo(scoreDVRect.left, scoreDVRect.top + staffDVRect.top);
-					staffDVRect.intersect(scoreDVRect);
-					Log.i(TAG,"StaffRect:" + staffDVRect);
-					
-					// Draw a blue rectangle around the whole StaffDeltaView
-					//c.drawRect(staffDVRect, __blue);
-					
-					Rect staffAreaRect = new Rect();
-					staffDV._staffArea.getHitRect(staffAreaRect);
-					staffAreaRect.offsetTo(staffDVRect.left, staffDVRect.top + staffAreaRect.top);
-					staffAreaRect.intersect(staffDVRect);
-					
-					// Draw a blue rectangle around the staff area, where the staff is to be centered
-					//c.drawRect(staffAreaRect, __blue);
-					
-					int staffCenterOffset = staffDV.getActualVerticalStaffSpec().ABOVE_CENTER_PX;
-					
-					// Draw a blue line through the center of the staff
-					//c.drawLine(staffAreaRect.left, staffAreaRect.top + staffCenterOffset,
-					//		staffAreaRect.right, staffAreaRect.top + staffCenterOffset, __blue);
-					
-					// Draw a notehead through the center of the staff
-					int x = staffAreaRect.right - (int)(40 * _parent.getScalingFactor());
-					int y = staffAreaRect.top + staffCenterOffset;
-					__black.setAlpha((int)(scoreDV.getVisibilityRatio()*255));
-					__black.setTextSize((float)(14 * _parent.getScalingFactor()));
-					//c.drawText("%", x, y, __black);
-					
-					StaffDelta std = staffDV.getStaffDelta();
-					for(VoiceDelta vd : std.VOICES) {
-						if(vd.CHANGED.NOTES != null)
-							for(String noteName : vd.CHANGED.NOTES.noteNameCache) {
-								int y2 = y - (int)((std.ESTABLISHED.CLEF.getHeptatonicStepsFromCenter(noteName) - 1) * StaffSpec.HEPTATONICSTEP_PX * _parent.getScalingFactor());
-								c.drawText("%", x, y2, __black);
-							}
-					}
-				}
-			}
-			_holder.unlockCanvasAndPost(c);
-		}
-    }
-	
 	/**
-	 * Return the correct string (notehead and dots) to render from the NoteHedz font.
+	 * Record the engraver's systems where the ScoreLayout laid its rows out, and hand that to the
+	 * render thread.  Call from the UI thread whenever the layout changes; nothing is drawn here.
 	 * 
-	 * @param vd
-	 * @return
+	 * The first row may be scrolled partway through its system.  Its header stays put, and the rest of
+	 * the system is moved left under it as far as the first tile has been trimmed.
 	 */
-	private static final Rational[] NOTEHEAD_ABSOLUTE_VALUES = new Rational[] {Rational.SIXTYFOURTH, Rational.THIRTYSECOND, Rational.SIXTEENTH, Rational.EIGHTH, Rational.FOURTH, Rational.HALF, Rational.ONE, Rational.TWO};
-	private static String noteHedFor(VoiceDelta vd, TimeSignature ts) {
-		char dot = '\u00f6';
-
-		String result;
+	public void publishFrame() {
+		DisplayList frame = _renderThread.obtainList();
+		ScoreEngraver engraver = _parent.getEngraver();
+		int width = getWidth();
 		
-		// Find whether there should be a notehead represented here
-		Rational duration = null;
-		Boolean isRest = null;
-		if(vd.CHANGED.NOTES != null) {
-			assert(vd.CHANGED.NOTES == vd.ESTABLISHED.NOTES);
-			assert(vd.CHANGED.NOTES.tying != null);
-			assert(vd.LOCATION.equals(vd.CHANGED.TIME) && vd.LOCATION.equals(vd.CHANGED.NOTES.tying[0]));
-			duration = vd.CHANGED.NOTES.tying[1].minus(vd.CHANGED.NOTES.tying[0]);
-			isRest = vd.CHANGED.NOTES.isEmpty();
-		} else if(vd.ESTABLISHED.NOTES != null) {
-			Rational now = vd.LOCATION;
-			for(int i = 0; i < vd.ESTABLISHED.NOTES.tying.length; i++) {
-				Rational r = vd.ESTABLISHED.NOTES.tying[i];
-				if(r.equals(now)) {
-					assert( (i+1) < vd.ESTABLISHED.NOTES.tying.length);
-					duration = vd.ESTABLISHED.NOTES.tying[i+1].minus(r);
-				}
+		for(int row = 0; row < _parent.getRowCount() && row + 1 < getChildCount(); row++) {
+			SystemHeaderView header = (SystemHeaderView) getChildAt(row + 1);
+			header.getHitRect(_headerRect);
+			DisplayList system = engraver.getSystem(_parent.getRowSystem(row));
+			
+			float scrolled = 0;
+			if(row == 0) {
+				int delta = _parent.getFirstDelta();
+				ScoreDeltaView first = (ScoreDeltaView) _parent.getChildAt(1);
+				scrolled = engraver.getDeltaRight(delta) - first.getActualWidth() - _headerRect.right;
+			}
+			if(scrolled <= 0) {
+				frame.append(system, 0, _headerRect.top);
+			} else {
+				frame.clip(0, _headerRect.top, _headerRect.right, _headerRect.bottom);
+				frame.append(system, 0, _headerRect.top);
+				frame.clip(_headerRect.right, _headerRect.top, width, _headerRect.bottom);
+				frame.append(system, -scrolled, _headerRect.top);
+				frame.unclip();
 			}
-			isRest = vd.ESTABLISHED.NOTES.isEmpty();
-			assert(duration != null);
-		}
-
-		if(duration == null)
-			return null;
-		
-		// Pick out the notehead
-		Rational normalized = duration.times(new Rational(1, ts.BOTTOM));
-		if(normalized.compareTo(Rational.TWO) >= 0) //Double whole note
-			result = "_0_";
-		else if(normalized.compareTo(Rational.ONE) >= 0) //Whole note
-			result = "0";
-		else if(normalized.compareTo(Rational.HALF) >= 0) //Half note
-			result = "5";
-		else// if(normalized.compareTo(Rational.FOURTH) >= 0) //Quarter note
-			result = "%";
-		/*else if(normalized.compareTo(Rational.EIGHTH) >= 0) //Eighth note
-			result = "%";
-		else if(normalized.compareTo(Rational.SIXTEENTH) >= 0) //Sixteenth note
-			result = "%";
-		else if(normalized.compareTo(Rational.THIRTYSECOND) >= 0) //Thirty-second note
-			result = "%";
-		else if(normalized.compareTo(Rational.SIXTYFOURTH) >= 0) //Sixty-fourth note
-			result = "%";*/
-		
-		// Add dots
-		Rational represented = null;
-		for( Rational r : NOTEHEAD_ABSOLUTE_VALUES) {
-			if(r.compareTo(normalized) <= 0)
-				represented = r;
-			else
-				break;
-		}
-		
-		while(represented.compareTo(normalized) < 0) {
-			result += dot;
-			represented = represented.times(Rational.ONE_AND_HALF);
 		}
 		
-		return result;
-	}
+		Rational firstVisible = (_parent.getChildCount() > 1) 
+				? ((ScoreDeltaView) _parent.getChildAt(1))._scoreDelta.LOCATION : Rational.ZERO;
+		_renderThread.publish(new ScoreRenderThread.Frame(frame, _parent.getScalingFactor(), firstVisible, 
+				getChildCount() - 1));
+    }
+	
 	
 	/*
 	private void drawNoteHeads( StaffDeltaView v, Rect rect ) {
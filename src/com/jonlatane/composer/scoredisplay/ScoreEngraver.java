@@ -0,0 +1,702 @@
+package com.jonlatane.composer.scoredisplay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.Score.ScoreDelta;
+import com.jonlatane.composer.music.Score.Staff.StaffDelta;
+import com.jonlatane.composer.music.Score.Staff.Voice.VoiceDelta;
+import com.jonlatane.composer.music.coverings.Clef;
+import com.jonlatane.composer.music.coverings.TimeSignature;
+import com.jonlatane.composer.music.harmony.PitchSet;
+import com.jonlatane.composer.scoredisplay.StaffSpec.HorizontalStaffSpec;
+import com.jonlatane.composer.scoredisplay.StaffSpec.VerticalStaffSpec;
+
+/**
+ * Engraves a Score as systems of a given width without any Views: measures are broken into systems
+ * by a {@link SystemBreaker}, spaced by their {@link HorizontalStaffSpec}s and given room above and
+ * below each staff by their {@link VerticalStaffSpec}s, and each system is recorded as a
+ * {@link DisplayList} of staff lines, barlines, clefs, time signatures, noteheads, rests, accidentals,
+ * ledger lines, stems and beams.  Views only have to replay the lists with a {@link DisplayListRenderer};
+ * a {@link ScoreLayout} makes its rows of these systems and its surface draws them.
+ *
+ * NoteHedz only has noteheads, so clefs and rests shorter than a half are text from the Unicode Musical
+ * Symbols block, which is left to the platform's fallback fonts.  Key signatures, and clefs changing
+ * partway through a system, aren't engraved yet.
+ *
+ * Everything here is plain data, so a Score can be engraved and timed off the device or off the UI
+ * thread.  After an edit, {@link #invalidateFrom} has only the measures from the edit on read from the
+ * Score again, and only the systems from there on are recorded again.  Systems are recorded from
+ * their own top left, so one that is merely moved down the page keeps its list.  The specs read are
+ * kept unscaled, so a change of scale only scales them again rather than reading the Score.
+ *
+ * @author Jon Latane
+ *
+ */
+public class ScoreEngraver {
+	private static final int BRACES_AREA_PX = 10;
+	private static final int SYSTEM_GAP_PX = 20;
+	private static final float NOTEHEAD_TEXT_SIZE = 14, TEXT_SIZE = 16;
+	private static final float NOTEHEAD_WIDTH_PX = 11, ACCIDENTAL_WIDTH_PX = 12;
+	private static final float STEM_LENGTH_PX = 35, BEAM_THICKNESS_PX = 5, BEAM_SPACING_PX = 8;
+	private static final float LINE_WIDTH_PX = 1;
+	private static final Rational[] NOTEHEAD_ABSOLUTE_VALUES = new Rational[] {Rational.SIXTYFOURTH, Rational.THIRTYSECOND, Rational.SIXTEENTH, Rational.EIGHTH, Rational.FOURTH, Rational.HALF, Rational.ONE, Rational.TWO};
+	private static final char SHARP = '\u266F';
+	private static final String TREBLE_CLEF = "\uD834\uDD1E", ALTO_CLEF = "\uD834\uDD21", BASS_CLEF = "\uD834\uDD22";
+	/** Quarter, eighth, sixteenth, thirty-second and sixty-fourth rests */
+	private static final String[] RESTS = new String[] {"\uD834\uDD3D", "\uD834\uDD3E", "\uD834\uDD3F", "\uD834\uDD40", "\uD834\uDD41"};
+	/** Musical Symbols are drawn an em to 4 staff spaces, i.e. 8 steps */
+	private static final int SYMBOL_SIZE_IN_STEPS = 8;
+
+	private final Score _score;
+	private int _width = 0;
+	private double _scale = 1;
+
+	// The Score as read, by delta; measures are runs of deltas
+	private final List<ScoreDelta> _deltas = new ArrayList<ScoreDelta>();
+	/** Each delta's specs at a scale of 1, and its horizontal spec at {@link #_scale} */
+	private final List<HorizontalStaffSpec> _perfectHorizontalSpecs = new ArrayList<HorizontalStaffSpec>();
+	private final List<VerticalStaffSpec[]> _perfectVerticalSpecs = new ArrayList<VerticalStaffSpec[]>();
+	private final List<HorizontalStaffSpec> _horizontalSpecs = new ArrayList<HorizontalStaffSpec>();
+	private int[] _measureStarts = new int[1];
+	private int _measureCount = 0;
+	/** The first measure that must be read from the Score again, or -1 if none */
+	private int _staleFrom = 0;
+	/** Whether the scale changed since the specs were last scaled */
+	private boolean _rescaled = false;
+
+	private final SystemBreaker _breaker = new SystemBreaker(0, 0);
+	private final StaffSpec.VerticalStaffSpecTree _specTree = new StaffSpec.VerticalStaffSpecTree();
+
+	// The systems as recorded
+	private final List<DisplayList> _systems = new ArrayList<DisplayList>();
+	private int[] _systemMeasures = new int[0], _systemEndMeasures = new int[0];
+	private double[] _systemStretches = new double[0];
+	private float[] _systemTops = new float[0], _systemHeights = new float[0];
+	private VerticalStaffSpec[][] _systemStaffSpecs = new VerticalStaffSpec[0][];
+	/** Where each delta starts and ends across its system */
+	private float[] _deltaLefts = new float[0], _deltaRights = new float[0];
+	/** The first measure whose systems must be recorded again, or Integer.MAX_VALUE if none */
+	private int _unrecordedFrom = 0;
+
+	public ScoreEngraver(Score s) {
+		_score = s;
+	}
+
+	/**
+	 * @param systemWidth the width of each system, in pixels
+	 * @param scale the scaling factor to engrave at
+	 */
+	public void setWidth(int systemWidth, double scale) {
+		if(systemWidth == _width && scale == _scale)
+			return;
+		if(scale != _scale)
+			_rescaled = true;
+		_width = systemWidth;
+		_scale = scale;
+		_unrecordedFrom = 0;
+	}
+
+	/**
+	 * Call after the Score is changed at a location, so the measures from there on are engraved again.
+	 * The measure before is included too, since a note there may now last a different length.
+	 */
+	public void invalidateFrom(Rational location) {
+		int measure = 0;
+		for(int m = _measureCount - 1; m >= 0; m--) {
+			if(_deltas.get(_measureStarts[m]).LOCATION.compareTo(location) <= 0) {
+				measure = m;
+				break;
+			}
+		}
+		measure = Math.max(0, measure - 1);
+		_staleFrom = (_staleFrom < 0) ? measure : Math.min(_staleFrom, measure);
+	}
+
+	/**
+	 * Bring the engraving up to date.
+	 *
+	 * @return the first system whose display list changed, or -1 if none did
+	 */
+	public int engrave() {
+		int scaleFrom = _rescaled ? 0 : Integer.MAX_VALUE;
+		if(_staleFrom >= 0) {
+			int firstChanged = read(_staleFrom);
+			_unrecordedFrom = Math.min(_unrecordedFrom, firstChanged);
+			scaleFrom = Math.min(scaleFrom, firstChanged);
+			_staleFrom = -1;
+		}
+		if(scaleFrom != Integer.MAX_VALUE) {
+			scale(scaleFrom);
+			_rescaled = false;
+		}
+		if(_unrecordedFrom == Integer.MAX_VALUE)
+			return -1;
+
+		int header = systemHeaderWidth(_scale);
+		_breaker.setLineWidth(_width, header);
+		int[] breaks = _breaker.getBreaks();
+		int systemCount = (_measureCount == 0) ? 0 : breaks.length;
+		int[] oldMeasures = _systemMeasures, oldEndMeasures = _systemEndMeasures;
+		double[] oldStretches = _systemStretches;
+		_systemMeasures = Arrays.copyOf(breaks, systemCount);
+		_systemEndMeasures = new int[systemCount];
+		_systemStretches = new double[systemCount];
+		_systemTops = new float[systemCount];
+		_systemHeights = new float[systemCount];
+		_systemStaffSpecs = new VerticalStaffSpec[systemCount][];
+		if(_deltaLefts.length < _deltas.size()) {
+			_deltaLefts = Arrays.copyOf(_deltaLefts, _deltas.size());
+			_deltaRights = Arrays.copyOf(_deltaRights, _deltas.size());
+		}
+
+		int firstChanged = -1;
+		float top = 0;
+		for(int s = 0; s < systemCount; s++) {
+			int startMeasure = breaks[s];
+			int endMeasure = (s + 1 < systemCount) ? breaks[s + 1] : _measureCount;
+			_systemEndMeasures[s] = endMeasure;
+			_systemStretches[s] = _breaker.getStretch(s);
+			VerticalStaffSpec[] staffSpecs = _specTree.best(_measureStarts[startMeasure], _measureStarts[endMeasure]);
+			_systemStaffSpecs[s] = staffSpecs;
+			_systemTops[s] = top;
+			_systemHeights[s] = systemHeight(staffSpecs);
+			top += _systemHeights[s] + (float)(SYSTEM_GAP_PX * _scale);
+
+			// Systems before anything changed, set the same as before, are kept
+			if(s < oldMeasures.length && endMeasure <= _unrecordedFrom && oldMeasures[s] == startMeasure
+					&& oldEndMeasures[s] == endMeasure && oldStretches[s] == _systemStretches[s])
+				continue;
+
+			DisplayList list;
+			if(s < _systems.size()) {
+				list = _systems.get(s);
+			} else {
+				list = new DisplayList();
+				_systems.add(list);
+			}
+			DisplayList before = (firstChanged < 0) ? copy(list) : null;
+			list.clear();
+			recordSystem(list, s == 0, startMeasure, endMeasure, _systemStretches[s], staffSpecs, header);
+			if(firstChanged < 0 && list.firstDifference(before) != -1)
+				firstChanged = s;
+		}
+		while(_systems.size() > systemCount)
+			_systems.remove(_systems.size() - 1);
+		if(firstChanged < 0 && oldMeasures.length != systemCount)
+			firstChanged = Math.min(oldMeasures.length, systemCount);
+		_unrecordedFrom = Integer.MAX_VALUE;
+		return firstChanged;
+	}
+
+	public int getSystemCount() {
+		return _systemMeasures.length;
+	}
+
+	/**
+	 * @return the system's display list, with (0, 0) at its top left
+	 */
+	public DisplayList getSystem(int system) {
+		return _systems.get(system);
+	}
+
+	public float getSystemTop(int system) {
+		return _systemTops[system];
+	}
+
+	public float getSystemHeight(int system) {
+		return _systemHeights[system];
+	}
+
+	/**
+	 * @return the first measure of the system, counting from 0
+	 */
+	public int getSystemStartMeasure(int system) {
+		return _systemMeasures[system];
+	}
+
+	public int getMeasureCount() {
+		return _measureCount;
+	}
+
+	/**
+	 * @return how far the breaker stretched the system's measures past their natural widths
+	 */
+	public double getSystemStretch(int system) {
+		return _systemStretches[system];
+	}
+
+	/**
+	 * @return the room each staff of the system is given above and below its center
+	 */
+	public VerticalStaffSpec[] getSystemStaffSpecs(int system) {
+		return _systemStaffSpecs[system];
+	}
+
+	/**
+	 * The width of a system's braces, clefs and time signatures, before its first delta.
+	 */
+	public static int systemHeaderWidth(double scale) {
+		return (int)(BRACES_AREA_PX * scale) + (int)((StaffSpec.CLEF_WIDTH_PX + StaffSpec.TIMESIGNATURE_WIDTH_PX) * scale);
+	}
+
+	public int getDeltaCount() {
+		return _deltas.size();
+	}
+
+	/**
+	 * @return the index of the last delta at or before a location, or -1 if there is none
+	 */
+	public int getDeltaAt(Rational location) {
+		int lo = 0, hi = _deltas.size() - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if(_deltas.get(mid).LOCATION.compareTo(location) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+
+	/**
+	 * @return the system a delta is engraved on
+	 */
+	public int getSystemOf(int delta) {
+		int system = Arrays.binarySearch(_systemMeasures, measureOf(delta));
+		return (system < 0) ? -system - 2 : system;
+	}
+
+	/**
+	 * @return where a delta starts across its system's display list
+	 */
+	public float getDeltaLeft(int delta) {
+		return _deltaLefts[delta];
+	}
+
+	/**
+	 * @return where a delta ends, and the next on its system starts
+	 */
+	public float getDeltaRight(int delta) {
+		return _deltaRights[delta];
+	}
+
+	/**
+	 * Record every system into one list, one below the other.
+	 */
+	public DisplayList toDisplayList(DisplayList out) {
+		out.clear();
+		for(int s = 0; s < _systems.size(); s++)
+			out.append(_systems.get(s), 0, _systemTops[s]);
+		return out;
+	}
+
+	/**
+	 * Read the Score from a measure on, and the specs of its deltas at a scale of 1.
+	 *
+	 * @return the first measure that differs from before
+	 */
+	private int read(int fromMeasure) {
+		fromMeasure = Math.min(fromMeasure, _measureCount);
+		int firstDelta = (fromMeasure < _measureCount) ? _measureStarts[fromMeasure] : _deltas.size();
+		Rational start = (firstDelta < _deltas.size()) ? _deltas.get(firstDelta).LOCATION : null;
+		if(fromMeasure == 0)
+			start = Rational.ZERO;
+		while(_deltas.size() > firstDelta) {
+			_deltas.remove(_deltas.size() - 1);
+			_perfectHorizontalSpecs.remove(_perfectHorizontalSpecs.size() - 1);
+			_perfectVerticalSpecs.remove(_perfectVerticalSpecs.size() - 1);
+		}
+		_measureCount = fromMeasure;
+
+		if(start != null) {
+			Iterator<ScoreDelta> itr = _score.scoreIterator(start);
+			boolean measureOpen = false;
+			while(itr.hasNext()) {
+				ScoreDelta d = itr.next();
+				if(!measureOpen) {
+					if(_measureCount + 1 >= _measureStarts.length)
+						_measureStarts = Arrays.copyOf(_measureStarts, 2 * (_measureCount + 1));
+					_measureStarts[_measureCount++] = _deltas.size();
+					measureOpen = true;
+				}
+				_deltas.add(d);
+				_perfectHorizontalSpecs.add(new HorizontalStaffSpec(d));
+				VerticalStaffSpec[] verticalSpecs = new VerticalStaffSpec[d.STAVES.length];
+				for(int j = 0; j < verticalSpecs.length; j++)
+					verticalSpecs[j] = VerticalStaffSpec.forStaffDelta(d.STAVES[j]);
+				_perfectVerticalSpecs.add(verticalSpecs);
+				if(d.IS_END_OF_MEASURE)
+					measureOpen = false;
+			}
+		}
+		_measureStarts[_measureCount] = _deltas.size();
+		return fromMeasure;
+	}
+
+	/**
+	 * Scale the specs read from a measure on, and hand the measures' widths to the breaker.
+	 */
+	private void scale(int fromMeasure) {
+		int firstDelta = (fromMeasure < _measureCount) ? _measureStarts[fromMeasure] : _deltas.size();
+		while(_horizontalSpecs.size() > firstDelta)
+			_horizontalSpecs.remove(_horizontalSpecs.size() - 1);
+		for(int i = _horizontalSpecs.size(); i < _deltas.size(); i++)
+			_horizontalSpecs.add(HorizontalStaffSpec.scale(_perfectHorizontalSpecs.get(i), _scale));
+
+		int[] widths = new int[_measureCount];
+		for(int m = 0; m < _measureCount; m++)
+			for(int i = _measureStarts[m]; i < _measureStarts[m + 1]; i++)
+				widths[m] += _horizontalSpecs.get(i).getTotalWidth();
+		_breaker.setMeasureWidths(widths, fromMeasure);
+
+		int staves = _deltas.isEmpty() ? 0 : _deltas.get(0).STAVES.length;
+		if(_specTree.size() != _deltas.size() || _specTree.getStaffCount() != staves) {
+			_specTree.reset(_deltas.size(), staves);
+			firstDelta = 0;
+		}
+		for(int i = firstDelta; i < _deltas.size(); i++)
+			for(int j = 0; j < staves; j++)
+				_specTree.set(i, j, VerticalStaffSpec.scale(_perfectVerticalSpecs.get(i)[j], _scale));
+	}
+
+	private float systemHeight(VerticalStaffSpec[] staffSpecs) {
+		float result = 0;
+		for(VerticalStaffSpec vss : staffSpecs)
+			result += vss.getTotalHeight();
+		return result;
+	}
+
+	private void recordSystem(DisplayList list, boolean first, int startMeasure, int endMeasure, double stretch,
+			VerticalStaffSpec[] staffSpecs, int header) {
+		float step = (float)(StaffSpec.HEPTATONICSTEP_PX * _scale);
+		float left = (float)(BRACES_AREA_PX * _scale), right = _width;
+		float lineWidth = (float)(LINE_WIDTH_PX * _scale);
+
+		// Staff lines, 2 steps apart around each staff's center
+		float[] centers = new float[staffSpecs.length];
+		float top = 0;
+		for(int j = 0; j < staffSpecs.length; j++) {
+			centers[j] = top + staffSpecs[j].ABOVE_CENTER_PX;
+			top += staffSpecs[j].getTotalHeight();
+			for(int line = -2; line <= 2; line++)
+				list.line(left, centers[j] + 2 * line * step, right, centers[j] + 2 * line * step, lineWidth);
+		}
+		if(staffSpecs.length > 0)
+			list.line(left, centers[0] - 4 * step, left, centers[centers.length - 1] + 4 * step, 2 * lineWidth);
+
+		// The clef each staff is in at the start of the system
+		ScoreDelta firstDelta = _deltas.get(_measureStarts[startMeasure]);
+		for(int j = 0; j < centers.length; j++)
+			recordClef(list, firstDelta.STAVES[j].ESTABLISHED.CLEF, left + step, centers[j], step);
+
+		// The time signature at the start of the piece, and wherever it changes
+		TimeSignature ts = firstDelta.ESTABLISHED.TS;
+		if(ts != null && (first || firstDelta.CHANGED.TS != null))
+			recordTimeSignature(list, ts, left + (float)(StaffSpec.CLEF_WIDTH_PX * _scale), centers, step);
+
+		float x = header;
+		Head[] heads = new Head[0];
+		int headCount = 0;
+		for(int i = _measureStarts[startMeasure]; i < _measureStarts[endMeasure]; i++) {
+			ScoreDelta d = _deltas.get(i);
+			HorizontalStaffSpec spec = _horizontalSpecs.get(i);
+			spec = spec.adaptToWidth((int)(spec.getTotalWidth() * stretch));
+			float headX = x + spec.ACCIDENTAL_AREA_PX;
+			if(d.ESTABLISHED.TS != null)
+				ts = d.ESTABLISHED.TS;
+			for(int j = 0; j < d.STAVES.length; j++) {
+				StaffDelta sd = d.STAVES[j];
+				for(int v = 0; v < sd.VOICES.length; v++) {
+					VoiceDelta vd = sd.VOICES[v];
+					PitchSet ps = vd.CHANGED.NOTES;
+					if(ps == null)
+						continue;
+					Rational duration = durationOf(i, j, v);
+					if(ps.isEmpty()) {
+						if(ts != null)
+							recordRest(list, duration, ts, headX, centers[j], step);
+						continue;
+					}
+					if(ps.noteNameCache == null)
+						continue;
+					String glyph = (ts == null) ? "%" : noteheadGlyph(duration, ts);
+					Head h = recordChord(list, sd, ps, headX, centers[j], step, glyph);
+					h.STAFF = j;
+					h.VOICE = v;
+					h.MEASURE = measureOf(i);
+					h.BEAT = (d.BEATNUMBER == null) ? 0 : (int)Math.floor(d.BEATNUMBER.toDouble());
+					h.BEAMS = (ts == null) ? 0 : beamsFor(duration, ts);
+					h.STEMMED = (ts != null) && duration.times(new Rational(1, ts.BOTTOM)).compareTo(Rational.ONE) < 0;
+					if(headCount == heads.length)
+						heads = Arrays.copyOf(heads, Math.max(8, 2 * headCount));
+					heads[headCount++] = h;
+				}
+			}
+			_deltaLefts[i] = x;
+			x += spec.getTotalWidth();
+			_deltaRights[i] = x;
+			if(d.IS_END_OF_MEASURE)
+				for(int j = 0; j < centers.length; j++)
+					list.line(x, centers[j] - 4 * step, x, centers[j] + 4 * step, lineWidth);
+		}
+		recordStemsAndBeams(list, heads, headCount, step, lineWidth);
+	}
+
+	private void recordTimeSignature(DisplayList list, TimeSignature ts, float x, float[] centers, float step) {
+		float size = (float)(TEXT_SIZE * _scale);
+		String top = (ts.TOP == Integer.MAX_VALUE) ? "" : Integer.toString(ts.TOP);
+		for(float center : centers) {
+			list.text(top, x, center - step / 2, size);
+			list.text(Integer.toString(ts.BOTTOM), x, center + 4 * step - step / 2, size);
+		}
+	}
+
+	/**
+	 * Record a clef with its origin on the line it names, as Musical Symbols fonts draw them.
+	 */
+	private void recordClef(DisplayList list, Clef clef, float x, float center, float step) {
+		if(clef == null)
+			return;
+		float size = SYMBOL_SIZE_IN_STEPS * step;
+		switch(clef.TYPE) {
+		case Clef.TREBLE:
+		case Clef.TREBLETENOR:
+			// On G4's line, 2 steps below the center
+			list.text(TREBLE_CLEF, x, center + 2 * step, size);
+			break;
+		case Clef.BASS:
+			// On F3's line, 2 steps above the center
+			list.text(BASS_CLEF, x, center - 2 * step, size);
+			break;
+		case Clef.ALTO:
+			list.text(ALTO_CLEF, x, center, size);
+			break;
+		}
+	}
+
+	/**
+	 * Record a rest in the notehead column.  Whole and half rests are blocks hanging from the fourth
+	 * line and sitting on the middle one; shorter rests are centered on the staff.
+	 */
+	private void recordRest(DisplayList list, Rational duration, TimeSignature ts, float headX, float center,
+			float step) {
+		Rational normalized = duration.times(new Rational(1, ts.BOTTOM));
+		float right = headX + (float)(NOTEHEAD_WIDTH_PX * _scale);
+		if(normalized.compareTo(Rational.ONE) >= 0) {
+			list.rect(headX, center - 2 * step, right, center - step);
+		} else if(normalized.compareTo(Rational.HALF) >= 0) {
+			list.rect(headX, center - step, right, center);
+		} else {
+			int beams = Math.min(beamsFor(duration, ts), RESTS.length - 1);
+			list.text(RESTS[beams], headX, center, SYMBOL_SIZE_IN_STEPS * step);
+		}
+	}
+
+	/** Where a chord's noteheads went, for stemming and beaming */
+	private static class Head {
+		float X, HIGHEST_Y, LOWEST_Y;
+		int STEPS_SUM;
+		int STAFF, VOICE, MEASURE, BEAT, BEAMS;
+		boolean STEMMED;
+	}
+
+	private Head recordChord(DisplayList list, StaffDelta sd, PitchSet ps, float headX, float center, float step,
+			String glyph) {
+		Head h = new Head();
+		h.X = headX;
+		h.HIGHEST_Y = Float.MAX_VALUE;
+		h.LOWEST_Y = -Float.MAX_VALUE;
+		float size = (float)(NOTEHEAD_TEXT_SIZE * _scale);
+		float ledgerHalf = (float)(NOTEHEAD_WIDTH_PX * _scale * .8);
+		for(String noteName : ps.noteNameCache) {
+			int steps = sd.ESTABLISHED.CLEF.getHeptatonicStepsFromCenter(noteName);
+			float y = center - steps * step;
+			// Glyphs sit a step below their baseline
+			list.glyph(glyph, headX, y + step, size);
+			h.HIGHEST_Y = Math.min(h.HIGHEST_Y, y);
+			h.LOWEST_Y = Math.max(h.LOWEST_Y, y);
+			h.STEPS_SUM += steps;
+
+			char accidental = (noteName.length() > 2) ? noteName.charAt(1) : 0;
+			if(accidental == '#' || accidental == SHARP)
+				list.text(Character.toString(SHARP), headX - (float)(ACCIDENTAL_WIDTH_PX * _scale), y + step, size);
+			else if(accidental == 'b' || accidental == PitchSet.FLAT)
+				list.text(Character.toString(PitchSet.FLAT), headX - (float)(ACCIDENTAL_WIDTH_PX * _scale), y + step, size);
+
+			// Ledger lines every other step beyond the staff
+			float headCenterX = headX + (float)(NOTEHEAD_WIDTH_PX * _scale) / 2;
+			for(int ledger = 6; ledger <= Math.abs(steps); ledger += 2) {
+				float ly = center - Integer.signum(steps) * ledger * step;
+				list.line(headCenterX - ledgerHalf, ly, headCenterX + ledgerHalf, ly, (float)(LINE_WIDTH_PX * _scale));
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Stem each chord shorter than a whole note, and beam together runs of eighth notes or shorter in
+	 * the same voice and beat.  A run's stems all go up if its notes are mostly below the middle line.
+	 */
+	private void recordStemsAndBeams(DisplayList list, Head[] heads, int count, float step, float lineWidth) {
+		float stemLength = (float)(STEM_LENGTH_PX * _scale), headWidth = (float)(NOTEHEAD_WIDTH_PX * _scale);
+		float thickness = (float)(BEAM_THICKNESS_PX * _scale), spacing = (float)(BEAM_SPACING_PX * _scale);
+		boolean[] done = new boolean[count];
+		for(int i = 0; i < count; i++) {
+			if(done[i] || !heads[i].STEMMED)
+				continue;
+			// Gather the run this head starts
+			int[] run = new int[] { i };
+			int runLength = 1;
+			if(heads[i].BEAMS > 0) {
+				for(int k = i + 1; k < count; k++) {
+					Head h = heads[k];
+					if(h.STAFF != heads[i].STAFF || h.VOICE != heads[i].VOICE)
+						continue;
+					if(h.MEASURE != heads[i].MEASURE || h.BEAT != heads[i].BEAT || h.BEAMS == 0)
+						break;
+					if(runLength == run.length)
+						run = Arrays.copyOf(run, 2 * runLength);
+					run[runLength++] = k;
+				}
+			}
+			int stepsSum = 0;
+			for(int r = 0; r < runLength; r++) {
+				stepsSum += heads[run[r]].STEPS_SUM;
+				done[run[r]] = true;
+			}
+			boolean up = stepsSum < 0;
+
+			// Stems end on a line from the first to the last, far enough from every head
+			Head firstHead = heads[run[0]], lastHead = heads[run[runLength - 1]];
+			float firstX = up ? firstHead.X + headWidth : firstHead.X;
+			float lastX = up ? lastHead.X + headWidth : lastHead.X;
+			float firstEnd = up ? firstHead.HIGHEST_Y - stemLength : firstHead.LOWEST_Y + stemLength;
+			float lastEnd = up ? lastHead.HIGHEST_Y - stemLength : lastHead.LOWEST_Y + stemLength;
+			float slope = (runLength > 1 && lastX != firstX) ? (lastEnd - firstEnd) / (lastX - firstX) : 0;
+			float shift = 0;
+			for(int r = 0; r < runLength; r++) {
+				Head h = heads[run[r]];
+				float hx = up ? h.X + headWidth : h.X;
+				float end = firstEnd + slope * (hx - firstX) + shift;
+				if(up && end > h.HIGHEST_Y - stemLength)
+					shift -= end - (h.HIGHEST_Y - stemLength);
+				else if(!up && end < h.LOWEST_Y + stemLength)
+					shift += (h.LOWEST_Y + stemLength) - end;
+			}
+			for(int r = 0; r < runLength; r++) {
+				Head h = heads[run[r]];
+				float hx = up ? h.X + headWidth : h.X;
+				float end = firstEnd + slope * (hx - firstX) + shift;
+				list.line(hx, up ? h.LOWEST_Y : h.HIGHEST_Y, hx, end, lineWidth);
+			}
+
+			if(runLength == 1) {
+				// A lone flagged note gets a short flag per beam
+				for(int b = 0; b < firstHead.BEAMS; b++) {
+					float y = firstEnd + shift + (up ? b * spacing : -b * spacing);
+					list.line(firstX, y, firstX + headWidth, y + (up ? stemLength / 3 : -stemLength / 3), 2 * lineWidth);
+				}
+				continue;
+			}
+			// Beams between neighbours, as many as both of them need
+			for(int r = 0; r + 1 < runLength; r++) {
+				Head a = heads[run[r]], b = heads[run[r + 1]];
+				float ax = up ? a.X + headWidth : a.X, bx = up ? b.X + headWidth : b.X;
+				int beams = Math.min(a.BEAMS, b.BEAMS);
+				for(int level = 0; level < beams; level++) {
+					float offset = up ? level * spacing : -level * spacing - thickness;
+					list.beam(ax, firstEnd + slope * (ax - firstX) + shift + offset,
+							bx, firstEnd + slope * (bx - firstX) + shift + offset, thickness);
+				}
+			}
+		}
+	}
+
+	private int measureOf(int delta) {
+		int lo = 0, hi = _measureCount - 1;
+		while(lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if(_measureStarts[mid] <= delta)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * How long the notes a voice changes to at a delta last: until the voice next changes, or the Fine.
+	 */
+	private Rational durationOf(int delta, int staff, int voice) {
+		Rational start = _deltas.get(delta).LOCATION;
+		for(int i = delta + 1; i < _deltas.size(); i++) {
+			StaffDelta sd = _deltas.get(i).STAVES[staff];
+			if(voice < sd.VOICES.length && sd.VOICES[voice].CHANGED.NOTES != null)
+				return _deltas.get(i).LOCATION.minus(start);
+		}
+		Rational fine = _score.getFine();
+		return (fine != null && fine.compareTo(start) > 0) ? fine.minus(start) : Rational.ONE;
+	}
+
+	/**
+	 * Return the NoteHedz glyphs (notehead and dots) for a note of a given length.
+	 *
+	 * @param duration the length in beats
+	 * @param ts the time signature in effect
+	 * @return
+	 */
+	static String noteheadGlyph(Rational duration, TimeSignature ts) {
+		char dot = '\u00f6';
+		String result;
+
+		Rational normalized = duration.times(new Rational(1, ts.BOTTOM));
+		if(normalized.compareTo(Rational.TWO) >= 0) //Double whole note
+			result = "_0_";
+		else if(normalized.compareTo(Rational.ONE) >= 0) //Whole note
+			result = "0";
+		else if(normalized.compareTo(Rational.HALF) >= 0) //Half note
+			result = "5";
+		else // Quarter note and shorter
+			result = "%";
+
+		// Add dots
+		Rational represented = null;
+		for( Rational r : NOTEHEAD_ABSOLUTE_VALUES) {
+			if(r.compareTo(normalized) <= 0)
+				represented = r;
+			else
+				break;
+		}
+		if(represented == null)
+			return result;
+
+		while(represented.compareTo(normalized) < 0) {
+			result += dot;
+			represented = represented.times(Rational.ONE_AND_HALF);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return how many beams or flags a note of the given length takes: 1 for an eighth note and so on
+	 */
+	private static int beamsFor(Rational duration, TimeSignature ts) {
+		Rational normalized = duration.times(new Rational(1, ts.BOTTOM));
+		int result = 0;
+		for(Rational r = Rational.EIGHTH; result < 4 && normalized.compareTo(r.times(Rational.TWO)) < 0; r = r.times(Rational.HALF))
+			result++;
+		return result;
+	}
+
+	private static DisplayList copy(DisplayList list) {
+		DisplayList result = new DisplayList();
+		result.append(list, 0, 0);
+		return result;
+	}
+}
@@ -16,11 +16,8 @@
 
 package com.jonlatane.composer.scoredisplay;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 
 import com.jonlatane.composer.music.Rational;
 import com.jonlatane.composer.music.Score;
@@ -30,12 +27,9 @@ import com.jonlatane.composer.scoredisplay.StaffSpec.HorizontalStaffSpec;
 import com.jonlatane.composer.scoredisplay.StaffSpec.VerticalStaffSpec;
 
 import android.animation.LayoutTransition;
-import android.animation.ValueAnimator;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.Pair;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -50,6 +44,12 @@ import android.view.ViewGroup;
  * before the ScoreLayout lays out its contents and passes them to the ScoreLayout.  The
  * ScoreLayout then places its tiles atop the background.
  * 
+ * Rows are the systems a {@link ScoreEngraver} engraves the whole Score as, so a measure is on the
+ * same system however far the Score is scrolled.  Each tile is as wide as the engraver made its delta
+ * and each row as tall as its system, so the tiles lie over what the surface draws, which is the
+ * engraver's systems.  Scrolling trims the first tile of the first row; once that system has
+ * scrolled away, the next becomes the first row.
+ * 
  * During layout, the ScoreLayout notes where the noteheads of the Score are and where slurs,
  * stems, and beams should go.  This information is passed to the SurfaceView to draw these.
  * It should also tell the SurfaceView which lines we need to draw a KeySignature or TimeSignature
@@ -77,11 +77,19 @@ import android.view.ViewGroup;
 public class ScoreLayout extends ViewGroup {
 	private static final String TAG = "ScoreLayout";
 	private static final double MAX_SCALE = 5, MIN_SCALE = .35;
+	/** How often a fling scrolls or a pinch rescales, about once a display frame */
+	private static final long FRAME_MS = 16;
     
     Score _score;
 
     private ScoreDrawingSurface _surface;
     private double SCALINGFACTOR = 1d;
+    private ScoreEngraver _engraver;
+    /** The child index each row starts at, then getChildCount(), and the system each row is of */
+    private int[] _rowStarts = new int[8], _rowSystems = new int[8];
+    private int _rowCount = 0;
+    /** The engraver's index of the delta child 1 is of; the rest follow on from it */
+    private int _firstDelta = 0;
     
     public ScoreLayout(Context context) {
         super(context);
@@ -112,6 +120,7 @@ public class ScoreLayout extends ViewGroup {
     
     public void openScore(Score s) {
     	_score = s;
+    	_engraver = new ScoreEngraver(s);
     	Iterator<Score.ScoreDelta> itr = s.scoreIterator(Rational.ZERO);
     	int startIndex = 1;
     	while(itr.hasNext() && startIndex < 500) {
@@ -122,61 +131,6 @@ public class ScoreLayout extends ViewGroup {
     	}
     }
 
-    /**
-     * Returns a list of all the ScoreDeltaViews that fit in a row of the targetWidth based on their
-     * actual widths.  
-     * 
-     * The second part of the result pair represents how much space was left.  For instance, for 3
-     * ScoreDeltaViews of width 20 and a targetWidth of 50, result.first.size() = 2 and result.second = 10.
-     * 
-     * @param startingIndex
-     * @param targetWidth
-     * @return
-     */
-    private Pair< LinkedList<ScoreDeltaView>, Integer > getActualRow(int startingIndex, int targetWidth) {
-    	assert(startingIndex < getChildCount());
-    	
-    	if(getChildCount() == 2)
-    		Log.i(TAG, "Uhoh?");
-    	
-    	LinkedList<ScoreDeltaView> row = new LinkedList<ScoreDeltaView>();
-    	int remainingWidth = targetWidth;
-    	
-    	for(int i = startingIndex; i < getChildCount(); i++) {
-    		ScoreDeltaView sdv = (ScoreDeltaView) getChildAt(i);
-    		if(remainingWidth - sdv.getActualWidth() >= 0) {
-    			row.add(sdv);
-    			remainingWidth -= sdv.getActualWidth();
-    		} else {
-    			break;
-    		}
-    	}
-    	
-    	return new Pair<LinkedList<ScoreDeltaView>, Integer>(row, remainingWidth);
-    }
-    
-    private Pair< LinkedList<ScoreDeltaView>, Integer > getPerfectRow(int startingIndex, int targetWidth) {
-    	assert(startingIndex < getChildCount());
-    	
-    	if(getChildCount() == 2)
-    		Log.i(TAG, "Uhoh?");
-    	
-    	LinkedList<ScoreDeltaView> row = new LinkedList<ScoreDeltaView>();
-    	int remainingWidth = targetWidth;
-    	
-    	for(int i = startingIndex; i < getChildCount(); i++) {
-    		ScoreDeltaView sdv = (ScoreDeltaView) getChildAt(i);
-    		if(remainingWidth - sdv.getPerfectWidth() >= 0) {
-    			row.add(sdv);
-    			remainingWidth -= sdv.getPerfectWidth();
-    		} else {
-    			break;
-    		}
-    	}
-    	
-    	return new Pair<LinkedList<ScoreDeltaView>, Integer>(row, remainingWidth);
-    }
-    
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
     	// USE ALL THE SPACE
@@ -186,134 +140,114 @@ public class ScoreLayout extends ViewGroup {
         // This doesn't measure any of the SystemHeaderViews in _surface - that is done below.
         // It will, however, measure its SurfaceView at index 0.  Hence, we start with system number 1.
         _surface.measure(widthMeasureSpec, heightMeasureSpec);
-        int systemNumber = 1;
+        _engraver.setWidth(getMeasuredWidth(), SCALINGFACTOR);
+        _engraver.engrave();
+        updateRows();
         
-        int effectiveWidthOfFirstRowMember = ((ScoreDeltaView) getChildAt(1)).getActualWidth();
-        SystemHeaderView finalPartialHeader = null;
-        // We will work a system at a time, setting rowStartIndex
-        for (int rowStartIndex=1; rowStartIndex < getChildCount(); systemNumber++) {
-        	// We must first compute how wide the system header will be based on the first two members of this row.
-        	// Because the header's height is determined based on its width, it is not actually measured until
-        	// after we have resolved the height of the row.
-        	SystemHeaderView header = (SystemHeaderView)_surface.getChildAt(systemNumber);
-        	if(header == null) {
-        		header = _surface.new SystemHeaderView(_surface.getContext());
-        		_surface.addView(header, systemNumber);
-        	}
-        	
-        	ScoreDeltaView firstSDVInRow = (ScoreDeltaView)getChildAt(rowStartIndex);
-        	ScoreDeltaView secondSDVInRow = (ScoreDeltaView)getChildAt(rowStartIndex + 1);
-        	
+        for(int row = 0; row < _rowCount; row++) {
+        	int rowStart = _rowStarts[row], rowEnd = _rowStarts[row + 1];
+        	SystemHeaderView header = headerFor(row + 1);
+        	ScoreDeltaView firstSDVInRow = (ScoreDeltaView)getChildAt(rowStart);
         	header.setPartialDelta(firstSDVInRow);
-        	header.setCompleteDelta(secondSDVInRow);
+        	header.setCompleteDelta(rowStart + 1 < rowEnd ? (ScoreDeltaView)getChildAt(rowStart + 1) : null);
         	
-        	//Log.i(TAG,"VSS headache " + effectiveWidthOfFirstRowMember + "," + firstSDVInRow.getActualWidth());
-        	double firstRowMemberPartialVisibilityRatio;
-        	if(rowStartIndex == 1) {
-        		firstRowMemberPartialVisibilityRatio = Math.min(1d,(double)effectiveWidthOfFirstRowMember 
-            			/ (double)firstSDVInRow.getPerfectWidth());
-        	} else {
-        		firstRowMemberPartialVisibilityRatio = (double)effectiveWidthOfFirstRowMember 
-        			/ (double)firstSDVInRow.getActualWidth();
+        	// Make each member as wide as the engraver made its delta.  The first member of the first row
+        	// is left as scrolling has trimmed it, but no wider than that.
+        	for(int i = rowStart; i < rowEnd; i++) {
+        		ScoreDeltaView sdv = (ScoreDeltaView)getChildAt(i);
+        		int delta = _firstDelta + i - 1;
+        		int engraved = (int)(_engraver.getDeltaRight(delta) - _engraver.getDeltaLeft(delta));
+        		if(i > 1 || sdv.getActualWidth() > engraved)
+        			sdv.setActualWidth(engraved);
         	}
         	
-        	header.setPartialVisibilityRatio( firstRowMemberPartialVisibilityRatio );
-        	
-        	// Now, we must resolve the height of the row.
-        	// Note we use rowStartIndex + 1 to exclude the first row member (and subtract effectiveWidthOfFirstRowMember)
-        	// Generally we will NOT affect the VerticalStaffSpec of the first view in a row.  The only
-        	// exception is the very first row; the conditional for this is below.
-        	Pair< LinkedList<ScoreDeltaView>, Integer> p = getActualRow( rowStartIndex + 1, 
-        			getMeasuredWidth() - header.deriveLayoutWidth() - effectiveWidthOfFirstRowMember);
-        	
-        	// This gives us the row EXCLUDING the first element of it.
-        	LinkedList<ScoreDeltaView> rowNoFirst = p.first;
-        	//List<ScoreDeltaView> rowNoFirst = row.subList(1, row.size());
-        	if(rowNoFirst.size() == 0) {
-        		firstSDVInRow.measure(widthMeasureSpec, heightMeasureSpec);
-        		break;
-        	}
+        	// The row is as tall as its system.  The first member of the first row may be scrolling away,
+        	// which the header is told of.
+        	if(row == 0)
+        		header.setPartialVisibilityRatio(Math.min(1d, (double)firstSDVInRow.getActualWidth() 
+        				/ (double)firstSDVInRow.getPerfectWidth()));
+        	else
+        		header.setPartialVisibilityRatio(1d);
+        	VerticalStaffSpec[] rowStaffSpec = _engraver.getSystemStaffSpecs(_rowSystems[row]);
         	
-        	VerticalStaffSpec[] rowInternalBestStaffSpec = VerticalStaffSpec.best(rowNoFirst);
-        	
-        	//Log.i(TAG,"Best for row " + systemNumber + ": " + rowInternalBestStaffSpec[0].toString());
-        	
-        	// Now adjust for the first element 
-        	VerticalStaffSpec[] rowAdjustedStaffSpec = 
-        			VerticalStaffSpec.influenceToBest(firstSDVInRow.getPerfectVerticalStaffSpecs(), rowInternalBestStaffSpec,
-        					firstRowMemberPartialVisibilityRatio);
-        	
-        	//Log.i(TAG,"with First: " + rowAdjustedStaffSpec[0].toString() + "@" + firstRowMemberPartialVisibilityRatio);
-        	
-        	// Finally see if the remaining space is going to be filled with an incoming View.  In that
-        	// case, it must also affect the overall row StaffSpec
-        	ScoreDeltaView incoming = (ScoreDeltaView)getChildAt(rowStartIndex + rowNoFirst.size() + 1);
-        	if(incoming != null) {
-        		rowAdjustedStaffSpec = VerticalStaffSpec.influenceToBest(incoming.getPerfectVerticalStaffSpecs(), rowAdjustedStaffSpec, 
-        				(double)p.second / (double)incoming.getActualWidth());
-        	}
-        	//Log.i(TAG,"with incoming: " + rowAdjustedStaffSpec[0].toString());
-        	
-        	// Apply our adjusted spec across the row
-        	for(ScoreDeltaView sdv : rowNoFirst) {
-        		//Log.i(TAG, "VSS set in row " + systemNumber + 
-        		//		" to " + rowAdjustedStaffSpec[0].toString() + " at " + sdv._scoreDelta.LOCATION.toMixedString());
-        		sdv.setActualVerticalStaffSpecs(rowAdjustedStaffSpec);
+        	// Apply the spec across the row
+        	for(int i = rowStart; i < rowEnd; i++) {
+        		ScoreDeltaView sdv = (ScoreDeltaView)getChildAt(i);
+        		sdv.setActualVerticalStaffSpecs(rowStaffSpec);
         		sdv.measure(widthMeasureSpec, heightMeasureSpec);
         	}
-        	if(incoming != null) {
-        		//Log.i(TAG,"measured incoming in system " + systemNumber);
-        		ScoreDeltaView afterIncoming = (ScoreDeltaView)getChildAt(rowStartIndex + rowNoFirst.size() + 2);
-        		VerticalStaffSpec[] customIncomingStaffSpec;
-        		if(afterIncoming != null) {
-        			customIncomingStaffSpec = VerticalStaffSpec.influenceLeftRight(
-            				rowAdjustedStaffSpec, afterIncoming.getActualVerticalStaffSpecs(),
-            				(double)(p.second) / (double)incoming.getActualWidth());
-        		} else {
-        			customIncomingStaffSpec = VerticalStaffSpec.influenceLeftRight(
-            				rowAdjustedStaffSpec, incoming.getPerfectVerticalStaffSpecs(),
-            				(double)(p.second) / (double)incoming.getActualWidth());
-        		}
-        		/*VerticalStaffSpec[] asdf = (ScoreDeltaView)getChildAt(rowStartIndex + rowNoFirst.size() + 2)
-        		VerticalStaffSpec[] customIncomingStaffSpec = VerticalStaffSpec.influenceToBest(
-        				rowAdjustedStaffSpec, incoming.getActualVerticalStaffSpec(),
-        				(double)(p.second) / (double)incoming.getActualWidth());*/
-	        	//incoming.setActualVerticalStaffSpecs(rowAdjustedStaffSpec);
-        		incoming.setActualVerticalStaffSpecs(customIncomingStaffSpec);
-	        	incoming.measure(widthMeasureSpec, heightMeasureSpec);
-	        	finalPartialHeader = (SystemHeaderView) _surface.getChildAt(systemNumber+1);
-	        	if(finalPartialHeader == null) {
-	        		//Log.i(TAG,"Added new header for incoming");
-	        		finalPartialHeader = _surface.new SystemHeaderView(getContext());
-	        		_surface.addView(finalPartialHeader, systemNumber + 1);
-	        	}
-	        	finalPartialHeader.setPartialDelta(incoming);
-        		finalPartialHeader.setPartialVisibilityRatio((double)(incoming.getActualWidth() - p.second)/(double)(incoming.getMeasuredWidth()));
-        	} else {
-        		finalPartialHeader = null;
-        		for(int s = systemNumber + 1; s < _surface.getChildCount(); s++)
-        			_surface.removeViewAt(s);
-        	}
-        	
-        	// The first View in this is our boundary case.  The first View of every other row is set with that of
-        	// the previous.
-        	if(rowStartIndex == 1) {
-        		firstSDVInRow.setActualVerticalStaffSpecs(rowAdjustedStaffSpec);
-        		firstSDVInRow.measure(widthMeasureSpec, heightMeasureSpec);
-        	}
         	
         	// Measure the header, which bases its life on the first and second members of this row.
         	header.measure(widthMeasureSpec, heightMeasureSpec);
-        	
-        	rowStartIndex += rowNoFirst.size() + 1;
-        	
-        	if(rowStartIndex < getChildCount())
-        		effectiveWidthOfFirstRowMember = incoming.getActualWidth() - p.second;
-        	//final ScoreDeltaView child = (ScoreDeltaView) getChildAt(rowStartIndex);
-            //child.measure(widthMeasureSpec, heightMeasureSpec);
         }
-        if(finalPartialHeader != null)
-        	finalPartialHeader.measure(widthMeasureSpec, heightMeasureSpec);
+        
+        // Drop headers of systems that have scrolled away
+        for(int s = _surface.getChildCount() - 1; s > _rowCount; s--)
+        	_surface.removeViewAt(s);
+    }
+    
+    private SystemHeaderView headerFor(int systemNumber) {
+    	SystemHeaderView header = (SystemHeaderView)_surface.getChildAt(systemNumber);
+    	if(header == null) {
+    		header = _surface.new SystemHeaderView(_surface.getContext());
+    		_surface.addView(header, systemNumber);
+    	}
+    	return header;
+    }
+    
+    /**
+     * Split the children into rows where the engraver breaks the Score into systems.  Child 1 may be
+     * partway through a system, so the first row is what's left of that system.
+     */
+    private void updateRows() {
+    	_firstDelta = Math.max(0, _engraver.getDeltaAt(((ScoreDeltaView)getChildAt(1))._scoreDelta.LOCATION));
+    	_rowCount = 0;
+    	int system = -1;
+    	for(int i = 1; i < getChildCount(); i++) {
+    		int s = _engraver.getSystemOf(Math.min(_firstDelta + i - 1, _engraver.getDeltaCount() - 1));
+    		if(s != system)
+    			addRow(i, system = s);
+    	}
+    	_rowStarts[_rowCount] = getChildCount();
+    }
+    
+    private void addRow(int start, int system) {
+    	if(_rowCount + 2 > _rowStarts.length) {
+    		_rowStarts = Arrays.copyOf(_rowStarts, 2 * _rowStarts.length);
+    		_rowSystems = Arrays.copyOf(_rowSystems, 2 * _rowSystems.length);
+    	}
+    	_rowStarts[_rowCount] = start;
+    	_rowSystems[_rowCount] = system;
+    	_rowCount++;
+    }
+    
+    /**
+     * Returns the engraver that lays the whole Score out as systems of this layout's width, which
+     * onMeasure makes rows of and the surface draws.  After an edit, tell it where the Score changed
+     * and only the systems from there on are engraved again.
+     * 
+     * @return
+     */
+    public ScoreEngraver getEngraver() {
+    	return _engraver;
+    }
+    
+    int getRowCount() {
+    	return _rowCount;
+    }
+    
+    /**
+     * @return the engraver's system a row is of
+     */
+    int getRowSystem(int row) {
+    	return _rowSystems[row];
+    }
+    
+    /**
+     * @return the engraver's index of the delta child 1 is of
+     */
+    int getFirstDelta() {
+    	return _firstDelta;
     }
 
     @Override
@@ -321,65 +255,21 @@ public class ScoreLayout extends ViewGroup {
         _surface.layout(l, t, r, b);
 
         // "System number" 0 is the SurfaceView drawing takes place on
-        int systemNumber = 1;
-        int effectiveWidthOfFirstRowMember = ((ScoreDeltaView) getChildAt(1)).getActualWidth();
-        
-        int left = 0, top = 0;
-        // We will work a system at a time, setting rowStartIndex
-        for (int rowStartIndex=1; rowStartIndex < getChildCount(); systemNumber++) {
-        	SystemHeaderView header = (SystemHeaderView)_surface.getChildAt(systemNumber);
+        int top = 0;
+        for(int row = 0; row < _rowCount; row++) {
+        	SystemHeaderView header = (SystemHeaderView)_surface.getChildAt(row + 1);
         	header.layout(0, top, header.getMeasuredWidth(), top + header.getMeasuredHeight());
-        	left += header.getMeasuredWidth();
-        	
-        	ScoreDeltaView firstSDVInRow = (ScoreDeltaView)getChildAt(rowStartIndex);
-        	//ScoreDeltaView secondSDVInRow = (ScoreDeltaView)getChildAt(rowStartIndex + 1);
-        	Pair< LinkedList<ScoreDeltaView>, Integer> p = getActualRow( rowStartIndex + 1, 
-        			getMeasuredWidth() - header.getMeasuredWidth() - effectiveWidthOfFirstRowMember);
-        	
-        	LinkedList<ScoreDeltaView> rowNoFirst = p.first;
-        	
-        	if(rowStartIndex == 1) {
-        		firstSDVInRow.layout(left, top, 
-            			left + firstSDVInRow.getMeasuredWidth(), top + firstSDVInRow.getMeasuredHeight());
-        		left += firstSDVInRow.getMeasuredWidth();
-        	} else {
-        		left += effectiveWidthOfFirstRowMember;
-        	}
+        	int left = header.getMeasuredWidth();
         	
-        	for(ScoreDeltaView v : rowNoFirst) {
+        	for(int i = _rowStarts[row]; i < _rowStarts[row + 1]; i++) {
+        		ScoreDeltaView v = (ScoreDeltaView)getChildAt(i);
         		v.layout(left, top, left + v.getMeasuredWidth(), top + v.getMeasuredHeight());
         		left += v.getMeasuredWidth();
         	}
-        	
-        	ScoreDeltaView incoming = (ScoreDeltaView)getChildAt(rowStartIndex + rowNoFirst.size() + 1);
-        	if(incoming != null) {
-        		double d = (double)p.second / (double)incoming.getMeasuredWidth();
-        		//int incL = _surface.getChildAt(systemNumber+1).getMeasuredWidth()
-        		//		+ (int)(left * d);
-        		SystemHeaderView nextHeader = (SystemHeaderView) _surface.getChildAt(systemNumber+1);
-        		if(nextHeader == null) {
-        			nextHeader = _surface.new SystemHeaderView(_surface.getContext());
-        			_surface.addView(nextHeader,systemNumber+1);
-        			nextHeader.setPartialDelta(incoming);
-        			nextHeader.setCompleteDelta((ScoreDeltaView)getChildAt(rowStartIndex + rowNoFirst.size() + 2));
-        			nextHeader.measure(getMeasuredWidth(), getMeasuredHeight());
-        		}
-        		//Log.i(TAG,"incoming layout..., nextHeader: " + nextHeader.getMeasuredWidth() + "," + nextHeader.getMeasuredHeight());
-        		int incL = left - (int)((left - nextHeader.getMeasuredWidth()) * (1d-d));
-        		int incT = (int)(top + (header.getMeasuredHeight() * (1d-d)));
-        		incoming.layout(incL, incT, incL+incoming.getMeasuredWidth(), incT+incoming.getMeasuredHeight());
-        	}
-        	
-        	// Prepare for the next time around the loop!
-        	left = 0;
         	top += header.getMeasuredHeight();
-        	rowStartIndex += rowNoFirst.size() + 1;
-        	
-        	if(rowStartIndex < getChildCount())
-        		effectiveWidthOfFirstRowMember = incoming.getMeasuredWidth() - p.second;
         }
         
-        _surface.invalidate();
+        _surface.publishFrame();
     }
 
 	void enableTransitions() {
@@ -417,16 +307,76 @@ public class ScoreLayout extends ViewGroup {
     Long __prevMotionTime = null;
     Float __prevVelX = null;
     Double __prev2FingerDistance = null;
-    LinkedList<AsyncTask<?,?,?>> __kineticOperations = new LinkedList<AsyncTask<?,?,?>>();
+    /** The scale a pinch has reached but which hasn't been laid out yet */
+    Double __pendingScale = null;
+    private final Fling __fling = new Fling();
+    
+    /**
+     * Lays out at the scale a pinch has reached.  Pinching moves many times a frame, and every change
+     * of scale engraves the Score again, so moves only note the scale and this applies it once a frame.
+     */
+    private final Runnable __applyScale = new Runnable() {
+		@Override
+		public void run() {
+			if(__pendingScale == null)
+				return;
+			disableTransitions();
+			setScalingFactor(__pendingScale);
+			enableTransitions();
+			Log.i(TAG,"Zoomed to scaling factor" + getScalingFactor());
+			__pendingScale = null;
+		}
+    };
+    
+    /**
+     * Keeps scrolling after a one-finger swipe, slowing steadily to a stop.  Each step runs on the UI
+     * thread and only scrolls, which lays out again and publishes a frame; the render thread draws it.
+     */
+    private final class Fling implements Runnable {
+    	private float _velX, _deceleration, _accumDX;
+    	private int _totalScrolled;
+    	private long _prevTime;
+    	
+    	void start(float velX) {
+    		stop();
+    		_velX = velX;
+    		_deceleration = (velX > 0 ? 2000f : -2000f) * (float)getScalingFactor();
+    		_accumDX = 0;
+    		_totalScrolled = 0;
+    		_prevTime = System.currentTimeMillis();
+    		postDelayed(this, FRAME_MS);
+    	}
+    	
+    	void stop() {
+    		removeCallbacks(this);
+    	}
+    	
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			float dt_seconds = (float)(now - _prevTime) / 1000f;
+			_prevTime = now;
+			float dx = _velX * dt_seconds - _deceleration * dt_seconds * dt_seconds / 2;
+			_accumDX += dx;
+			int toScroll = ((int)_accumDX) - _totalScrolled;
+			_totalScrolled += toScroll;
+			if(toScroll < 0)
+				scrollLeftBy(-toScroll);
+			else if(toScroll > 0)
+				scrollRightBy(toScroll);
+			_velX -= _deceleration * dt_seconds;
+			// Keep going until the deceleration has brought it to a stop
+			boolean stopped = _velX == 0 || (_deceleration > 0 && _velX < 0) || (_deceleration < 0 && _velX > 0);
+			if(!stopped)
+				postDelayed(this, FRAME_MS);
+		}
+    }
     @Override
     public boolean onTouchEvent(MotionEvent event) {    	
     	// 1 finger to scroll
     	if(event.getPointerCount() == 1) {
     		Log.i(TAG, "One finger");
-			for(AsyncTask<?,?,?> t : __kineticOperations) {
-				t.cancel(true);
-			}
-			__kineticOperations.clear();
+			__fling.stop();
     		switch(event.getActionMasked()) {
 	    		case MotionEvent.ACTION_DOWN:
 	    		case MotionEvent.ACTION_POINTER_DOWN:
@@ -458,74 +408,8 @@ public class ScoreLayout extends ViewGroup {
 	            case MotionEvent.ACTION_POINTER_UP: 
 	            case MotionEvent.ACTION_CANCEL: 
 		    		if(__prevVelX != null) {
-		    			final float myVelX = __prevVelX;
-		    			__kineticOperations.add( new AsyncTask<Object,Object,Object>() {
-		    				boolean isCancelled = false;
-		    				@Override
-		    				protected void onCancelled() {
-		    					isCancelled = true;
-		    				}
-		    				
-							@Override
-							protected Object doInBackground(Object... params) {
-								float velX = myVelX;
-								float deceleration;
-								if(velX > 0)
-									deceleration= 2000f*(float)getScalingFactor();
-								else
-									deceleration = -2000f*(float)getScalingFactor();
-								long prevTime = System.currentTimeMillis();
-								float accumDX = 0;
-								int totalScrolled = 0;
-								while(Math.abs(velX) > 0 && !isCancelled) {
-									long now = System.currentTimeMillis();
-									float dt_seconds = (float)(now - prevTime) / 1000f;
-									prevTime = now;
-									float dx = velX * dt_seconds - deceleration * dt_seconds * dt_seconds / 2;
-									accumDX += dx;
-									final int toScroll = ((int)accumDX) - totalScrolled;
-									totalScrolled += toScroll;
-									if(toScroll < 0) {
-										post(new Runnable() {
-											@Override
-											public void run() {
-												scrollLeftBy(-toScroll);
-											}
-										});
-									} else if(toScroll > 0) {
-										post(new Runnable() {
-											@Override
-											public void run() {
-												scrollRightBy(toScroll);
-											}
-										});
-									}
-									velX -= deceleration * dt_seconds;
-									Log.i(TAG,"Elastic"+velX+","+dx);
-									if((deceleration > 0 && velX < 0) || (deceleration < 0 && velX > 0))
-										break;
-									try {
-										Thread.sleep(10);
-									} catch (InterruptedException e) {}
-								}
-
-								return null;
-							}
-							
-							@Override
-							protected void onPostExecute(Object result) {
-								post(new Runnable() {
-									@Override
-									public void run() {
-										fixLayout();
-									}
-								});
-							}
-		    				
-		    			}.execute());
+		    			__fling.start(__prevVelX);
 		    		}
-		    		fixLayout();
-		    		
 		    		__prevVelX = null;
 		    		__prevMotionX = null;
 		    		__prevMotionTime = null;
@@ -540,16 +424,20 @@ public class ScoreLayout extends ViewGroup {
     		if(event.getActionMasked() == MotionEvent.ACTION_DOWN) {
     			__prev2FingerDistance = newDistance;
     		} else if(event.getActionMasked() == MotionEvent.ACTION_MOVE) {
-	    		disableTransitions();
 	    		if(__prev2FingerDistance != null) {
 	    			double distanceRatioToPrev = newDistance/__prev2FingerDistance;
-	    			setScalingFactor(getScalingFactor() * distanceRatioToPrev);
-	    			Log.i(TAG,"Zoomed to scaling factor" + getScalingFactor());
+	    			if(__pendingScale == null)
+	    				postDelayed(__applyScale, FRAME_MS);
+	    			double from = (__pendingScale != null) ? __pendingScale : getScalingFactor();
+	    			__pendingScale = Math.min(MAX_SCALE, Math.max(MIN_SCALE, from * distanceRatioToPrev));
 	    		}
-	    		enableTransitions();
 	    		__prev2FingerDistance = newDistance;
 		        return true;
-	    	} else if(event.getActionMasked() == MotionEvent.ACTION_UP) {
+	    	} else if(event.getActionMasked() == MotionEvent.ACTION_UP
+	    			|| event.getActionMasked() == MotionEvent.ACTION_POINTER_UP) {
+	    		// Land on the scale the fingers left off at
+	    		removeCallbacks(__applyScale);
+	    		__applyScale.run();
 	    		__prev2FingerDistance = null;
 	    		//__prevVelX = null;
 	    	}
@@ -637,104 +525,6 @@ public class ScoreLayout extends ViewGroup {
 		requestLayout();
     }
     
-    /**
-     * This map is useful for quite a few things.
-     * @return
-     */
-    private LinkedHashMap<LinkedList<ScoreDeltaView>,Pair<Double,StaffSpec.VerticalStaffSpec[]>> deriveRows() {
-    	int myWidth = getMeasuredWidth();
-    	int totalPerfectWidth = 0;
-
-    	int rowStartIndex = 1;
-    	
-    	LinkedHashMap<LinkedList<ScoreDeltaView>,Pair<Double,StaffSpec.VerticalStaffSpec[]>> result = new LinkedHashMap<LinkedList<ScoreDeltaView>,Pair<Double,StaffSpec.VerticalStaffSpec[]>>();
-    	LinkedList<ScoreDeltaView> row = new LinkedList<ScoreDeltaView>();
-    	
-    	StaffSpec.VerticalStaffSpec[] bestStaffSpecs = new StaffSpec.VerticalStaffSpec[((ScoreDeltaView)getChildAt(1))._scoreDelta.STAVES.length];
-    	for(int j = 0; j < bestStaffSpecs.length; j++)
-    		bestStaffSpecs[j] = StaffSpec.VerticalStaffSpec.DEFAULT;
-    	
-    	for(int i = rowStartIndex; i < getChildCount(); i++) {
-    		ScoreDeltaView potentialRowMember = (ScoreDeltaView)getChildAt(i);
-    		if(potentialRowMember == null)
-    			break;
-    		// Add element to the row
-    		if(totalPerfectWidth + potentialRowMember.getPerfectWidth() < myWidth) {
-    			row.add(potentialRowMember);
-    			totalPerfectWidth += potentialRowMember.getPerfectWidth();
-    			for(int j = 0; j < potentialRowMember.getChildCount(); j++) {
-    				ScoreDeltaView.StaffDeltaView staffDV = (ScoreDeltaView.StaffDeltaView) potentialRowMember.getChildAt(j);
-    				bestStaffSpecs[j] = StaffSpec.VerticalStaffSpec.best(staffDV.getPerfectVerticalStaffSpec(),bestStaffSpecs[j]);
-    			}
-    		// End of row, figure out width
-    		} else {
-            	double perfectWidthFactor = (double)myWidth/(double)totalPerfectWidth;
-            	Pair<Double,StaffSpec.VerticalStaffSpec[]> p = new Pair<Double,StaffSpec.VerticalStaffSpec[]>(perfectWidthFactor,bestStaffSpecs);
-            	result.put(row,p);
-            	row = new LinkedList<ScoreDeltaView>();
-            	for(int j = 0; j < bestStaffSpecs.length; j++)
-            		bestStaffSpecs[j] = StaffSpec.VerticalStaffSpec.DEFAULT;
-            	row.add(potentialRowMember);
-            	totalPerfectWidth = potentialRowMember.getPerfectWidth();
-    		}
-    		Log.i(TAG,"Laid out " + i + " children");
-    	}
-    	
-    	// Scale the last row to its perfect width
-    	if(!row.isEmpty()) {
-    		result.put(row,new Pair<Double,StaffSpec.VerticalStaffSpec[]>(1d, bestStaffSpecs));
-    	}
-    	
-    	return result;
-    }
-    
-    public void fixLayout() {
-    	/*int myWidth = getMeasuredWidth();
-    	
-    	if(getChildAt(1) == null)
-    		return;
-    	
-        LinkedHashMap<LinkedList<ScoreDeltaView>,Pair<Double,StaffSpec.VerticalStaffSpec[]>> rows = deriveRows();
-    	
-    	for(Map.Entry<LinkedList<ScoreDeltaView>,Pair<Double,StaffSpec.VerticalStaffSpec[]>> e : rows.entrySet()) {
-    		int rowWidth = 0;
-    		
-    		boolean[] hasUpperLyrics = new boolean[e.getKey().getFirst()._scoreDelta.STAVES.length];
-    		boolean[] hasLowerLyrics = new boolean[hasUpperLyrics.length];
-    		
-    		for(int i = 0; i < hasUpperLyrics.length;i++) {
-    			hasUpperLyrics[i] = false;
-    			hasLowerLyrics[i] = false;
-    		}
-    		for(ScoreDeltaView scoreDV : e.getKey()) {
-    			int targetItemWidth = (int)(e.getValue().first * scoreDV.getPerfectWidth());
-    			
-    			// FIRST.  Make sure the width of the ScoreDelta is set.
-    			// Because computer precision sucks, this kludge will extend the last element slightly.
-    			if(scoreDV == e.getKey().getLast() && !scoreDV._scoreDelta.LOCATION.equals(_score.getFine())) {
-    				Log.i(TAG,"Adjusting last element");
-    				targetItemWidth = myWidth - rowWidth;
-    			}
-    			rowWidth += targetItemWidth;
-    			
-    			for(int i = 0; i < scoreDV.getChildCount(); i++) {
-    				ScoreDeltaView.StaffDeltaView staffDV = (ScoreDeltaView.StaffDeltaView)scoreDV.getChildAt(i);
-    				if(!staffDV._upperLyricView.getText().toString().trim().equals(""))
-    					hasUpperLyrics[i] = true;
-        			if(!staffDV._lowerLyricView.getText().toString().trim().equals(""))
-    					hasLowerLyrics[i] = true;
-    			}
-    			
-	        	ValueAnimator.ofObject(scoreDV.EVALUATOR,
-	        			scoreDV.getActualWidth(), targetItemWidth).start();
-	        	
-	        	//
-
-    		}
-    		Log.i(TAG,"Made row of width " + rowWidth);
-    	}*/
-    }
-    
     @Override
     public boolean shouldDelayChildPressedState() {
     	return true;
@@ -0,0 +1,238 @@
+package com.jonlatane.composer.scoredisplay;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.jonlatane.composer.music.Rational;
+
+/**
+ * Owns a {@link ScoreDrawingSurface}'s Surface from its creation to its destruction and does all the
+ * drawing on it, so the UI thread only ever describes what should be drawn.
+ *
+ * The UI thread publishes {@link Frame}s, which are never changed once published, into a single slot.
+ * A frame published before the last was drawn replaces it, so however fast frames come the thread only
+ * draws the newest and never falls behind.  Nothing here takes a lock: the slot is an AtomicReference,
+ * and the thread parks when it's empty.
+ *
+ * Each frame is compared with the one drawn before it.  Operations the two lists start and end with in
+ * common are left alone, and only the rectangle covering those in between is locked and redrawn.
+ *
+ * @author Jon Latane
+ *
+ */
+public class ScoreRenderThread {
+	private static final String TAG = "ScoreRenderThread";
+
+	/**
+	 * Everything needed to draw the surface once.  Published frames belong to the render thread.
+	 */
+	public static final class Frame {
+		public final DisplayList LIST;
+		public final double SCALE;
+		/** Where the first ScoreDeltaView on the surface is in the Score */
+		public final Rational FIRST_VISIBLE;
+		/** How many systems are on the surface, including one only partly scrolled in */
+		public final int SYSTEMS;
+
+		public Frame(DisplayList list, double scale, Rational firstVisible, int systems) {
+			LIST = list;
+			SCALE = scale;
+			FIRST_VISIBLE = firstVisible;
+			SYSTEMS = systems;
+		}
+	}
+
+	private final SurfaceHolder _holder;
+	private final DisplayListRenderer _renderer;
+	private final AtomicReference<Frame> _pending = new AtomicReference<Frame>();
+	/** A list the render thread is done with, for the UI thread to record the next frame into */
+	private final AtomicReference<DisplayList> _spare = new AtomicReference<DisplayList>();
+	/** Set when the surface has changed size, so that the whole of it must be drawn */
+	private final AtomicBoolean _redrawAll = new AtomicBoolean(true);
+	private volatile Thread _thread = null;
+
+	/** The frame on the surface; touched only on the render thread */
+	private Frame _drawn = null;
+	private final Rect _dirty = new Rect();
+
+	public ScoreRenderThread(SurfaceHolder holder, DisplayListRenderer renderer) {
+		_holder = holder;
+		_renderer = renderer;
+	}
+
+	/**
+	 * Start drawing.  Call once the Surface has been created.
+	 */
+	public void start() {
+		if(_thread != null)
+			return;
+		_redrawAll.set(true);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, TAG);
+		_thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stop drawing and wait for the thread to finish, as the Surface mustn't be touched once
+	 * {@link SurfaceHolder.Callback#surfaceDestroyed} returns.
+	 */
+	public void stop() {
+		Thread t = _thread;
+		_thread = null;
+		if(t == null)
+			return;
+		t.interrupt();
+		boolean interrupted = false;
+		while(t.isAlive()) {
+			try {
+				t.join();
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Hand a frame to the render thread, replacing any it hasn't drawn yet.  The frame's list must not
+	 * be touched afterward.
+	 */
+	public void publish(Frame f) {
+		Frame replaced = _pending.getAndSet(f);
+		if(replaced != null)
+			_spare.set(replaced.LIST);
+		LockSupport.unpark(_thread);
+	}
+
+	/**
+	 * The whole surface needs drawing again, e.g. because it changed size.
+	 */
+	public void redrawAll() {
+		_redrawAll.set(true);
+		LockSupport.unpark(_thread);
+	}
+
+	/**
+	 * @return an empty list to record the next frame into
+	 */
+	public DisplayList obtainList() {
+		DisplayList result = _spare.getAndSet(null);
+		if(result == null)
+			return new DisplayList();
+		result.clear();
+		return result;
+	}
+
+	private void loop() {
+		while(!Thread.currentThread().isInterrupted()) {
+			Frame f = _pending.getAndSet(null);
+			boolean all = _redrawAll.getAndSet(false);
+			if(f == null && !all) {
+				LockSupport.park(this);
+				continue;
+			}
+			if(f == null)
+				f = _drawn;
+			if(f == null)
+				continue;
+			try {
+				draw(f, all);
+			} catch(IllegalArgumentException e) {
+				// The Surface went away while locking it; surfaceDestroyed is about to stop us
+				Log.w(TAG, "Couldn't lock the surface", e);
+			}
+			if(_drawn != null && _drawn != f)
+				_spare.set(_drawn.LIST);
+			_drawn = f;
+		}
+	}
+
+	private void draw(Frame f, boolean all) {
+		Canvas c;
+		if(all || _drawn == null || _drawn.SCALE != f.SCALE) {
+			c = _holder.lockCanvas();
+		} else {
+			if(!findDirty(_drawn.LIST, f.LIST, _dirty))
+				return;
+			// The Surface may grow _dirty to what it can't keep from the last frame
+			c = _holder.lockCanvas(_dirty);
+		}
+		if(c == null)
+			return;
+		try {
+			c.drawColor(Color.WHITE);
+			_renderer.draw(c, f.LIST, 0, 0);
+		} finally {
+			_holder.unlockCanvasAndPost(c);
+		}
+	}
+
+	/**
+	 * Find the rectangle covering every operation that differs between two lists, ignoring those they
+	 * start and end with in common.
+	 *
+	 * @return false if the lists are the same
+	 */
+	private static boolean findDirty(DisplayList before, DisplayList after, Rect out) {
+		int prefix = before.firstDifference(after);
+		if(prefix < 0)
+			return false;
+		int suffix = 0;
+		while(suffix < before.size() - prefix && suffix < after.size() - prefix
+				&& before.sameOp(before.size() - 1 - suffix, after, after.size() - 1 - suffix))
+			suffix++;
+		out.setEmpty();
+		addBounds(before, prefix, before.size() - suffix, out);
+		addBounds(after, prefix, after.size() - suffix, out);
+		return !out.isEmpty();
+	}
+
+	/**
+	 * Grow a rectangle to cover operations [from, to) of a list.  Glyphs and text are taken to reach as
+	 * far as their text size in every direction from their origin, which covers the NoteHedz glyphs.
+	 */
+	private static void addBounds(DisplayList list, int from, int to, Rect out) {
+		for(int i = from; i < to; i++) {
+			// Ending a clip draws nothing; a clip's own rectangle is taken as drawn, as it may reveal more
+			if(list.getOp(i) == DisplayList.UNCLIP)
+				continue;
+			float size = list.getSize(i);
+			float left = Math.min(list.getX1(i), list.getX2(i)), right = Math.max(list.getX1(i), list.getX2(i));
+			float top = Math.min(list.getY1(i), list.getY2(i)), bottom = Math.max(list.getY1(i), list.getY2(i));
+			switch(list.getOp(i)) {
+			case DisplayList.GLYPH:
+			case DisplayList.TEXT:
+				left -= size;
+				top -= size;
+				right += 2 * size;
+				bottom += size;
+				break;
+			case DisplayList.LINE:
+				left -= size;
+				top -= size;
+				right += size;
+				bottom += size;
+				break;
+			case DisplayList.BEAM:
+				bottom += size;
+				break;
+			}
+			// Antialiasing reaches a pixel past the edges
+			out.union((int)Math.floor(left) - 1, (int)Math.floor(top) - 1,
+					(int)Math.ceil(right) + 1, (int)Math.ceil(bottom) + 1);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.jonlatane.composer.scoredisplay;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -83,30 +84,50 @@ public class StaffSpec {
 		public final int UPPER_AREA_PX, LOWER_AREA_PX;
 	
 		private VerticalStaffSpec(int above, int below, int upper, int lower) {
-			assert(above > 0 && below > 0);
+			// DEFAULT reaches nowhere; every other spec reaches past the staff
+			assert(above >= 0 && below >= 0);
 			ABOVE_CENTER_PX = above;
 			BELOW_CENTER_PX = below;
 			UPPER_AREA_PX = upper;
 			LOWER_AREA_PX = lower;
 		}
 		
-		public VerticalStaffSpec(StaffDelta d) {
+		/**
+		 * Specs differ only in how far their notes reach from the center of the staff, so they are shared
+		 * between every StaffDelta reaching as far, keyed by steps above and below.
+		 */
+		private static final Map<Integer,VerticalStaffSpec> SHARED = new HashMap<Integer,VerticalStaffSpec>();
+		
+		/**
+		 * Returns the spec for a StaffDelta, from the spelled extents of its notes on its clef.
+		 * 
+		 * @param d
+		 * @return
+		 */
+		public static VerticalStaffSpec forStaffDelta(StaffDelta d) {
 			// F5/E4 are 4 steps above/below B4.
 			int neededStepsAboveCenter = 4, neededStepsBelowCenter = 4;
 			for(VoiceDelta vd : d.VOICES) {
 				PitchSet ps = (vd.CHANGED.NOTES != null) ? vd.CHANGED.NOTES : vd.ESTABLISHED.NOTES;
 				if(!ps.equals(PitchSet.REST)) {
 					assert(ps.noteNameCache.length == ps.size());
+					// The pair is <lowest, highest>
 					Pair<Integer,Integer> p = d.ESTABLISHED.CLEF.getHeptatonicStepsFromCenter(ps);
-					neededStepsAboveCenter = Math.max(neededStepsAboveCenter, p.first);
-					neededStepsBelowCenter = Math.max(neededStepsBelowCenter, -p.second);
+					neededStepsAboveCenter = Math.max(neededStepsAboveCenter, p.second);
+					neededStepsBelowCenter = Math.max(neededStepsBelowCenter, -p.first);
 				}
 			}
-			ABOVE_CENTER_PX = (neededStepsAboveCenter + DEFAULT_MARGIN_IN_STEPS) * HEPTATONICSTEP_PX;
-			BELOW_CENTER_PX = (neededStepsBelowCenter + DEFAULT_MARGIN_IN_STEPS) * HEPTATONICSTEP_PX;
-			Log.i(TAG,"Created VerticalStaffSpec widht above = " + neededStepsAboveCenter + ", below = " + neededStepsBelowCenter);
-			UPPER_AREA_PX = 0;
-			LOWER_AREA_PX = 0;
+			Integer key = (neededStepsAboveCenter << 16) ^ neededStepsBelowCenter;
+			synchronized(SHARED) {
+				VerticalStaffSpec result = SHARED.get(key);
+				if(result == null) {
+					result = new VerticalStaffSpec((neededStepsAboveCenter + DEFAULT_MARGIN_IN_STEPS) * HEPTATONICSTEP_PX,
+							(neededStepsBelowCenter + DEFAULT_MARGIN_IN_STEPS) * HEPTATONICSTEP_PX, 0, 0);
+					Log.i(TAG,"Created VerticalStaffSpec with above = " + neededStepsAboveCenter + ", below = " + neededStepsBelowCenter);
+					SHARED.put(key, result);
+				}
+				return result;
+			}
 		}
 		
 		public int getTotalHeight() {
@@ -204,6 +225,104 @@ public class StaffSpec {
 		}
 	}
 
+	/**
+	 * A segment tree over a run of ScoreDeltas' VerticalStaffSpecs, one per staff, so that the
+	 * {@link VerticalStaffSpec#best} of any stretch of them can be had in O(log n) rather than by
+	 * walking it.  Setting a spec that is already there does nothing, so refreshing the tree from
+	 * unchanged deltas is cheap.
+	 * 
+	 * @author Jon Latane
+	 *
+	 */
+	public static class VerticalStaffSpecTree {
+		private int _size = 0, _staves = 0;
+		/** Node n's maxima for staff s are at n * _staves + s; leaves are nodes _size to 2 * _size - 1 */
+		private int[] _above = new int[0], _below = new int[0], _upper = new int[0], _lower = new int[0];
+		private VerticalStaffSpec[] _leaves = new VerticalStaffSpec[0];
+		
+		/**
+		 * Empty the tree and size it for a run of deltas.
+		 */
+		public void reset(int size, int staves) {
+			_size = size;
+			_staves = staves;
+			int n = 2 * size * staves;
+			if(_above.length < n) {
+				_above = new int[n];
+				_below = new int[n];
+				_upper = new int[n];
+				_lower = new int[n];
+				_leaves = new VerticalStaffSpec[size * staves];
+			} else {
+				Arrays.fill(_above, 0, n, 0);
+				Arrays.fill(_below, 0, n, 0);
+				Arrays.fill(_upper, 0, n, 0);
+				Arrays.fill(_lower, 0, n, 0);
+				Arrays.fill(_leaves, 0, size * staves, null);
+			}
+		}
+		
+		public int size() {
+			return _size;
+		}
+		
+		public int getStaffCount() {
+			return _staves;
+		}
+		
+		public void set(int index, int staff, VerticalStaffSpec spec) {
+			if(_leaves[index * _staves + staff] == spec)
+				return;
+			_leaves[index * _staves + staff] = spec;
+			int node = index + _size;
+			int i = node * _staves + staff;
+			_above[i] = spec.ABOVE_CENTER_PX;
+			_below[i] = spec.BELOW_CENTER_PX;
+			_upper[i] = spec.UPPER_AREA_PX;
+			_lower[i] = spec.LOWER_AREA_PX;
+			for(node >>= 1; node > 0; node >>= 1) {
+				int p = node * _staves + staff, l = 2 * node * _staves + staff, r = l + _staves;
+				_above[p] = Math.max(_above[l], _above[r]);
+				_below[p] = Math.max(_below[l], _below[r]);
+				_upper[p] = Math.max(_upper[l], _upper[r]);
+				_lower[p] = Math.max(_lower[l], _lower[r]);
+			}
+		}
+		
+		/**
+		 * Returns the best spec for each staff over the deltas from {@code from} up to but not including
+		 * {@code to}, as {@link VerticalStaffSpec#best(List)} would.
+		 * 
+		 * @param from
+		 * @param to
+		 * @return
+		 */
+		public VerticalStaffSpec[] best(int from, int to) {
+			VerticalStaffSpec[] result = new VerticalStaffSpec[_staves];
+			for(int staff = 0; staff < _staves; staff++) {
+				int above = 0, below = 0, upper = 0, lower = 0;
+				for(int l = from + _size, r = to + _size; l < r; l >>= 1, r >>= 1) {
+					if((l & 1) == 1) {
+						int i = (l++) * _staves + staff;
+						above = Math.max(above, _above[i]);
+						below = Math.max(below, _below[i]);
+						upper = Math.max(upper, _upper[i]);
+						lower = Math.max(lower, _lower[i]);
+					}
+					if((r & 1) == 1) {
+						int i = (--r) * _staves + staff;
+						above = Math.max(above, _above[i]);
+						below = Math.max(below, _below[i]);
+						upper = Math.max(upper, _upper[i]);
+						lower = Math.max(lower, _lower[i]);
+					}
+				}
+				result[staff] = new VerticalStaffSpec(above, below, upper, lower);
+			}
+			return result;
+		}
+	}
+
 	/**
 	 * A HorizontalStaffSpec defines the widths of the areas for drawing accidentals, noteheads,
 	 * time signature changes and key signature changes within a StaffDelta.   
@@ -443,7 +562,28 @@ public class StaffSpec {
 		return result;
 	}
 
+	/**
+	 * Accidental columns by spelling, since every note of every delta is spelled on every layout.
+	 */
+	private static final Map<List<String>,Integer> ACCIDENTAL_COLUMNS = new HashMap<List<String>,Integer>();
+	
 	public static int getNumAccidentalColumns(PitchSet ps) {
+		// A rest that was never spelled has no names, and needs no accidentals
+		if(ps.noteNameCache == null)
+			return 0;
+		List<String> spelling = Arrays.asList(ps.noteNameCache);
+		synchronized(ACCIDENTAL_COLUMNS) {
+			Integer result = ACCIDENTAL_COLUMNS.get(spelling);
+			if(result == null) {
+				result = deriveNumAccidentalColumns(ps.noteNameCache);
+				// The cache may be refilled later, so keep a copy
+				ACCIDENTAL_COLUMNS.put(Arrays.asList(ps.noteNameCache.clone()), result);
+			}
+			return result;
+		}
+	}
+	
+	private static int deriveNumAccidentalColumns(String[] noteNameCache) {
 		int result = 0;
 		
 		// For efficiency, let's assume we'll never need more than 10 "columns" of accidentals.  This allows
@@ -455,8 +595,8 @@ public class StaffSpec {
 		}
 		
 		// Iterate from the top note down.
-		for(int i = ps.noteNameCache.length - 1; i >=0; i--) {
-			String name = ps.noteNameCache[i];
+		for(int i = noteNameCache.length - 1; i >=0; i--) {
+			String name = noteNameCache[i];
 			if(name.charAt(1) == '#' || name.charAt(1) == 'b' || name.charAt(1) == PitchSet.FLAT) {
 				// Double flats require two columns to draw properly
 				if(name.charAt(2) == 'b' || name.charAt(1) == PitchSet.FLAT) {
@@ -0,0 +1,197 @@
+package com.jonlatane.composer.scoredisplay;
+
+import java.util.Arrays;
+
+/**
+ * Breaks a Score into systems the way Knuth and Plass break paragraphs into lines: rather than
+ * filling each system as full as it will go, the breaks are chosen together so that the measures are
+ * stretched as evenly as possible across every system.  Works on measure widths alone, so it runs
+ * headlessly and without any Views.
+ *
+ * The best way to set the first j measures is found for every j in turn, so a change to measure k
+ * leaves the best ways to set the first k measures alone.  After an edit only those from the edited
+ * measure on are worked out again.  Each is found by trying every system that could end with it,
+ * so breaking n measures of which at most w fit on a system takes O(nw) time.
+ *
+ * @author Jon Latane
+ *
+ */
+public class SystemBreaker {
+	/** A system that must stretch its measures this much farther than perfect is as bad as any */
+	private static final double MAX_STRETCH = 3;
+	/** The demerits of a system holding a single measure too wide for it */
+	private static final double OVERFULL_DEMERITS = 1e12;
+
+	private int _lineWidth, _headerWidth;
+	private int _measureCount = 0;
+	/** _prefixWidths[j] is the width of the first j measures */
+	private long[] _prefixWidths = new long[1];
+	/** The least demerits of setting the first j measures, and where the last system of that starts */
+	private double[] _demerits = new double[1];
+	private int[] _systemStarts = new int[1];
+	/** The demerits found by the last call to {@link #bestStart} */
+	private double _lastDemerits;
+	/** Entries up to and including this one in the above are up to date */
+	private int _validThrough = 0;
+	private int[] _breaks = null;
+
+	/**
+	 * @param lineWidth the width of a system, in pixels
+	 * @param headerWidth the width taken by the clef and signatures at the start of each system
+	 */
+	public SystemBreaker(int lineWidth, int headerWidth) {
+		_lineWidth = lineWidth;
+		_headerWidth = headerWidth;
+	}
+
+	public void setLineWidth(int lineWidth, int headerWidth) {
+		if(lineWidth == _lineWidth && headerWidth == _headerWidth)
+			return;
+		_lineWidth = lineWidth;
+		_headerWidth = headerWidth;
+		invalidateFrom(0);
+	}
+
+	public int getMeasureCount() {
+		return _measureCount;
+	}
+
+	/**
+	 * Replace every measure width.
+	 *
+	 * @param widths the perfect width of each measure
+	 * @param firstChanged the first measure that may differ from before; systems ending before it
+	 *                     aren't reworked
+	 */
+	public void setMeasureWidths(int[] widths, int firstChanged) {
+		int count = widths.length;
+		ensureCapacity(count);
+		_measureCount = count;
+		firstChanged = Math.max(0, Math.min(firstChanged, count));
+		for(int j = firstChanged; j < count; j++)
+			_prefixWidths[j + 1] = _prefixWidths[j] + widths[j];
+		invalidateFrom(firstChanged);
+	}
+
+	/**
+	 * Change the width of one measure, e.g. after a note is added to it.
+	 */
+	public void setMeasureWidth(int measure, int width) {
+		long delta = width - getMeasureWidth(measure);
+		if(delta == 0)
+			return;
+		for(int j = measure + 1; j <= _measureCount; j++)
+			_prefixWidths[j] += delta;
+		invalidateFrom(measure);
+	}
+
+	public int getMeasureWidth(int measure) {
+		return (int)(_prefixWidths[measure + 1] - _prefixWidths[measure]);
+	}
+
+	/**
+	 * @return the first measure of each system, in order; the first is always 0
+	 */
+	public int[] getBreaks() {
+		if(_breaks == null) {
+			update();
+			int lastStart = bestStart(_measureCount, true);
+			int systems = 1;
+			for(int j = lastStart; j > 0; j = _systemStarts[j])
+				systems++;
+			_breaks = new int[systems];
+			_breaks[systems - 1] = lastStart;
+			for(int j = lastStart, s = systems - 2; j > 0; j = _systemStarts[j])
+				_breaks[s--] = _systemStarts[j];
+		}
+		return _breaks;
+	}
+
+	public int getSystemCount() {
+		return _measureCount == 0 ? 0 : getBreaks().length;
+	}
+
+	/**
+	 * @param system a system number from 0
+	 * @return how much to stretch that system's measures beyond their perfect widths to fill it; 1 for
+	 *         the last system, which isn't stretched
+	 */
+	public double getStretch(int system) {
+		int[] breaks = getBreaks();
+		if(system == breaks.length - 1)
+			return 1;
+		long natural = _prefixWidths[breaks[system + 1]] - _prefixWidths[breaks[system]];
+		return (double)(_lineWidth - _headerWidth) / (double)natural;
+	}
+
+	private void ensureCapacity(int count) {
+		if(_prefixWidths.length < count + 1) {
+			int capacity = Math.max(count + 1, 2 * _prefixWidths.length);
+			_prefixWidths = Arrays.copyOf(_prefixWidths, capacity);
+			_demerits = Arrays.copyOf(_demerits, capacity);
+			_systemStarts = Arrays.copyOf(_systemStarts, capacity);
+		}
+	}
+
+	private void invalidateFrom(int measure) {
+		_validThrough = Math.min(_validThrough, measure);
+		_breaks = null;
+	}
+
+	/**
+	 * Find the best way to set the first j measures for each j past {@link #_validThrough}, with the
+	 * system holding measure j - 1 stretched to fill the line.  The last system, which isn't, is chosen
+	 * only when the breaks are asked for, so adding measures to the end leaves all of these valid.
+	 */
+	private void update() {
+		for(int j = _validThrough + 1; j <= _measureCount; j++) {
+			int start = bestStart(j, false);
+			_systemStarts[j] = start;
+			_demerits[j] = _lastDemerits;
+		}
+		_validThrough = _measureCount;
+	}
+
+	/**
+	 * Try each system ending before measure j, longest last, until they no longer fit.
+	 *
+	 * @return where the best of them starts; its total demerits are left in {@link #_lastDemerits}
+	 */
+	private int bestStart(int j, boolean last) {
+		long available = _lineWidth - _headerWidth;
+		double best = Double.MAX_VALUE;
+		int result = Math.max(0, j - 1);
+		for(int i = j - 1; i >= 0; i--) {
+			long natural = _prefixWidths[j] - _prefixWidths[i];
+			double d;
+			if(natural > available) {
+				if(i < j - 1)
+					break;
+				d = OVERFULL_DEMERITS;
+			} else {
+				d = demerits(natural, available, last);
+			}
+			d += _demerits[i];
+			if(d < best) {
+				best = d;
+				result = i;
+			}
+		}
+		_lastDemerits = best;
+		return result;
+	}
+
+	/**
+	 * Knuth and Plass's demerits for a system: the square of one plus its badness, where badness grows
+	 * with the cube of how far its measures must stretch.  The last system isn't stretched, so costs
+	 * only for existing.
+	 */
+	private static double demerits(long natural, long available, boolean last) {
+		double badness = 0;
+		if(!last && natural > 0) {
+			double stretch = Math.min(MAX_STRETCH, (double)available / (double)natural) - 1;
+			badness = 100 * stretch * stretch * stretch;
+		}
+		return (1 + badness) * (1 + badness);
+	}
+}
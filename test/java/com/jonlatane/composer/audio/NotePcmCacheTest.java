@@ -0,0 +1,89 @@
+package com.jonlatane.composer.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.media.AudioTrack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NotePcmCacheTest {
+    /** Renders 1000 bytes per note and counts how often it's asked to */
+    private static class CountingGenerator implements AudioTrackGenerator {
+        int renders = 0;
+
+        @Override
+        public AudioTrack getAudioTrackFor(int note) {
+            return null;
+        }
+
+        @Override
+        public byte[] renderPcmFor(int note) {
+            renders++;
+            return new byte[1000];
+        }
+
+        @Override
+        public int getLoopStartFor(int note, int numFrames) {
+            return 0;
+        }
+
+        @Override
+        public int getLoopEndFor(int note, int numFrames) {
+            return numFrames;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0x5eed;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        DiskPcmCache.setDirectory(null);
+        NotePcmCache.releaseAll();
+        NotePcmCache.setMaxBytes(3000);
+    }
+
+    @After
+    public void tearDown() {
+        NotePcmCache.releaseAll();
+        NotePcmCache.setMaxBytes(NotePcmCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void leastRecentlyUsedNotesAreEvictedToFitTheBudget() {
+        CountingGenerator g = new CountingGenerator();
+        NotePcmCache.getPcmForNote(0, g);
+        NotePcmCache.getPcmForNote(1, g);
+        NotePcmCache.getPcmForNote(2, g);
+        assertEquals(3000, NotePcmCache.getCachedBytes());
+
+        // Touch 0, so 1 is now the least recently used
+        NotePcmCache.getPcmForNote(0, g);
+        NotePcmCache.getPcmForNote(3, g);
+        assertEquals(3000, NotePcmCache.getCachedBytes());
+        assertTrue(NotePcmCache.isCached(0, g));
+        assertFalse(NotePcmCache.isCached(1, g));
+        assertTrue(NotePcmCache.isCached(2, g));
+        assertTrue(NotePcmCache.isCached(3, g));
+        assertEquals(4, g.renders);
+    }
+
+    @Test
+    public void shrinkingTheBudgetEvicts() {
+        CountingGenerator g = new CountingGenerator();
+        for(int n = 0; n < 3; n++)
+            NotePcmCache.getPcmForNote(n, g);
+        NotePcmCache.setMaxBytes(1500);
+        assertEquals(1000, NotePcmCache.getCachedBytes());
+        assertTrue(NotePcmCache.isCached(2, g));
+
+        NotePcmCache.releaseAll(g);
+        assertEquals(0, NotePcmCache.getCachedBytes());
+    }
+}
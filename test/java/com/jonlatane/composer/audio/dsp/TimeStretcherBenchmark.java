@@ -0,0 +1,66 @@
+package com.jonlatane.composer.audio.dsp;
+
+import java.util.Locale;
+
+/**
+ * Times {@link TimeStretcher} on ten seconds of stereo at 44100Hz, 440Hz on the left and 660Hz on the
+ * right, at each of a few stretch factors, and reports how many times faster than real time it made
+ * the output.  Like PitchShifterBenchmark it's a plain timing harness rather than a test: run its main
+ * method on the unit test classpath, from the IDE or with java.
+ *
+ * Each case warms up first, then reports the best of {@link #ROUNDS} runs.
+ */
+public class TimeStretcherBenchmark {
+    private static final float SAMPLE_RATE = 44100;
+    private static final int SECONDS = 10, CHANNELS = 2;
+    /** Frames written and read at a time, about what an AudioTrack buffer holds */
+    private static final int BLOCK_FRAMES = 1024;
+    private static final double[] STRETCHES = { .5, 1, 1.5, 2 };
+    private static final int WARMUP_RUNS = 3, ROUNDS = 5;
+
+    public static void main(String[] args) {
+        float[] input = tones(SECONDS * (int) SAMPLE_RATE);
+        System.out.println(String.format(Locale.US, "%-8s %12s %14s", "stretch", "output s", "x real time"));
+        for(double stretch : STRETCHES) {
+            for(int run = 0; run < WARMUP_RUNS; run++)
+                stretch(input, stretch);
+            double best = 0;
+            int outputFrames = 0;
+            for(int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                outputFrames = stretch(input, stretch);
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                best = Math.max(best, outputFrames / SAMPLE_RATE / elapsed);
+            }
+            System.out.println(String.format(Locale.US, "%-8.1f %12.2f %13.1fx",
+                    stretch, outputFrames / SAMPLE_RATE, best));
+        }
+    }
+
+    /**
+     * @return how many frames came out
+     */
+    private static int stretch(float[] input, double stretch) {
+        TimeStretcher stretcher = new TimeStretcher(CHANNELS);
+        stretcher.setStretch(stretch);
+        float[] block = new float[CHANNELS * BLOCK_FRAMES];
+        int inputFrames = input.length / CHANNELS, written = 0, read = 0;
+        while(written < inputFrames) {
+            written += stretcher.write(input, written, Math.min(BLOCK_FRAMES, inputFrames - written));
+            int got;
+            while((got = stretcher.read(block, 0, BLOCK_FRAMES)) > 0)
+                read += got;
+        }
+        return read;
+    }
+
+    private static float[] tones(int frames) {
+        float[] result = new float[CHANNELS * frames];
+        for(int i = 0; i < frames; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            result[CHANNELS * i] = (float) (.5 * Math.sin(2 * Math.PI * 440 * t));
+            result[CHANNELS * i + 1] = (float) (.5 * Math.sin(2 * Math.PI * 660 * t));
+        }
+        return result;
+    }
+}
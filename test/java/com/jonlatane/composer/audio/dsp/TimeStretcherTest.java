@@ -0,0 +1,82 @@
+package com.jonlatane.composer.audio.dsp;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TimeStretcherTest {
+    private static final float SAMPLE_RATE = 44100;
+    private static final double FREQUENCY = 440, AMPLITUDE = .5;
+    private static final int SECONDS = 2;
+
+    @Test
+    public void stretchesChannelsInPhase() {
+        assertStretched(1, 2);
+    }
+
+    @Test
+    public void stretchesChannelsOutOfPhase() {
+        assertStretched(-1, 2);
+    }
+
+    @Test
+    public void compressesChannelsOutOfPhase() {
+        assertStretched(-1, .5);
+    }
+
+    /**
+     * Stretch a stereo tone whose right channel is its left times rightGain, and check that both
+     * channels keep the tone's pitch and loudness and stay in the same relation to each other.
+     */
+    private void assertStretched(double rightGain, double stretch) {
+        int inputFrames = (int) (SECONDS * SAMPLE_RATE);
+        float[] in = new float[2 * inputFrames];
+        for(int i = 0; i < inputFrames; i++) {
+            double sample = AMPLITUDE * Math.sin(2 * Math.PI * FREQUENCY * i / SAMPLE_RATE);
+            in[2 * i] = (float) sample;
+            in[2 * i + 1] = (float) (rightGain * sample);
+        }
+
+        TimeStretcher stretcher = new TimeStretcher(2);
+        stretcher.setStretch(stretch);
+        float[] out = new float[2 * (int) (stretch * inputFrames + 4 * SAMPLE_RATE)];
+        int written = 0, read = 0;
+        while(written < inputFrames) {
+            written += stretcher.write(in, written, inputFrames - written);
+            read += stretcher.read(out, read, out.length / 2 - read);
+        }
+
+        // Look well clear of the start and of the end of the input
+        int from = 2 * stretcher.getLatency(), to = (int) (stretch * inputFrames) - 2 * stretcher.getLatency();
+        assertEquals(FREQUENCY, frequency(out, 0, from, to), 2);
+        assertEquals(FREQUENCY, frequency(out, 1, from, to), 2);
+        assertEquals(AMPLITUDE / Math.sqrt(2), rms(out, 0, from, to), .05);
+        assertEquals(AMPLITUDE / Math.sqrt(2), rms(out, 1, from, to), .05);
+        for(int i = from; i < to; i++)
+            assertEquals(rightGain * out[2 * i], out[2 * i + 1], 1e-3);
+    }
+
+    /**
+     * @return the frequency of a channel's tone, from how often it rises through 0
+     */
+    private static double frequency(float[] interleaved, int channel, int from, int to) {
+        int first = -1, last = -1, crossings = 0;
+        for(int i = from + 1; i < to; i++) {
+            if(interleaved[2 * (i - 1) + channel] < 0 && interleaved[2 * i + channel] >= 0) {
+                if(first < 0)
+                    first = i;
+                else
+                    crossings++;
+                last = i;
+            }
+        }
+        return crossings * SAMPLE_RATE / (last - first);
+    }
+
+    private static double rms(float[] interleaved, int channel, int from, int to) {
+        double sum = 0;
+        for(int i = from; i < to; i++)
+            sum += interleaved[2 * i + channel] * interleaved[2 * i + channel];
+        return Math.sqrt(sum / (to - from));
+    }
+}
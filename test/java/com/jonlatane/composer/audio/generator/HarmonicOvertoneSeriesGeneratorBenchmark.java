@@ -0,0 +1,82 @@
+package com.jonlatane.composer.audio.generator;
+
+import java.util.Locale;
+
+/**
+ * Times the two {@link HarmonicOvertoneSeriesGenerator.SynthesisMode}s synthesizing every note of an
+ * 88-key keyboard at 44100Hz, with 8, 64 and 512 overtones of amplitude 1/k.  Like
+ * PitchShifterBenchmark it's a plain timing harness rather than a test: run its main method on the
+ * unit test classpath, from the IDE or with java.
+ *
+ * Only the synthesis is timed, not the equalizer or the conversion to PCM, which don't depend on how
+ * many overtones there are.  A spectral loop holds as many periods as it takes to be in tune, against the single
+ * period of the time domain, so with few overtones the time domain comes out ahead.  Each case warms
+ * up first, then reports the best of {@link #ROUNDS} runs.
+ */
+public class HarmonicOvertoneSeriesGeneratorBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    /** The keyboard's range, with C4 = 0 */
+    private static final int LOWEST_NOTE = -39, HIGHEST_NOTE = 48;
+    private static final int[] PARTIALS = { 8, 64, 512 };
+    private static final int WARMUP_RUNS = 5, ROUNDS = 5;
+    /** Where the frames made go, so the work can't be optimized away */
+    private static volatile long framesMade;
+
+    private interface Synthesis {
+        double[] synthesize(double[] overtonesNormalized, double freq);
+    }
+
+    private static final Synthesis TIME_DOMAIN = new Synthesis() {
+        @Override
+        public double[] synthesize(double[] overtonesNormalized, double freq) {
+            return HarmonicOvertoneSeriesGenerator.synthesizeTimeDomain(overtonesNormalized, freq, SAMPLE_RATE);
+        }
+    };
+
+    private static final Synthesis SPECTRAL = new Synthesis() {
+        @Override
+        public double[] synthesize(double[] overtonesNormalized, double freq) {
+            return HarmonicOvertoneSeriesGenerator.synthesizeSpectral(overtonesNormalized, freq, SAMPLE_RATE);
+        }
+    };
+
+    public static void main(String[] args) {
+        System.out.println(String.format(Locale.US, "%-9s %16s %13s %9s", "partials", "time-domain ms", "spectral ms", "speedup"));
+        for(int partials : PARTIALS) {
+            Double[] overtones = new Double[partials];
+            for(int k = 0; k < partials; k++)
+                overtones[k] = 1. / (k + 1);
+            double[] overtonesNormalized = OvertoneSeries.normalize(overtones);
+
+            double timeDomain = time(TIME_DOMAIN, overtonesNormalized);
+            double spectral = time(SPECTRAL, overtonesNormalized);
+            System.out.println(String.format(Locale.US, "%-9d %16.1f %13.1f %8.2fx",
+                    partials, timeDomain, spectral, timeDomain / spectral));
+        }
+    }
+
+    /**
+     * @return the best time, in milliseconds, to synthesize every note on the keyboard
+     */
+    private static double time(Synthesis synthesis, double[] overtonesNormalized) {
+        for(int run = 0; run < WARMUP_RUNS; run++)
+            framesMade = synthesizeKeyboard(synthesis, overtonesNormalized);
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            framesMade = synthesizeKeyboard(synthesis, overtonesNormalized);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    /**
+     * @return the total frames made
+     */
+    private static long synthesizeKeyboard(Synthesis synthesis, double[] overtonesNormalized) {
+        long frames = 0;
+        for(int n = LOWEST_NOTE; n <= HIGHEST_NOTE; n++)
+            frames += synthesis.synthesize(overtonesNormalized, OvertoneSeries.frequencyOf(n)).length;
+        return frames;
+    }
+}
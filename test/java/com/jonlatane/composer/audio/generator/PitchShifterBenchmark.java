@@ -0,0 +1,285 @@
+package com.jonlatane.composer.audio.generator;
+
+import java.util.Locale;
+
+/**
+ * Times {@link PitchShifter} against the shifter it replaced, in frames per second at a frame size
+ * of 2048 with 4 and 10 times oversampling.  It's a plain timing harness rather than a test, so a
+ * slow machine can't fail the build: run its main method on the unit test classpath, from the IDE
+ * or with java, and give it a few seconds per case.
+ *
+ * Each case warms both shifters up, then shifts a second of a chord at a time for
+ * {@link #MEASURE_NANOS} and reports the best of {@link #ROUNDS} rounds.  It also reports how far
+ * the two outputs are apart, which should be no more than float rounding.
+ */
+public class PitchShifterBenchmark {
+    private static final float SAMPLE_RATE = 44100;
+    private static final int FRAME_SIZE = 2048;
+    private static final int[] OVERSAMPLINGS = { 4, 10 };
+    /** A fifth up, so every bin moves */
+    private static final float SHIFT = 1.5f;
+    private static final long WARMUP_NANOS = 2000000000L, MEASURE_NANOS = 1000000000L;
+    private static final int ROUNDS = 5;
+
+    private interface Shifter {
+        void shift(float[] samples);
+    }
+
+    public static void main(String[] args) {
+        final float[] input = chord((int) SAMPLE_RATE);
+        System.out.println(String.format(Locale.US, "%-8s %6s %14s %14s %8s %10s",
+                "frame", "osamp", "old frames/s", "new frames/s", "speedup", "max diff"));
+        for(final int osamp : OVERSAMPLINGS) {
+            final LegacyPitchShifter legacy = new LegacyPitchShifter();
+            final PitchShifter current = new PitchShifter(FRAME_SIZE, osamp);
+            Shifter old = new Shifter() {
+                @Override
+                public void shift(float[] samples) {
+                    legacy.pitchShift(SHIFT, samples.length, FRAME_SIZE, osamp, SAMPLE_RATE, samples);
+                }
+            };
+            Shifter shifter = new Shifter() {
+                @Override
+                public void shift(float[] samples) {
+                    current.pitchShift(SHIFT, samples.length, SAMPLE_RATE, samples);
+                }
+            };
+
+            float diff = maxDifference(input, new LegacyPitchShifter(), new PitchShifter(FRAME_SIZE, osamp), osamp);
+            double stepsPerSecond = (double) input.length / (FRAME_SIZE / osamp);
+            time(old, input, WARMUP_NANOS);
+            time(shifter, input, WARMUP_NANOS);
+            double oldRate = 0, newRate = 0;
+            for(int round = 0; round < ROUNDS; round++) {
+                oldRate = Math.max(oldRate, stepsPerSecond * time(old, input, MEASURE_NANOS));
+                newRate = Math.max(newRate, stepsPerSecond * time(shifter, input, MEASURE_NANOS));
+            }
+            System.out.println(String.format(Locale.US, "%-8d %6d %14.0f %14.0f %7.2fx %10.2e",
+                    FRAME_SIZE, osamp, oldRate, newRate, newRate / oldRate, diff));
+        }
+    }
+
+    /**
+     * @return how many times a second the shifter got through the input
+     */
+    private static double time(Shifter shifter, float[] input, long forNanos) {
+        float[] samples = new float[input.length];
+        int calls = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            System.arraycopy(input, 0, samples, 0, input.length);
+            shifter.shift(samples);
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < forNanos);
+        return calls / (elapsed / 1e9);
+    }
+
+    private static float maxDifference(float[] input, LegacyPitchShifter legacy, PitchShifter current, int osamp) {
+        float[] expected = input.clone(), actual = input.clone();
+        legacy.pitchShift(SHIFT, expected.length, FRAME_SIZE, osamp, SAMPLE_RATE, expected);
+        current.pitchShift(SHIFT, actual.length, SAMPLE_RATE, actual);
+        float result = 0;
+        for(int i = 0; i < input.length; i++)
+            result = Math.max(result, Math.abs(expected[i] - actual[i]));
+        return result;
+    }
+
+    /**
+     * @return an A minor triad with a few harmonics, at a quarter of full scale
+     */
+    private static float[] chord(int length) {
+        double[] frequencies = { 220, 261.63, 329.63 };
+        float[] result = new float[length];
+        for(int i = 0; i < length; i++) {
+            double t = i / (double) SAMPLE_RATE, sample = 0;
+            for(double f : frequencies)
+                for(int harmonic = 1; harmonic <= 4; harmonic++)
+                    sample += Math.sin(2 * Math.PI * f * harmonic * t) / harmonic;
+            result[i] = (float) (.25 * sample / (2 * frequencies.length));
+        }
+        return result;
+    }
+
+    /**
+     * The shifter as it was before it was made per-stream: windowing with Math.cos every sample and a
+     * full-length complex FFT that works out its twiddle factors and bit reversal as it goes.  Its
+     * state is moved from static fields into the instance so the cases can't disturb each other; the
+     * arithmetic is unchanged.
+     */
+    private static class LegacyPitchShifter {
+        private static final int MAX_FRAME_LENGTH = 16000;
+        private final float[] gInFIFO = new float[MAX_FRAME_LENGTH];
+        private final float[] gOutFIFO = new float[MAX_FRAME_LENGTH];
+        private final float[] gFFTworksp = new float[2 * MAX_FRAME_LENGTH];
+        private final float[] gLastPhase = new float[MAX_FRAME_LENGTH / 2 + 1];
+        private final float[] gSumPhase = new float[MAX_FRAME_LENGTH / 2 + 1];
+        private final float[] gOutputAccum = new float[2 * MAX_FRAME_LENGTH];
+        private final float[] gAnaFreq = new float[MAX_FRAME_LENGTH];
+        private final float[] gAnaMagn = new float[MAX_FRAME_LENGTH];
+        private final float[] gSynFreq = new float[MAX_FRAME_LENGTH];
+        private final float[] gSynMagn = new float[MAX_FRAME_LENGTH];
+        private long gRover;
+
+        void pitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
+                        long osamp, float sampleRate, float[] indata) {
+            double magn, phase, tmp, window, real, imag;
+            double freqPerBin, expct;
+            long i, k, qpd, index, inFifoLatency, stepSize, fftFrameSize2;
+
+            float[] outdata = indata;
+            fftFrameSize2 = fftFrameSize / 2;
+            stepSize = fftFrameSize / osamp;
+            freqPerBin = sampleRate / (double)fftFrameSize;
+            expct = 2.0 * Math.PI * (double)stepSize / (double)fftFrameSize;
+            inFifoLatency = fftFrameSize - stepSize;
+            if (gRover == 0) gRover = inFifoLatency;
+
+            for (i = 0; i < numSampsToProcess; i++)
+            {
+                gInFIFO[(int)(gRover)] = indata[(int)(i)];
+                outdata[(int)(i)] = gOutFIFO[(int)(gRover - inFifoLatency)];
+                gRover++;
+
+                if (gRover >= fftFrameSize)
+                {
+                    gRover = inFifoLatency;
+
+                    for (k = 0; k < fftFrameSize; k++)
+                    {
+                        window = -.5 * Math.cos(2.0 * Math.PI * (double) k / (double) fftFrameSize) + .5;
+                        gFFTworksp[(int)(2 * k)] = (float)(gInFIFO[(int)(k)] * window);
+                        gFFTworksp[(int)(2 * k + 1)] = 0.0F;
+                    }
+
+                    shortTimeFourierTransform(gFFTworksp, fftFrameSize, -1);
+
+                    for (k = 0; k <= fftFrameSize2; k++)
+                    {
+                        real = gFFTworksp[(int)(2 * k)];
+                        imag = gFFTworksp[(int)(2 * k + 1)];
+
+                        magn = 2.0 * Math.sqrt(real * real + imag * imag);
+                        phase = Math.atan2(imag, real);
+
+                        tmp = phase - gLastPhase[(int)(k)];
+                        gLastPhase[(int)(k)] = (float)phase;
+                        tmp -= (double)k * expct;
+
+                        qpd = (long)(tmp / Math.PI);
+                        if (qpd >= 0) qpd += qpd & 1;
+                        else qpd -= qpd & 1;
+                        tmp -= Math.PI * (double)qpd;
+
+                        tmp = osamp * tmp / (2.0 * Math.PI);
+                        tmp = (double)k * freqPerBin + tmp * freqPerBin;
+
+                        gAnaMagn[(int)(k)] = (float)magn;
+                        gAnaFreq[(int)(k)] = (float)tmp;
+                    }
+
+                    for (int zero = 0; zero < fftFrameSize; zero++)
+                    {
+                        gSynMagn[zero] = 0;
+                        gSynFreq[zero] = 0;
+                    }
+
+                    for (k = 0; k <= fftFrameSize2; k++)
+                    {
+                        index = (long)(k * pitchShift);
+                        if (index <= fftFrameSize2)
+                        {
+                            gSynMagn[(int)(index)] += gAnaMagn[(int)(k)];
+                            gSynFreq[(int)(index)] = gAnaFreq[(int)(k)] * pitchShift;
+                        }
+                    }
+
+                    for (k = 0; k <= fftFrameSize2; k++)
+                    {
+                        magn = gSynMagn[(int)(k)];
+                        tmp = gSynFreq[(int)(k)];
+
+                        tmp -= (double)k * freqPerBin;
+                        tmp /= freqPerBin;
+                        tmp = 2.0 * Math.PI * tmp / osamp;
+                        tmp += (double)k * expct;
+
+                        gSumPhase[(int)(k)] += (float)tmp;
+                        phase = gSumPhase[(int)(k)];
+
+                        gFFTworksp[(int)(2 * k)] = (float)(magn * Math.cos(phase));
+                        gFFTworksp[(int)(2 * k + 1)] = (float)(magn * Math.sin(phase));
+                    }
+
+                    for (k = fftFrameSize + 2; k < 2 * fftFrameSize; k++) gFFTworksp[(int)(k)] = 0.0F;
+
+                    shortTimeFourierTransform(gFFTworksp, fftFrameSize, 1);
+
+                    for (k = 0; k < fftFrameSize; k++)
+                    {
+                        window = -.5 * Math.cos(2.0 * Math.PI * (double) k / (double) fftFrameSize) + .5;
+                        gOutputAccum[(int)(k)] += (float)(2.0 * window * gFFTworksp[(int)(2 * k)] / (fftFrameSize2 * osamp));
+                    }
+                    for (k = 0; k < stepSize; k++) gOutFIFO[(int)(k)] = gOutputAccum[(int)(k)];
+
+                    for (k = 0; k < fftFrameSize; k++)
+                    {
+                        gOutputAccum[(int)(k)] = gOutputAccum[(int)(k + stepSize)];
+                    }
+
+                    for (k = 0; k < inFifoLatency; k++) gInFIFO[(int)(k)] = gInFIFO[(int)(k + stepSize)];
+                }
+            }
+        }
+
+        private static void shortTimeFourierTransform(float[] fftBuffer, long fftFrameSize, long sign) {
+            float wr, wi, arg, temp;
+            float tr, ti, ur, ui;
+            long i, bitm, j, le, le2, k;
+
+            for (i = 2; i < 2 * fftFrameSize - 2; i += 2)
+            {
+                for (bitm = 2, j = 0; bitm < 2 * fftFrameSize; bitm <<= 1)
+                {
+                    if ((i & bitm) != 0) j++;
+                    j <<= 1;
+                }
+                if (i < j)
+                {
+                    temp = fftBuffer[(int)(i)];
+                    fftBuffer[(int)(i)] = fftBuffer[(int)(j)];
+                    fftBuffer[(int)(j)] = temp;
+                    temp = fftBuffer[(int)(i + 1)];
+                    fftBuffer[(int)(i + 1)] = fftBuffer[(int)(j + 1)];
+                    fftBuffer[(int)(j + 1)] = temp;
+                }
+            }
+            long max = (long)(Math.log(fftFrameSize) / Math.log(2.0) + .5);
+            for (k = 0, le = 2; k < max; k++)
+            {
+                le <<= 1;
+                le2 = le >> 1;
+                ur = 1.0F;
+                ui = 0.0F;
+                arg = (float)Math.PI / (le2 >> 1);
+                wr = (float)Math.cos(arg);
+                wi = (float)(sign * Math.sin(arg));
+                for (j = 0; j < le2; j += 2)
+                {
+                    for (i = j; i < 2 * fftFrameSize; i += le)
+                    {
+                        tr = fftBuffer[(int)(i + le2)] * ur - fftBuffer[(int)(i + le2 + 1)] * ui;
+                        ti = fftBuffer[(int)(i + le2)] * ui + fftBuffer[(int)(i + le2 + 1)] * ur;
+                        fftBuffer[(int)(i + le2)] = fftBuffer[(int)i] - tr;
+                        fftBuffer[(int)(i + le2 + 1)] = fftBuffer[(int)(i + 1)] - ti;
+                        fftBuffer[(int)(i)] += tr;
+                        fftBuffer[(int)(i + 1)] += ti;
+                    }
+                    tr = ur * wr - ui * wi;
+                    ui = ur * wi + ui * wr;
+                    ur = tr;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.jonlatane.composer.audio.generator;
+
+import static org.junit.Assert.assertFalse;
+
+import com.jonlatane.composer.audio.wav.WavWriter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class PitchShifterGeneratorTest {
+    @Test
+    public void hashCodeCoversEveryByteOfTheRootNotes() throws IOException {
+        File f = File.createTempFile("root", ".wav");
+        try {
+            WavWriter w = new WavWriter(f, 44100, 1, 16);
+            try {
+                w.write(new float[64]);
+            } finally {
+                w.close();
+            }
+            // These differ only above the low byte
+            int a = new PitchShifterGenerator(Collections.singletonMap(0, f)).hashCode();
+            int b = new PitchShifterGenerator(Collections.singletonMap(256, f)).hashCode();
+            assertFalse(a == b);
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jonlatane.composer.audio.pitch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.jonlatane.composer.music.harmony.Chord;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The fixtures are synthesized at 11025Hz, each chord 1.5 seconds long, and end with half a second of
+ * silence.  organ.wav holds block chords of six harmonics steady; strummed.wav staggers each chord's
+ * notes 12ms apart and lets them decay, the upper harmonics faster, over a little noise.
+ */
+public class ChordRecognizerTest {
+    private static final float SAMPLE_RATE = 11025;
+    private static final double CHORD_SECONDS = 1.5;
+    /** Reports may come this late: the window must fill with the chord, and hops agree on it */
+    private static final double LATENCY_SECONDS = .3;
+
+    private static final class Heard {
+        final List<Integer> PITCH_CLASSES = new ArrayList<Integer>();
+        final Integer ROOT;
+        final String NAME;
+        final double SECONDS;
+
+        Heard(Chord chord, String name, long sample) {
+            for(int pc : chord)
+                PITCH_CLASSES.add(pc);
+            ROOT = chord.getRoot();
+            NAME = name;
+            SECONDS = sample / SAMPLE_RATE;
+        }
+    }
+
+    @Test
+    public void namesBlockChords() throws Exception {
+        List<Heard> heard = recognize("organ.wav");
+        assertProgression(heard,
+                new String[] {"C", "A-", "F", "G7"},
+                new int[][] {{0, 4, 7}, {0, 4, 9}, {0, 5, 9}, {2, 5, 7, 11}},
+                new int[] {0, 9, 5, 7});
+    }
+
+    @Test
+    public void namesStrummedChords() throws Exception {
+        List<Heard> heard = recognize("strummed.wav");
+        assertProgression(heard,
+                new String[] {"D", "B-", "G", "A7"},
+                new int[][] {{2, 6, 9}, {2, 6, 11}, {2, 7, 11}, {1, 4, 7, 9}},
+                new int[] {2, 11, 7, 9});
+    }
+
+    private void assertProgression(List<Heard> heard, String[] names, int[][] pitchClasses, int[] roots) {
+        assertEquals("one change per chord, then silence", names.length + 1, heard.size());
+        for(int i = 0; i < names.length; i++) {
+            Heard h = heard.get(i);
+            assertEquals(names[i], h.NAME);
+            assertEquals(names[i], toList(pitchClasses[i]), h.PITCH_CLASSES);
+            assertEquals(names[i], Integer.valueOf(roots[i]), h.ROOT);
+            assertHeardAt(names[i], i * CHORD_SECONDS, h.SECONDS);
+        }
+        Heard silence = heard.get(names.length);
+        assertTrue(silence.PITCH_CLASSES.isEmpty());
+        assertEquals("", silence.NAME);
+        assertHeardAt("silence", names.length * CHORD_SECONDS, silence.SECONDS);
+    }
+
+    private static void assertHeardAt(String what, double expected, double actual) {
+        assertTrue(what + " heard at " + actual + "s, not " + expected + "s",
+                actual >= expected - .1 && actual <= expected + LATENCY_SECONDS);
+    }
+
+    private List<Heard> recognize(String fixture) throws Exception {
+        final List<Heard> result = new ArrayList<Heard>();
+        ChordRecognizer recognizer = new ChordRecognizer(SAMPLE_RATE, new ChordRecognizer.Listener() {
+            @Override
+            public void onChordChanged(Chord chord, String name, long sample) {
+                result.add(new Heard(chord, name, sample));
+            }
+        });
+        recognizer.recognize(new File(getClass().getResource(fixture).toURI()));
+        return result;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for(int i = 0; i < values.length; i++)
+            boxed[i] = values[i];
+        return Arrays.asList(boxed);
+    }
+}
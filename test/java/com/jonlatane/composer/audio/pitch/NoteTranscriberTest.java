@@ -0,0 +1,112 @@
+package com.jonlatane.composer.audio.pitch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jonlatane.composer.audio.render.ScoreTimeline;
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.coverings.TimeSignature;
+import com.jonlatane.composer.music.harmony.PitchSet;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fixtures are synthesized at 22050Hz, 120 quarters per minute: four harmonics with a 15ms attack
+ * and 30ms release.  vibrato.wav adds 35 cents of vibrato at 5.5Hz and breath noise.
+ */
+public class NoteTranscriberTest {
+    private static final float SAMPLE_RATE = 22050;
+    private static final int SIXTEENTHS = 4;
+
+    private Score score;
+    private Score.Staff.Voice voice;
+    private NoteTranscriber transcriber;
+
+    @Before
+    public void setUp() {
+        score = new Score(new TimeSignature(4, 4), 8);
+        voice = score.newStaff().newVoice();
+        transcriber = new NoteTranscriber(voice, new ScoreTimeline(score, 120), Rational.ONE, SIXTEENTHS,
+                SAMPLE_RATE);
+    }
+
+    @Test
+    public void transcribesAScale() throws Exception {
+        transcriber.transcribe(fixture("scale.wav"));
+        Map<Rational, PitchSet> expected = new LinkedHashMap<Rational, PitchSet>();
+        expected.put(beat(1, 1), new PitchSet(0));
+        expected.put(beat(2, 1), new PitchSet(2));
+        expected.put(beat(3, 1), new PitchSet(4));
+        expected.put(beat(7, 2), new PitchSet(5));
+        expected.put(beat(4, 1), new PitchSet(7));
+        expected.put(beat(6, 1), PitchSet.REST);
+        expected.put(beat(7, 1), new PitchSet(-3));
+        expected.put(beat(8, 1), new PitchSet(-1));
+        expected.put(beat(9, 1), new PitchSet(0));
+        expected.put(beat(11, 1), PitchSet.REST);
+        assertTranscribed(expected);
+    }
+
+    @Test
+    public void transcribesThroughVibratoAndNoise() throws Exception {
+        transcriber.transcribe(fixture("vibrato.wav"));
+        Map<Rational, PitchSet> expected = new LinkedHashMap<Rational, PitchSet>();
+        expected.put(beat(1, 1), new PitchSet(4));
+        expected.put(beat(2, 1), new PitchSet(7));
+        expected.put(beat(3, 1), new PitchSet(9));
+        expected.put(beat(4, 1), new PitchSet(7));
+        expected.put(beat(5, 1), PitchSet.REST);
+        expected.put(beat(6, 1), new PitchSet(4));
+        expected.put(beat(8, 1), new PitchSet(2));
+        expected.put(beat(9, 1), new PitchSet(0));
+        expected.put(beat(11, 1), PitchSet.REST);
+        assertTranscribed(expected);
+    }
+
+    @Test
+    public void aNoteOnTheGridLineOfOneTooShortReplacesItsRest() {
+        long sixteenth = (long) (SAMPLE_RATE / 8);
+        // A blip too short for the grid, kept a sixteenth long, then a note from the same grid line
+        transcriber.onNoteOn(0, 0);
+        transcriber.onNoteOff(0, sixteenth / 5);
+        transcriber.onNoteOn(2, sixteenth / 4);
+        transcriber.onNoteOff(2, 8 * sixteenth);
+        Map<Rational, PitchSet> expected = new LinkedHashMap<Rational, PitchSet>();
+        expected.put(beat(1, 1), new PitchSet(2));
+        expected.put(beat(3, 1), PitchSet.REST);
+        assertTranscribed(expected);
+    }
+
+    @Test
+    public void aNoteTooShortForTheGridIsKept() {
+        long sixteenth = (long) (SAMPLE_RATE / 8);
+        transcriber.onNoteOn(0, 4 * sixteenth);
+        transcriber.onNoteOff(0, 4 * sixteenth + sixteenth / 5);
+        Map<Rational, PitchSet> expected = new LinkedHashMap<Rational, PitchSet>();
+        expected.put(beat(2, 1), new PitchSet(0));
+        expected.put(beat(9, 4), PitchSet.REST);
+        assertTranscribed(expected);
+    }
+
+    private void assertTranscribed(Map<Rational, PitchSet> expected) {
+        Map<Rational, PitchSet> actual = new LinkedHashMap<Rational, PitchSet>();
+        for(Rational r : voice.getNotes().getRhythm())
+            if(r.compareTo(Rational.ONE) >= 0)
+                actual.put(r, voice.getNotes().getObjectAt(r));
+        assertEquals(expected, actual);
+    }
+
+    private static Rational beat(int numerator, int denominator) {
+        return new Rational(numerator, denominator);
+    }
+
+    private File fixture(String name) throws URISyntaxException {
+        return new File(getClass().getResource(name).toURI());
+    }
+}
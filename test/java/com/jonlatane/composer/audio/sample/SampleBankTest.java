@@ -0,0 +1,97 @@
+package com.jonlatane.composer.audio.sample;
+
+import static org.junit.Assert.assertEquals;
+
+import com.jonlatane.composer.audio.wav.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+public class SampleBankTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("SampleBankTest", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private void writeSample(String name) throws IOException {
+        WavWriter w = new WavWriter(new File(dir, name), 22050, 1, 16);
+        try {
+            w.write(new float[256]);
+        } finally {
+            w.close();
+        }
+    }
+
+    @Test
+    public void namesWithAccidentalsKeepTheirOctave() throws IOException {
+        writeSample("piano-C3.wav");
+        writeSample("piano-F#3.wav");
+        writeSample("piano-F#3ff.wav");
+        File manifest = new File(dir, "bank.txt");
+        FileWriter out = new FileWriter(manifest);
+        try {
+            out.write("# file          low  high  root  [lowVelocity highVelocity]\n");
+            out.write("piano-C3.wav    A2   D#3   C3\n");
+            out.write("piano-F#3.wav   E3   A3    F#3   0  79\n");
+            out.write("piano-F#3ff.wav Bb2  A3    Gb3   80 127\n");
+            out.write("piano-C3.wav    -30  -25   -24\n");
+        } finally {
+            out.close();
+        }
+
+        List<KeyZone> zones = SampleBank.load(manifest).getZones();
+        assertEquals(4, zones.size());
+
+        assertEquals(-15, zones.get(0).LOW_NOTE);
+        assertEquals(-9, zones.get(0).HIGH_NOTE);
+        assertEquals(-12, zones.get(0).ROOT_NOTE);
+
+        assertEquals(-8, zones.get(1).LOW_NOTE);
+        assertEquals(-3, zones.get(1).HIGH_NOTE);
+        assertEquals(-6, zones.get(1).ROOT_NOTE);
+        assertEquals(79, zones.get(1).HIGH_VELOCITY);
+
+        assertEquals(-14, zones.get(2).LOW_NOTE);
+        assertEquals(-6, zones.get(2).ROOT_NOTE);
+        assertEquals(80, zones.get(2).LOW_VELOCITY);
+
+        assertEquals(-30, zones.get(3).LOW_NOTE);
+        assertEquals(-24, zones.get(3).ROOT_NOTE);
+    }
+
+    @Test
+    public void zonesAreFoundByNoteAndVelocity() throws IOException {
+        writeSample("piano-F#3.wav");
+        writeSample("piano-F#3ff.wav");
+        File manifest = new File(dir, "bank.txt");
+        FileWriter out = new FileWriter(manifest);
+        try {
+            out.write("piano-F#3.wav   E3   A3    F#3   0  79\n");
+            out.write("piano-F#3ff.wav E3   A3    F#3   80 127\n");
+        } finally {
+            out.close();
+        }
+
+        SampleBank bank = SampleBank.load(manifest);
+        assertEquals(0, bank.zoneFor(-6, 64).INDEX);
+        assertEquals(1, bank.zoneFor(-6, 100).INDEX);
+        assertEquals(null, bank.zoneFor(-9, 64));
+    }
+}
@@ -0,0 +1,53 @@
+package com.jonlatane.composer.audio.wav;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class WavReaderTest {
+    private static final int FRAMES = 100;
+
+    /**
+     * A mono 16-bit WAV of silence whose last chunk is a smpl chunk of the given size, claiming one loop
+     * from 10 to 49.  Reading a loop the chunk is too short for would run off the end of the file.
+     */
+    private static ByteBuffer wavWithSmpl(int smplSize) {
+        ByteBuffer b = ByteBuffer.allocate(12 + 24 + 8 + 2 * FRAMES + 8 + smplSize).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt(b.capacity() - 8).putInt(0x45564157);
+        b.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1).putInt(22050).putInt(44100)
+                .putShort((short) 2).putShort((short) 16);
+        b.putInt(0x61746164).putInt(2 * FRAMES);
+        for(int i = 0; i < FRAMES; i++)
+            b.putShort((short) 7);
+        b.putInt(0x6c706d73).putInt(smplSize);
+        int body = b.position();
+        b.putInt(body + 28, 1);
+        if(smplSize >= 60) {
+            b.putInt(body + 36 + 8, 10);
+            b.putInt(body + 36 + 12, 49);
+        }
+        b.position(b.capacity());
+        b.flip();
+        return b;
+    }
+
+    @Test
+    public void readsTheFirstLoop() throws IOException {
+        WavReader wav = new WavReader(wavWithSmpl(60));
+        assertEquals(FRAMES, wav.getNumFrames());
+        assertEquals(10, wav.getLoopStart());
+        assertEquals(50, wav.getLoopEnd());
+    }
+
+    @Test
+    public void ignoresATruncatedLoop() throws IOException {
+        WavReader wav = new WavReader(wavWithSmpl(44));
+        assertEquals(FRAMES, wav.getNumFrames());
+        assertEquals(-1, wav.getLoopStart());
+        assertEquals(-1, wav.getLoopEnd());
+    }
+}
@@ -0,0 +1,94 @@
+package com.jonlatane.composer.io.midi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds captured MIDI byte streams through a {@link MidiParser} and {@link MidiKeyboardState} as fast
+ * as they will go, and reports how fast that was.  Captures are raw bytes as a controller sends them,
+ * not Standard MIDI Files.  It's a tool rather than a test, kept with the tests so it stays out of
+ * the APK; run it on the unit test classpath:
+ *
+ * <pre>
+ * java com.jonlatane.composer.io.midi.MidiReplay [-n passes] [-harmonic] capture.mid...
+ * </pre>
+ */
+public class MidiReplay {
+	private static final int DEFAULT_PASSES = 100;
+
+	public static void main(String[] args) throws IOException {
+		int passes = DEFAULT_PASSES;
+		boolean harmonic = false;
+		int i = 0;
+		for(; i < args.length && args[i].startsWith("-"); i++) {
+			if(args[i].equals("-n"))
+				passes = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-harmonic"))
+				harmonic = true;
+			else
+				usage();
+		}
+		if(i == args.length)
+			usage();
+		for(; i < args.length; i++)
+			replay(new File(args[i]), passes, harmonic);
+	}
+
+	private static void usage() {
+		System.err.println("Usage: MidiReplay [-n passes] [-harmonic] capture...");
+		System.exit(1);
+	}
+
+	/**
+	 * Parse a capture repeatedly from memory, so only parsing is timed.  The first pass warms up the
+	 * JIT and isn't counted.
+	 */
+	private static void replay(File f, int passes, boolean harmonic) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(readFully(f));
+		MidiKeyboardState state = new MidiKeyboardState();
+		if(harmonic)
+			state.harmonicModeOn();
+		MidiParser parser = new MidiParser(state);
+
+		parser.parse(bytes);
+		long warmupMessages = parser.getMessageCount();
+		long start = System.nanoTime();
+		for(int pass = 0; pass < passes; pass++) {
+			bytes.rewind();
+			// A capture may end partway through a message; don't let it run into the next pass
+			parser.reset();
+			parser.parse(bytes);
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+
+		double seconds = elapsed / 1e9;
+		long messages = parser.getMessageCount() - warmupMessages;
+		System.out.println(f.getName() + ": " + bytes.capacity() + " bytes x " + passes + " passes in "
+				+ String.format("%.3f", seconds) + " s");
+		System.out.println(String.format("  %.1f MB/s, %.0f messages/s, %.1f ns/message",
+				(double) bytes.capacity() * passes / seconds / 1e6, messages / seconds,
+				messages == 0 ? 0 : elapsed / (double) messages));
+		System.out.println("  Finally holding " + state.getPressedKeys()
+				+ (state.getHarmonicRoot() == MidiKeyboardState.NO_ROOT ? "" : " with root " + state.getHarmonicRoot()));
+	}
+
+	private static byte[] readFully(File f) throws IOException {
+		byte[] result = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try {
+			int read = 0;
+			while(read < result.length) {
+				int n = in.read(result, read, result.length - read);
+				if(n < 0)
+					throw new IOException("Unexpected end of " + f);
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+}
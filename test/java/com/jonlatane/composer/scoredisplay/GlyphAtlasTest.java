@@ -0,0 +1,36 @@
+package com.jonlatane.composer.scoredisplay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class GlyphAtlasTest {
+	@Test
+	public void sizesRoundUpToARung() {
+		for(float size = 3; size < 100; size += .37f) {
+			int rung = GlyphAtlas.rungFor(size);
+			assertTrue(size + " fits its rung", GlyphAtlas.sizeOf(rung) >= size * .9999f);
+			assertTrue(size + " is on the smallest rung that fits", GlyphAtlas.sizeOf(rung - 1) < size);
+		}
+	}
+
+	@Test
+	public void rungsAreThemselves() {
+		for(int rung = -8; rung < 12; rung++)
+			assertEquals(rung, GlyphAtlas.rungFor(GlyphAtlas.sizeOf(rung)));
+		assertEquals(0, GlyphAtlas.rungFor(14));
+	}
+
+	@Test
+	public void zoomingAcrossTheWholeRangeUsesFewRungs() {
+		Set<Integer> rungs = new HashSet<Integer>();
+		// Pinch-zooming from ScoreLayout's smallest scale to its largest, a little each frame
+		for(double scale = .35; scale <= 5; scale *= 1.003)
+			rungs.add(GlyphAtlas.rungFor((float)(14 * scale)));
+		assertTrue(rungs.size() + " rungs", rungs.size() <= 17);
+	}
+}
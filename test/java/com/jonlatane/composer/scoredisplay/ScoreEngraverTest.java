@@ -0,0 +1,160 @@
+package com.jonlatane.composer.scoredisplay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jonlatane.composer.music.Rational;
+import com.jonlatane.composer.music.Score;
+import com.jonlatane.composer.music.Score.ScoreDelta;
+import com.jonlatane.composer.music.coverings.Clef;
+import com.jonlatane.composer.music.coverings.TimeSignature;
+import com.jonlatane.composer.music.harmony.PitchSet;
+import com.jonlatane.composer.scoredisplay.StaffSpec.VerticalStaffSpec;
+
+public class ScoreEngraverTest {
+	private static final String TREBLE_CLEF = "\uD834\uDD1E", BASS_CLEF = "\uD834\uDD22", QUARTER_REST = "\uD834\uDD3D";
+
+	private Score _score;
+
+	@Before
+	public void setUp() {
+		// Two bars of 4/4: C4, a quarter rest, a half note D4, then a bar's rest; the bass staff rests
+		_score = new Score(new TimeSignature(4, 4), 2);
+		Score.Staff treble = _score.newStaff();
+		_score.newStaff(Clef.bass()).newVoice();
+		Score.Staff.Voice melody = treble.newVoice();
+		melody.getNotes().put(new Rational(1, 1), PitchSet.toPitchSet("C4"));
+		melody.getNotes().put(new Rational(2, 1), PitchSet.REST);
+		melody.getNotes().put(new Rational(3, 1), PitchSet.toPitchSet("D4"));
+		melody.getNotes().put(new Rational(5, 1), PitchSet.REST);
+		Score.fillEnharmonics(_score);
+	}
+
+	@Test
+	public void deltasAreLaidEndToEndAfterEachHeader() {
+		for(int width : new int[] {900, 400, 250}) {
+			ScoreEngraver e = new ScoreEngraver(_score);
+			e.setWidth(width, 1);
+			e.engrave();
+			assertTrue(e.getSystemCount() > 0);
+			int system = -1;
+			for(int i = 0; i < e.getDeltaCount(); i++) {
+				int s = e.getSystemOf(i);
+				if(s != system) {
+					assertEquals("systems go in order", system + 1, s);
+					assertEquals(i, firstDeltaOf(e, s));
+					assertEquals(ScoreEngraver.systemHeaderWidth(1), e.getDeltaLeft(i), 0);
+					system = s;
+				} else {
+					assertEquals(e.getDeltaRight(i - 1), e.getDeltaLeft(i), 0);
+				}
+				assertTrue(e.getDeltaRight(i) > e.getDeltaLeft(i));
+				assertTrue(e.getDeltaRight(i) <= width);
+			}
+			assertEquals(e.getSystemCount() - 1, system);
+		}
+	}
+
+	@Test
+	public void deltasAreFoundByLocation() {
+		ScoreEngraver e = engrave(900);
+		Iterator<ScoreDelta> itr = _score.scoreIterator(Rational.ZERO);
+		int i = 0;
+		while(itr.hasNext()) {
+			ScoreDelta d = itr.next();
+			assertEquals(i, e.getDeltaAt(d.LOCATION));
+			assertEquals(i, e.getDeltaAt(d.LOCATION.plus(new Rational(1, 64))));
+			i++;
+		}
+		assertEquals(i, e.getDeltaCount());
+		assertEquals(-1, e.getDeltaAt(new Rational(-1, 1)));
+	}
+
+	@Test
+	public void systemsAreAsTallAsTheirStaffSpecs() {
+		ScoreEngraver e = engrave(250);
+		for(int s = 0; s < e.getSystemCount(); s++) {
+			VerticalStaffSpec[] specs = e.getSystemStaffSpecs(s);
+			assertEquals(2, specs.length);
+			assertEquals(specs[0].getTotalHeight() + specs[1].getTotalHeight(), e.getSystemHeight(s), 0);
+		}
+	}
+
+	@Test
+	public void everySystemStartsWithItsClefs() {
+		ScoreEngraver e = engrave(250);
+		assertTrue(e.getSystemCount() > 1);
+		for(int s = 0; s < e.getSystemCount(); s++) {
+			DisplayList list = e.getSystem(s);
+			float treble = -1, bass = -1;
+			for(int i = 0; i < list.size(); i++) {
+				if(list.getOp(i) != DisplayList.TEXT)
+					continue;
+				if(TREBLE_CLEF.equals(list.getText(i)))
+					treble = list.getY1(i);
+				else if(BASS_CLEF.equals(list.getText(i)))
+					bass = list.getY1(i);
+			}
+			assertTrue("system " + s + " has a treble clef", treble >= 0);
+			assertTrue("system " + s + " has a bass clef below it", bass > treble);
+			assertTrue(treble < e.getSystemHeight(s) && bass < e.getSystemHeight(s));
+		}
+	}
+
+	@Test
+	public void restsAreEngravedInTheirDeltas() {
+		ScoreEngraver e = engrave(900);
+		int quarterRest = e.getDeltaAt(new Rational(2, 1)), barRest = e.getDeltaAt(new Rational(5, 1));
+		assertEquals(1, countInDelta(e, quarterRest, DisplayList.TEXT, QUARTER_REST));
+		// A whole bar's rest is a block hanging from the fourth line
+		assertEquals(1, countInDelta(e, barRest, DisplayList.RECT, null));
+		// The bass staff rests from the pickup on, but no rest starts there
+		assertEquals(0, countInDelta(e, e.getDeltaAt(new Rational(3, 1)), DisplayList.RECT, null));
+	}
+
+	@Test
+	public void rescalingMatchesEngravingAtTheNewScale() {
+		ScoreEngraver rescaled = engrave(400);
+		for(double scale : new double[] {1.7, .6}) {
+			rescaled.setWidth(400, scale);
+			rescaled.engrave();
+			ScoreEngraver fresh = new ScoreEngraver(_score);
+			fresh.setWidth(400, scale);
+			fresh.engrave();
+			assertEquals(fresh.getSystemCount(), rescaled.getSystemCount());
+			for(int s = 0; s < fresh.getSystemCount(); s++) {
+				assertEquals(fresh.getSystemHeight(s), rescaled.getSystemHeight(s), 0);
+				assertEquals(-1, fresh.getSystem(s).firstDifference(rescaled.getSystem(s)));
+			}
+		}
+	}
+
+	private ScoreEngraver engrave(int width) {
+		ScoreEngraver e = new ScoreEngraver(_score);
+		e.setWidth(width, 1);
+		e.engrave();
+		return e;
+	}
+
+	private static int firstDeltaOf(ScoreEngraver e, int system) {
+		int i = 0;
+		while(e.getSystemOf(i) < system)
+			i++;
+		return i;
+	}
+
+	private static int countInDelta(ScoreEngraver e, int delta, int op, String text) {
+		DisplayList list = e.getSystem(e.getSystemOf(delta));
+		int result = 0;
+		for(int i = 0; i < list.size(); i++)
+			if(list.getOp(i) == op && (text == null || text.equals(list.getText(i)))
+					&& list.getX1(i) >= e.getDeltaLeft(delta) && list.getX1(i) < e.getDeltaRight(delta))
+				result++;
+		return result;
+	}
+}